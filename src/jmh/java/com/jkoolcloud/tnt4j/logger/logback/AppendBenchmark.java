@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+
+import ch.qos.logback.classic.LoggerContext;
+
+/**
+ * JMH benchmarks of {@link TNT4JAppender} append hot path, run by {@code jmh} Maven profile:
+ * {@code mvn -Pjmh verify}. Events are reported to TNT4J {@code NullEventSink}, so benchmarks measure appender and
+ * TNT4J tracker overhead without any I/O. Benchmarks run with 1, 4 and all available threads, see nested classes.
+ * Additional JMH options can be passed using {@code jmh.args} property, e.g.
+ * {@code mvn -Pjmh verify -Djmh.args="-prof gc -f 1 AppendBenchmark.Single"}.
+ *
+ * @version $Revision: 1 $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class AppendBenchmark {
+	private static final String TNT4J_CONFIG = "inline:{\n" //
+			+ "source: *\n" //
+			+ "source.factory: com.jkoolcloud.tnt4j.source.SourceFactoryImpl\n" //
+			+ "source.factory.RootFQN: RUNTIME=?#SERVER=?\n" //
+			+ "tracker.factory: com.jkoolcloud.tnt4j.tracker.DefaultTrackerFactory\n" //
+			+ "dump.sink.factory: com.jkoolcloud.tnt4j.dump.DefaultDumpSinkFactory\n" //
+			+ "event.sink.factory: com.jkoolcloud.tnt4j.sink.impl.NullEventSinkFactory\n" //
+			+ "event.formatter: com.jkoolcloud.tnt4j.format.SimpleFormatter\n" //
+			+ "tracking.selector: com.jkoolcloud.tnt4j.selector.DefaultTrackingSelector\n" //
+			+ "}";
+
+	private LoggerContext context;
+	private Logger logger;
+	private Exception exception;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		System.setProperty("tnt4j.config", TNT4J_CONFIG);
+		context = new LoggerContext();
+		TNT4JAppender appender = new TNT4JAppender();
+		appender.setContext(context);
+		appender.setName("jmh");
+		appender.setSourceName("com.jkoolcloud.jmh");
+		appender.setMetricsFrequency(0);
+		appender.setJmx(false);
+		appender.start();
+
+		ch.qos.logback.classic.Logger log = context.getLogger(AppendBenchmark.class);
+		log.setLevel(ch.qos.logback.classic.Level.TRACE);
+		log.setAdditive(false);
+		log.addAppender(appender);
+		logger = log;
+		exception = new IllegalStateException("benchmark failure");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.stop();
+	}
+
+	/**
+	 * Per thread state of benchmarks.
+	 */
+	@State(Scope.Thread)
+	public static class Sequence {
+		long value;
+
+		long next() {
+			return value++;
+		}
+	}
+
+	@Benchmark
+	public void plainMessage() {
+		logger.info("Order processed by remote service");
+	}
+
+	@Benchmark
+	public void hashTagMessage() {
+		logger.info("Order processed #cid=order-1 #usr=john #loc=NY #opn=process #%i/order-no=62627"
+				+ " #%d:currency/amount=50.45 #tag=orders #rsn=remote");
+	}
+
+	@Benchmark
+	public void parameterizedMessage(Sequence seq) {
+		logger.info("Order {} processed #cid={} #%d:currency/amount={}", seq.next(), "order", 50.45);
+	}
+
+	@Benchmark
+	public void exceptionMessage() {
+		logger.error("Order processing failed", exception);
+	}
+
+	@Benchmark
+	public void activitySequence() {
+		logger.info("Order started #beg=Order");
+		logger.info("Order processed #cid=order-1");
+		logger.info("Order completed #end=Order");
+	}
+
+	/**
+	 * Benchmarks run by single thread.
+	 */
+	@Threads(1)
+	public static class Single extends AppendBenchmark {
+	}
+
+	/**
+	 * Benchmarks run by 4 concurrent threads.
+	 */
+	@Threads(4)
+	public static class Quad extends AppendBenchmark {
+	}
+
+	/**
+	 * Benchmarks run by as many concurrent threads as there are available processors.
+	 */
+	@Threads(Threads.MAX)
+	public static class Max extends AppendBenchmark {
+	}
+}
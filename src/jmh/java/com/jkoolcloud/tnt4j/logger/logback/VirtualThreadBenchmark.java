@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+
+import ch.qos.logback.classic.LoggerContext;
+
+/**
+ * JMH benchmark of heap retained by {@link TNT4JAppender} per million logging calls made by virtual threads, run by
+ * {@code jmh} Maven profile on Java 21 or later: {@code mvn -Pjmh verify -Djmh.args="VirtualThreadBenchmark"}. Every
+ * invocation starts {@code threads} virtual threads, which log single message each and stay parked, so that any state
+ * kept per logging thread stays reachable. Heap used by the same number of parked virtual threads not logging anything
+ * is subtracted, and the difference scaled to a million of logging threads is reported as {@code bytesPerMillion}
+ * counter. Both modes dispatch events asynchronously, since TNT4J can't report events on virtual threads directly.
+ *
+ * @version $Revision: 1 $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = { "-Xms2g", "-Xmx2g" })
+public class VirtualThreadBenchmark {
+	private static final String TNT4J_CONFIG = "inline:{\n" //
+			+ "source: *\n" //
+			+ "source.factory: com.jkoolcloud.tnt4j.source.SourceFactoryImpl\n" //
+			+ "source.factory.RootFQN: RUNTIME=?#SERVER=?\n" //
+			+ "tracker.factory: com.jkoolcloud.tnt4j.tracker.DefaultTrackerFactory\n" //
+			+ "dump.sink.factory: com.jkoolcloud.tnt4j.dump.DefaultDumpSinkFactory\n" //
+			+ "event.sink.factory: com.jkoolcloud.tnt4j.sink.impl.NullEventSinkFactory\n" //
+			+ "event.formatter: com.jkoolcloud.tnt4j.format.SimpleFormatter\n" //
+			+ "tracking.selector: com.jkoolcloud.tnt4j.selector.DefaultTrackingSelector\n" //
+			+ "}";
+
+	@Param({ "false", "true" })
+	boolean virtualThreads;
+
+	@Param("100000")
+	int threads;
+
+	private LoggerContext context;
+	private TNT4JAppender appender;
+	private Logger logger;
+	private ExecutorService executor;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		try {
+			executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException exc) {
+			throw new IllegalStateException("Virtual threads require Java 21 or later, java.version="
+					+ System.getProperty("java.version"));
+		}
+		System.setProperty("tnt4j.config", TNT4J_CONFIG);
+		context = new LoggerContext();
+		appender = new TNT4JAppender();
+		appender.setContext(context);
+		appender.setName("jmh");
+		appender.setSourceName("com.jkoolcloud.jmh");
+		appender.setMetricsFrequency(0);
+		appender.setJmx(false);
+		appender.setAsync(true);
+		appender.setVirtualThreads(virtualThreads);
+		appender.start();
+
+		ch.qos.logback.classic.Logger log = context.getLogger(VirtualThreadBenchmark.class);
+		log.setLevel(ch.qos.logback.classic.Level.TRACE);
+		log.setAdditive(false);
+		log.addAppender(appender);
+		logger = log;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		context.stop();
+	}
+
+	/**
+	 * Heap footprint counters reported along with benchmark time.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+		public long bytesPerMillion;
+	}
+
+	@Benchmark
+	public void parkedLoggers(Footprint footprint) throws InterruptedException {
+		long baseline = retainedHeap(false);
+		long logged = retainedHeap(true);
+		footprint.bytesPerMillion = Math.max(0, logged - baseline) * 1_000_000L / threads;
+	}
+
+	private long retainedHeap(boolean log) throws InterruptedException {
+		CountDownLatch parked = new CountDownLatch(threads);
+		CountDownLatch release = new CountDownLatch(1);
+		for (int i = 0; i < threads; i++) {
+			String correlator = "order-" + i;
+			executor.execute(() -> {
+				if (log) {
+					logger.info("Order processed #cid={}", correlator);
+				}
+				parked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException exc) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}
+		parked.await();
+		// count heap retained by parked threads, not by events still queued for dispatch
+		appender.awaitDispatched();
+		long used = usedHeap();
+		release.countDown();
+		return used;
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
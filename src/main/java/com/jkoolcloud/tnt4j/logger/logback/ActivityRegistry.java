@@ -0,0 +1,381 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.jkoolcloud.tnt4j.tracker.TrackingActivity;
+import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
+
+import ch.qos.logback.core.spi.ContextAware;
+
+/**
+ * Registry of TNT4J activities opened by appender. Activities are bound to the thread which started them, so an
+ * activity of a thread which died or never ends it would stay open forever. Registry sweeper thread closes and reports
+ * activities of dead threads, and expires activities older than maximum age or idle longer than idle timeout, and the
+ * oldest activities when total number of events within open activities exceeds the cap. TNT4J unbinds activity from
+ * its thread only when activity is stopped by that thread, so expired activity of a live thread is closed by its owner
+ * thread on its next logging event, see {@link #isExpired(TrackingActivity)}. Events of such activity are counted as
+ * open until the owner thread closes it, since the activity is still held by its thread, but they don't count towards
+ * the cap any more.
+ * <p>
+ * Activities may be bound to a scope (e.g. correlator) instead of a thread, see
+ * {@link #register(TrackingActivity, String)}. Scoped activities are looked up by scope from any thread, and expired
+ * scoped activities are closed and reported by sweeper thread right away.
+ *
+ * @version $Revision: 1 $
+ */
+final class ActivityRegistry {
+	private static final long MAX_SWEEP_PERIOD_MS = 1000;
+	private static final long MIN_SWEEP_PERIOD_MS = 10;
+
+	private final long maxAgeNanos;
+	private final long idleNanos;
+	private final long maxEvents;
+	private final Consumer<TrackingActivity> closer;
+	private final ContextAware status;
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Entry> scopes = new ConcurrentHashMap<>();
+	private final AtomicLong openEvents = new AtomicLong();
+	private final AtomicLong expiredEvents = new AtomicLong();
+	private final AtomicBoolean sweepPending = new AtomicBoolean();
+	private final ScheduledExecutorService sweeper;
+
+	/**
+	 * Registration of a single activity. Events are reported into activity, and activity is expired and released under
+	 * entry lock.
+	 */
+	private static final class Entry {
+		final TrackingActivity activity;
+		final WeakReference<Thread> owner;
+		final String scope;
+		final Entry parent;
+		final long started;
+		long touched;
+		long events;
+		volatile boolean expired;
+
+		Entry(TrackingActivity activity, String scope, Entry parent) {
+			this.activity = activity;
+			this.owner = scope == null ? new WeakReference<>(Thread.currentThread()) : null;
+			this.scope = scope;
+			this.parent = parent;
+			this.started = System.nanoTime();
+			this.touched = started;
+		}
+
+		boolean isOrphan() {
+			if (owner == null) {
+				return false;
+			}
+			Thread thread = owner.get();
+			return thread == null || !thread.isAlive();
+		}
+	}
+
+	/**
+	 * Create activity registry and start its sweeper.
+	 *
+	 * @param name
+	 *            registry name, used for naming sweeper thread
+	 * @param maxAgeMs
+	 *            maximum activity age in milliseconds, {@code 0} for unlimited
+	 * @param idleMs
+	 *            maximum time in milliseconds activity may stay without new events, {@code 0} for unlimited
+	 * @param maxEvents
+	 *            maximum total number of events within open activities, {@code 0} for unlimited
+	 * @param closer
+	 *            consumer closing and reporting activity of dead thread or expired scoped activity, invoked on sweeper
+	 *            thread
+	 * @param status
+	 *            status manager to report errors
+	 */
+	ActivityRegistry(String name, long maxAgeMs, long idleMs, long maxEvents, Consumer<TrackingActivity> closer,
+			ContextAware status) {
+		this.maxAgeNanos = maxAgeMs > 0 ? TimeUnit.MILLISECONDS.toNanos(maxAgeMs) : Long.MAX_VALUE;
+		this.idleNanos = idleMs > 0 ? TimeUnit.MILLISECONDS.toNanos(idleMs) : Long.MAX_VALUE;
+		this.maxEvents = maxEvents > 0 ? maxEvents : Long.MAX_VALUE;
+		this.closer = closer;
+		this.status = status;
+
+		long period = MAX_SWEEP_PERIOD_MS;
+		if (maxAgeMs > 0) {
+			period = Math.min(period, maxAgeMs / 2);
+		}
+		if (idleMs > 0) {
+			period = Math.min(period, idleMs / 2);
+		}
+		period = Math.max(MIN_SWEEP_PERIOD_MS, period);
+		sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, name + "-activities");
+			thread.setDaemon(true);
+			return thread;
+		});
+		sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Register activity started by calling thread.
+	 *
+	 * @param activity
+	 *            started activity
+	 */
+	void register(TrackingActivity activity) {
+		entries.put(activity.getTrackingId(), new Entry(activity, null, null));
+	}
+
+	/**
+	 * Register activity bound to a given scope rather than to calling thread. Activity registered for a scope already
+	 * having an open activity is nested into it, and becomes the current activity of the scope until it is
+	 * unregistered.
+	 *
+	 * @param activity
+	 *            started activity, not bound to any thread
+	 * @param scope
+	 *            activity scope
+	 */
+	void register(TrackingActivity activity, String scope) {
+		Entry parent = scopes.get(scope);
+		if (parent != null && !parent.expired) {
+			parent.activity.add(activity);
+		} else {
+			parent = null;
+		}
+		Entry entry = new Entry(activity, scope, parent);
+		entries.put(activity.getTrackingId(), entry);
+		scopes.put(scope, entry);
+	}
+
+	/**
+	 * Obtain current activity of a given scope.
+	 *
+	 * @param scope
+	 *            activity scope
+	 * @return current open activity of the scope, {@code null} if none
+	 */
+	TrackingActivity scoped(String scope) {
+		Entry entry = scopes.get(scope);
+		return entry == null || entry.expired ? null : entry.activity;
+	}
+
+	/**
+	 * Report tracking event as part of activity, unless activity was expired by sweeper or already stopped (e.g. scoped
+	 * activity ended by another thread). Events of other activities not registered are reported as is.
+	 *
+	 * @param activity
+	 *            activity to report event into
+	 * @param event
+	 *            tracking event
+	 * @return {@code true} if event was reported, {@code false} if activity is expired or stopped
+	 */
+	boolean report(TrackingActivity activity, TrackingEvent event) {
+		Entry entry = entries.get(activity.getTrackingId());
+		if (entry == null) {
+			if (activity.isStopped()) {
+				return false;
+			}
+			activity.tnt(event);
+			return true;
+		}
+		long events;
+		synchronized (entry) {
+			if (entry.expired) {
+				return false;
+			}
+			activity.tnt(event);
+			entry.touched = System.nanoTime();
+			entry.events++;
+			events = openEvents.incrementAndGet();
+		}
+		if (events - expiredEvents.get() > maxEvents) {
+			requestSweep();
+		}
+		return true;
+	}
+
+	/**
+	 * Schedule immediate sweep, unless one is already pending.
+	 */
+	private void requestSweep() {
+		if (sweepPending.compareAndSet(false, true)) {
+			try {
+				sweeper.execute(() -> {
+					sweepPending.set(false);
+					sweep();
+				});
+			} catch (RejectedExecutionException e) {
+				// registry stopped, nothing to sweep
+			}
+		}
+	}
+
+	/**
+	 * Unregister activity closed by its owner thread.
+	 *
+	 * @param activity
+	 *            activity to unregister
+	 */
+	void unregister(TrackingActivity activity) {
+		Entry entry = entries.remove(activity.getTrackingId());
+		if (entry != null) {
+			unscope(entry);
+			release(entry);
+		}
+	}
+
+	/**
+	 * Check whether activity was expired by sweeper, so its owner thread must close it.
+	 *
+	 * @param activity
+	 *            current activity of calling thread
+	 * @return {@code true} if activity is expired, {@code false} otherwise
+	 */
+	boolean isExpired(TrackingActivity activity) {
+		Entry entry = entries.get(activity.getTrackingId());
+		return entry != null && entry.expired;
+	}
+
+	private void sweep() {
+		try {
+			long now = System.nanoTime();
+			List<Entry> open = new ArrayList<>();
+			for (Entry entry : entries.values()) {
+				if (entry.isOrphan()) {
+					close(entry);
+				} else if (now - entry.started > maxAgeNanos || now - entry.touched > idleNanos) {
+					expireOrClose(entry);
+				} else if (!entry.expired) {
+					open.add(entry);
+				}
+			}
+			if (openEvents.get() - expiredEvents.get() > maxEvents) {
+				open.sort(Comparator.comparingLong(entry -> entry.started));
+				for (int i = 0; i < open.size() && openEvents.get() - expiredEvents.get() > maxEvents; i++) {
+					expireOrClose(open.get(i));
+				}
+			}
+		} catch (RuntimeException e) {
+			status.addError("Failed to close expired activities", e);
+		}
+	}
+
+	/**
+	 * Expire activity: thread bound activity is closed by its owner thread, scoped activity is closed right away.
+	 */
+	private void expireOrClose(Entry entry) {
+		if (entry.scope == null) {
+			expire(entry);
+		} else {
+			close(entry);
+		}
+	}
+
+	/**
+	 * Close and report activity on sweeper thread: scoped activity, or activity of a dead thread, including activity
+	 * expired before its owner thread died.
+	 */
+	private void close(Entry entry) {
+		if (entries.remove(entry.activity.getTrackingId(), entry)) {
+			unscope(entry);
+			release(entry);
+			closer.accept(entry.activity);
+		}
+	}
+
+	/**
+	 * Make parent of scoped activity the current activity of the scope again.
+	 */
+	private void unscope(Entry entry) {
+		if (entry.scope != null) {
+			Entry parent = entry.parent;
+			scopes.computeIfPresent(entry.scope,
+					(scope, current) -> current != entry ? current : parent == null || parent.expired ? null : parent);
+		}
+	}
+
+	/**
+	 * Mark activity of a live thread expired, so its owner thread closes it and no more events are reported into it.
+	 */
+	private void expire(Entry entry) {
+		synchronized (entry) {
+			if (!entry.expired) {
+				entry.expired = true;
+				expiredEvents.addAndGet(entry.events);
+			}
+		}
+	}
+
+	/**
+	 * Stop counting events of activity removed from registry. Called once per entry, by the thread which removed it.
+	 */
+	private void release(Entry entry) {
+		synchronized (entry) {
+			if (entry.expired) {
+				expiredEvents.addAndGet(-entry.events);
+			} else {
+				entry.expired = true;
+			}
+			openEvents.addAndGet(-entry.events);
+		}
+	}
+
+	/**
+	 * Obtain number of open activities.
+	 *
+	 * @return number of open activities
+	 */
+	int getOpenCount() {
+		int count = 0;
+		for (Entry entry : entries.values()) {
+			if (!entry.expired) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Obtain total number of events reported within activities not closed yet, including expired activities waiting
+	 * to be closed by their owner threads.
+	 *
+	 * @return number of events within open activities
+	 */
+	long getOpenEvents() {
+		return openEvents.get();
+	}
+
+	/**
+	 * Stop sweeper and forget all registered activities.
+	 */
+	void stop() {
+		sweeper.shutdownNow();
+		entries.clear();
+		scopes.clear();
+		openEvents.set(0);
+		expiredEvents.set(0);
+	}
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.jkoolcloud.tnt4j.core.Snapshot;
+
+import ch.qos.logback.classic.Level;
+
+/**
+ * Self-instrumentation of {@link TNT4JAppender}. Counters are striped and latencies are recorded into lock-free
+ * {@link LatencyHistogram}s, so logging threads never contend on instrumentation. Queue, cache and activity gauges are
+ * read from the appender on demand.
+ *
+ * @version $Revision: 1 $
+ */
+final class AppenderStats implements TNT4JAppenderMXBean {
+	private final TNT4JAppender appender;
+	private final LongAdder[] levels = new LongAdder[Level.ERROR_INT / Level.DEBUG_INT + 1];
+	private final LongAdder datagrams = new LongAdder();
+	private final LongAdder activityEvents = new LongAdder();
+	private final LongAdder metricsEvents = new LongAdder();
+	private final LongAdder activityInstructions = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+
+	final LatencyHistogram parse = new LatencyHistogram();
+	final LatencyHistogram build = new LatencyHistogram();
+	final LatencyHistogram dispatch = new LatencyHistogram();
+
+	/**
+	 * Create statistics of a given appender.
+	 *
+	 * @param appender
+	 *            instrumented appender, used to read gauges
+	 */
+	AppenderStats(TNT4JAppender appender) {
+		this.appender = appender;
+		for (int i = 0; i < levels.length; i++) {
+			levels[i] = new LongAdder();
+		}
+	}
+
+	void eventIn(Level level) {
+		int idx = level.toInt() / Level.DEBUG_INT;
+		if (idx >= 0 && idx < levels.length) {
+			levels[idx].increment();
+		}
+	}
+
+	void datagram() {
+		datagrams.increment();
+	}
+
+	void activityEvent() {
+		activityEvents.increment();
+	}
+
+	void metricsEvent() {
+		metricsEvents.increment();
+	}
+
+	void activityInstruction() {
+		activityInstructions.increment();
+	}
+
+	void failed() {
+		failed.increment();
+	}
+
+	/**
+	 * Add current statistics into a given snapshot.
+	 *
+	 * @param snapshot
+	 *            snapshot to fill
+	 * @return given snapshot
+	 */
+	Snapshot fill(Snapshot snapshot) {
+		snapshot.add("Events.TRACE", getTraceEvents());
+		snapshot.add("Events.DEBUG", getDebugEvents());
+		snapshot.add("Events.INFO", getInfoEvents());
+		snapshot.add("Events.WARN", getWarnEvents());
+		snapshot.add("Events.ERROR", getErrorEvents());
+		snapshot.add("Reported.Datagram", getDatagramEvents());
+		snapshot.add("Reported.Activity", getActivityEvents());
+		snapshot.add("Reported.Metrics", getMetricsEvents());
+		snapshot.add("Reported.Instructions", getActivityInstructions());
+		snapshot.add("Lost.Rejected", getRejectedCount());
+		snapshot.add("Lost.RateDropped", getRateDroppedCount());
+		snapshot.add("Lost.Suppressed", getSuppressedCount());
+		snapshot.add("Lost.QueueDropped", getQueueDroppedCount());
+		snapshot.add("Lost.Failed", getFailedCount());
+		snapshot.add("Lost.JournalDropped", getJournalDroppedCount());
+		snapshot.add("Lost.StartupDropped", getStartupDroppedCount());
+		snapshot.add("Lost.Aggregated", getAggregatedCount());
+		snapshot.add("AggregatedValues", getAggregatedValueCount());
+		snapshot.add("Spilled", getSpilledCount());
+		snapshot.add("Recycled", getRecycledCount());
+		snapshot.add("RecycleViolations", getRecycleViolationCount());
+		addLatency(snapshot, "Parse", parse);
+		addLatency(snapshot, "Build", build);
+		addLatency(snapshot, "Dispatch", dispatch);
+		snapshot.add("QueueDepth", getQueueDepth());
+		snapshot.add("SourceCacheHitRatio", getSourceCacheHitRatio());
+		snapshot.add("TemplateCacheHitRatio", getTemplateCacheHitRatio());
+		snapshot.add("OpenActivities", getOpenActivityCount());
+		snapshot.add("SampleRate", getSampleRate());
+		return snapshot;
+	}
+
+	private static void addLatency(Snapshot snapshot, String stage, LatencyHistogram histogram) {
+		snapshot.add(stage + ".Mean", histogram.getMean());
+		snapshot.add(stage + ".P50", histogram.getPercentile(50));
+		snapshot.add(stage + ".P99", histogram.getPercentile(99));
+		snapshot.add(stage + ".Max", histogram.getMax());
+	}
+
+	@Override
+	public long getTraceEvents() {
+		return levels[Level.TRACE_INT / Level.DEBUG_INT].sum();
+	}
+
+	@Override
+	public long getDebugEvents() {
+		return levels[Level.DEBUG_INT / Level.DEBUG_INT].sum();
+	}
+
+	@Override
+	public long getInfoEvents() {
+		return levels[Level.INFO_INT / Level.DEBUG_INT].sum();
+	}
+
+	@Override
+	public long getWarnEvents() {
+		return levels[Level.WARN_INT / Level.DEBUG_INT].sum();
+	}
+
+	@Override
+	public long getErrorEvents() {
+		return levels[Level.ERROR_INT / Level.DEBUG_INT].sum();
+	}
+
+	@Override
+	public long getDatagramEvents() {
+		return datagrams.sum();
+	}
+
+	@Override
+	public long getActivityEvents() {
+		return activityEvents.sum();
+	}
+
+	@Override
+	public long getMetricsEvents() {
+		return metricsEvents.sum();
+	}
+
+	@Override
+	public long getActivityInstructions() {
+		return activityInstructions.sum();
+	}
+
+	@Override
+	public long getRejectedCount() {
+		return appender.getRejectedCount();
+	}
+
+	@Override
+	public long getRateDroppedCount() {
+		return appender.getRateDroppedCount();
+	}
+
+	@Override
+	public long getSuppressedCount() {
+		return appender.getSuppressedCount();
+	}
+
+	@Override
+	public long getQueueDroppedCount() {
+		return appender.getQueueDroppedCount();
+	}
+
+	@Override
+	public long getStartupDroppedCount() {
+		return appender.getStartupDroppedCount();
+	}
+
+	@Override
+	public long getAggregatedCount() {
+		return appender.getAggregatedCount();
+	}
+
+	@Override
+	public long getAggregatedValueCount() {
+		return appender.getAggregatedValueCount();
+	}
+
+	@Override
+	public long getSpilledCount() {
+		return appender.getSpilledCount();
+	}
+
+	@Override
+	public long getJournalDroppedCount() {
+		return appender.getJournalDroppedCount();
+	}
+
+	@Override
+	public long getRecycledCount() {
+		return appender.getRecycledCount();
+	}
+
+	@Override
+	public long getRecycleViolationCount() {
+		return appender.getRecycleViolationCount();
+	}
+
+	@Override
+	public long getFailedCount() {
+		return failed.sum();
+	}
+
+	@Override
+	public double getParseMeanNanos() {
+		return parse.getMean();
+	}
+
+	@Override
+	public long getParseP99Nanos() {
+		return parse.getPercentile(99);
+	}
+
+	@Override
+	public long getParseMaxNanos() {
+		return parse.getMax();
+	}
+
+	@Override
+	public double getBuildMeanNanos() {
+		return build.getMean();
+	}
+
+	@Override
+	public long getBuildP99Nanos() {
+		return build.getPercentile(99);
+	}
+
+	@Override
+	public long getBuildMaxNanos() {
+		return build.getMax();
+	}
+
+	@Override
+	public double getDispatchMeanNanos() {
+		return dispatch.getMean();
+	}
+
+	@Override
+	public long getDispatchP99Nanos() {
+		return dispatch.getPercentile(99);
+	}
+
+	@Override
+	public long getDispatchMaxNanos() {
+		return dispatch.getMax();
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return appender.getQueueDepth();
+	}
+
+	@Override
+	public double getSourceCacheHitRatio() {
+		long hits = appender.getSourceCacheHits();
+		long total = hits + appender.getSourceCacheMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public double getTemplateCacheHitRatio() {
+		return appender.getTemplateCacheHitRatio();
+	}
+
+	@Override
+	public int getOpenActivityCount() {
+		return appender.getOpenActivityCount();
+	}
+
+	@Override
+	public double getSampleRate() {
+		return appender.getSampleRate();
+	}
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import com.jkoolcloud.tnt4j.tracker.TrackingActivity;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.spi.ContextAware;
+
+/**
+ * Hands logging events over from logging threads to dedicated dispatch threads using bounded {@link EventRingBuffer}s,
+ * one per dispatch thread. Logging thread is bound to a single ring buffer, so events of the same thread are dispatched
+ * in logging order.
+ * <p>
+ * Idle dispatch threads and logging threads waiting for room wait actively according to {@link WaitStrategy}, then
+ * block until signaled: dispatch thread by logging thread publishing an event, logging thread by dispatch thread
+ * releasing a slot.
+ *
+ * @version $Revision: 1 $
+ */
+final class AsyncEventDispatcher {
+	private final String name;
+	private final EventRingBuffer[] lanes;
+	private final DrainThread[] drainers;
+	private final OverflowPolicy overflowPolicy;
+	private final Level dropLevel;
+	private final WaitStrategy waitStrategy;
+	private final Consumer<EventRingBuffer.Slot> handler;
+	private final ContextAware status;
+	private final LongAdder dropped = new LongAdder();
+
+	private volatile boolean running;
+	private volatile long drainDeadline;
+
+	/**
+	 * Create asynchronous dispatcher.
+	 *
+	 * @param name
+	 *            dispatcher name, used for naming dispatch threads
+	 * @param threads
+	 *            number of dispatch threads
+	 * @param queueSize
+	 *            ring buffer capacity of every dispatch thread
+	 * @param overflowPolicy
+	 *            policy applied when ring buffer is full
+	 * @param dropLevel
+	 *            level below which events are dropped by {@link OverflowPolicy#DROP_BELOW_LEVEL} policy
+	 * @param waitStrategy
+	 *            wait strategy for idle dispatch threads and blocked logging threads
+	 * @param handler
+	 *            handler invoked on dispatch thread for every queued event
+	 * @param status
+	 *            status manager to report dispatch errors
+	 */
+	AsyncEventDispatcher(String name, int threads, int queueSize, OverflowPolicy overflowPolicy, Level dropLevel,
+			WaitStrategy waitStrategy, Consumer<EventRingBuffer.Slot> handler, ContextAware status) {
+		this.name = name;
+		this.overflowPolicy = overflowPolicy;
+		this.dropLevel = dropLevel;
+		this.waitStrategy = waitStrategy;
+		this.handler = handler;
+		this.status = status;
+		lanes = new EventRingBuffer[Math.max(1, threads)];
+		drainers = new DrainThread[lanes.length];
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = new EventRingBuffer(queueSize);
+			drainers[i] = new DrainThread(name + "-dispatch-" + i, lanes[i]);
+		}
+	}
+
+	/**
+	 * Start dispatch threads.
+	 */
+	void start() {
+		running = true;
+		for (DrainThread drainer : drainers) {
+			drainer.start();
+		}
+	}
+
+	/**
+	 * Stop dispatch threads, letting them dispatch queued events within a given timeout.
+	 *
+	 * @param timeoutMs
+	 *            maximum time in milliseconds to wait for queued events to be dispatched
+	 * @return number of queued events left undispatched
+	 */
+	long stop(long timeoutMs) {
+		drainDeadline = System.currentTimeMillis() + timeoutMs;
+		running = false;
+		for (DrainThread drainer : drainers) {
+			LockSupport.unpark(drainer);
+			drainer.signalRelease();
+		}
+		for (DrainThread drainer : drainers) {
+			try {
+				drainer.join(Math.max(1, drainDeadline - System.currentTimeMillis()));
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		long lost = 0;
+		for (int i = 0; i < lanes.length; i++) {
+			if (drainers[i].isAlive()) {
+				drainers[i].interrupt();
+			}
+			lost += lanes[i].size();
+		}
+		return lost;
+	}
+
+	/**
+	 * Queue logging event for dispatch, applying overflow policy if queue is full.
+	 *
+	 * @param event
+	 *            logging event
+	 * @param activity
+	 *            TNT4J activity current on logging thread
+	 * @param frame
+	 *            caller frame of the logging event
+	 * @param elapsedUsec
+	 *            elapsed microseconds since last event on logging thread
+	 * @return {@code true} if event was queued, {@code false} if it was dropped
+	 */
+	boolean offer(ILoggingEvent event, TrackingActivity activity, StackTraceElement frame, long elapsedUsec) {
+		DrainThread drainer = drainer();
+		EventRingBuffer lane = drainer.lane;
+		long pos = lane.tryClaim();
+		if (pos < 0) {
+			pos = claimOnOverflow(drainer, event);
+		}
+		if (pos < 0) {
+			dropped.increment();
+			return false;
+		}
+		EventRingBuffer.Slot slot = lane.slot(pos);
+		slot.event = event;
+		slot.activity = activity;
+		slot.frame = frame;
+		slot.elapsedUsec = elapsedUsec;
+		lane.publish(pos);
+		drainer.signalEvent();
+		return true;
+	}
+
+	/**
+	 * Wait until all events queued so far by calling thread have been dispatched.
+	 */
+	void awaitDispatched() {
+		if (Thread.currentThread() instanceof DrainThread) {
+			return;
+		}
+		awaitReleased(drainer());
+	}
+
+	/**
+	 * Wait until all events queued so far by any thread have been dispatched.
+	 */
+	void awaitDrained() {
+		for (DrainThread drainer : drainers) {
+			awaitReleased(drainer);
+		}
+	}
+
+	private void awaitReleased(DrainThread drainer) {
+		EventRingBuffer lane = drainer.lane;
+		long target = lane.producerPosition();
+		int counter = 0;
+		for (;;) {
+			long seen = lane.releasedCount();
+			if (!running || seen >= target) {
+				return;
+			}
+			counter = awaitRelease(drainer, seen, counter);
+			if (counter < 0) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Wait once for a slot of a given dispatch thread to be released: actively according to wait strategy, then
+	 * blocking until signaled.
+	 *
+	 * @param drainer
+	 *            dispatch thread
+	 * @param seen
+	 *            released slot count seen by calling thread before waiting
+	 * @param counter
+	 *            number of times caller has already waited for the same condition
+	 * @return counter value to pass on the next wait call, or {@code -1} if calling thread was interrupted
+	 */
+	private int awaitRelease(DrainThread drainer, long seen, int counter) {
+		if (!waitStrategy.isExhausted(counter)) {
+			return waitStrategy.idle(counter);
+		}
+		return drainer.awaitRelease(seen) ? counter : -1;
+	}
+
+	/**
+	 * Obtain number of events currently queued for dispatch.
+	 *
+	 * @return number of queued events
+	 */
+	int getQueueDepth() {
+		int depth = 0;
+		for (EventRingBuffer lane : lanes) {
+			depth += lane.size();
+		}
+		return depth;
+	}
+
+	/**
+	 * Obtain ratio of events currently queued for dispatch to total queue capacity.
+	 *
+	 * @return queue load ratio, from 0 to 1
+	 */
+	double getQueueLoad() {
+		int capacity = 0;
+		for (EventRingBuffer lane : lanes) {
+			capacity += lane.capacity();
+		}
+		return (double) getQueueDepth() / capacity;
+	}
+
+	/**
+	 * Obtain number of events dropped due to overflow policy.
+	 *
+	 * @return number of dropped events
+	 */
+	long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	private DrainThread drainer() {
+		return drainers[(int) (Thread.currentThread().getId() % drainers.length)];
+	}
+
+	private long claimOnOverflow(DrainThread drainer, ILoggingEvent event) {
+		if (Thread.currentThread() instanceof DrainThread) {
+			// events logged by dispatch thread itself (e.g. by sinks) can't wait for the dispatch thread
+			return -1;
+		}
+		EventRingBuffer lane = drainer.lane;
+		switch (overflowPolicy) {
+		case DROP_NEWEST:
+			return -1;
+		case DROP_OLDEST:
+			int spins = 0;
+			while (running && spins >= 0) {
+				long seen = lane.releasedCount();
+				long oldest = lane.tryPoll();
+				if (oldest >= 0) {
+					drainer.release(oldest);
+					dropped.increment();
+				}
+				long pos = lane.tryClaim();
+				if (pos >= 0) {
+					return pos;
+				}
+				if (oldest < 0) {
+					// nothing left to drop: slot to claim is still held by event being dispatched
+					spins = awaitRelease(drainer, seen, spins);
+				}
+			}
+			return -1;
+		case DROP_BELOW_LEVEL:
+			if (!event.getLevel().isGreaterOrEqual(dropLevel)) {
+				return -1;
+			}
+			// fall through: events at or above drop level wait for room
+		case BLOCK:
+		default:
+			int counter = 0;
+			while (running && counter >= 0) {
+				long seen = lane.releasedCount();
+				long pos = lane.tryClaim();
+				if (pos >= 0) {
+					return pos;
+				}
+				counter = awaitRelease(drainer, seen, counter);
+			}
+			return -1;
+		}
+	}
+
+	private final class DrainThread extends Thread {
+		private final EventRingBuffer lane;
+		private final Object releaseLock = new Object();
+		private volatile boolean parked;
+		private volatile int blocked;
+
+		DrainThread(String threadName, EventRingBuffer lane) {
+			super(threadName);
+			this.lane = lane;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			int counter = 0;
+			while (running) {
+				if (dispatchNext()) {
+					counter = 0;
+				} else if (!waitStrategy.isExhausted(counter)) {
+					counter = waitStrategy.idle(counter);
+				} else {
+					awaitEvent();
+					counter = 0;
+				}
+			}
+			while (System.currentTimeMillis() < drainDeadline && !isInterrupted() && dispatchNext()) {
+				// drain queued events within stop timeout
+			}
+		}
+
+		private boolean dispatchNext() {
+			long pos = lane.tryPoll();
+			if (pos < 0) {
+				return false;
+			}
+			try {
+				handler.accept(lane.slot(pos));
+			} catch (Throwable exc) {
+				status.addError("Failed to dispatch event, dispatcher=" + name, exc);
+			} finally {
+				release(pos);
+			}
+			return true;
+		}
+
+		/**
+		 * Block dispatch thread until an event is published or dispatcher is stopped.
+		 */
+		private void awaitEvent() {
+			parked = true;
+			if (running && !lane.hasPublished()) {
+				LockSupport.park(this);
+			}
+			parked = false;
+		}
+
+		/**
+		 * Wake up dispatch thread blocked waiting for events. Called by logging thread after publishing an event.
+		 */
+		void signalEvent() {
+			if (parked) {
+				LockSupport.unpark(this);
+			}
+		}
+
+		/**
+		 * Release polled slot and wake up logging threads blocked waiting for a slot to be released.
+		 *
+		 * @param pos
+		 *            polled slot position
+		 */
+		void release(long pos) {
+			lane.release(pos);
+			if (blocked > 0) {
+				signalRelease();
+			}
+		}
+
+		void signalRelease() {
+			synchronized (releaseLock) {
+				releaseLock.notifyAll();
+			}
+		}
+
+		/**
+		 * Block logging thread until a slot of this dispatch thread is released or dispatcher is stopped.
+		 *
+		 * @param seen
+		 *            released slot count seen by logging thread before it found ring buffer full
+		 * @return {@code true} if logging thread may retry, {@code false} if it was interrupted
+		 */
+		boolean awaitRelease(long seen) {
+			synchronized (releaseLock) {
+				blocked++;
+				try {
+					while (running && lane.releasedCount() == seen) {
+						releaseLock.wait();
+					}
+					return true;
+				} catch (InterruptedException exc) {
+					Thread.currentThread().interrupt();
+					return false;
+				} finally {
+					blocked--;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+/**
+ * Sources of TNT4J event attributes ingested by {@link TNT4JAppender}. Configured order of sources defines their
+ * precedence: attribute defined by several sources takes value from the source listed first.
+ *
+ * @version $Revision: 1 $
+ */
+public enum AttributeSource {
+	/**
+	 * Hashtags ({@code #tag=value}) of logging event message. Message hashtags are always ingested, since activity
+	 * instructions are recognized only within messages.
+	 */
+	MESSAGE,
+
+	/**
+	 * Key-value pairs of logging event, added using SLF4J 2 fluent logging API.
+	 */
+	KV,
+
+	/**
+	 * Mapped diagnostic context of logging event.
+	 */
+	MDC
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Concurrent size bounded cache of values created by a given loader function. When cache is full, entries not accessed
+ * since the clock hand passed them last are evicted first (clock, second chance eviction). Clock hand is kept between
+ * evictions, so every entry gets its second chance before the hand comes back. Lookups are lock-free, insertions of
+ * new values are serialized, so cache never exceeds its capacity.
+ *
+ * @param <K>
+ *            type of cache keys
+ * @param <V>
+ *            type of cached values
+ *
+ * @version $Revision: 1 $
+ */
+final class BoundedCache<K, V> {
+	private final Function<? super K, ? extends V> loader;
+	private final int capacity;
+	private final ConcurrentHashMap<K, Entry<V>> cache;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final Object evictLock = new Object();
+	private Iterator<Map.Entry<K, Entry<V>>> hand;
+
+	private static final class Entry<V> {
+		final V value;
+		volatile boolean referenced;
+
+		Entry(V value) {
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Create bounded cache.
+	 *
+	 * @param capacity
+	 *            maximum number of cached values, {@code 0} disables caching
+	 * @param loader
+	 *            function creating values of missing keys
+	 */
+	BoundedCache(int capacity, Function<? super K, ? extends V> loader) {
+		this.loader = loader;
+		this.capacity = Math.max(0, capacity);
+		this.cache = new ConcurrentHashMap<>(Math.min(this.capacity, 1024));
+	}
+
+	/**
+	 * Obtain value for a given key, creating and caching it if missing.
+	 *
+	 * @param key
+	 *            cache key
+	 * @return cached or newly created value
+	 */
+	V get(K key) {
+		if (capacity == 0) {
+			misses.increment();
+			return loader.apply(key);
+		}
+		Entry<V> entry = cache.get(key);
+		if (entry != null) {
+			if (!entry.referenced) {
+				entry.referenced = true;
+			}
+			hits.increment();
+			return entry.value;
+		}
+		misses.increment();
+		V value = loader.apply(key);
+		synchronized (evictLock) {
+			entry = cache.get(key);
+			if (entry != null) {
+				return entry.value;
+			}
+			while (cache.size() >= capacity && evict()) {
+				// make room for the new entry
+			}
+			cache.put(key, new Entry<>(value));
+		}
+		return value;
+	}
+
+	/**
+	 * Advance clock hand to the first entry not referenced since the hand passed it last and evict it, clearing
+	 * reference marks of entries passed on the way. Must be called holding {@code evictLock}.
+	 *
+	 * @return {@code true} if entry was evicted, {@code false} if cache is empty
+	 */
+	private boolean evict() {
+		for (int steps = 2 * cache.size() + 1; steps > 0; steps--) {
+			if (hand == null || !hand.hasNext()) {
+				hand = cache.entrySet().iterator();
+				if (!hand.hasNext()) {
+					return false;
+				}
+			}
+			Entry<V> entry = hand.next().getValue();
+			if (entry.referenced) {
+				entry.referenced = false;
+			} else {
+				hand.remove();
+				evictions.increment();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Perform a given action for every cached key and value.
+	 *
+	 * @param action
+	 *            action to perform
+	 */
+	void forEach(BiConsumer<? super K, ? super V> action) {
+		cache.forEach((key, entry) -> action.accept(key, entry.value));
+	}
+
+	/**
+	 * Remove all cached values.
+	 */
+	void clear() {
+		synchronized (evictLock) {
+			cache.clear();
+			hand = null;
+		}
+	}
+
+	/**
+	 * Obtain number of cached values.
+	 *
+	 * @return number of cached values
+	 */
+	int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Obtain number of lookups served from cache.
+	 *
+	 * @return number of cache hits
+	 */
+	long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Obtain number of lookups which created a new value.
+	 *
+	 * @return number of cache misses
+	 */
+	long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Obtain ratio of lookups served from cache.
+	 *
+	 * @return cache hit ratio within range {@code [0, 1]}, {@code 0} if there were no lookups
+	 */
+	double getHitRatio() {
+		long hit = hits.sum();
+		long total = hit + misses.sum();
+		return total == 0 ? 0 : (double) hit / total;
+	}
+
+	/**
+	 * Obtain number of values evicted from cache.
+	 *
+	 * @return number of evictions
+	 */
+	long getEvictionCount() {
+		return evictions.sum();
+	}
+}
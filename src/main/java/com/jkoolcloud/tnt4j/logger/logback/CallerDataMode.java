@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+/**
+ * Defines how {@link TNT4JAppender} obtains caller data (class, method, file and line of the logging statement) used
+ * to fill TNT4J event resource, operation name and location.
+ *
+ * @version $Revision: 1 $
+ */
+public enum CallerDataMode {
+	/**
+	 * No caller data is collected. Logger name is used as event resource and operation name, location is not set.
+	 */
+	NONE,
+
+	/**
+	 * Caller frames are obtained using {@link StackWalker}, walking no more than configured number of caller frames.
+	 */
+	LAZY,
+
+	/**
+	 * Caller data is obtained from logback event, which captures full stack trace of the logging thread.
+	 */
+	FULL
+}
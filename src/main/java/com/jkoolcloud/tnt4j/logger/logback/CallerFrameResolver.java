@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.jkoolcloud.tnt4j.utils.Utils;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Resolves logging statement caller frame of logging event according to {@link CallerDataMode} configured for the
+ * event level. Must be invoked on the logging thread.
+ *
+ * @version $Revision: 1 $
+ */
+final class CallerFrameResolver {
+	private static final String LOGGER_CLASS = Logger.class.getName();
+	private static final String LOG4J_CATEGORY = "org.apache.log4j.Category";
+	private static final String SLF4J_BOUNDARY = "org.slf4j.";
+
+	private static final StackWalker WALKER = StackWalker.getInstance();
+
+	private final CallerDataMode[] modes = new CallerDataMode[5];
+	private final int maxDepth;
+	private final List<String> frameworkPackages;
+
+	/**
+	 * Create caller frame resolver.
+	 *
+	 * @param spec
+	 *            comma separated list of {@code [level=]mode} entries, entry without level defines mode for levels
+	 *            having no explicit mode
+	 * @param maxDepth
+	 *            maximum number of caller frames walked by {@link CallerDataMode#LAZY} mode
+	 * @param frameworkPackages
+	 *            logging framework packages to skip when looking for caller frame, may be {@code null}
+	 * @throws IllegalArgumentException
+	 *             if specification contains unknown mode
+	 */
+	CallerFrameResolver(String spec, int maxDepth, List<String> frameworkPackages) {
+		this.maxDepth = Math.max(1, maxDepth);
+		this.frameworkPackages = frameworkPackages == null ? Collections.emptyList() : frameworkPackages;
+
+		CallerDataMode defaultMode = CallerDataMode.FULL;
+		String[] entries = spec == null ? new String[0] : spec.split(",");
+		for (String entry : entries) {
+			int idx = entry.indexOf('=');
+			if (idx < 0 && !entry.trim().isEmpty()) {
+				defaultMode = CallerDataMode.valueOf(entry.trim().toUpperCase());
+			}
+		}
+		for (int i = 0; i < modes.length; i++) {
+			modes[i] = defaultMode;
+		}
+		for (String entry : entries) {
+			int idx = entry.indexOf('=');
+			if (idx > 0) {
+				Level level = Level.toLevel(entry.substring(0, idx).trim(), null);
+				if (level == null) {
+					throw new IllegalArgumentException("Unknown level in caller data entry: " + entry);
+				}
+				modes[index(level)] = CallerDataMode.valueOf(entry.substring(idx + 1).trim().toUpperCase());
+			}
+		}
+	}
+
+	/**
+	 * Obtain caller data mode configured for a given level.
+	 *
+	 * @param level
+	 *            logback level
+	 * @return caller data mode
+	 */
+	CallerDataMode getMode(Level level) {
+		return modes[index(level)];
+	}
+
+	/**
+	 * Resolve caller frame of a given logging event.
+	 *
+	 * @param event
+	 *            logging event
+	 * @return caller frame, or {@code null} if caller data is not collected for event level or is not available
+	 */
+	StackTraceElement resolve(ILoggingEvent event) {
+		switch (getMode(event.getLevel())) {
+		case NONE:
+			return null;
+		case LAZY:
+			StackTraceElement[] frames = WALKER.walk(this::callerFrames);
+			return frames.length == 0 ? null : Utils.getStackFrame(frames, 1);
+		case FULL:
+		default:
+			StackTraceElement[] callerData = event.getCallerData();
+			return callerData == null || callerData.length == 0 ? null : Utils.getStackFrame(callerData, 1);
+		}
+	}
+
+	private StackTraceElement[] callerFrames(Stream<StackWalker.StackFrame> stack) {
+		List<StackTraceElement> frames = stack.dropWhile(frame -> !isFramework(frame.getClassName()))
+				.dropWhile(frame -> isFramework(frame.getClassName())).limit(maxDepth)
+				.map(StackWalker.StackFrame::toStackTraceElement).collect(Collectors.toList());
+		return frames.toArray(new StackTraceElement[0]);
+	}
+
+	private boolean isFramework(String className) {
+		if (className.equals(LOGGER_CLASS) || className.equals(LOG4J_CATEGORY)
+				|| className.startsWith(SLF4J_BOUNDARY)) {
+			return true;
+		}
+		for (String pkg : frameworkPackages) {
+			if (className.startsWith(pkg)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int index(Level level) {
+		switch (level.toInt()) {
+		case Level.TRACE_INT:
+			return 0;
+		case Level.DEBUG_INT:
+			return 1;
+		case Level.WARN_INT:
+			return 3;
+		case Level.ERROR_INT:
+			return 4;
+		case Level.INFO_INT:
+		default:
+			return 2;
+		}
+	}
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import ch.qos.logback.core.spi.ContextAware;
+
+/**
+ * Suppresses repeated logging events within a time window. Events are matched by a cheap fingerprint: logger name,
+ * message template, and throwable class with its top stack frame. First occurrence opens a window and passes, repeats
+ * within the window are suppressed and only counted. Once window closes, a single summary is handed over to reporter,
+ * carrying repeat count, first and last repeat timestamps, and minimal and maximal elapsed time of repeats. Windows are
+ * closed by the next occurrence after window expiry, by periodic sweep, when evicted from full fingerprint table, or
+ * when suppressor stops.
+ *
+ * @version $Revision: 1 $
+ */
+final class DuplicateSuppressor {
+	private final long windowMs;
+	private final int capacity;
+	private final ToLongFunction<ILoggingEvent> elapsed;
+	private final Consumer<Window> reporter;
+	private final ContextAware status;
+	private final ConcurrentHashMap<Fingerprint, Window> windows;
+	private final ScheduledExecutorService sweeper;
+	private final LongAdder suppressed = new LongAdder();
+
+	/**
+	 * Fingerprint of logging event used to match repeated events.
+	 */
+	private static final class Fingerprint {
+		private final String loggerName;
+		private final String template;
+		private final String exceptionClass;
+		private final StackTraceElement topFrame;
+		private final int hash;
+
+		Fingerprint(ILoggingEvent event) {
+			loggerName = event.getLoggerName();
+			template = event.getMessage();
+			IThrowableProxy throwable = event.getThrowableProxy();
+			if (throwable == null) {
+				exceptionClass = null;
+				topFrame = null;
+			} else {
+				StackTraceElementProxy[] frames = throwable.getStackTraceElementProxyArray();
+				exceptionClass = throwable.getClassName();
+				topFrame = frames == null || frames.length == 0 ? null : frames[0].getStackTraceElement();
+			}
+			hash = Objects.hash(loggerName, template, exceptionClass, topFrame);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Fingerprint)) {
+				return false;
+			}
+			Fingerprint other = (Fingerprint) obj;
+			return hash == other.hash && Objects.equals(loggerName, other.loggerName)
+					&& Objects.equals(template, other.template) && Objects.equals(exceptionClass, other.exceptionClass)
+					&& Objects.equals(topFrame, other.topFrame);
+		}
+	}
+
+	/**
+	 * Suppression window of a single fingerprint. Once closed, window is not modified any more.
+	 */
+	static final class Window {
+		private final Fingerprint key;
+		private final ILoggingEvent event;
+		private final long opened;
+		private boolean closed;
+		private long count;
+		private long firstTime;
+		private long lastTime;
+		private long minElapsedUsec = Long.MAX_VALUE;
+		private long maxElapsedUsec = Long.MIN_VALUE;
+
+		Window(Fingerprint key, ILoggingEvent event) {
+			this.key = key;
+			this.event = event;
+			this.opened = event.getTimeStamp();
+		}
+
+		synchronized boolean repeat(ILoggingEvent repeat, long time, long windowMs,
+				ToLongFunction<ILoggingEvent> elapsed) {
+			if (closed || time - opened >= windowMs) {
+				return false;
+			}
+			long elapsedUsec = elapsed.applyAsLong(repeat);
+			if (count++ == 0) {
+				firstTime = time;
+			}
+			lastTime = time;
+			minElapsedUsec = Math.min(minElapsedUsec, elapsedUsec);
+			maxElapsedUsec = Math.max(maxElapsedUsec, elapsedUsec);
+			return true;
+		}
+
+		synchronized boolean close() {
+			if (closed) {
+				return false;
+			}
+			closed = true;
+			return true;
+		}
+
+		/**
+		 * Obtain first (passed) logging event of this window.
+		 *
+		 * @return logging event which opened the window
+		 */
+		ILoggingEvent getEvent() {
+			return event;
+		}
+
+		/**
+		 * Obtain number of suppressed repeats.
+		 *
+		 * @return repeat count
+		 */
+		long getCount() {
+			return count;
+		}
+
+		/**
+		 * Obtain timestamp of the first suppressed repeat.
+		 *
+		 * @return timestamp in milliseconds
+		 */
+		long getFirstTime() {
+			return firstTime;
+		}
+
+		/**
+		 * Obtain timestamp of the last suppressed repeat.
+		 *
+		 * @return timestamp in milliseconds
+		 */
+		long getLastTime() {
+			return lastTime;
+		}
+
+		/**
+		 * Obtain minimal elapsed time of suppressed repeats.
+		 *
+		 * @return elapsed time in microseconds
+		 */
+		long getMinElapsedUsec() {
+			return minElapsedUsec;
+		}
+
+		/**
+		 * Obtain maximal elapsed time of suppressed repeats.
+		 *
+		 * @return elapsed time in microseconds
+		 */
+		long getMaxElapsedUsec() {
+			return maxElapsedUsec;
+		}
+	}
+
+	/**
+	 * Create duplicate events suppressor.
+	 *
+	 * @param name
+	 *            suppressor name, used for naming sweeper thread
+	 * @param windowMs
+	 *            suppression window in milliseconds
+	 * @param capacity
+	 *            maximum number of fingerprints tracked at once
+	 * @param elapsed
+	 *            function of elapsed microseconds since last event of logging thread, invoked for suppressed events
+	 * @param reporter
+	 *            consumer reporting closed windows with suppressed repeats
+	 * @param status
+	 *            status manager to report summary errors
+	 */
+	DuplicateSuppressor(String name, long windowMs, int capacity, ToLongFunction<ILoggingEvent> elapsed,
+			Consumer<Window> reporter, ContextAware status) {
+		this.windowMs = Math.max(1, windowMs);
+		this.capacity = Math.max(1, capacity);
+		this.elapsed = elapsed;
+		this.reporter = reporter;
+		this.status = status;
+		this.windows = new ConcurrentHashMap<>(Math.min(this.capacity, 1024));
+
+		sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, name + "-suppress");
+			thread.setDaemon(true);
+			return thread;
+		});
+		sweeper.scheduleWithFixedDelay(this::sweep, this.windowMs, this.windowMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Check whether logging event repeats an event passed within current window, counting it if so.
+	 *
+	 * @param event
+	 *            logging event
+	 * @return {@code true} if event is suppressed, {@code false} if event must be reported
+	 */
+	boolean suppress(ILoggingEvent event) {
+		Fingerprint key = new Fingerprint(event);
+		long time = event.getTimeStamp();
+		while (true) {
+			Window window = windows.get(key);
+			if (window == null) {
+				if (windows.size() >= capacity) {
+					evict();
+				}
+				if (windows.putIfAbsent(key, new Window(key, event)) == null) {
+					return false;
+				}
+			} else if (window.repeat(event, time, windowMs, elapsed)) {
+				suppressed.increment();
+				return true;
+			} else {
+				closeWindow(window);
+			}
+		}
+	}
+
+	private void closeWindow(Window window) {
+		if (window.close()) {
+			windows.remove(window.key, window);
+			if (window.getCount() > 0) {
+				if (VirtualThreads.isCurrentVirtual()) {
+					// TNT4J can't start operations on virtual threads, report by sweeper thread
+					try {
+						sweeper.execute(() -> report(window));
+						return;
+					} catch (RejectedExecutionException e) {
+						// sweeper stopped: report right away
+					}
+				}
+				report(window);
+			}
+		}
+	}
+
+	private void report(Window window) {
+		try {
+			reporter.accept(window);
+		} catch (RuntimeException e) {
+			status.addError("Failed to report suppressed events", e);
+		}
+	}
+
+	private void evict() {
+		// expired windows are closed by sweeper, so the table is full of open windows: close some of them early
+		Iterator<Window> it = windows.values().iterator();
+		while (windows.size() >= capacity && it.hasNext()) {
+			closeWindow(it.next());
+		}
+	}
+
+	private void sweep() {
+		sweep(System.currentTimeMillis());
+	}
+
+	private void sweep(long time) {
+		for (Window window : windows.values()) {
+			if (time - window.opened >= windowMs) {
+				closeWindow(window);
+			}
+		}
+	}
+
+	/**
+	 * Obtain number of suppressed events.
+	 *
+	 * @return number of suppressed events
+	 */
+	long getSuppressedCount() {
+		return suppressed.sum();
+	}
+
+	/**
+	 * Stop window sweeper and report all open windows.
+	 */
+	void stop() {
+		sweeper.shutdownNow();
+		for (Window window : windows.values()) {
+			closeWindow(window);
+		}
+	}
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Reusable growable byte buffer {@link TNT4JEncoder} writes encoded events into. Strings are written either as UTF-8
+ * or escaped the same way as {@code StringEscapeUtils.escapeJson()} escapes them for {@code JSONFormatter}, straight
+ * into the buffer without intermediate strings. Buffer grown by unusually large event is released on
+ * {@link #reset()}, so it doesn't stay retained by encoding thread.
+ * <p>
+ * Instances are not thread safe and are meant to be confined to a single thread.
+ *
+ * @version $Revision: 1 $
+ */
+final class EncodeBuffer {
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+	private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E',
+			'F' };
+	private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+
+	private byte[] buf = new byte[INITIAL_CAPACITY];
+	private int size;
+	private Writer utf8Writer;
+	private Writer jsonWriter;
+
+	/**
+	 * Obtain number of bytes written since last reset.
+	 *
+	 * @return number of bytes written
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Discard written bytes, releasing buffer grown over retained capacity.
+	 */
+	void reset() {
+		size = 0;
+		if (buf.length > MAX_RETAINED_CAPACITY) {
+			buf = new byte[INITIAL_CAPACITY];
+		}
+	}
+
+	/**
+	 * Copy written bytes into a new array.
+	 *
+	 * @return written bytes
+	 */
+	byte[] toByteArray() {
+		return Arrays.copyOf(buf, size);
+	}
+
+	/**
+	 * Write given bytes.
+	 *
+	 * @param bytes
+	 *            bytes to write
+	 * @return this buffer
+	 */
+	EncodeBuffer bytes(byte[] bytes) {
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, buf, size, bytes.length);
+		size += bytes.length;
+		return this;
+	}
+
+	/**
+	 * Write a single ASCII character.
+	 *
+	 * @param c
+	 *            ASCII character
+	 * @return this buffer
+	 */
+	EncodeBuffer ascii(char c) {
+		ensure(1);
+		buf[size++] = (byte) c;
+		return this;
+	}
+
+	/**
+	 * Write decimal representation of a given number, the same as {@link Long#toString(long)}.
+	 *
+	 * @param value
+	 *            number to write
+	 * @return this buffer
+	 */
+	EncodeBuffer number(long value) {
+		if (value == Long.MIN_VALUE) {
+			return utf8(Long.toString(value));
+		}
+		ensure(20);
+		if (value < 0) {
+			buf[size++] = '-';
+			value = -value;
+		}
+		int end = size + digits(value);
+		int pos = end;
+		do {
+			buf[--pos] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		size = end;
+		return this;
+	}
+
+	private static int digits(long value) {
+		int digits = 1;
+		for (long limit = 10; digits < 19 && value >= limit; limit *= 10) {
+			digits++;
+		}
+		return digits;
+	}
+
+	/**
+	 * Write string encoded as UTF-8, the same as {@link String#getBytes(java.nio.charset.Charset)} encodes it:
+	 * unpaired surrogates are written as {@code '?'}. {@code null} is written as {@code "null"}, the same as
+	 * {@link StringBuilder#append(String)} does.
+	 *
+	 * @param str
+	 *            string to write
+	 * @return this buffer
+	 */
+	EncodeBuffer utf8(String str) {
+		if (str == null) {
+			return bytes(NULL);
+		}
+		int len = str.length();
+		ensure(len);
+		for (int i = 0; i < len; i++) {
+			char c = str.charAt(i);
+			if (c < 0x80) {
+				ensure(1);
+				buf[size++] = (byte) c;
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+				codePoint(Character.toCodePoint(c, str.charAt(++i)));
+			} else {
+				utf8(c);
+			}
+		}
+		return this;
+	}
+
+	private void utf8(char c) {
+		ensure(3);
+		if (c < 0x80) {
+			buf[size++] = (byte) c;
+		} else if (c < 0x800) {
+			buf[size++] = (byte) (0xC0 | (c >> 6));
+			buf[size++] = (byte) (0x80 | (c & 0x3F));
+		} else if (Character.isSurrogate(c)) {
+			buf[size++] = '?';
+		} else {
+			buf[size++] = (byte) (0xE0 | (c >> 12));
+			buf[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			buf[size++] = (byte) (0x80 | (c & 0x3F));
+		}
+	}
+
+	private void codePoint(int cp) {
+		ensure(4);
+		buf[size++] = (byte) (0xF0 | (cp >> 18));
+		buf[size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+		buf[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+		buf[size++] = (byte) (0x80 | (cp & 0x3F));
+	}
+
+	/**
+	 * Write string escaped for JSON, the same as {@code StringEscapeUtils.escapeJson()} escapes it: quotes, backslash,
+	 * slash and common control characters are escaped by backslash, other characters outside of printable ASCII range
+	 * are escaped as unicode escapes of four upper case hexadecimal digits.
+	 *
+	 * @param str
+	 *            string to write
+	 * @return this buffer
+	 */
+	EncodeBuffer json(String str) {
+		int len = str.length();
+		ensure(len);
+		for (int i = 0; i < len; i++) {
+			json(str.charAt(i));
+		}
+		return this;
+	}
+
+	private void json(char c) {
+		ensure(6);
+		switch (c) {
+		case '"':
+		case '\\':
+		case '/':
+			buf[size++] = '\\';
+			buf[size++] = (byte) c;
+			return;
+		case '\b':
+			escape('b');
+			return;
+		case '\f':
+			escape('f');
+			return;
+		case '\n':
+			escape('n');
+			return;
+		case '\r':
+			escape('r');
+			return;
+		case '\t':
+			escape('t');
+			return;
+		default:
+			if (c < 0x20 || c > 0x7E) {
+				buf[size++] = '\\';
+				buf[size++] = 'u';
+				buf[size++] = HEX[(c >> 12) & 0xF];
+				buf[size++] = HEX[(c >> 8) & 0xF];
+				buf[size++] = HEX[(c >> 4) & 0xF];
+				buf[size++] = HEX[c & 0xF];
+			} else {
+				buf[size++] = (byte) c;
+			}
+		}
+	}
+
+	private void escape(char c) {
+		buf[size++] = '\\';
+		buf[size++] = (byte) c;
+	}
+
+	/**
+	 * Obtain writer view of this buffer, e.g. to print stack traces straight into the buffer.
+	 *
+	 * @param escape
+	 *            {@code true} to escape written characters for JSON, {@code false} to write them as UTF-8
+	 * @return writer writing into this buffer, flushing the writer completes characters split across writes
+	 */
+	Writer writer(boolean escape) {
+		if (escape) {
+			if (jsonWriter == null) {
+				jsonWriter = new CharWriter(true);
+			}
+			return jsonWriter;
+		}
+		if (utf8Writer == null) {
+			utf8Writer = new CharWriter(false);
+		}
+		return utf8Writer;
+	}
+
+	private void ensure(int count) {
+		if (size + count > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(buf.length << 1, size + count));
+		}
+	}
+
+	private final class CharWriter extends Writer {
+		private final boolean escape;
+		private char pendingHigh;
+
+		CharWriter(boolean escape) {
+			this.escape = escape;
+		}
+
+		@Override
+		public void write(int c) {
+			write((char) c);
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			for (int i = off; i < off + len; i++) {
+				write(cbuf[i]);
+			}
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			for (int i = off; i < off + len; i++) {
+				write(str.charAt(i));
+			}
+		}
+
+		private void write(char c) {
+			if (escape) {
+				json(c);
+			} else if (pendingHigh != 0) {
+				if (Character.isLowSurrogate(c)) {
+					codePoint(Character.toCodePoint(pendingHigh, c));
+					pendingHigh = 0;
+				} else {
+					pendingHigh = 0;
+					utf8('?');
+					write(c);
+				}
+			} else if (Character.isHighSurrogate(c)) {
+				pendingHigh = c;
+			} else {
+				utf8(c);
+			}
+		}
+
+		@Override
+		public void flush() {
+			if (pendingHigh != 0) {
+				pendingHigh = 0;
+				utf8('?');
+			}
+		}
+
+		@Override
+		public void close() {
+			flush();
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+/**
+ * Defines output format of {@link TNT4JEncoder}. Encoded logging event is equivalent to the output of the
+ * corresponding TNT4J formatter for TNT4J event {@link TNT4JAppender} would report for the same logging event.
+ *
+ * @version $Revision: 1 $
+ */
+public enum EncoderFormat {
+	/**
+	 * Events are encoded as {@code com.jkoolcloud.tnt4j.format.JSONFormatter} formats them.
+	 */
+	JSON,
+
+	/**
+	 * Events are encoded as {@code com.jkoolcloud.tnt4j.format.SimpleFormatter} formats them.
+	 */
+	SIMPLE
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.slf4j.Marker;
+import org.slf4j.event.KeyValuePair;
+
+import com.jkoolcloud.tnt4j.utils.Utils;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Collects attributes of logging events the same way for {@link TNT4JAppender} and {@link TNT4JEncoder}: hashtags of
+ * event message, key-value pairs and MDC attributes ranked by configured attribute sources, and names of configured
+ * markers.
+ *
+ * @version $Revision: 1 $
+ */
+final class EventAttributes {
+	static final String ALL_MARKERS = "*";
+
+	private EventAttributes() {
+	}
+
+	/**
+	 * Fill attributes buffer with hashtags of logging event message. Hashtags of parameterized messages are bound into
+	 * cached compiled template plan, other messages are scanned.
+	 *
+	 * @param event
+	 *            logging event
+	 * @param eventMsg
+	 *            formatted message of logging event
+	 * @param attrs
+	 *            attributes buffer to fill
+	 * @param templates
+	 *            cache of compiled message templates
+	 * @return attributes buffer
+	 */
+	static HashTagAttributes parseMessage(ILoggingEvent event, String eventMsg, HashTagAttributes attrs,
+			BoundedCache<String, MessageTemplate> templates) {
+		Object[] args = event.getArgumentArray();
+		String template = event.getMessage();
+		if (args != null && args.length > 0 && template != null
+				&& templates.get(template).bind(eventMsg, args, attrs)) {
+			return attrs;
+		}
+		return HashTagScanner.scan(eventMsg, attrs);
+	}
+
+	/**
+	 * Put key-value pairs and MDC attributes of logging event into attributes buffer, according to configured attribute
+	 * sources precedence.
+	 *
+	 * @param event
+	 *            logging event
+	 * @param attrs
+	 *            attributes buffer to fill
+	 * @param sourceRanks
+	 *            attribute source ranks indexed by {@link AttributeSource} ordinal, {@code -1} if source is not ingested
+	 * @param fieldKeys
+	 *            cache of resolved attribute keys
+	 */
+	static void addContextAttributes(ILoggingEvent event, HashTagAttributes attrs, int[] sourceRanks,
+			BoundedCache<String, FieldKey> fieldKeys) {
+		int rank = sourceRanks[AttributeSource.KV.ordinal()];
+		if (rank >= 0) {
+			List<KeyValuePair> kvPairs = event.getKeyValuePairs();
+			if (kvPairs != null && !kvPairs.isEmpty()) {
+				attrs.rank(rank);
+				for (KeyValuePair kvPair : kvPairs) {
+					if (!Utils.isEmpty(kvPair.key) && kvPair.value != null) {
+						attrs.put(fieldKeys.get(kvPair.key), kvPair.value);
+					}
+				}
+			}
+		}
+		rank = sourceRanks[AttributeSource.MDC.ordinal()];
+		if (rank >= 0) {
+			Map<String, String> mdc = event.getMDCPropertyMap();
+			if (mdc != null && !mdc.isEmpty()) {
+				attrs.rank(rank);
+				for (Map.Entry<String, String> entry : mdc.entrySet()) {
+					if (!Utils.isEmpty(entry.getKey()) && entry.getValue() != null) {
+						attrs.put(fieldKeys.get(entry.getKey()), entry.getValue());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hand names of configured markers carried by logging event over to a given tags consumer.
+	 *
+	 * @param markers
+	 *            markers of logging event
+	 * @param names
+	 *            configured marker names, {@value #ALL_MARKERS} stands for any marker
+	 * @param tags
+	 *            consumer of marker names
+	 */
+	static void addMarkerTags(List<Marker> markers, String[] names, Consumer<String> tags) {
+		for (Marker marker : markers) {
+			for (String name : names) {
+				if (ALL_MARKERS.equals(name)) {
+					tags.accept(marker.getName());
+				} else if (marker.contains(name)) {
+					tags.accept(name);
+				}
+			}
+		}
+	}
+}
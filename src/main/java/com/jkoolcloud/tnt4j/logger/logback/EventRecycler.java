@@ -0,0 +1,270 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.jkoolcloud.tnt4j.TrackingLogger;
+import com.jkoolcloud.tnt4j.core.*;
+import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
+
+/**
+ * Striped pools of recyclable TNT4J datagram events, along with their snapshot and property holders. Logging thread
+ * takes an event from the pool of its stripe (stripes are selected by thread id, there are as many stripes as available
+ * processors rounded up to the power of two), fills it, reports it to a synchronous sink and puts it back to the pool.
+ * <p>
+ * Pooled events are sealed when released: event message, properties, snapshots and elapsed time are recorded and
+ * verified when event is taken from the pool again. Event modified after release (e.g. retained by sink or sink
+ * listener) is counted as a violation and dropped from the pool. Releasing event twice fails right away.
+ *
+ * @version $Revision: 1 $
+ */
+final class EventRecycler {
+	private final Stripe[] stripes;
+	private final int mask;
+	private final LongAdder recycled = new LongAdder();
+	private final LongAdder violations = new LongAdder();
+
+	/**
+	 * Create event pools.
+	 *
+	 * @param poolSize
+	 *            maximum number of pooled events per stripe
+	 */
+	EventRecycler(int poolSize) {
+		int count = Integer.highestOneBit(Math.max(2, Runtime.getRuntime().availableProcessors()) - 1) << 1;
+		stripes = new Stripe[count];
+		for (int i = 0; i < count; i++) {
+			stripes[i] = new Stripe(Math.max(1, poolSize));
+		}
+		mask = count - 1;
+	}
+
+	/**
+	 * Take pooled event holder of the calling thread stripe, or create new one if pool is empty.
+	 *
+	 * @return event holder in use by calling thread
+	 */
+	PooledEvent acquire() {
+		PooledEvent pooled = stripe().poll();
+		if (pooled == null) {
+			pooled = new PooledEvent();
+		} else if (!pooled.isIntact()) {
+			violations.increment();
+			pooled = new PooledEvent();
+		} else {
+			recycled.increment();
+		}
+		pooled.inUse = true;
+		return pooled;
+	}
+
+	/**
+	 * Put event holder back to the pool of the calling thread stripe, once its event has been formatted by sink.
+	 *
+	 * @param pooled
+	 *            event holder to release
+	 * @throws IllegalStateException
+	 *             if event holder is already released
+	 */
+	void release(PooledEvent pooled) {
+		if (!pooled.inUse) {
+			throw new IllegalStateException("Pooled event released twice, message=" + pooled.sealedMessage);
+		}
+		pooled.inUse = false;
+		if (pooled.seal()) {
+			stripe().offer(pooled);
+		}
+	}
+
+	/**
+	 * Obtain number of events reused from pools.
+	 *
+	 * @return number of recycled events
+	 */
+	long getRecycledCount() {
+		return recycled.sum();
+	}
+
+	/**
+	 * Obtain number of pooled events found modified after release.
+	 *
+	 * @return number of use after release violations
+	 */
+	long getViolationCount() {
+		return violations.sum();
+	}
+
+	private Stripe stripe() {
+		return stripes[(int) Thread.currentThread().getId() & mask];
+	}
+
+	/**
+	 * Bounded stack of pooled event holders.
+	 */
+	private static final class Stripe {
+		private final PooledEvent[] pool;
+		private int size;
+
+		Stripe(int capacity) {
+			pool = new PooledEvent[capacity];
+		}
+
+		synchronized PooledEvent poll() {
+			if (size == 0) {
+				return null;
+			}
+			PooledEvent pooled = pool[--size];
+			pool[size] = null;
+			return pooled;
+		}
+
+		synchronized void offer(PooledEvent pooled) {
+			if (size < pool.length) {
+				pool[size++] = pooled;
+			}
+		}
+	}
+
+	/**
+	 * Recyclable holder of TNT4J tracking event, its user fields snapshot and snapshot properties. Event fields not
+	 * assigned by the appender for every event are reset to values of newly created event when event is reused.
+	 */
+	static final class PooledEvent {
+		private TrackingEvent event;
+		private String user;
+		private String location;
+		private long ttl;
+		private PropertySnapshot snapshot;
+		private Property[] properties = new Property[8];
+		private int propertyCount;
+		private boolean inUse;
+
+		private String sealedMessage;
+		private int sealedProperties;
+		private int sealedSnapshots;
+		private long sealedElapsedUsec;
+
+		/**
+		 * Obtain tracking event, either newly created or reset pooled one.
+		 *
+		 * @param logger
+		 *            tracking logger creating events
+		 * @param opName
+		 *            event operation name
+		 * @param msg
+		 *            event message
+		 * @return tracking event
+		 */
+		TrackingEvent event(TrackingLogger logger, String opName, String msg) {
+			propertyCount = 0;
+			if (event == null) {
+				TrackingEvent created = logger.newEvent(opName, msg);
+				if (!created.isNoop()) {
+					event = created;
+					user = created.getOperation().getUser();
+					location = created.getLocation();
+					ttl = created.getTTL();
+				}
+				return created;
+			}
+			Operation op = event.getOperation();
+			event.setGUID(null);
+			event.setTrackingId(null);
+			event.setTTL(ttl);
+			event.setMessage(msg);
+			event.setMessageAge(0);
+			event.setParentId((String) null);
+			event.setLocation(location);
+			event.clearTags();
+			event.clear2();
+			op.setName(opName);
+			op.setType(OpType.EVENT);
+			op.setUser(user);
+			op.setException((Throwable) null);
+			op.setWaitTimeUsec(0);
+			op.setTID(Thread.currentThread().getId());
+			op.clearCorrelators();
+			op.clearProperties();
+			op.getSnapshots().clear();
+			return event;
+		}
+
+		/**
+		 * Obtain user fields snapshot, reusing pooled one of the same name.
+		 *
+		 * @param logger
+		 *            tracking logger creating snapshots
+		 * @param category
+		 *            snapshot category
+		 * @param name
+		 *            snapshot name
+		 * @return empty snapshot
+		 */
+		Snapshot snapshot(TrackingLogger logger, String category, String name) {
+			PropertySnapshot snap = snapshot;
+			if (snap != null && name.equals(snap.getName()) && category.equals(snap.getCategory())) {
+				snap.getProperties().clear();
+				snap.setTimeStamp(new UsecTimestamp());
+				snap.setParentId((String) null);
+				snap.setTrackingId(null);
+				return snap;
+			}
+			Snapshot created = logger.newSnapshot(category, name);
+			if (created instanceof PropertySnapshot) {
+				snapshot = (PropertySnapshot) created;
+			}
+			return created;
+		}
+
+		/**
+		 * Obtain next property holder of the event, to be set by caller.
+		 *
+		 * @return property holder
+		 */
+		Property property() {
+			if (propertyCount == properties.length) {
+				properties = Arrays.copyOf(properties, propertyCount * 2);
+			}
+			Property prop = properties[propertyCount];
+			if (prop == null) {
+				prop = new Property("", "");
+				properties[propertyCount] = prop;
+			}
+			propertyCount++;
+			return prop;
+		}
+
+		private boolean seal() {
+			if (event == null) {
+				return false;
+			}
+			Operation op = event.getOperation();
+			sealedMessage = event.getMessagePattern();
+			sealedProperties = op.getPropertyCount();
+			sealedSnapshots = op.getSnapshotCount();
+			sealedElapsedUsec = op.getElapsedTimeUsec();
+			return true;
+		}
+
+		private boolean isIntact() {
+			Operation op = event.getOperation();
+			return !inUse && event.getMessagePattern() == sealedMessage && op.getPropertyCount() == sealedProperties
+					&& op.getSnapshotCount() == sealedSnapshots && op.getElapsedTimeUsec() == sealedElapsedUsec;
+		}
+	}
+}
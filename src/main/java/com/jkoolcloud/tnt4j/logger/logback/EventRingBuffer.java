@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.jkoolcloud.tnt4j.tracker.TrackingActivity;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Bounded, lock-free ring buffer of preallocated {@link Slot}s handing logging events over from logging threads to a
+ * dispatch thread. Any number of threads may claim and publish slots. Slots are normally polled by a single dispatch
+ * thread, while producers may also poll the oldest slot to drop it.
+ * <p>
+ * Producer sequence: {@link #tryClaim()}, fill {@link #slot(long)}, {@link #publish(long)}. Consumer sequence:
+ * {@link #tryPoll()}, read {@link #slot(long)}, {@link #release(long)}.
+ *
+ * @version $Revision: 1 $
+ */
+final class EventRingBuffer {
+	/**
+	 * Reusable ring buffer entry holding logging event and the context captured on the logging thread.
+	 */
+	static final class Slot {
+		ILoggingEvent event;
+		TrackingActivity activity;
+		StackTraceElement frame;
+		long elapsedUsec;
+
+		void clear() {
+			event = null;
+			activity = null;
+			frame = null;
+			elapsedUsec = 0;
+		}
+	}
+
+	private final Slot[] slots;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong released = new AtomicLong();
+
+	/**
+	 * Create ring buffer with a given minimal capacity, rounded up to the power of two.
+	 *
+	 * @param minCapacity
+	 *            minimal ring buffer capacity
+	 */
+	EventRingBuffer(int minCapacity) {
+		int capacity = Integer.highestOneBit(Math.max(2, minCapacity) - 1) << 1;
+		slots = new Slot[capacity];
+		sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			slots[i] = new Slot();
+			sequences.set(i, i);
+		}
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Obtain ring buffer capacity.
+	 *
+	 * @return ring buffer capacity
+	 */
+	int capacity() {
+		return slots.length;
+	}
+
+	/**
+	 * Obtain number of claimed but not yet polled slots.
+	 *
+	 * @return number of queued slots
+	 */
+	int size() {
+		return (int) Math.max(0, tail.get() - head.get());
+	}
+
+	/**
+	 * Obtain sequence number of the next slot to be claimed.
+	 *
+	 * @return producer position
+	 */
+	long producerPosition() {
+		return tail.get();
+	}
+
+	/**
+	 * Obtain number of slots released by consumers so far.
+	 *
+	 * @return released slot count
+	 */
+	long releasedCount() {
+		return released.get();
+	}
+
+	/**
+	 * Check whether oldest slot is published and may be polled.
+	 *
+	 * @return {@code true} if there is a published slot, {@code false} otherwise
+	 */
+	boolean hasPublished() {
+		long pos = head.get();
+		return sequences.get((int) (pos & mask)) == pos + 1;
+	}
+
+	/**
+	 * Claim next free slot.
+	 *
+	 * @return claimed slot position, or {@code -1} if ring buffer is full
+	 */
+	long tryClaim() {
+		long pos = tail.get();
+		for (;;) {
+			long dif = sequences.get((int) (pos & mask)) - pos;
+			if (dif == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					return pos;
+				}
+				pos = tail.get();
+			} else if (dif < 0) {
+				return -1;
+			} else {
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Make claimed slot visible to consumers.
+	 *
+	 * @param pos
+	 *            claimed slot position
+	 */
+	void publish(long pos) {
+		sequences.set((int) (pos & mask), pos + 1);
+	}
+
+	/**
+	 * Poll oldest published slot.
+	 *
+	 * @return polled slot position, or {@code -1} if there is no published slot
+	 */
+	long tryPoll() {
+		long pos = head.get();
+		for (;;) {
+			long dif = sequences.get((int) (pos & mask)) - (pos + 1);
+			if (dif == 0) {
+				if (head.compareAndSet(pos, pos + 1)) {
+					return pos;
+				}
+				pos = head.get();
+			} else if (dif < 0) {
+				return -1;
+			} else {
+				pos = head.get();
+			}
+		}
+	}
+
+	/**
+	 * Clear polled slot and return it to producers.
+	 *
+	 * @param pos
+	 *            polled slot position
+	 */
+	void release(long pos) {
+		int idx = (int) (pos & mask);
+		slots[idx].clear();
+		sequences.set(idx, pos + slots.length);
+		released.incrementAndGet();
+	}
+
+	/**
+	 * Obtain slot at a given position.
+	 *
+	 * @param pos
+	 *            claimed or polled slot position
+	 * @return slot instance
+	 */
+	Slot slot(long pos) {
+		return slots[(int) (pos & mask)];
+	}
+}
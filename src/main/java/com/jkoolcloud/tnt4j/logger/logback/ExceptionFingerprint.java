@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+
+/**
+ * Occurrence statistics of exceptions sharing the same fingerprint: exception class and stack frames, including
+ * causes. Fingerprint identifier is used as reference to the full stack trace reported with the first occurrence.
+ *
+ * @version $Revision: 1 $
+ */
+final class ExceptionFingerprint {
+	private final String id;
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong lastMetrics = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+	 * Create exception statistics for a given fingerprint identifier.
+	 *
+	 * @param id
+	 *            fingerprint identifier, see {@link #idOf(IThrowableProxy)}
+	 */
+	ExceptionFingerprint(String id) {
+		this.id = id;
+	}
+
+	/**
+	 * Compute fingerprint identifier of a given exception: class name followed by hash of class names and stack frames
+	 * of the exception and its causes.
+	 *
+	 * @param throwable
+	 *            exception proxy
+	 * @return fingerprint identifier
+	 */
+	static String idOf(IThrowableProxy throwable) {
+		long hash = 1;
+		for (IThrowableProxy tp = throwable; tp != null; tp = tp.getCause()) {
+			hash = 31 * hash + tp.getClassName().hashCode();
+			StackTraceElementProxy[] frames = tp.getStackTraceElementProxyArray();
+			if (frames != null) {
+				for (StackTraceElementProxy frame : frames) {
+					hash = 31 * hash + frame.getStackTraceElement().hashCode();
+				}
+			}
+		}
+		// spread bits, so that similar traces do not produce similar identifiers
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return throwable.getClassName() + "@" + Long.toHexString(hash);
+	}
+
+	/**
+	 * Obtain fingerprint identifier.
+	 *
+	 * @return fingerprint identifier
+	 */
+	String getId() {
+		return id;
+	}
+
+	/**
+	 * Count a new occurrence.
+	 *
+	 * @return number of occurrences including this one
+	 */
+	long hit() {
+		return count.incrementAndGet();
+	}
+
+	/**
+	 * Obtain number of occurrences.
+	 *
+	 * @return number of occurrences
+	 */
+	long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Determine if metrics report on this exception is due. Only one of the concurrently logging threads wins the
+	 * report for a given interval.
+	 *
+	 * @param now
+	 *            current time in milliseconds
+	 * @param intervalMs
+	 *            minimal number of milliseconds between reports
+	 * @return {@code true} if calling thread should report metrics, {@code false} otherwise
+	 */
+	boolean isMetricsDue(long now, long intervalMs) {
+		long last = lastMetrics.get();
+		return (last == Long.MIN_VALUE || now - last >= intervalMs) && lastMetrics.compareAndSet(last, now);
+	}
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import ch.qos.logback.core.spi.ContextAware;
+
+/**
+ * Aggregates numeric values of selected snapshot properties over time windows. Values are accumulated per property
+ * and logger name by lock-free accumulators: count, sum, minimum, maximum and {@link QuantileSketch}. Once window
+ * closes, accumulators are drained and a single aggregate per property is handed over to reporter, carrying totals
+ * of all loggers merged together, as well as statistics of every logger. Loggers over accumulator table capacity are
+ * accumulated together under {@value #OTHER_LOGGERS} name. Values recorded while window closes may be split between
+ * adjacent windows.
+ *
+ * @version $Revision: 1 $
+ */
+final class FieldAggregator {
+	static final String OTHER_LOGGERS = "*";
+
+	private final int capacity;
+	private final Consumer<Aggregate> reporter;
+	private final ContextAware status;
+	private final Map<String, Field> fields;
+	private final AtomicInteger size = new AtomicInteger();
+	private final ScheduledExecutorService flusher;
+	private final LongAdder recorded = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private long windowStart = System.currentTimeMillis();
+
+	/**
+	 * Accumulators of a single aggregated property, per logger name.
+	 */
+	private static final class Field {
+		private final String name;
+		private final ConcurrentHashMap<String, Accumulator> loggers = new ConcurrentHashMap<>();
+		private volatile String valueType;
+
+		Field(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * Lock-free accumulator of property values of a single logger.
+	 */
+	private static final class Accumulator {
+		private final LongAdder count = new LongAdder();
+		private final DoubleAdder sum = new DoubleAdder();
+		private final DoubleAccumulator min = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+		private final DoubleAccumulator max = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+		private final QuantileSketch sketch = new QuantileSketch();
+
+		void record(double value) {
+			sketch.record(value);
+			sum.add(value);
+			min.accumulate(value);
+			max.accumulate(value);
+			count.increment();
+		}
+
+		Stats drain() {
+			Stats stats = new Stats();
+			stats.count = count.sumThenReset();
+			if (stats.count > 0) {
+				stats.sum = sum.sumThenReset();
+				stats.min = min.getThenReset();
+				stats.max = max.getThenReset();
+				sketch.drainTo(stats.sketch);
+			}
+			return stats;
+		}
+	}
+
+	/**
+	 * Statistics of property values accumulated within a closed window.
+	 */
+	static final class Stats {
+		private final QuantileSketch sketch = new QuantileSketch();
+		private long count;
+		private double sum;
+		private double min = Double.POSITIVE_INFINITY;
+		private double max = Double.NEGATIVE_INFINITY;
+
+		void merge(Stats other) {
+			count += other.count;
+			sum += other.sum;
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+			sketch.merge(other.sketch);
+		}
+
+		/**
+		 * Obtain number of accumulated values.
+		 *
+		 * @return number of values
+		 */
+		long getCount() {
+			return count;
+		}
+
+		/**
+		 * Obtain sum of accumulated values.
+		 *
+		 * @return sum of values
+		 */
+		double getSum() {
+			return sum;
+		}
+
+		/**
+		 * Obtain minimal accumulated value.
+		 *
+		 * @return minimal value
+		 */
+		double getMin() {
+			return min;
+		}
+
+		/**
+		 * Obtain maximal accumulated value.
+		 *
+		 * @return maximal value
+		 */
+		double getMax() {
+			return max;
+		}
+
+		/**
+		 * Obtain mean of accumulated values.
+		 *
+		 * @return mean value, {@code 0} if nothing was accumulated
+		 */
+		double getMean() {
+			return count == 0 ? 0 : sum / count;
+		}
+
+		/**
+		 * Obtain quantile estimate of accumulated values, bounded by minimal and maximal value.
+		 *
+		 * @param quantile
+		 *            quantile within range {@code [0, 1]}
+		 * @return value estimate, {@code 0} if nothing was accumulated
+		 */
+		double getQuantile(double quantile) {
+			double value = sketch.getQuantile(quantile);
+			return Double.isNaN(value) ? 0 : Math.max(min, Math.min(max, value));
+		}
+	}
+
+	/**
+	 * Aggregate of a single property within a closed window.
+	 */
+	static final class Aggregate {
+		private final String name;
+		private final String valueType;
+		private final long startTime;
+		private final long endTime;
+		private final Stats total = new Stats();
+		private final SortedMap<String, Stats> loggers = new TreeMap<>();
+
+		Aggregate(String name, String valueType, long startTime, long endTime) {
+			this.name = name;
+			this.valueType = valueType;
+			this.startTime = startTime;
+			this.endTime = endTime;
+		}
+
+		void add(String loggerName, Stats stats) {
+			loggers.put(loggerName, stats);
+			total.merge(stats);
+		}
+
+		/**
+		 * Obtain name of aggregated property.
+		 *
+		 * @return property name
+		 */
+		String getName() {
+			return name;
+		}
+
+		/**
+		 * Obtain value type of aggregated property, as qualified by the last recorded value.
+		 *
+		 * @return property value type
+		 */
+		String getValueType() {
+			return valueType;
+		}
+
+		/**
+		 * Obtain window start timestamp.
+		 *
+		 * @return timestamp in milliseconds
+		 */
+		long getStartTime() {
+			return startTime;
+		}
+
+		/**
+		 * Obtain window end timestamp.
+		 *
+		 * @return timestamp in milliseconds
+		 */
+		long getEndTime() {
+			return endTime;
+		}
+
+		/**
+		 * Obtain statistics of all loggers merged together.
+		 *
+		 * @return total statistics
+		 */
+		Stats getTotal() {
+			return total;
+		}
+
+		/**
+		 * Obtain statistics of every logger which recorded a value within the window, ordered by logger name.
+		 *
+		 * @return map of logger name to its statistics
+		 */
+		Map<String, Stats> getLoggers() {
+			return Collections.unmodifiableMap(loggers);
+		}
+	}
+
+	/**
+	 * Create field aggregator.
+	 *
+	 * @param name
+	 *            aggregator name, used for naming flusher thread
+	 * @param names
+	 *            names of aggregated snapshot properties
+	 * @param windowMs
+	 *            aggregation window in milliseconds
+	 * @param capacity
+	 *            maximum number of logger accumulators of all properties
+	 * @param reporter
+	 *            consumer reporting property aggregates of closed windows
+	 * @param status
+	 *            status manager to report aggregate errors
+	 */
+	FieldAggregator(String name, Collection<String> names, long windowMs, int capacity, Consumer<Aggregate> reporter,
+			ContextAware status) {
+		this.capacity = Math.max(1, capacity);
+		this.reporter = reporter;
+		this.status = status;
+		Map<String, Field> map = new HashMap<>();
+		for (String field : names) {
+			map.put(field, new Field(field));
+		}
+		this.fields = map;
+
+		long window = Math.max(1, windowMs);
+		flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, name + "-aggregate");
+			thread.setDaemon(true);
+			return thread;
+		});
+		flusher.scheduleAtFixedRate(this::flush, window, window, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Check whether a given snapshot property is aggregated.
+	 *
+	 * @param name
+	 *            snapshot property name
+	 * @return {@code true} if property is aggregated, {@code false} otherwise
+	 */
+	boolean isAggregated(String name) {
+		return fields.containsKey(name);
+	}
+
+	/**
+	 * Record value of a snapshot property into accumulator of a given logger, if property is aggregated and value is a
+	 * finite number.
+	 *
+	 * @param loggerName
+	 *            logger name
+	 * @param name
+	 *            snapshot property name
+	 * @param value
+	 *            property value
+	 * @param valueType
+	 *            property value type
+	 * @return {@code true} if value was recorded, {@code false} otherwise
+	 */
+	boolean record(String loggerName, String name, Object value, String valueType) {
+		Field field = fields.get(name);
+		if (field == null || !(value instanceof Number)) {
+			return false;
+		}
+		double number = ((Number) value).doubleValue();
+		if (Double.isNaN(number) || Double.isInfinite(number)) {
+			return false;
+		}
+		if (valueType != null && !valueType.equals(field.valueType)) {
+			field.valueType = valueType;
+		}
+		accumulator(field, loggerName).record(number);
+		recorded.increment();
+		return true;
+	}
+
+	private Accumulator accumulator(Field field, String loggerName) {
+		Accumulator acc = field.loggers.get(loggerName);
+		if (acc != null) {
+			return acc;
+		}
+		if (size.get() >= capacity) {
+			return field.loggers.computeIfAbsent(OTHER_LOGGERS, k -> new Accumulator());
+		}
+		return field.loggers.computeIfAbsent(loggerName, k -> {
+			size.incrementAndGet();
+			return new Accumulator();
+		});
+	}
+
+	/**
+	 * Count logging event dropped since its properties were aggregated.
+	 */
+	void dropped() {
+		dropped.increment();
+	}
+
+	/**
+	 * Obtain number of values recorded.
+	 *
+	 * @return number of recorded values
+	 */
+	long getRecordedCount() {
+		return recorded.sum();
+	}
+
+	/**
+	 * Obtain number of logging events dropped since their properties were aggregated.
+	 *
+	 * @return number of dropped events
+	 */
+	long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	private synchronized void flush() {
+		long endTime = System.currentTimeMillis();
+		for (Field field : fields.values()) {
+			Aggregate aggregate = null;
+			for (Map.Entry<String, Accumulator> entry : field.loggers.entrySet()) {
+				Stats stats = entry.getValue().drain();
+				if (stats.getCount() > 0) {
+					if (aggregate == null) {
+						aggregate = new Aggregate(field.name, field.valueType, windowStart, endTime);
+					}
+					aggregate.add(entry.getKey(), stats);
+				}
+			}
+			if (aggregate != null) {
+				report(aggregate);
+			}
+		}
+		windowStart = endTime;
+	}
+
+	private void report(Aggregate aggregate) {
+		try {
+			reporter.accept(aggregate);
+		} catch (RuntimeException e) {
+			status.addError("Failed to report aggregated fields", e);
+		}
+	}
+
+	/**
+	 * Stop window flusher and report values accumulated within the current window.
+	 */
+	void stop() {
+		flusher.shutdownNow();
+		flush();
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import com.jkoolcloud.tnt4j.core.Property;
+import com.jkoolcloud.tnt4j.logger.AppenderTools;
+
+/**
+ * Resolution of MDC or key-value pair key onto TNT4J event field or snapshot property, computed once per key. Key is
+ * resolved the same way as hashtag key of the message: built-in hashtag labels (case insensitive) map onto TNT4J event
+ * fields, other keys are reported as snapshot properties named and typed using {@code %[value-type-qualifier]/key}
+ * convention. Activity {@code beg}/{@code end} labels are reported as properties, since activity instructions are
+ * recognized only within messages.
+ *
+ * @version $Revision: 1 $
+ */
+final class FieldKey {
+	private final String key;
+	private final int keyHash;
+	private final HashTag tag;
+	private final boolean exact;
+	private final String propertyName;
+	private final String valueType;
+	private final char qualifier;
+
+	private FieldKey(String key) {
+		HashTag found = HashTag.find(key, 0, key.length());
+		this.key = key;
+		this.keyHash = key.hashCode();
+		this.exact = found != null && key.equals(found.label());
+		this.tag = found == HashTag.BEGIN || found == HashTag.END ? null : found;
+		this.propertyName = AppenderTools.getKey(key);
+		this.valueType = AppenderTools.getValueType(key);
+		this.qualifier = key.startsWith("%") ? (key.length() > 1 ? key.charAt(1) : '%') : 0;
+	}
+
+	/**
+	 * Resolve a given MDC or key-value pair key.
+	 *
+	 * @param key
+	 *            key to resolve
+	 * @return resolved field key
+	 */
+	static FieldKey resolve(String key) {
+		return new FieldKey(key);
+	}
+
+	/**
+	 * Obtain key as defined by MDC or key-value pair.
+	 *
+	 * @return key string
+	 */
+	String key() {
+		return key;
+	}
+
+	/**
+	 * Obtain {@link String#hashCode()} of the key.
+	 *
+	 * @return key hash code
+	 */
+	int keyHash() {
+		return keyHash;
+	}
+
+	/**
+	 * Obtain built-in hashtag this key maps onto.
+	 *
+	 * @return built-in hashtag, or {@code null} if key maps onto snapshot property
+	 */
+	HashTag tag() {
+		return tag;
+	}
+
+	/**
+	 * Check whether key matches built-in hashtag label case sensitively.
+	 *
+	 * @return {@code true} if key matches hashtag label exactly, {@code false} otherwise
+	 */
+	boolean isExact() {
+		return exact;
+	}
+
+	/**
+	 * Obtain name of snapshot property this key maps onto, with value type qualifier stripped.
+	 *
+	 * @return snapshot property name
+	 */
+	String propertyName() {
+		return propertyName;
+	}
+
+	/**
+	 * Create snapshot property for a given value. String values are converted the same way as
+	 * {@link AppenderTools#toProperty(String, String)} does, other values are kept as is.
+	 *
+	 * @param value
+	 *            property value
+	 * @return snapshot property
+	 */
+	Property toProperty(Object value) {
+		return new Property(propertyName, value instanceof String ? convert((String) value) : value, valueType);
+	}
+
+	/**
+	 * Set reusable snapshot property to a given value, the same way as {@link #toProperty(Object)} creates one.
+	 *
+	 * @param value
+	 *            property value
+	 * @param property
+	 *            property to set
+	 * @return given property
+	 */
+	Property toProperty(Object value, Property property) {
+		property.set(propertyName, value instanceof String ? convert((String) value) : value, valueType);
+		return property;
+	}
+
+	private Object convert(String value) {
+		try {
+			switch (qualifier) {
+			case 0:
+				return Long.parseLong(value);
+			case 'n':
+			case 'd':
+				return Double.parseDouble(value);
+			case 'i':
+				return Integer.parseInt(value);
+			case 'l':
+				return Long.parseLong(value);
+			case 'f':
+				return Float.parseFloat(value);
+			case 'b':
+				return Boolean.parseBoolean(value);
+			default:
+				return value;
+			}
+		} catch (NumberFormatException e) {
+			return value;
+		}
+	}
+}
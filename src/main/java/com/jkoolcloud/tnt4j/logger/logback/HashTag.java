@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import com.jkoolcloud.tnt4j.logger.AppenderConstants;
+
+/**
+ * Built-in TNT4J hashtag labels recognized by {@link HashTagScanner}, see {@link AppenderConstants}.
+ *
+ * @version $Revision: 1 $
+ */
+enum HashTag {
+	BEGIN(AppenderConstants.PARAM_BEGIN_LABEL),
+	END(AppenderConstants.PARAM_END_LABEL),
+	APPL(AppenderConstants.PARAM_APPL_LABEL),
+	USER(AppenderConstants.PARAM_USER_LABEL),
+	CORRELATOR(AppenderConstants.PARAM_CORRELATOR_LABEL),
+	TAG(AppenderConstants.PARAM_TAG_LABEL),
+	LOCATION(AppenderConstants.PARAM_LOCATION_LABEL),
+	OP_NAME(AppenderConstants.PARAM_OP_NAME_LABEL),
+	OP_TYPE(AppenderConstants.PARAM_OP_TYPE_LABEL),
+	RESOURCE(AppenderConstants.PARAM_RESOURCE_LABEL),
+	MSG_DATA(AppenderConstants.PARAM_MSG_DATA_LABEL),
+	EXCEPTION(AppenderConstants.PARAM_EXCEPTION_LABEL),
+	SEVERITY(AppenderConstants.PARAM_SEVERITY_LABEL),
+	COMP_CODE(AppenderConstants.PARAM_COMP_CODE_LABEL),
+	REASON_CODE(AppenderConstants.PARAM_REASON_CODE_LABEL),
+	START_TIME(AppenderConstants.PARAM_START_TIME_LABEL),
+	END_TIME(AppenderConstants.PARAM_END_TIME_LABEL),
+	ELAPSED_TIME(AppenderConstants.PARAM_ELAPSED_TIME_LABEL),
+	AGE_TIME(AppenderConstants.PARAM_AGE_TIME_LABEL);
+
+	private static final HashTag[] TAGS = values();
+
+	private final String label;
+	private final int labelHash;
+
+	HashTag(String label) {
+		this.label = label;
+		this.labelHash = label.hashCode();
+	}
+
+	/**
+	 * Obtain hashtag label.
+	 *
+	 * @return hashtag label
+	 */
+	String label() {
+		return label;
+	}
+
+	/**
+	 * Obtain {@link String#hashCode()} of hashtag label.
+	 *
+	 * @return label hash code
+	 */
+	int labelHash() {
+		return labelHash;
+	}
+
+	/**
+	 * Find built-in hashtag matching (case insensitive) a given key region of the message, without creating key
+	 * substring.
+	 *
+	 * @param msg
+	 *            message containing hashtags
+	 * @param from
+	 *            key region start index, inclusive
+	 * @param to
+	 *            key region end index, exclusive
+	 * @return matching hashtag, or {@code null} if key is not a built-in hashtag
+	 */
+	static HashTag find(String msg, int from, int to) {
+		int len = to - from;
+		for (HashTag tag : TAGS) {
+			if (tag.label.length() == len && msg.regionMatches(true, from, tag.label, 0, len)) {
+				return tag;
+			}
+		}
+		return null;
+	}
+}
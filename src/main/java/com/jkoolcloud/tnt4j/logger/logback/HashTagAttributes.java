@@ -0,0 +1,334 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.Arrays;
+
+/**
+ * Reusable buffer of hashtag attributes parsed from a single logging event by {@link HashTagScanner}. Built-in
+ * hashtags are kept as {@link HashTag} ordinals, only user defined attributes keep their key strings.
+ * <p>
+ * Attributes may also be put from other event attribute sources (MDC, key-value pairs) using resolved
+ * {@link FieldKey}s. Every attribute remembers rank of its source: attribute put again by a source of lower rank
+ * (higher precedence) replaces the value, while attribute put by a source of higher rank is ignored.
+ * <p>
+ * Attributes are iterated in the same order as {@code HashMap} filled by
+ * {@link com.jkoolcloud.tnt4j.logger.AppenderTools#parseEventMessage(java.util.Map, String, char)} would iterate
+ * them, so produced TNT4J tracking events stay identical to the ones produced using {@code AppenderTools}.
+ * <p>
+ * Instances are not thread safe and are meant to be confined to a single thread.
+ *
+ * @version $Revision: 1 $
+ */
+final class HashTagAttributes {
+	private static final int INITIAL_CAPACITY = 16;
+	private static final float LOAD_FACTOR = 0.75f;
+
+	private int size;
+	private HashTag[] tags = new HashTag[INITIAL_CAPACITY];
+	private boolean[] exact = new boolean[INITIAL_CAPACITY];
+	private int[] hashes = new int[INITIAL_CAPACITY];
+	private String[] keys = new String[INITIAL_CAPACITY];
+	private String[] values = new String[INITIAL_CAPACITY];
+	private Object[] objects = new Object[INITIAL_CAPACITY];
+	private FieldKey[] fields = new FieldKey[INITIAL_CAPACITY];
+	private int[] ranks = new int[INITIAL_CAPACITY];
+	private int rank;
+	private int[] order = new int[INITIAL_CAPACITY];
+	private boolean ordered;
+
+	/**
+	 * Clear all attributes.
+	 */
+	void clear() {
+		Arrays.fill(keys, 0, size, null);
+		Arrays.fill(values, 0, size, null);
+		Arrays.fill(objects, 0, size, null);
+		Arrays.fill(fields, 0, size, null);
+		Arrays.fill(tags, 0, size, null);
+		size = 0;
+		ordered = false;
+	}
+
+	/**
+	 * Obtain number of attributes.
+	 *
+	 * @return number of attributes
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Check if there are no attributes.
+	 *
+	 * @return {@code true} if there are no attributes, {@code false} otherwise
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Obtain built-in hashtag of i-th attribute.
+	 *
+	 * @param i
+	 *            attribute index in iteration order
+	 * @return built-in hashtag, or {@code null} for user defined attribute
+	 */
+	HashTag tag(int i) {
+		return tags[index(i)];
+	}
+
+	/**
+	 * Check whether key of i-th attribute matches built-in hashtag label case sensitively.
+	 *
+	 * @param i
+	 *            attribute index in iteration order
+	 * @return {@code true} if key matches hashtag label exactly, {@code false} otherwise
+	 */
+	boolean isExact(int i) {
+		return exact[index(i)];
+	}
+
+	/**
+	 * Obtain key of i-th attribute, as written in the message.
+	 *
+	 * @param i
+	 *            attribute index in iteration order
+	 * @return attribute key
+	 */
+	String key(int i) {
+		int idx = index(i);
+		return keys[idx] == null ? tags[idx].label() : keys[idx];
+	}
+
+	/**
+	 * Obtain value of i-th attribute.
+	 *
+	 * @param i
+	 *            attribute index in iteration order
+	 * @return attribute value
+	 */
+	String value(int i) {
+		return values[index(i)];
+	}
+
+	/**
+	 * Obtain typed value of i-th attribute put from attribute source other than message.
+	 *
+	 * @param i
+	 *            attribute index in iteration order
+	 * @return typed attribute value, or {@code null} if attribute value is a string
+	 */
+	Object object(int i) {
+		return objects[index(i)];
+	}
+
+	/**
+	 * Obtain resolved key of i-th attribute put from attribute source other than message.
+	 *
+	 * @param i
+	 *            attribute index in iteration order
+	 * @return resolved field key, or {@code null} if attribute was parsed from message
+	 */
+	FieldKey field(int i) {
+		return fields[index(i)];
+	}
+
+	/**
+	 * Set rank of attribute source for subsequently put attributes. Rank is not reset by {@link #clear()}.
+	 *
+	 * @param rank
+	 *            attribute source rank, lower rank takes precedence
+	 */
+	void rank(int rank) {
+		this.rank = rank;
+	}
+
+	/**
+	 * Obtain value of built-in hashtag, which key matches hashtag label case sensitively.
+	 *
+	 * @param tag
+	 *            built-in hashtag
+	 * @return hashtag value, or {@code null} if there is no such attribute
+	 */
+	String get(HashTag tag) {
+		for (int i = 0; i < size; i++) {
+			if (tags[i] == tag && exact[i]) {
+				return values[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Check whether attributes carry activity {@code #beg}/{@code #end} instruction.
+	 *
+	 * @return {@code true} if attributes carry activity instruction, {@code false} otherwise
+	 */
+	boolean isActivityInstruction() {
+		return get(HashTag.BEGIN) != null || get(HashTag.END) != null;
+	}
+
+	/**
+	 * Put built-in hashtag attribute. Activity {@link HashTag#BEGIN}/{@link HashTag#END} hashtags not written exactly
+	 * as their labels are put as user defined attributes.
+	 *
+	 * @param tag
+	 *            built-in hashtag
+	 * @param key
+	 *            key as written in the message, or {@code null} if it matches hashtag label exactly
+	 * @param keyHash
+	 *            {@link String#hashCode()} of the key as written in the message
+	 * @param value
+	 *            attribute value
+	 */
+	void put(HashTag tag, String key, int keyHash, String value) {
+		if (key != null && (tag == HashTag.BEGIN || tag == HashTag.END)) {
+			// activity instructions are recognized only when written exactly
+			put(key, value);
+			return;
+		}
+		for (int i = 0; i < size; i++) {
+			if (tags[i] == tag && hashes[i] == keyHash) {
+				replace(i, value, null, null);
+				return;
+			}
+		}
+		int idx = add(keyHash, value);
+		tags[idx] = tag;
+		keys[idx] = key;
+		exact[idx] = key == null;
+	}
+
+	/**
+	 * Put user defined attribute.
+	 *
+	 * @param key
+	 *            attribute key
+	 * @param value
+	 *            attribute value
+	 */
+	void put(String key, String value) {
+		int keyHash = key.hashCode();
+		for (int i = 0; i < size; i++) {
+			if (tags[i] == null && hashes[i] == keyHash && key.equals(keys[i])) {
+				replace(i, value, null, null);
+				return;
+			}
+		}
+		int idx = add(keyHash, value);
+		tags[idx] = null;
+		keys[idx] = key;
+		exact[idx] = false;
+	}
+
+	/**
+	 * Put attribute of resolved MDC or key-value pair key. Values of built-in hashtags are converted to strings, values
+	 * of user defined attributes are kept as is.
+	 *
+	 * @param field
+	 *            resolved field key
+	 * @param value
+	 *            attribute value
+	 */
+	void put(FieldKey field, Object value) {
+		HashTag tag = field.tag();
+		if (tag != null) {
+			put(tag, field.isExact() ? null : field.key(), field.keyHash(), String.valueOf(value));
+			return;
+		}
+		String str = value instanceof String ? (String) value : null;
+		Object obj = str == null ? value : null;
+		String key = field.key();
+		for (int i = 0; i < size; i++) {
+			if (tags[i] == null && hashes[i] == field.keyHash() && key.equals(keys[i])) {
+				replace(i, str, obj, field);
+				return;
+			}
+		}
+		int idx = add(field.keyHash(), str);
+		tags[idx] = null;
+		keys[idx] = key;
+		exact[idx] = false;
+		objects[idx] = obj;
+		fields[idx] = field;
+	}
+
+	private void replace(int idx, String value, Object obj, FieldKey field) {
+		if (rank <= ranks[idx]) {
+			values[idx] = value;
+			objects[idx] = obj;
+			fields[idx] = field;
+			ranks[idx] = rank;
+		}
+	}
+
+	private int add(int keyHash, String value) {
+		if (size == values.length) {
+			int capacity = size << 1;
+			tags = Arrays.copyOf(tags, capacity);
+			exact = Arrays.copyOf(exact, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+			keys = Arrays.copyOf(keys, capacity);
+			values = Arrays.copyOf(values, capacity);
+			objects = Arrays.copyOf(objects, capacity);
+			fields = Arrays.copyOf(fields, capacity);
+			ranks = Arrays.copyOf(ranks, capacity);
+			order = Arrays.copyOf(order, capacity);
+		}
+		int idx = size++;
+		hashes[idx] = keyHash;
+		values[idx] = value;
+		ranks[idx] = rank;
+		ordered = false;
+		return idx;
+	}
+
+	private int index(int i) {
+		if (!ordered) {
+			sortInHashMapOrder();
+		}
+		return order[i];
+	}
+
+	/**
+	 * Order attributes the way {@code HashMap} iterates them: by hash bucket of a table sized for current number of
+	 * entries, keeping insertion order within the bucket.
+	 */
+	private void sortInHashMapOrder() {
+		int tableSize = INITIAL_CAPACITY;
+		while (size > tableSize * LOAD_FACTOR) {
+			tableSize <<= 1;
+		}
+		int mask = tableSize - 1;
+		for (int i = 0; i < size; i++) {
+			int j = i;
+			int bucket = bucket(i, mask);
+			while (j > 0 && bucket(order[j - 1], mask) > bucket) {
+				order[j] = order[j - 1];
+				j--;
+			}
+			order[j] = i;
+		}
+		ordered = true;
+	}
+
+	private int bucket(int idx, int mask) {
+		int h = hashes[idx];
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+/**
+ * Single pass scanner of {@code #tag=value} annotations within logging event messages. Scanner follows the same
+ * tokenizing rules as {@link com.jkoolcloud.tnt4j.logger.AppenderTools#parseEventMessage(java.util.Map, String, char)},
+ * but fills reusable {@link HashTagAttributes} buffer and resolves built-in hashtags to {@link HashTag} ordinals
+ * without creating key substrings.
+ *
+ * @version $Revision: 1 $
+ */
+final class HashTagScanner {
+	static final char TAG_DELIMITER = '#';
+	static final char VALUE_DELIMITER = '=';
+	static final char QUOTE = '\'';
+
+	private HashTagScanner() {
+	}
+
+	/**
+	 * Scan given message for hashtags. Given attributes buffer is cleared before scanning.
+	 *
+	 * @param msg
+	 *            message to scan
+	 * @param attrs
+	 *            attributes buffer to fill
+	 * @return attributes buffer
+	 */
+	static HashTagAttributes scan(String msg, HashTagAttributes attrs) {
+		attrs.clear();
+		if (msg == null) {
+			return attrs;
+		}
+		int len = msg.length();
+		int i = msg.indexOf(TAG_DELIMITER);
+		while (i >= 0 && i < len) {
+			int start = ++i;
+			i = tokenEnd(msg, start);
+			if (i > start) {
+				addAttribute(msg, start, i, attrs);
+			}
+			if (i < len) {
+				i = msg.indexOf(TAG_DELIMITER, i);
+			}
+		}
+		return attrs;
+	}
+
+	/**
+	 * Find end of {@code key=value} token starting right after {@code '#'}. Token ends at first whitespace outside of
+	 * quoted value or right after closing quote.
+	 *
+	 * @param msg
+	 *            message to scan
+	 * @param start
+	 *            token start index
+	 * @return index right after the last token character
+	 */
+	static int tokenEnd(String msg, int start) {
+		int len = msg.length();
+		int i = start;
+		boolean eq = false;
+		boolean quote = false;
+		while (i < len) {
+			char c = msg.charAt(i);
+			if (c == VALUE_DELIMITER) {
+				eq = true;
+			} else if (c == QUOTE && eq) {
+				if (quote) {
+					i++;
+					break;
+				}
+				quote = true;
+			} else if (!quote && Character.isWhitespace(c)) {
+				break;
+			}
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Check whether given character may change tokenizing of a message, when part of the message.
+	 *
+	 * @param c
+	 *            character to check
+	 * @return {@code true} if character is a tag, value or quote delimiter, escape or whitespace character
+	 */
+	static boolean isSignificant(char c) {
+		return c <= ' ' || c == TAG_DELIMITER || c == VALUE_DELIMITER || c == QUOTE || c == '\\'
+				|| Character.isWhitespace(c);
+	}
+
+	/**
+	 * Split {@code key=value} token into attribute. Only the text between the first and the second {@code '='} is
+	 * taken as value.
+	 */
+	private static void addAttribute(String msg, int from, int to, HashTagAttributes attrs) {
+		int keyEnd = indexOf(msg, VALUE_DELIMITER, from, to);
+		int valueStart = keyEnd < 0 ? to : keyEnd + 1;
+		int valueEnd = keyEnd < 0 ? to : indexOf(msg, VALUE_DELIMITER, valueStart, to);
+		if (keyEnd < 0) {
+			keyEnd = to;
+		}
+		if (valueEnd < 0) {
+			valueEnd = to;
+		}
+
+		// trim key
+		int keyStart = from;
+		while (keyStart < keyEnd && msg.charAt(keyStart) <= ' ') {
+			keyStart++;
+		}
+		while (keyEnd > keyStart && msg.charAt(keyEnd - 1) <= ' ') {
+			keyEnd--;
+		}
+
+		String value = value(msg, valueStart, valueEnd);
+		if (indexOf(msg, QUOTE, keyStart, keyEnd) >= 0) {
+			String key = msg.substring(keyStart, keyEnd).replace("'", "");
+			HashTag tag = HashTag.find(key, 0, key.length());
+			if (tag == null) {
+				attrs.put(key, value);
+			} else {
+				attrs.put(tag, key.equals(tag.label()) ? null : key, key.hashCode(), value);
+			}
+			return;
+		}
+		HashTag tag = HashTag.find(msg, keyStart, keyEnd);
+		if (tag == null) {
+			attrs.put(msg.substring(keyStart, keyEnd), value);
+		} else {
+			int keyHash = hash(msg, keyStart, keyEnd);
+			attrs.put(tag, keyHash == tag.labelHash() ? null : msg.substring(keyStart, keyEnd), keyHash, value);
+		}
+	}
+
+	static String value(String msg, int from, int to) {
+		if (to - from > 1 && msg.charAt(from) == QUOTE && msg.charAt(to - 1) == QUOTE) {
+			from++;
+			to--;
+			return indexOf(msg, '\\', from, to) < 0 ? msg.substring(from, to)
+					: StringEscapeUtils.unescapeJava(msg.substring(from, to));
+		}
+		return msg.substring(from, to);
+	}
+
+	static int indexOf(String msg, char ch, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (msg.charAt(i) == ch) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int hash(String msg, int from, int to) {
+		int h = 0;
+		for (int i = from; i < to; i++) {
+			h = 31 * h + msg.charAt(i);
+		}
+		return h;
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds. Every power of two range is split into {@value #SUB_BUCKETS}
+ * linear sub-buckets, so recorded values are resolved within 25% precision. Buckets are striped counters, so
+ * concurrent recording threads do not contend.
+ *
+ * @version $Revision: 1 $
+ */
+final class LatencyHistogram {
+	private static final int SUB_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final LongAdder[] buckets = new LongAdder[(Long.SIZE + 1) * SUB_BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Create empty histogram.
+	 */
+	LatencyHistogram() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record a single latency.
+	 *
+	 * @param nanos
+	 *            latency in nanoseconds, negative values are recorded as 0
+	 */
+	void record(long nanos) {
+		long value = Math.max(0, nanos);
+		buckets[index(value)].increment();
+		count.increment();
+		total.add(value);
+		max.accumulate(value);
+	}
+
+	private static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exp = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int exp = index / SUB_BUCKETS + SUB_BITS - 1;
+		int sub = index % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + sub + 1) << (exp - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * Obtain number of recorded latencies.
+	 *
+	 * @return number of recorded latencies
+	 */
+	long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Obtain mean of recorded latencies.
+	 *
+	 * @return mean latency in nanoseconds, {@code 0} if nothing was recorded
+	 */
+	double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) total.sum() / n;
+	}
+
+	/**
+	 * Obtain maximal recorded latency.
+	 *
+	 * @return maximal latency in nanoseconds
+	 */
+	long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Obtain latency percentile estimate, as upper bound of the bucket the percentile falls into.
+	 *
+	 * @param percentile
+	 *            percentile within range {@code (0, 100]}
+	 * @return latency in nanoseconds, {@code 0} if nothing was recorded
+	 */
+	long getPercentile(double percentile) {
+		long[] counts = new long[buckets.length];
+		long n = 0;
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buckets[i].sum();
+			n += counts[i];
+		}
+		long rank = (long) Math.ceil(n * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank && seen > 0) {
+				return Math.min(upperBound(i), getMax());
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.Map;
+
+import com.jkoolcloud.tnt4j.TrackingLogger;
+import com.jkoolcloud.tnt4j.core.OpLevel;
+import com.jkoolcloud.tnt4j.filters.EventLevelTimeFilter;
+import com.jkoolcloud.tnt4j.sink.AbstractEventSinkFactory;
+import com.jkoolcloud.tnt4j.sink.EventSinkFactory;
+import com.jkoolcloud.tnt4j.sink.SinkEventFilter;
+import com.jkoolcloud.tnt4j.utils.Utils;
+
+import ch.qos.logback.classic.Level;
+
+/**
+ * Decides whether TNT4J events of a given {@link OpLevel} can ever be logged by tracking logger sink, so events which
+ * would be discarded by sink can be rejected before any TNT4J event is built. Level is rejected when tracking logger
+ * sink has it disabled, or when default event filter of sink factory is {@link EventLevelTimeFilter} configured with
+ * higher minimal level. Decision is computed once per level and cached until {@link #refresh()}.
+ *
+ * @version $Revision: 1 $
+ */
+final class LevelGate {
+	private static final String FILTER_CHECK = "FilterCheck";
+
+	private static final byte UNKNOWN = 0;
+	private static final byte LOGGABLE = 1;
+	private static final byte REJECTED = 2;
+
+	private final TrackingLogger logger;
+	private final byte[] decisions = new byte[OpLevel.values().length];
+
+	/**
+	 * Create level gate for a given tracking logger.
+	 *
+	 * @param logger
+	 *            tracking logger
+	 */
+	LevelGate(TrackingLogger logger) {
+		this.logger = logger;
+	}
+
+	/**
+	 * Check whether TNT4J events of a given level can be logged.
+	 *
+	 * @param level
+	 *            TNT4J event level
+	 * @return {@code true} if level can be logged, {@code false} if sink rejects all events of that level
+	 */
+	boolean isLoggable(OpLevel level) {
+		byte decision = decisions[level.ordinal()];
+		if (decision == UNKNOWN) {
+			decision = decide(level) ? LOGGABLE : REJECTED;
+			decisions[level.ordinal()] = decision;
+		}
+		return decision == LOGGABLE;
+	}
+
+	/**
+	 * Drop cached decisions, so they are computed again using current tracking logger configuration.
+	 */
+	void refresh() {
+		for (int i = 0; i < decisions.length; i++) {
+			decisions[i] = UNKNOWN;
+		}
+	}
+
+	private boolean decide(OpLevel level) {
+		try {
+			if (!logger.isSet(level)) {
+				return false;
+			}
+			EventSinkFactory factory = logger.getConfiguration().getEventSinkFactory();
+			if (factory instanceof AbstractEventSinkFactory) {
+				AbstractEventSinkFactory sinkFactory = (AbstractEventSinkFactory) factory;
+				Map<String, ?> config = sinkFactory.getConfiguration();
+				SinkEventFilter filter = sinkFactory.getDefaultEventFilter();
+				if (filter instanceof EventLevelTimeFilter && Utils.getBoolean(FILTER_CHECK, config, true)) {
+					return passLevel(level, ((EventLevelTimeFilter) filter).getConfiguration());
+				}
+			}
+		} catch (RuntimeException e) {
+			// unknown sink setup: let sink decide
+		}
+		return true;
+	}
+
+	/**
+	 * Check level against minimal level of {@link EventLevelTimeFilter} configuration, the same way the filter does.
+	 */
+	private static boolean passLevel(OpLevel level, Map<String, ?> config) {
+		if (config == null) {
+			return true;
+		}
+		String minLevel = Utils.getString(EventLevelTimeFilter.LEVEL, config, OpLevel.INFO.toString());
+		if (EventLevelTimeFilter.OFF_LEVEL_LABEL.equalsIgnoreCase(minLevel)) {
+			return false;
+		}
+		return level.ordinal() >= OpLevel.valueOf(minLevel).ordinal();
+	}
+
+	/**
+	 * Map logback level to TNT4J {@link OpLevel}.
+	 *
+	 * @param lvl
+	 *            logback level
+	 * @return TNT4J {@link OpLevel}
+	 */
+	static OpLevel toOpLevel(Level lvl) {
+		if (lvl.toInt() == Level.INFO_INT) {
+			return OpLevel.INFO;
+		} else if (lvl.toInt() == Level.ERROR_INT) {
+			return OpLevel.ERROR;
+		} else if (lvl.toInt() == Level.WARN_INT) {
+			return OpLevel.WARNING;
+		} else if (lvl.toInt() == Level.DEBUG_INT) {
+			return OpLevel.DEBUG;
+		} else if (lvl.toInt() == Level.TRACE_INT) {
+			return OpLevel.TRACE;
+		} else if (lvl.toInt() == Level.OFF_INT) {
+			return OpLevel.NONE;
+		} else {
+			return OpLevel.INFO;
+		}
+	}
+
+	/**
+	 * Check whether logging statement message pattern or arguments may carry hashtags, which may change event severity
+	 * or carry activity instruction. Arguments of types which string representation is unknown are assumed to carry
+	 * hashtags.
+	 *
+	 * @param format
+	 *            message pattern
+	 * @param args
+	 *            message arguments
+	 * @return {@code true} if message may carry hashtags, {@code false} otherwise
+	 */
+	static boolean mayCarryHashTags(String format, Object[] args) {
+		if (format != null && format.indexOf(HashTagScanner.TAG_DELIMITER) >= 0) {
+			return true;
+		}
+		if (args != null) {
+			for (Object arg : args) {
+				if (arg == null || arg instanceof Number || arg instanceof Boolean || arg instanceof Throwable) {
+					continue;
+				}
+				if (!(arg instanceof CharSequence) || arg.toString().indexOf(HashTagScanner.TAG_DELIMITER) >= 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Precompiled hashtags plan of SLF4J parameterized message template (e.g. {@code "Saved #opn=save #rsn={} #rcd={}"}).
+ * Plan holds literal hashtags resolved at compile time and argument slot bindings of hashtag keys and values, so
+ * attributes of formatted message can be filled by binding event arguments without scanning formatted message.
+ * <p>
+ * Binding is applied only when formatted message consists of template literals and string representations of simple
+ * typed arguments which do not contain any characters significant for hashtags tokenizing (see
+ * {@link HashTagScanner#isSignificant(char)}), so bound attributes are always identical to the ones produced by
+ * {@link HashTagScanner#scan(String, HashTagAttributes)}. Otherwise caller falls back to scanning formatted message.
+ *
+ * @version $Revision: 1 $
+ */
+final class MessageTemplate {
+	private static final String PLACEHOLDER = "{}";
+	private static final char SLOT = '\uFFFF';
+
+	/**
+	 * Plan of template which can't be compiled, binding always fails.
+	 */
+	static final MessageTemplate NOT_COMPILED = new MessageTemplate(null, null);
+
+	private final String[] literals;
+	private final Token[] tokens;
+
+	private static final class Token {
+		final String keyPattern;
+		final int keySlot;
+		final boolean quotedKey;
+		final HashTag tag;
+		final String key;
+		final int keyHash;
+		final String valuePattern;
+		final int valueSlot;
+
+		Token(String keyPattern, int keySlot, boolean quotedKey, String valuePattern, int valueSlot) {
+			this.keyPattern = keyPattern;
+			this.keySlot = keySlot;
+			this.quotedKey = quotedKey;
+			this.valuePattern = valuePattern;
+			this.valueSlot = valueSlot;
+			if (keySlot < 0) {
+				tag = HashTag.find(keyPattern, 0, keyPattern.length());
+				keyHash = keyPattern.hashCode();
+				key = isExact(tag, keyPattern, keyHash, quotedKey) ? null : keyPattern;
+			} else {
+				tag = null;
+				keyHash = 0;
+				key = null;
+			}
+		}
+	}
+
+	private MessageTemplate(String[] literals, Token[] tokens) {
+		this.literals = literals;
+		this.tokens = tokens;
+	}
+
+	/**
+	 * Compile hashtags plan of a given message template.
+	 *
+	 * @param template
+	 *            SLF4J parameterized message template
+	 * @return compiled template plan, or {@link #NOT_COMPILED} if template can't be compiled
+	 */
+	static MessageTemplate compile(String template) {
+		if (template.indexOf('\\') >= 0 || template.indexOf(SLOT) >= 0) {
+			return NOT_COMPILED;
+		}
+		List<String> literals = new ArrayList<>();
+		int from = 0;
+		for (int idx = template.indexOf(PLACEHOLDER); idx >= 0; idx = template.indexOf(PLACEHOLDER, from)) {
+			literals.add(template.substring(from, idx));
+			from = idx + PLACEHOLDER.length();
+		}
+		literals.add(template.substring(from));
+		String plan = String.join(String.valueOf(SLOT), literals);
+
+		List<Token> tokens = new ArrayList<>();
+		int len = plan.length();
+		int i = plan.indexOf(HashTagScanner.TAG_DELIMITER);
+		while (i >= 0 && i < len) {
+			int start = ++i;
+			i = HashTagScanner.tokenEnd(plan, start);
+			if (i > start) {
+				tokens.add(token(plan, start, i));
+			}
+			if (i < len) {
+				i = plan.indexOf(HashTagScanner.TAG_DELIMITER, i);
+			}
+		}
+		return new MessageTemplate(literals.toArray(new String[0]), tokens.toArray(new Token[0]));
+	}
+
+	/**
+	 * Build token plan the same way {@link HashTagScanner} splits {@code key=value} token into attribute.
+	 */
+	private static Token token(String plan, int from, int to) {
+		int keyEnd = HashTagScanner.indexOf(plan, HashTagScanner.VALUE_DELIMITER, from, to);
+		int valueStart = keyEnd < 0 ? to : keyEnd + 1;
+		int valueEnd = keyEnd < 0 ? to : HashTagScanner.indexOf(plan, HashTagScanner.VALUE_DELIMITER, valueStart, to);
+		if (keyEnd < 0) {
+			keyEnd = to;
+		}
+		if (valueEnd < 0) {
+			valueEnd = to;
+		}
+		int keyStart = from;
+		while (keyStart < keyEnd && plan.charAt(keyStart) <= ' ') {
+			keyStart++;
+		}
+		while (keyEnd > keyStart && plan.charAt(keyEnd - 1) <= ' ') {
+			keyEnd--;
+		}
+
+		boolean quotedKey = HashTagScanner.indexOf(plan, HashTagScanner.QUOTE, keyStart, keyEnd) >= 0;
+		String keyPattern = plan.substring(keyStart, keyEnd);
+		if (quotedKey) {
+			keyPattern = keyPattern.replace("'", "");
+		}
+		String valuePattern = HashTagScanner.value(plan, valueStart, valueEnd);
+		return new Token(keyPattern, firstSlot(plan, keyStart, keyEnd), quotedKey, valuePattern,
+				firstSlot(plan, valueStart, valueEnd));
+	}
+
+	/**
+	 * Find index of first argument slot within given plan range.
+	 *
+	 * @return index of argument bound to the first slot within range, {@code -1} if range has no slots
+	 */
+	private static int firstSlot(String plan, int from, int to) {
+		int pos = HashTagScanner.indexOf(plan, SLOT, from, to);
+		if (pos < 0) {
+			return -1;
+		}
+		int slot = 0;
+		for (int i = 0; i < pos; i++) {
+			if (plan.charAt(i) == SLOT) {
+				slot++;
+			}
+		}
+		return slot;
+	}
+
+	private static boolean isExact(HashTag tag, String key, int keyHash, boolean quotedKey) {
+		return tag != null && (quotedKey ? key.equals(tag.label()) : keyHash == tag.labelHash());
+	}
+
+	/**
+	 * Check whether template plan is compiled.
+	 *
+	 * @return {@code true} if template plan is compiled, {@code false} otherwise
+	 */
+	boolean isCompiled() {
+		return literals != null;
+	}
+
+	/**
+	 * Fill given attributes buffer with hashtags of formatted message by binding event arguments into template plan.
+	 * Given attributes buffer is cleared before binding.
+	 *
+	 * @param msg
+	 *            formatted message of logging event
+	 * @param args
+	 *            logging event arguments
+	 * @param attrs
+	 *            attributes buffer to fill
+	 * @return {@code true} if arguments were bound, {@code false} if formatted message must be scanned instead
+	 */
+	boolean bind(String msg, Object[] args, HashTagAttributes attrs) {
+		if (!matches(msg, args)) {
+			return false;
+		}
+		attrs.clear();
+		for (Token token : tokens) {
+			String value = token.valueSlot < 0 ? token.valuePattern : expand(token.valuePattern, token.valueSlot, args);
+			if (token.keySlot < 0) {
+				if (token.tag == null) {
+					attrs.put(token.keyPattern, value);
+				} else {
+					attrs.put(token.tag, token.key, token.keyHash, value);
+				}
+			} else {
+				String key = expand(token.keyPattern, token.keySlot, args);
+				HashTag tag = HashTag.find(key, 0, key.length());
+				if (tag == null) {
+					attrs.put(key, value);
+				} else {
+					int keyHash = key.hashCode();
+					attrs.put(tag, isExact(tag, key, keyHash, token.quotedKey) ? null : key, keyHash, value);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check that formatted message is made of template literals and safe argument values.
+	 */
+	private boolean matches(String msg, Object[] args) {
+		int slots = literals == null ? 0 : literals.length - 1;
+		if (msg == null || literals == null || args == null || args.length < slots) {
+			return false;
+		}
+		int pos = 0;
+		for (int i = 0; i <= slots; i++) {
+			String literal = literals[i];
+			if (!msg.regionMatches(pos, literal, 0, literal.length())) {
+				return false;
+			}
+			pos += literal.length();
+			if (i < slots) {
+				String arg = toString(args[i]);
+				if (arg == null || !isSafe(arg) || !msg.regionMatches(pos, arg, 0, arg.length())) {
+					return false;
+				}
+				pos += arg.length();
+			}
+		}
+		return pos == msg.length();
+	}
+
+	private static String expand(String pattern, int slot, Object[] args) {
+		if (pattern.length() == 1) {
+			return toString(args[slot]);
+		}
+		StringBuilder sb = new StringBuilder(pattern.length() + 16);
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c == SLOT) {
+				sb.append(toString(args[slot++]));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static boolean isSafe(String arg) {
+		if (arg.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < arg.length(); i++) {
+			char c = arg.charAt(i);
+			if (c == SLOT || HashTagScanner.isSignificant(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Obtain string representation of simple typed argument, the same as SLF4J message formatter produces.
+	 *
+	 * @return string representation, or {@code null} if argument type is not supported for binding
+	 */
+	private static String toString(Object arg) {
+		if (arg instanceof String) {
+			return (String) arg;
+		}
+		if (arg instanceof Integer || arg instanceof Long || arg instanceof Short || arg instanceof Byte
+				|| arg instanceof Double || arg instanceof Float || arg instanceof Boolean || arg instanceof Character
+				|| arg instanceof UUID || arg instanceof Enum) {
+			return arg.toString();
+		}
+		return null;
+	}
+}
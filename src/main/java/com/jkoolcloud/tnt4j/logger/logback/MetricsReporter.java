@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.lang.management.*;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.jkoolcloud.tnt4j.TrackingLogger;
+import com.jkoolcloud.tnt4j.core.Snapshot;
+
+import ch.qos.logback.core.spi.ContextAware;
+
+/**
+ * Reports JVM metrics as TNT4J snapshot at a fixed rate on its own daemon thread, regardless of logging activity, so
+ * metrics collection adds no latency to logging threads. Metrics are read from platform MXBeans resolved once. Reporter
+ * also runs additional periodic report tasks of the appender.
+ *
+ * @version $Revision: 1 $
+ */
+final class MetricsReporter {
+	private final TrackingLogger logger;
+	private final String category;
+	private final String name;
+	private final Runnable extraReport;
+	private final ContextAware status;
+	private final ScheduledExecutorService timer;
+
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+	private final ClassLoadingMXBean classes = ManagementFactory.getClassLoadingMXBean();
+	private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+	private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+	/**
+	 * Create and start metrics reporter.
+	 *
+	 * @param threadName
+	 *            reporter name, used for naming reporter thread
+	 * @param logger
+	 *            tracking logger to report metrics to
+	 * @param category
+	 *            metrics snapshot category
+	 * @param name
+	 *            metrics snapshot name
+	 * @param periodSec
+	 *            number of seconds between reports
+	 * @param extraReport
+	 *            additional report task run after every metrics report
+	 * @param status
+	 *            status manager to report errors
+	 */
+	MetricsReporter(String threadName, TrackingLogger logger, String category, String name, long periodSec,
+			Runnable extraReport, ContextAware status) {
+		this.logger = logger;
+		this.category = category;
+		this.name = name;
+		this.extraReport = extraReport;
+		this.status = status;
+
+		timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, threadName + "-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(1, periodSec);
+		timer.scheduleAtFixedRate(this::run, period, period, TimeUnit.SECONDS);
+	}
+
+	private void run() {
+		try {
+			logger.tnt(collect());
+			extraReport.run();
+		} catch (Throwable e) {
+			// any exception escaping scheduled task would silently cancel all further reports
+			status.addError("Failed to report metrics", e);
+		}
+	}
+
+	/**
+	 * Collect current JVM metrics.
+	 *
+	 * @return snapshot of JVM metrics
+	 */
+	Snapshot collect() {
+		Snapshot snapshot = logger.newSnapshot(category, name);
+		MemoryUsage heap = memory.getHeapMemoryUsage();
+		snapshot.add("Heap.Used", heap.getUsed());
+		snapshot.add("Heap.Committed", heap.getCommitted());
+		snapshot.add("Heap.Max", heap.getMax());
+		MemoryUsage nonHeap = memory.getNonHeapMemoryUsage();
+		snapshot.add("NonHeap.Used", nonHeap.getUsed());
+		snapshot.add("NonHeap.Committed", nonHeap.getCommitted());
+		snapshot.add("Threads.Live", threads.getThreadCount());
+		snapshot.add("Threads.Daemon", threads.getDaemonThreadCount());
+		snapshot.add("Threads.Peak", threads.getPeakThreadCount());
+		snapshot.add("Classes.Loaded", classes.getLoadedClassCount());
+		snapshot.add("Uptime", runtime.getUptime());
+		snapshot.add("Processors", os.getAvailableProcessors());
+		snapshot.add("LoadAverage", os.getSystemLoadAverage());
+		for (GarbageCollectorMXBean gc : collectors) {
+			snapshot.add("GC." + gc.getName() + ".Count", gc.getCollectionCount());
+			snapshot.add("GC." + gc.getName() + ".Time", gc.getCollectionTime());
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Stop reporter thread.
+	 */
+	void stop() {
+		timer.shutdownNow();
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+/**
+ * Defines what {@link TNT4JAppender} does with a logging event when asynchronous dispatch queue is full.
+ *
+ * @version $Revision: 1 $
+ */
+public enum OverflowPolicy {
+	/**
+	 * Calling thread waits until queue has room for the event.
+	 */
+	BLOCK,
+
+	/**
+	 * Event being appended is dropped.
+	 */
+	DROP_NEWEST,
+
+	/**
+	 * Oldest queued event is dropped to make room for the event being appended. Calling thread still waits if the slot
+	 * to reuse is held by the event being dispatched.
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * Event being appended is dropped if its level is below configured drop level, otherwise calling thread waits
+	 * until queue has room for the event.
+	 */
+	DROP_BELOW_LEVEL
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+/**
+ * Defines how {@link TNT4JAppender} routes datagram events to sink partitions. Events of the same key are reported by
+ * the same partition in logging order, while events of different keys may be reported in parallel.
+ *
+ * @version $Revision: 1 $
+ */
+public enum PartitionKey {
+	/**
+	 * Events are routed by logging thread name.
+	 */
+	THREAD,
+
+	/**
+	 * Events are routed by logger name.
+	 */
+	LOGGER,
+
+	/**
+	 * Events are routed by correlator ({@code #cid}), events without correlator are routed by logging thread name.
+	 */
+	CORRELATOR,
+
+	/**
+	 * Events are routed by application name ({@code #app}), events without application name are routed by logger
+	 * name.
+	 */
+	APPL
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free mergeable quantile sketch of double values. Values are counted in logarithmic buckets, so quantiles are
+ * estimated within {@value #RELATIVE_ACCURACY} relative accuracy. Magnitudes below {@value #MIN_MAGNITUDE} are counted
+ * as zero, magnitudes above {@value #MAX_MAGNITUDE} are counted in the top bucket. Sketches of the same values merge
+ * exactly, so sketches recorded by several loggers add up into sketch of all values. Buckets are allocated in chunks
+ * on first use, so sketch of values within a few orders of magnitude stays small.
+ *
+ * @version $Revision: 1 $
+ */
+final class QuantileSketch {
+	static final double RELATIVE_ACCURACY = 0.01;
+	static final double MIN_MAGNITUDE = 1e-9;
+	static final double MAX_MAGNITUDE = 1e15;
+
+	private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+	private static final double LOG_GAMMA = Math.log(GAMMA);
+	private static final int MIN_KEY = (int) Math.ceil(Math.log(MIN_MAGNITUDE) / LOG_GAMMA);
+	private static final int MAX_KEY = (int) Math.ceil(Math.log(MAX_MAGNITUDE) / LOG_GAMMA);
+	private static final int SPAN = MAX_KEY - MIN_KEY + 1;
+	private static final int CHUNK_BITS = 6;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	// slots are ordered by value: negative values by descending magnitude, zero, positive values
+	private final AtomicReferenceArray<AtomicLongArray> chunks = new AtomicReferenceArray<>(
+			((2 * SPAN + 1) >> CHUNK_BITS) + 1);
+
+	/**
+	 * Record a single value.
+	 *
+	 * @param value
+	 *            value to record, must be finite
+	 */
+	void record(double value) {
+		add(slot(value), 1);
+	}
+
+	/**
+	 * Move counts of this sketch into a given sketch, leaving this sketch empty. Values recorded concurrently are
+	 * either moved or kept for the next drain.
+	 *
+	 * @param target
+	 *            sketch to add counts to
+	 */
+	void drainTo(QuantileSketch target) {
+		for (int c = 0; c < chunks.length(); c++) {
+			AtomicLongArray chunk = chunks.get(c);
+			for (int i = 0; chunk != null && i < CHUNK_SIZE; i++) {
+				if (chunk.get(i) != 0) {
+					target.add((c << CHUNK_BITS) + i, chunk.getAndSet(i, 0));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add counts of a given sketch to this sketch.
+	 *
+	 * @param other
+	 *            sketch to merge
+	 */
+	void merge(QuantileSketch other) {
+		for (int c = 0; c < other.chunks.length(); c++) {
+			AtomicLongArray chunk = other.chunks.get(c);
+			for (int i = 0; chunk != null && i < CHUNK_SIZE; i++) {
+				long count = chunk.get(i);
+				if (count != 0) {
+					add((c << CHUNK_BITS) + i, count);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Obtain quantile estimate of recorded values.
+	 *
+	 * @param quantile
+	 *            quantile within range {@code [0, 1]}
+	 * @return value estimate, {@link Double#NaN} if nothing was recorded
+	 */
+	double getQuantile(double quantile) {
+		long n = 0;
+		for (int c = 0; c < chunks.length(); c++) {
+			AtomicLongArray chunk = chunks.get(c);
+			for (int i = 0; chunk != null && i < CHUNK_SIZE; i++) {
+				n += chunk.get(i);
+			}
+		}
+		if (n == 0) {
+			return Double.NaN;
+		}
+		double rank = quantile * (n - 1);
+		long seen = 0;
+		for (int c = 0; c < chunks.length(); c++) {
+			AtomicLongArray chunk = chunks.get(c);
+			for (int i = 0; chunk != null && i < CHUNK_SIZE; i++) {
+				seen += chunk.get(i);
+				if (seen > rank) {
+					return valueOf((c << CHUNK_BITS) + i);
+				}
+			}
+		}
+		return Double.NaN;
+	}
+
+	private void add(int slot, long count) {
+		int c = slot >> CHUNK_BITS;
+		AtomicLongArray chunk = chunks.get(c);
+		if (chunk == null) {
+			chunks.compareAndSet(c, null, new AtomicLongArray(CHUNK_SIZE));
+			chunk = chunks.get(c);
+		}
+		chunk.addAndGet(slot & (CHUNK_SIZE - 1), count);
+	}
+
+	private static int slot(double value) {
+		double magnitude = Math.abs(value);
+		if (magnitude < MIN_MAGNITUDE) {
+			return SPAN;
+		}
+		int key = (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+		key = Math.max(MIN_KEY, Math.min(MAX_KEY, key)) - MIN_KEY;
+		return value > 0 ? SPAN + 1 + key : SPAN - 1 - key;
+	}
+
+	private static double valueOf(int slot) {
+		if (slot == SPAN) {
+			return 0;
+		}
+		int key = (slot > SPAN ? slot - SPAN - 1 : SPAN - 1 - slot) + MIN_KEY;
+		double magnitude = 2 * Math.pow(GAMMA, key) / (GAMMA + 1);
+		return slot > SPAN ? magnitude : -magnitude;
+	}
+}
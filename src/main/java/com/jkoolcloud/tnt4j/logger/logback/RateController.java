@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.DoubleSupplier;
+
+import ch.qos.logback.classic.Level;
+
+/**
+ * Limits rate of logging events per logger name and level, and samples logging events probabilistically when
+ * appender gets overloaded. Rate is limited by a token bucket (implemented as generic cell rate algorithm) of every
+ * logger name and level pair. Sampling rate is adapted periodically: halved when average append latency or dispatch
+ * queue load exceeds the target, and raised gradually back to keeping all events otherwise. Numbers of dropped events
+ * are counted per logger name, so event volume can be reconstructed from reported counts. Events are sampled before
+ * rate is limited, so events dropped by sampling don't use up rate of the logger. At most {@value #MAX_LOGGERS}
+ * logger names are tracked, rate state and undrained dropped count of loggers not used recently are evicted.
+ * <p>
+ * Callers decide which events are always kept and must not pass them to {@link #tryAcquire(String, Level)}.
+ *
+ * @version $Revision: 1 $
+ */
+final class RateController {
+	private static final long ADAPT_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final double MIN_SAMPLE_RATE = 1.0 / 1024;
+	private static final double SAMPLE_RATE_STEP = 0.05;
+	private static final double LOAD_TARGET = 0.5;
+	private static final int LATENCY_SMOOTHING = 4; // average weights last sample by 1/16
+	static final int MAX_LOGGERS = 4096;
+
+	private final long intervalNanos;
+	private final long toleranceNanos;
+	private final boolean sampling;
+	private final long latencyTargetNanos;
+	private final DoubleSupplier load;
+	private final BoundedCache<String, LoggerRate> loggers = new BoundedCache<>(MAX_LOGGERS, LoggerRate::new);
+	private final LongAdder dropped = new LongAdder();
+	private final AtomicLong lastAdapted = new AtomicLong(System.nanoTime());
+
+	private volatile double sampleRate = 1.0;
+	private volatile long latencyAvgNanos;
+
+	/**
+	 * Rate limiting state and dropped event count of a single logger name.
+	 */
+	private static final class LoggerRate {
+		// theoretical arrival times of next event of every level
+		final AtomicLong[] arrivals = new AtomicLong[Level.ERROR_INT / Level.DEBUG_INT + 1];
+		final LongAdder dropped = new LongAdder();
+
+		LoggerRate(String name) {
+			for (int i = 0; i < arrivals.length; i++) {
+				arrivals[i] = new AtomicLong(Long.MIN_VALUE);
+			}
+		}
+	}
+
+	/**
+	 * Create rate controller.
+	 *
+	 * @param rate
+	 *            maximum number of events per second per logger name and level, {@code 0} disables rate limiting
+	 * @param burst
+	 *            number of events per logger name and level allowed in a row above the rate, {@code 0} means rate
+	 * @param sampling
+	 *            {@code true} to enable adaptive sampling
+	 * @param latencyTargetUsec
+	 *            average append latency in microseconds above which sampling tightens
+	 * @param load
+	 *            supplier of dispatch queue load ratio (0 to 1), sampling tightens when it exceeds 0.5
+	 */
+	RateController(double rate, int burst, boolean sampling, long latencyTargetUsec, DoubleSupplier load) {
+		this.intervalNanos = rate > 0 ? Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate)) : 0;
+		int bucket = burst > 0 ? burst : (int) Math.max(1, Math.ceil(rate));
+		this.toleranceNanos = intervalNanos * (bucket - 1);
+		this.sampling = sampling;
+		this.latencyTargetNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(1, latencyTargetUsec));
+		this.load = load;
+	}
+
+	/**
+	 * Check whether logging event of a given logger and level may pass. Dropped events are counted.
+	 *
+	 * @param loggerName
+	 *            logger name
+	 * @param level
+	 *            logging event level
+	 * @return {@code true} if event may pass, {@code false} if it must be dropped
+	 */
+	boolean tryAcquire(String loggerName, Level level) {
+		LoggerRate rate = loggers.get(loggerName);
+		if (sampling) {
+			long now = System.nanoTime();
+			long last = lastAdapted.get();
+			if (now - last > ADAPT_PERIOD_NANOS && lastAdapted.compareAndSet(last, now)) {
+				adapt();
+			}
+		}
+		if (!sample()
+				|| !acquireToken(rate.arrivals[Math.min(rate.arrivals.length - 1, level.toInt() / Level.DEBUG_INT)])) {
+			rate.dropped.increment();
+			dropped.increment();
+			return false;
+		}
+		return true;
+	}
+
+	private boolean acquireToken(AtomicLong arrival) {
+		if (intervalNanos == 0) {
+			return true;
+		}
+		long now = System.nanoTime();
+		while (true) {
+			long tat = arrival.get();
+			long base = Math.max(tat, now);
+			if (base - now > toleranceNanos) {
+				return false;
+			}
+			if (arrival.compareAndSet(tat, base + intervalNanos)) {
+				return true;
+			}
+		}
+	}
+
+	private boolean sample() {
+		double rate = sampleRate;
+		return rate >= 1.0 || ThreadLocalRandom.current().nextDouble() < rate;
+	}
+
+	private void adapt() {
+		boolean overloaded = latencyAvgNanos > latencyTargetNanos || load.getAsDouble() > LOAD_TARGET;
+		double rate = sampleRate;
+		sampleRate = overloaded ? Math.max(MIN_SAMPLE_RATE, rate / 2) : Math.min(1.0, rate + SAMPLE_RATE_STEP);
+	}
+
+	/**
+	 * Check whether append latency should be measured and recorded.
+	 *
+	 * @return {@code true} if adaptive sampling is enabled
+	 */
+	boolean isSampling() {
+		return sampling;
+	}
+
+	/**
+	 * Record latency of a single append, used to adapt sampling rate.
+	 *
+	 * @param nanos
+	 *            append latency in nanoseconds
+	 */
+	void recordLatency(long nanos) {
+		long avg = latencyAvgNanos;
+		latencyAvgNanos = avg + ((nanos - avg) >> LATENCY_SMOOTHING);
+	}
+
+	/**
+	 * Obtain current sampling rate.
+	 *
+	 * @return fraction of events (not dropped by rate limit) kept by sampling
+	 */
+	double getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Obtain total number of dropped events.
+	 *
+	 * @return number of dropped events
+	 */
+	long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Hand over numbers of events dropped since last call, per logger name. Loggers without dropped events are
+	 * skipped.
+	 *
+	 * @param consumer
+	 *            consumer of logger name and its dropped events count
+	 * @return total number of handed over dropped events
+	 */
+	long drainDropped(BiConsumer<String, Long> consumer) {
+		long[] total = new long[1];
+		loggers.forEach((name, rate) -> {
+			long count = rate.dropped.sumThenReset();
+			if (count > 0) {
+				consumer.accept(name, count);
+				total[0] += count;
+			}
+		});
+		return total[0];
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.io.IOException;
+import java.util.function.IntFunction;
+
+import com.jkoolcloud.tnt4j.TrackingLogger;
+import com.jkoolcloud.tnt4j.sink.impl.BufferedEventSink;
+import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
+
+/**
+ * Sink partitions of {@link TNT4JAppender}: every partition owns its own {@link TrackingLogger}, thus its own TNT4J
+ * sink and its own {@link SpillingSender} if spill journal is enabled. Datagram events are routed to partitions by key
+ * hash, so events of the same key keep their order, while different partitions report in parallel. First partition
+ * uses appender's primary logger, which also reports activities and snapshots.
+ *
+ * @version $Revision: 1 $
+ */
+final class SinkPartitions {
+	private final TrackingLogger[] loggers;
+	private final SpillingSender[] spillers;
+
+	/**
+	 * Create and open sink partitions.
+	 *
+	 * @param primary
+	 *            primary logger of the appender, used by the first partition
+	 * @param count
+	 *            number of partitions
+	 * @param loggerFactory
+	 *            creates logger of i-th partition (other than the first one)
+	 * @param spillerFactory
+	 *            creates spilling sender for a given logger, {@code null} if spill journal is disabled
+	 * @throws IOException
+	 *             if partition logger or spill journal can't be opened
+	 */
+	SinkPartitions(TrackingLogger primary, int count, IntFunction<TrackingLogger> loggerFactory,
+			SpillerFactory spillerFactory) throws IOException {
+		loggers = new TrackingLogger[Math.max(1, count)];
+		spillers = new SpillingSender[loggers.length];
+		loggers[0] = primary;
+		try {
+			for (int i = 1; i < loggers.length; i++) {
+				loggers[i] = loggerFactory.apply(i);
+				loggers[i].open();
+			}
+			if (spillerFactory != null) {
+				for (int i = 0; i < loggers.length; i++) {
+					spillers[i] = spillerFactory.create(i, loggers[i]);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			stopSpillers(0);
+			closeLoggers();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates spilling sender of a partition.
+	 */
+	@FunctionalInterface
+	interface SpillerFactory {
+		/**
+		 * Create spilling sender sending events to a given partition logger.
+		 *
+		 * @param partition
+		 *            partition index
+		 * @param logger
+		 *            partition logger
+		 * @return spilling sender
+		 * @throws IOException
+		 *             if spill journal can't be opened
+		 */
+		SpillingSender create(int partition, TrackingLogger logger) throws IOException;
+	}
+
+	/**
+	 * Obtain number of partitions.
+	 *
+	 * @return number of partitions
+	 */
+	int size() {
+		return loggers.length;
+	}
+
+	/**
+	 * Obtain partition index of a given routing key. {@code null} key is routed to the first partition.
+	 *
+	 * @param key
+	 *            routing key
+	 * @return partition index
+	 */
+	int partitionOf(String key) {
+		if (key == null || loggers.length == 1) {
+			return 0;
+		}
+		int h = key.hashCode();
+		return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % loggers.length;
+	}
+
+	/**
+	 * Check whether sinks of all partitions format events before sending call returns, so events are not referenced by
+	 * sinks afterwards. {@link BufferedEventSink} queues events to be formatted by pooled sink worker later.
+	 *
+	 * @return {@code true} if all partition sinks are synchronous, {@code false} otherwise
+	 */
+	boolean isSynchronous() {
+		for (TrackingLogger partitionLogger : loggers) {
+			if (partitionLogger.getEventSink() instanceof BufferedEventSink) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Send datagram event to a given partition.
+	 *
+	 * @param partition
+	 *            partition index
+	 * @param event
+	 *            datagram tracking event
+	 */
+	void sendNow(int partition, TrackingEvent event) {
+		SpillingSender spiller = spillers[partition];
+		if (spiller != null) {
+			spiller.accept(event);
+		} else {
+			loggers[partition].tnt(event);
+		}
+	}
+
+	/**
+	 * Obtain number of events journaled by all partitions since start.
+	 *
+	 * @return number of journaled events
+	 */
+	long getSpilledCount() {
+		long count = 0;
+		for (SpillingSender spiller : spillers) {
+			count += spiller == null ? 0 : spiller.getSpilledCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Obtain number of events dropped by all partitions since start because spill journal was full.
+	 *
+	 * @return number of dropped events
+	 */
+	long getJournalDroppedCount() {
+		long count = 0;
+		for (SpillingSender spiller : spillers) {
+			count += spiller == null ? 0 : spiller.getDroppedCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Stop spilling senders letting them replay journaled events within a given timeout, and close partition loggers
+	 * other than the primary one.
+	 *
+	 * @param timeoutMs
+	 *            maximum time in milliseconds to replay journaled events
+	 */
+	void stop(long timeoutMs) {
+		stopSpillers(timeoutMs);
+		closeLoggers();
+	}
+
+	private void stopSpillers(long timeoutMs) {
+		for (SpillingSender spiller : spillers) {
+			if (spiller != null) {
+				spiller.stop(timeoutMs);
+			}
+		}
+	}
+
+	private void closeLoggers() {
+		for (int i = 1; i < loggers.length; i++) {
+			if (loggers[i] != null) {
+				loggers[i].close();
+			}
+		}
+	}
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of records kept in memory-mapped segment files of fixed size. Every record is stored as its
+ * length, CRC32 checksum and payload; length is written last, so a record torn by process crash reads as end of
+ * segment. Read position is persisted in a checkpoint file after every consumed record, so journal opened after a crash
+ * resumes reading from the first unconsumed record. Consumed segments are deleted.
+ * <p>
+ * Journal is not thread safe: callers synchronize access.
+ *
+ * @version $Revision: 1 $
+ */
+final class SpillJournal implements Closeable {
+	private static final String SEGMENT_SUFFIX = ".journal";
+	private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+	private static final int RECORD_HEADER = 8;
+	private static final int CHECKPOINT_SIZE = 16;
+
+	private final Path dir;
+	private final String name;
+	private final int segmentSize;
+	private final int maxSegments;
+	private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+	private final CRC32 crc = new CRC32();
+	private final FileChannel checkpointChannel;
+	private final MappedByteBuffer checkpoint;
+
+	private int writePos;
+	private int readPos;
+	private int readLen;
+	private long corrupted;
+
+	/**
+	 * Open journal, recovering segments and read position left by previous run.
+	 *
+	 * @param dir
+	 *            journal directory, created if missing
+	 * @param name
+	 *            journal name, used as file name prefix
+	 * @param segmentSize
+	 *            segment file size in bytes
+	 * @param maxSize
+	 *            maximum total size of segment files in bytes
+	 * @throws IOException
+	 *             if journal files can't be created, read or mapped
+	 */
+	SpillJournal(Path dir, String name, int segmentSize, long maxSize) throws IOException {
+		this.dir = Files.createDirectories(dir);
+		this.name = name;
+		this.segmentSize = Math.max(segmentSize, RECORD_HEADER + 1);
+		this.maxSegments = (int) Math.max(2, Math.min(Integer.MAX_VALUE, maxSize / this.segmentSize));
+
+		checkpointChannel = FileChannel.open(dir.resolve(name + CHECKPOINT_SUFFIX), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		checkpoint = checkpointChannel.map(FileChannel.MapMode.READ_WRITE, 0, CHECKPOINT_SIZE);
+		try {
+			recover();
+		} catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+	}
+
+	private void recover() throws IOException {
+		long cpSeq = checkpoint.getLong(0);
+		int cpPos = checkpoint.getInt(8);
+		if (checkpoint.getInt(12) != checksum(cpSeq, cpPos)) {
+			// torn or missing checkpoint: replay from the oldest segment
+			cpSeq = -1;
+			cpPos = 0;
+		}
+		TreeMap<Long, Path> files = new TreeMap<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, name + "-*" + SEGMENT_SUFFIX)) {
+			for (Path file : stream) {
+				String fileName = file.getFileName().toString();
+				String seq = fileName.substring(name.length() + 1, fileName.length() - SEGMENT_SUFFIX.length());
+				try {
+					files.put(Long.parseLong(seq), file);
+				} catch (NumberFormatException e) {
+					// not a segment of this journal
+				}
+			}
+		}
+		for (Map.Entry<Long, Path> file : files.entrySet()) {
+			if (file.getKey() < cpSeq) {
+				Files.deleteIfExists(file.getValue());
+			} else {
+				segments.add(new Segment(file.getKey(), file.getValue()));
+			}
+		}
+		if (segments.isEmpty()) {
+			segments.add(newSegment(Math.max(0, cpSeq)));
+		}
+		readPos = segments.peekFirst().seq == cpSeq ? cpPos : 0;
+
+		Segment last = segments.peekLast();
+		writePos = last == segments.peekFirst() ? readPos : 0;
+		while (recordLength(last, writePos) > 0) {
+			writePos += RECORD_HEADER + recordLength(last, writePos);
+		}
+		// clear remainder of torn record, so it is not taken for records appended later
+		for (int i = writePos; i < segmentSize; i++) {
+			last.buffer.put(i, (byte) 0);
+		}
+	}
+
+	/**
+	 * Append record to the journal, rotating segments as needed.
+	 *
+	 * @param data
+	 *            record payload
+	 * @return {@code true} if record was appended, {@code false} if it doesn't fit into a segment or journal is full
+	 * @throws IOException
+	 *             if new segment file can't be created
+	 */
+	boolean append(byte[] data) throws IOException {
+		int needed = RECORD_HEADER + data.length;
+		if (needed > segmentSize) {
+			return false;
+		}
+		Segment last = segments.peekLast();
+		if (writePos + needed > segmentSize) {
+			if (segments.size() >= maxSegments) {
+				return false;
+			}
+			last.buffer.force();
+			last = newSegment(last.seq + 1);
+			segments.add(last);
+			writePos = 0;
+		}
+		crc.reset();
+		crc.update(data);
+		last.slice(writePos + RECORD_HEADER, data.length).put(data);
+		last.buffer.putInt(writePos + 4, (int) crc.getValue());
+		last.buffer.putInt(writePos, data.length);
+		writePos += needed;
+		return true;
+	}
+
+	/**
+	 * Read the oldest unconsumed record without consuming it. Segments consumed up to their end are deleted.
+	 *
+	 * @return record payload, {@code null} if journal is empty
+	 */
+	byte[] peek() {
+		while (true) {
+			Segment first = segments.peekFirst();
+			int len = recordLength(first, readPos);
+			if (len > 0) {
+				byte[] data = new byte[len];
+				first.slice(readPos + RECORD_HEADER, len).get(data);
+				readLen = len;
+				return data;
+			}
+			if (first == segments.peekLast()) {
+				return null;
+			}
+			if (len < 0) {
+				corrupted++;
+			}
+			segments.pollFirst().delete();
+			readPos = 0;
+			writeCheckpoint();
+		}
+	}
+
+	/**
+	 * Consume the record returned by last {@link #peek()}, persisting new read position.
+	 */
+	void advance() {
+		if (readLen > 0) {
+			readPos += RECORD_HEADER + readLen;
+			readLen = 0;
+			writeCheckpoint();
+		}
+	}
+
+	/**
+	 * Check whether journal has no unconsumed records.
+	 *
+	 * @return {@code true} if journal is empty, {@code false} otherwise
+	 */
+	boolean isEmpty() {
+		return segments.size() == 1 && readPos >= writePos;
+	}
+
+	/**
+	 * Obtain number of records found corrupted (failing CRC check) and skipped.
+	 *
+	 * @return number of corrupted records
+	 */
+	long getCorruptedCount() {
+		return corrupted;
+	}
+
+	/**
+	 * Force journal content to storage and release journal files.
+	 */
+	@Override
+	public void close() throws IOException {
+		for (Segment segment : segments) {
+			segment.close();
+		}
+		segments.clear();
+		checkpoint.force();
+		checkpointChannel.close();
+	}
+
+	/**
+	 * Obtain length of a valid record at a given position.
+	 *
+	 * @return record length, {@code 0} if there is no record, {@code -1} if record is corrupted
+	 */
+	private int recordLength(Segment segment, int pos) {
+		if (pos + RECORD_HEADER > segmentSize) {
+			return 0;
+		}
+		int len = segment.buffer.getInt(pos);
+		if (len == 0) {
+			return 0;
+		}
+		if (len < 0 || pos + RECORD_HEADER + len > segmentSize) {
+			return -1;
+		}
+		crc.reset();
+		crc.update(segment.slice(pos + RECORD_HEADER, len));
+		return (int) crc.getValue() == segment.buffer.getInt(pos + 4) ? len : -1;
+	}
+
+	private void writeCheckpoint() {
+		long seq = segments.peekFirst().seq;
+		checkpoint.putLong(0, seq);
+		checkpoint.putInt(8, readPos);
+		checkpoint.putInt(12, checksum(seq, readPos));
+	}
+
+	private static int checksum(long seq, int pos) {
+		return Long.hashCode(seq * 31 + pos) ^ 0x5EED;
+	}
+
+	private Segment newSegment(long seq) throws IOException {
+		return new Segment(seq, dir.resolve(name + "-" + seq + SEGMENT_SUFFIX));
+	}
+
+	private final class Segment {
+		final long seq;
+		final Path path;
+		final FileChannel channel;
+		final MappedByteBuffer buffer;
+
+		Segment(long seq, Path path) throws IOException {
+			this.seq = seq;
+			this.path = path;
+			channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+
+		ByteBuffer slice(int pos, int len) {
+			ByteBuffer view = buffer.duplicate();
+			view.limit(pos + len).position(pos);
+			return view;
+		}
+
+		void close() throws IOException {
+			buffer.force();
+			channel.close();
+		}
+
+		void delete() {
+			try {
+				channel.close();
+				Files.deleteIfExists(path);
+			} catch (IOException e) {
+				// file still mapped on some platforms, deleted on next recovery
+			}
+		}
+	}
+}
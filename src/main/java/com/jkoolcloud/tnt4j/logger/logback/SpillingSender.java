@@ -0,0 +1,253 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import com.jkoolcloud.tnt4j.TrackingLogger;
+import com.jkoolcloud.tnt4j.sink.EventSink;
+import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
+
+import ch.qos.logback.core.spi.ContextAware;
+
+/**
+ * Sends datagram events to TNT4J sink, spilling them into local {@link SpillJournal} while sink falls behind. Sink
+ * falls behind when sending an event fails, or takes longer than configured threshold. Since then events are formatted
+ * by sink formatter and journaled, and a replay thread writes journaled events to sink in order, retrying while sink
+ * fails. Once journal is replayed, events are sent to sink directly again. Events journaled but not replayed when
+ * appender stops are replayed on next start.
+ * <p>
+ * Event failed to be sent is journaled for replay, so an event may be reported twice when several threads fail at
+ * once.
+ * <p>
+ * Events filtered out by sink (see {@link EventSink#isLoggable(TrackingEvent)}) are not journaled. Journaled events are
+ * replayed as formatted text by {@link EventSink#write(Object, Object...)}, so sink rate limiter and sink event
+ * listeners are skipped for them.
+ *
+ * @version $Revision: 1 $
+ */
+final class SpillingSender implements Consumer<TrackingEvent> {
+	private final TrackingLogger logger;
+	private final SpillJournal journal;
+	private final long slowNanos;
+	private final long retryMs;
+	private final ContextAware status;
+	private final Thread replayer;
+	private final LongAdder spilled = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	private volatile boolean spilling;
+	private volatile boolean running = true;
+
+	/**
+	 * Create spilling sender and start its replay thread. Events left in journal by previous run are replayed first.
+	 *
+	 * @param threadName
+	 *            replay thread name
+	 * @param logger
+	 *            tracking logger sending events to sink
+	 * @param journal
+	 *            spill journal
+	 * @param slowMs
+	 *            number of milliseconds sending an event may take before sink is considered falling behind
+	 * @param retryMs
+	 *            number of milliseconds to wait before retrying replay to failing sink
+	 * @param status
+	 *            status manager to report journal errors
+	 */
+	SpillingSender(String threadName, TrackingLogger logger, SpillJournal journal, long slowMs, long retryMs,
+			ContextAware status) {
+		this.logger = logger;
+		this.journal = journal;
+		this.slowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, slowMs));
+		this.retryMs = Math.max(1, retryMs);
+		this.status = status;
+		this.spilling = !journal.isEmpty();
+
+		replayer = new Thread(this::replay, threadName);
+		replayer.setDaemon(true);
+		replayer.start();
+	}
+
+	@Override
+	public void accept(TrackingEvent event) {
+		if (spilling && spill(event)) {
+			return;
+		}
+		EventSink sink = logger.getEventSink();
+		long errors = sink.getErrorCount();
+		long start = System.nanoTime();
+		logger.tnt(event);
+		if (sink.getErrorCount() != errors) {
+			spilling = true;
+			spill(event);
+		} else if (System.nanoTime() - start > slowNanos) {
+			spilling = true;
+		}
+	}
+
+	/**
+	 * Journal event if sink is falling behind.
+	 *
+	 * @param event
+	 *            datagram tracking event
+	 * @return {@code true} if event was journaled or dropped, {@code false} if sink caught up meanwhile and event should
+	 *         be sent directly
+	 */
+	private boolean spill(TrackingEvent event) {
+		EventSink sink = logger.getEventSink();
+		if (!sink.isLoggable(event)) {
+			// sink would filter event out anyway
+			return true;
+		}
+		byte[] data = sink.getEventFormatter().format(event).getBytes(StandardCharsets.UTF_8);
+		synchronized (this) {
+			if (!spilling || !running) {
+				return false;
+			}
+			try {
+				if (journal.append(data)) {
+					spilled.increment();
+					notifyAll();
+				} else {
+					dropped.increment();
+				}
+			} catch (IOException e) {
+				dropped.increment();
+				status.addError("Failed to journal event", e);
+			}
+			return true;
+		}
+	}
+
+	private void replay() {
+		while (running) {
+			byte[] data;
+			synchronized (this) {
+				if (!running) {
+					break;
+				}
+				data = journal.peek();
+				if (data == null) {
+					spilling = false;
+					waitQuietly(retryMs);
+					continue;
+				}
+			}
+			boolean written;
+			try {
+				written = write(data);
+			} catch (InterruptedException e) {
+				break;
+			}
+			synchronized (this) {
+				if (written) {
+					if (running) {
+						journal.advance();
+					}
+				} else {
+					// sink still fails, retry later
+					waitQuietly(retryMs);
+				}
+			}
+		}
+	}
+
+	private boolean write(byte[] data) throws InterruptedException {
+		// sink reports write failures to its error listeners, rather than throwing them
+		EventSink sink = logger.getEventSink();
+		long errors = sink.getErrorCount();
+		try {
+			sink.write(new String(data, StandardCharsets.UTF_8));
+		} catch (IOException | RuntimeException e) {
+			return false;
+		}
+		return sink.getErrorCount() == errors;
+	}
+
+	private void waitQuietly(long ms) {
+		try {
+			wait(ms);
+		} catch (InterruptedException e) {
+			running = false;
+		}
+	}
+
+	/**
+	 * Stop replay thread, letting it replay journaled events within a given timeout, and close journal. Events left in
+	 * journal are replayed on next start.
+	 *
+	 * @param timeoutMs
+	 *            maximum time in milliseconds to wait for journal to be replayed
+	 */
+	void stop(long timeoutMs) {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		try {
+			while (spilling && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			running = false;
+		}
+		replayer.interrupt();
+		try {
+			replayer.join(Math.max(1, deadline - System.currentTimeMillis()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				status.addError("Failed to close journal", e);
+			}
+		}
+	}
+
+	/**
+	 * Check whether events are currently spilled into journal.
+	 *
+	 * @return {@code true} if events are spilled, {@code false} if they are sent directly
+	 */
+	boolean isSpilling() {
+		return spilling;
+	}
+
+	/**
+	 * Obtain number of events journaled since start.
+	 *
+	 * @return number of journaled events
+	 */
+	long getSpilledCount() {
+		return spilled.sum();
+	}
+
+	/**
+	 * Obtain number of events dropped since start because journal was full.
+	 *
+	 * @return number of dropped events
+	 */
+	long getDroppedCount() {
+		return dropped.sum();
+	}
+}
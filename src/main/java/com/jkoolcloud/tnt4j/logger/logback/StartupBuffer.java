@@ -0,0 +1,234 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.spi.ContextAware;
+
+/**
+ * Initializes appender in background and buffers logging events appended meanwhile in a bounded queue. Once
+ * initialized, startup thread processes buffered events in appending order, while events appended during processing
+ * are queued behind them, so no event overtakes an earlier one. Buffer stops accepting events once it is empty.
+ * <p>
+ * Buffered events are processed by startup thread, so activities started by buffered {@code #beg} instructions are
+ * bound to startup thread, and are closed by activity registry once startup thread ends.
+ *
+ * @version $Revision: 1 $
+ */
+final class StartupBuffer {
+	private static final int INITIALIZING = 0;
+	private static final int DRAINING = 1;
+	private static final int READY = 2;
+	private static final int FAILED = 3;
+	private static final int ABANDONED = 4;
+	private static final int EXPIRED = 5;
+
+	private final int capacity;
+	private final ArrayDeque<EventRingBuffer.Slot> queue;
+	private final BooleanSupplier initializer;
+	private final Consumer<EventRingBuffer.Slot> handler;
+	private final Runnable releaser;
+	private final ContextAware status;
+	private final Thread thread;
+	private final AtomicInteger state = new AtomicInteger(INITIALIZING);
+
+	private long dropped; // guarded by queue
+	private boolean closed; // guarded by queue
+	private volatile boolean buffering = true;
+	private volatile long drainDeadline = Long.MAX_VALUE;
+
+	/**
+	 * Create startup buffer.
+	 *
+	 * @param name
+	 *            appender name, used for naming startup thread
+	 * @param capacity
+	 *            maximum number of buffered events, events appended when buffer is full are dropped
+	 * @param initializer
+	 *            initializes appender on startup thread, returns {@code false} if initialization failed
+	 * @param handler
+	 *            handler invoked on startup thread for every buffered event once appender is initialized
+	 * @param releaser
+	 *            releases appender resources, invoked on startup thread if buffer was stopped while appender was still
+	 *            initializing or processing buffered events
+	 * @param status
+	 *            status manager to report errors
+	 */
+	StartupBuffer(String name, int capacity, BooleanSupplier initializer, Consumer<EventRingBuffer.Slot> handler,
+			Runnable releaser, ContextAware status) {
+		this.capacity = Math.max(1, capacity);
+		this.queue = new ArrayDeque<>(Math.min(this.capacity, 1024));
+		this.initializer = initializer;
+		this.handler = handler;
+		this.releaser = releaser;
+		this.status = status;
+		this.thread = new Thread(this::run, name + "-startup");
+		this.thread.setDaemon(true);
+	}
+
+	/**
+	 * Start startup thread.
+	 */
+	void start() {
+		thread.start();
+	}
+
+	/**
+	 * Check whether buffer still accepts events, i.e. appender is initializing or buffered events are being processed.
+	 *
+	 * @return {@code true} if events are to be buffered, {@code false} if appender is ready
+	 */
+	boolean isBuffering() {
+		return buffering;
+	}
+
+	/**
+	 * Buffer logging event appended while appender is initializing. Event is dropped if buffer is full or stopped.
+	 *
+	 * @param event
+	 *            logging event, with thread context already captured
+	 * @param frame
+	 *            caller frame of the logging event
+	 * @param elapsedUsec
+	 *            elapsed microseconds since last event on logging thread
+	 * @return {@code true} if event was buffered or dropped, {@code false} if appender is ready and event must be
+	 *         processed right away
+	 */
+	boolean offer(ILoggingEvent event, StackTraceElement frame, long elapsedUsec) {
+		synchronized (queue) {
+			if (closed) {
+				dropped++;
+				return true;
+			}
+			if (!buffering) {
+				return false;
+			}
+			if (queue.size() >= capacity) {
+				dropped++;
+				return true;
+			}
+			EventRingBuffer.Slot slot = new EventRingBuffer.Slot();
+			slot.event = event;
+			slot.frame = frame;
+			slot.elapsedUsec = elapsedUsec;
+			queue.add(slot);
+			return true;
+		}
+	}
+
+	private void run() {
+		boolean initialized = false;
+		try {
+			initialized = initializer.getAsBoolean();
+		} catch (RuntimeException e) {
+			status.addError("Failed to initialize appender", e);
+		}
+		if (!initialized) {
+			state.compareAndSet(INITIALIZING, FAILED);
+			return;
+		}
+		if (!state.compareAndSet(INITIALIZING, DRAINING)) {
+			// stopped while initializing, nobody else will release what was initialized
+			releaser.run();
+			return;
+		}
+		if (!drain()) {
+			// stopped while processing buffered events, release once the last one is processed
+			releaser.run();
+		}
+	}
+
+	/**
+	 * Process buffered events until buffer is empty or drain deadline expires.
+	 *
+	 * @return {@code true} if appender is left to be released by its owner, {@code false} if buffer was stopped
+	 *         meanwhile and startup thread has to release appender
+	 */
+	private boolean drain() {
+		while (System.currentTimeMillis() < drainDeadline) {
+			EventRingBuffer.Slot slot;
+			synchronized (queue) {
+				slot = queue.poll();
+				if (slot == null) {
+					buffering = false;
+					return state.compareAndSet(DRAINING, READY);
+				}
+			}
+			try {
+				handler.accept(slot);
+			} catch (RuntimeException e) {
+				status.addError("Failed to process event buffered at startup", e);
+			}
+		}
+		return state.compareAndSet(DRAINING, EXPIRED);
+	}
+
+	/**
+	 * Stop buffering, letting startup thread initialize appender and process buffered events within a given timeout.
+	 * If appender is still initializing or processing a buffered event when timeout expires, startup thread releases
+	 * appender resources once it is done, see {@link #isInitialized()}.
+	 *
+	 * @param timeoutMs
+	 *            maximum time in milliseconds to wait for buffered events to be processed
+	 * @return number of buffered events left unprocessed
+	 */
+	long stop(long timeoutMs) {
+		drainDeadline = System.currentTimeMillis() + timeoutMs;
+		try {
+			thread.join(Math.max(1, timeoutMs));
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+		drainDeadline = 0;
+		if (!state.compareAndSet(INITIALIZING, ABANDONED)) {
+			state.compareAndSet(DRAINING, ABANDONED);
+		}
+		synchronized (queue) {
+			closed = true;
+			long lost = queue.size();
+			queue.clear();
+			return lost;
+		}
+	}
+
+	/**
+	 * Check whether appender was initialized by startup thread and is no longer used by it, so resources are released
+	 * by appender itself when it stops.
+	 *
+	 * @return {@code true} if appender was initialized, {@code false} if initialization failed, or if startup thread
+	 *         was still initializing appender or processing buffered events when {@link #stop(long)} timed out
+	 */
+	boolean isInitialized() {
+		int current = state.get();
+		return current == DRAINING || current == READY || current == EXPIRED;
+	}
+
+	/**
+	 * Obtain number of events dropped because buffer was full or stopped.
+	 *
+	 * @return number of dropped events
+	 */
+	long getDroppedCount() {
+		synchronized (queue) {
+			return dropped;
+		}
+	}
+}
@@ -16,24 +16,43 @@
 package com.jkoolcloud.tnt4j.logger.logback;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Marker;
+import org.slf4j.event.KeyValuePair;
 
 import com.jkoolcloud.tnt4j.TrackingLogger;
+import com.jkoolcloud.tnt4j.config.DefaultConfigFactory;
 import com.jkoolcloud.tnt4j.core.*;
 import com.jkoolcloud.tnt4j.logger.AppenderConstants;
 import com.jkoolcloud.tnt4j.logger.AppenderTools;
+import com.jkoolcloud.tnt4j.source.Source;
 import com.jkoolcloud.tnt4j.source.SourceType;
 import com.jkoolcloud.tnt4j.tracker.TimeTracker;
+import com.jkoolcloud.tnt4j.tracker.TrackerImpl;
 import com.jkoolcloud.tnt4j.tracker.TrackingActivity;
 import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
 import com.jkoolcloud.tnt4j.utils.Utils;
 
 import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.classic.spi.ThrowableProxy;
-import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
 import ch.qos.logback.core.status.ErrorStatus;
 
 /**
@@ -46,21 +65,262 @@ import ch.qos.logback.core.status.ErrorStatus;
  * This appender has the following behavior:
  * <ul>
  * <li>This appender does not require a layout.</li>
- * <li>TNT4J hash tags can be passed using logback messages (using {@code #tag=value} convention) as well as
- * {@code MDC}.</li>
+ * <li>TNT4J hash tags can be passed using logback messages (using {@code #tag=value} convention) as well as SLF4J
+ * key-value pairs and {@code MDC}, see {@code attributeSources} property.</li>
  * <li>All messages logged to this appender will be sent to all defined sinks as configured by TNT4J configuration.</li>
+ * <li>Events may be dropped by rate limiting and sampling, see {@code rateLimit} and {@code sampling} properties.
+ * ERROR events, activity {@code #beg}/{@code #end} and correlated ({@code #cid}) events are always kept. Numbers of
+ * dropped events per logger name are reported along with periodic JVM metrics as TNT4J snapshot.</li>
+ * <li>Repeated events (same logger, message template and exception) may be suppressed within a time window, see
+ * {@code suppressWindow} property. First occurrence is reported as is, followed by a single summary event carrying
+ * repeat count, first and last repeat time and elapsed time range as TNT4J snapshot.</li>
+ * <li>Activities started by {@code #beg} are tracked by activity registry: activities of dead threads are closed and
+ * reported by background sweeper, activities exceeding age, idle or total size limits are expired by the sweeper and
+ * closed on their thread next logging call.</li>
+ * <li>Datagram events may be reported by several sink partitions in parallel, see {@code partitions} and
+ * {@code partitionKey} properties. Events of the same key are reported by the same partition in logging order.
+ * Activities and snapshots are reported by the first partition.</li>
+ * <li>Datagram events may be spilled into local journal while TNT4J sink fails or is slow, see {@code journalDir}
+ * property. Journaled events are replayed in order once sink recovers, also after restart.</li>
+ * <li>TNT4J events of datagrams may be recycled through striped pools once sink formatted them, see
+ * {@code recycleEvents} property.</li>
+ * <li>Appender statistics (events by level and reporting path, lost events, parse, build and dispatch latencies,
+ * queue depth and cache hit ratios) are exposed as JMX MBean {@link TNT4JAppenderMXBean} named by appender name, and
+ * optionally reported as TNT4J snapshot along with periodic JVM metrics.</li>
+ * <li>Virtual thread friendly mode keeps no thread local state of virtual threads, see {@code virtualThreads}
+ * property: activities are scoped to correlator ({@code #cid}) instead of thread, and elapsed time of virtual thread
+ * events is measured since the last event of the same correlator.</li>
+ * <li>Numeric values of selected user fields may be aggregated over time windows, see {@code aggregateFields}
+ * property. Count, sum, minimum, maximum, mean and quantiles of every field, in total and per logger name, are
+ * reported as a single TNT4J snapshot per window, optionally dropping datagram events carrying aggregated fields.</li>
+ * <li>TNT4J configuration, sources and sinks may be initialized in background, see {@code asyncStart} property, so
+ * Logback configuration is not delayed. Events appended meanwhile are buffered in a bounded queue and reported in
+ * appending order once TNT4J is initialized. Events lost at startup or shutdown are counted and reported as appender
+ * status warning.</li>
+ * <li>This appender is not synchronized: logging threads append concurrently. TNT4J activities are bound to the logging
+ * thread, so activity bookkeeping requires no appender wide lock.</li>
  * </ul>
  * <p>
  * This appender supports the following properties:
  * <table>
  * <caption>Appender supported configuration properties</caption>
  * <tr>
+ * <td valign=top><b>maxActivitySize</b></td>
+ * <td valign=top>maximum number of events within activity, after which activity is closed, default 100</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>activityMaxAge</b></td>
+ * <td valign=top>milliseconds after which activity is expired by background sweeper, 0 for unlimited, default 0</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>activityIdleTimeout</b></td>
+ * <td valign=top>milliseconds activity may stay without new events before it is expired by background sweeper, 0 for
+ * unlimited, default 0</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>maxActivityEvents</b></td>
+ * <td valign=top>maximum total number of events within all open activities, the oldest activities are expired when
+ * exceeded, 0 for unlimited, default 0</td>
+ * </tr>
+ * <tr>
  * <td valign=top><b>metricsOnException</b></td>
  * <td valign=top>report jvm metrics on exception (true|false)</td>
  * </tr>
  * <tr>
  * <td valign=top><b>metricsFrequency</b></td>
- * <td valign=top>report jvm metrics on every specified number of seconds (only on logging activity)</td>
+ * <td valign=top>report jvm metrics on every specified number of seconds by a background thread, regardless of
+ * logging activity, 0 disables periodic metrics, default 60</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>metricsOnExceptionInterval</b></td>
+ * <td valign=top>report jvm metrics on exception at most once per exception fingerprint per specified number of
+ * seconds, 0 reports on every exception, default 0</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>exceptionCacheSize</b></td>
+ * <td valign=top>maximum number of exception fingerprints (exception class and stack frames) tracked, default
+ * 1024</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>exceptionRefs</b></td>
+ * <td valign=top>report repeated stack traces as fingerprint reference and occurrence count instead of full trace
+ * (true|false), default false</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>jmx</b></td>
+ * <td valign=top>register appender statistics as JMX MBean (true|false), default true</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>statsSnapshot</b></td>
+ * <td valign=top>report appender statistics as TNT4J snapshot every {@code metricsFrequency} seconds (true|false),
+ * default false</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>callerData</b></td>
+ * <td valign=top>caller data collection modes as comma separated {@code [level=]mode} entries, see
+ * {@link CallerDataMode}, e.g. {@code NONE,ERROR=FULL}, default FULL</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>callerDataDepth</b></td>
+ * <td valign=top>maximum number of caller frames walked by LAZY caller data mode, default 8</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>sourceCacheSize</b></td>
+ * <td valign=top>maximum number of TNT4J sources cached by logger name and {@code #app} value, 0 disables caching,
+ * default 4096</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>templateCacheSize</b></td>
+ * <td valign=top>maximum number of compiled parameterized message templates, 0 disables caching, default 1024</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>attributeSources</b></td>
+ * <td valign=top>comma separated list of event attribute sources in precedence order, see {@link AttributeSource},
+ * default MESSAGE,KV</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>markers</b></td>
+ * <td valign=top>comma separated list of marker names reported as TNT4J event tags, {@code *} for all markers,
+ * default none</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>levelFilter</b></td>
+ * <td valign=top>reject events of levels TNT4J sink discards before any processing (true|false), default true</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>partitions</b></td>
+ * <td valign=top>number of sink partitions, each owning its own TNT4J tracking logger and sink, reporting datagram
+ * events in parallel, default 1</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>partitionKey</b></td>
+ * <td valign=top>key routing datagram events to sink partitions, see {@link PartitionKey}, default THREAD</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>journalDir</b></td>
+ * <td valign=top>directory of spill journal files, where datagram events are spilled while TNT4J sink falls behind
+ * and replayed from once it recovers, default none (disabled)</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>journalSegmentSize</b></td>
+ * <td valign=top>size in bytes of memory-mapped spill journal segment file, default 4194304</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>journalMaxSize</b></td>
+ * <td valign=top>maximum total size in bytes of spill journal files per sink partition, default 268435456</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>spillThreshold</b></td>
+ * <td valign=top>milliseconds sending an event may take before sink is considered falling behind, default 500</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>spillRetry</b></td>
+ * <td valign=top>milliseconds to wait before retrying replay to failing sink, default 1000</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>virtualThreads</b></td>
+ * <td valign=top>virtual thread friendly mode, keeping no thread local state of virtual threads and scoping activities
+ * to correlator (true|false), default false</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>scopeTableSize</b></td>
+ * <td valign=top>maximum number of correlators tracked for elapsed time of virtual thread events, default 8192</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>recycleEvents</b></td>
+ * <td valign=top>reuse pooled TNT4J events, snapshots and properties of datagram events once sink formatted them
+ * (true|false), default false</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>recyclePoolSize</b></td>
+ * <td valign=top>maximum number of pooled events per pool stripe, default 64</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>rateLimit</b></td>
+ * <td valign=top>maximum number of events per second of every logger name and level, 0 disables rate limiting,
+ * default 0</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>rateBurst</b></td>
+ * <td valign=top>number of events of every logger name and level allowed in a row over the rate limit, 0 means equal
+ * to rate limit, default 0</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>sampling</b></td>
+ * <td valign=top>sample events probabilistically when appender gets overloaded (true|false), default false</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>samplingLatency</b></td>
+ * <td valign=top>average append latency in microseconds above which sampling tightens, default 1000</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>suppressWindow</b></td>
+ * <td valign=top>milliseconds within which repeated events are suppressed and summarized, 0 disables suppression,
+ * default 0</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>suppressTableSize</b></td>
+ * <td valign=top>maximum number of event fingerprints tracked for suppression, default 1024</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>async</b></td>
+ * <td valign=top>queue events for dispatch by dedicated threads instead of logging thread (true|false), messages are
+ * still formatted on logging thread, default false</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>queueSize</b></td>
+ * <td valign=top>asynchronous dispatch queue size of every dispatch thread, default 1024</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>dispatchThreads</b></td>
+ * <td valign=top>number of asynchronous dispatch threads, default 1</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>overflowPolicy</b></td>
+ * <td valign=top>policy applied when dispatch queue is full, see {@link OverflowPolicy}, default BLOCK</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>dropLevel</b></td>
+ * <td valign=top>level below which events are dropped by DROP_BELOW_LEVEL policy, default INFO</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>waitStrategy</b></td>
+ * <td valign=top>how dispatch threads wait for events before blocking, see {@link WaitStrategy}, default
+ * SLEEPING</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>shutdownTimeout</b></td>
+ * <td valign=top>milliseconds to dispatch queued events when appender is stopped, default 1000</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>asyncStart</b></td>
+ * <td valign=top>initialize TNT4J in background, buffering events appended meanwhile (true|false), default false</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>startupQueueSize</b></td>
+ * <td valign=top>maximum number of events buffered while TNT4J is initialized in background, default 1024</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>timing</b></td>
+ * <td valign=top>how event times and elapsed time are obtained, see {@link TimingMode}, default MILLIS</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>aggregateFields</b></td>
+ * <td valign=top>comma separated list of user field (snapshot property) names which numeric values are aggregated
+ * over time windows, default none</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>aggregateWindow</b></td>
+ * <td valign=top>milliseconds of field aggregation window, default 60000</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>aggregateTableSize</b></td>
+ * <td valign=top>maximum number of logger accumulators of all aggregated fields, default 1024</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>aggregateDrop</b></td>
+ * <td valign=top>drop datagram events carrying aggregated fields, except events carrying exception
+ * (true|false), default false</td>
  * </tr>
  * </table>
  *
@@ -220,16 +480,102 @@ import ch.qos.logback.core.status.ErrorStatus;
  * @version $Revision: 1 $
  *
  */
-public class TNT4JAppender extends AppenderBase<ILoggingEvent> implements AppenderConstants {
+public class TNT4JAppender extends UnsynchronizedAppenderBase<ILoggingEvent> implements AppenderConstants {
 	public static final String SNAPSHOT_CATEGORY = "Logback";
+	public static final String METRICS_SNAPSHOT = "JVMMetrics";
+	public static final String DROPPED_SNAPSHOT = "DroppedEvents";
+	public static final String DUPLICATES_SNAPSHOT = "Duplicates";
+	public static final String EXCEPTION_REF_PROPERTY = "ExceptionRef";
+	public static final String EXCEPTION_COUNT_PROPERTY = "ExceptionCount";
+	public static final String STATS_SNAPSHOT = "AppenderStats";
+	public static final String AGGREGATES_SNAPSHOT = "Aggregates";
+	public static final String JMX_DOMAIN = "com.jkoolcloud.tnt4j.logger.logback";
 
-	private TrackingLogger logger;
+	private static final int FIELD_KEY_CACHE_SIZE = 4096;
+	private static final long SCOPED_ELAPSED = -1;
+	private static final String BEGIN_TAG = "#" + PARAM_BEGIN_LABEL;
+	private static final String END_TAG = "#" + PARAM_END_LABEL;
+	private static final String CORRELATOR_TAG = "#" + PARAM_CORRELATOR_LABEL;
+
+	private volatile TrackingLogger logger;
 	private String sourceName;
 	private SourceType sourceType = SourceType.APPL;
 	private int maxActivitySize = 100;
+	private long activityMaxAge = 0;
+	private long activityIdleTimeout = 0;
+	private long maxActivityEvents = 0;
+	private volatile ActivityRegistry activities;
 
 	private boolean metricsOnException = true;
-	private long metricsFrequency = 60, lastSnapshot = 0;
+	private long metricsFrequency = 60;
+	private long metricsOnExceptionInterval = 0;
+	private volatile MetricsReporter metricsReporter;
+
+	private boolean async = false;
+	private int queueSize = 1024;
+	private int dispatchThreads = 1;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+	private Level dropLevel = Level.INFO;
+	private WaitStrategy waitStrategy = WaitStrategy.SLEEPING;
+	private long shutdownTimeout = 1000;
+	private boolean asyncStart = false;
+	private TimingMode timing = TimingMode.MILLIS;
+	private int startupQueueSize = 1024;
+	private volatile StartupBuffer startup;
+	private volatile AsyncEventDispatcher dispatcher;
+
+	private String callerData = CallerDataMode.FULL.name();
+	private int callerDataDepth = 8;
+	private CallerFrameResolver callerFrameResolver;
+	private int sourceCacheSize = 4096;
+	private volatile BoundedCache<String, Source> sourceCache;
+	private int templateCacheSize = 1024;
+	private volatile BoundedCache<String, MessageTemplate> templateCache;
+	private String attributeSources = AttributeSource.MESSAGE + "," + AttributeSource.KV;
+	private int[] sourceRanks;
+	private String[] markerNames;
+	private boolean levelFilter = true;
+	private volatile LevelGate levelGate;
+	private final LongAdder rejected = new LongAdder();
+	private int partitions = 1;
+	private PartitionKey partitionKey = PartitionKey.THREAD;
+	private volatile SinkPartitions sinks;
+	private String journalDir;
+	private int journalSegmentSize = 4 * 1024 * 1024;
+	private long journalMaxSize = 256L * 1024 * 1024;
+	private long spillThreshold = 500;
+	private long spillRetry = 1000;
+	private boolean virtualThreads = false;
+	private int scopeTableSize = 8192;
+	private volatile BoundedCache<String, AtomicLong> scopeTimes;
+	private boolean recycleEvents = false;
+	private int recyclePoolSize = 64;
+	private volatile EventRecycler recycler;
+	private double rateLimit = 0;
+	private int rateBurst = 0;
+	private boolean sampling = false;
+	private long samplingLatency = 1000;
+	private volatile RateController rateController;
+	private long suppressWindow = 0;
+	private int suppressTableSize = 1024;
+	private volatile DuplicateSuppressor suppressor;
+	private String[] aggregateFields;
+	private long aggregateWindow = 60000;
+	private int aggregateTableSize = 1024;
+	private boolean aggregateDrop = false;
+	private volatile FieldAggregator aggregator;
+	private int exceptionCacheSize = 1024;
+	private boolean exceptionRefs = false;
+	private volatile BoundedCache<String, ExceptionFingerprint> exceptionCache;
+	private boolean jmx = true;
+	private boolean statsSnapshot = false;
+	private boolean timeLatencies;
+	private final AppenderStats stats = new AppenderStats(this);
+	private volatile ObjectName mbeanName;
+	private final BoundedCache<String, FieldKey> fieldKeys = new BoundedCache<>(FIELD_KEY_CACHE_SIZE, FieldKey::resolve);
+
+	private final ThreadLocal<HashTagAttributes> attributes = ThreadLocal.withInitial(HashTagAttributes::new);
+	private final ThreadLocal<long[]> lastEventTimes = ThreadLocal.withInitial(() -> new long[1]);
 
 	@Override
 	public void start() {
@@ -240,17 +586,204 @@ public class TNT4JAppender extends AppenderBase<ILoggingEvent> implements Append
 			if (sourceName == null) {
 				setSourceName(getName());
 			}
-			logger = TrackingLogger.getInstance(sourceName, sourceType);
-			logger.open();
+			callerFrameResolver = new CallerFrameResolver(callerData, callerDataDepth,
+					getContext() instanceof LoggerContext ? ((LoggerContext) getContext()).getFrameworkPackages() : null);
+			if (asyncStart) {
+				// TNT4J is initialized in background, events appended meanwhile are buffered
+				StartupBuffer early = new StartupBuffer(getName(), startupQueueSize, this::initializeAsync,
+						this::processBuffered, this::release, this);
+				startup = early;
+				super.start();
+				early.start();
+				return;
+			}
+			startup = null;
+			try {
+				initialize();
+			} catch (IOException | RuntimeException e) {
+				// release components initialized before failure
+				release();
+				throw e;
+			}
 			super.start();
-		} catch (IOException e) {
-			addStatus(new ErrorStatus("Unable to create tracker instance=" + getName() + ", source=" + sourceName
-					+ ", type=" + sourceType, this, e));
+		} catch (IOException | IllegalArgumentException e) {
+			startFailed(e);
+		}
+	}
+
+	/**
+	 * Initialize TNT4J tracking logger, its sinks and appender components.
+	 *
+	 * @throws IOException
+	 *             if tracking logger or spill journal can't be opened
+	 * @throws IllegalArgumentException
+	 *             if appender configuration is invalid
+	 */
+	private void initialize() throws IOException {
+		logger = TrackingLogger.getInstance(sourceName, sourceType);
+		logger.open();
+		sourceCache = new BoundedCache<>(sourceCacheSize, logger.getConfiguration().getSourceFactory()::newSource);
+		templateCache = new BoundedCache<>(templateCacheSize, MessageTemplate::compile);
+		exceptionCache = new BoundedCache<>(exceptionCacheSize, ExceptionFingerprint::new);
+		sourceRanks = parseAttributeSources(attributeSources);
+		timeLatencies = jmx || statsSnapshot;
+		levelGate = levelFilter ? new LevelGate(logger) : null;
+		activities = new ActivityRegistry(getName(), activityMaxAge, activityIdleTimeout, maxActivityEvents,
+				this::closeActivity, this);
+		if (virtualThreads) {
+			// activities are scoped to correlators, so tracker keeps no activity stack per thread
+			logger.setKeepThreadContext(false);
+			scopeTimes = new BoundedCache<>(scopeTableSize, correlator -> new AtomicLong());
+		}
+		sinks = new SinkPartitions(logger, partitions, this::newPartitionLogger,
+				Utils.isEmpty(journalDir) ? null : this::newSpiller);
+		if (recycleEvents) {
+			if (sinks.isSynchronous()) {
+				recycler = new EventRecycler(recyclePoolSize);
+			} else {
+				addWarn("Event recycling disabled, sink formats events asynchronously, appender=" + getName());
+			}
+		}
+		if (async || virtualThreads) {
+			dispatcher = new AsyncEventDispatcher(getName(), dispatchThreads, queueSize, overflowPolicy, dropLevel,
+					waitStrategy, this::dispatch, this);
+			dispatcher.start();
+		}
+		if (suppressWindow > 0) {
+			suppressor = new DuplicateSuppressor(getName(), suppressWindow, suppressTableSize,
+					this::elapsedUsec, this::reportDuplicates, this);
+		}
+		if (aggregateFields != null) {
+			aggregator = new FieldAggregator(getName(), Arrays.asList(aggregateFields), aggregateWindow,
+					aggregateTableSize, this::reportAggregate, this);
+		}
+		if (rateLimit > 0 || sampling) {
+			rateController = new RateController(rateLimit, rateBurst, sampling, samplingLatency, this::getQueueLoad);
+		}
+		if (metricsFrequency > 0) {
+			metricsReporter = new MetricsReporter(getName(), logger, SNAPSHOT_CATEGORY, METRICS_SNAPSHOT,
+					metricsFrequency, this::reportPeriodic, this);
+		}
+		if (jmx) {
+			registerMBean();
+		}
+	}
+
+	/**
+	 * Initialize appender on startup thread of asynchronous start mode. Appender is stopped, and components initialized
+	 * so far are released, if initialization fails.
+	 *
+	 * @return {@code true} if appender was initialized, {@code false} otherwise
+	 */
+	private boolean initializeAsync() {
+		try {
+			initialize();
+			return true;
+		} catch (IOException | RuntimeException e) {
+			startFailed(e);
+			super.stop();
+			release();
+			return false;
+		}
+	}
+
+	private void startFailed(Exception e) {
+		addStatus(new ErrorStatus("Unable to create tracker instance=" + getName() + ", source=" + sourceName
+				+ ", type=" + sourceType, this, e));
+	}
+
+	/**
+	 * Process logging event buffered while appender was initializing. Invoked on startup thread.
+	 *
+	 * @param slot
+	 *            slot holding logging event and context captured on logging thread
+	 */
+	private void processBuffered(EventRingBuffer.Slot slot) {
+		ILoggingEvent event = slot.event;
+		stats.eventIn(event.getLevel());
+		if (isRejected(event)) {
+			rejected.increment();
+			return;
 		}
+		slot.activity = currentActivity(event);
+		processEvent(event, slot);
 	}
 
 	@Override
 	public void stop() {
+		super.stop();
+		StartupBuffer early = startup;
+		if (early != null) {
+			long lost = early.stop(shutdownTimeout);
+			if (lost > 0 || early.getDroppedCount() > 0) {
+				addWarn("Events appended at startup were lost, appender=" + getName() + ", unprocessed=" + lost
+						+ ", dropped=" + early.getDroppedCount());
+			}
+			if (!early.isInitialized()) {
+				// initialization failed and was released, or startup thread releases appender once it is done
+				return;
+			}
+		}
+		release();
+	}
+
+	/**
+	 * Stop appender components and release TNT4J tracking logger.
+	 */
+	private void release() {
+		unregisterMBean();
+		MetricsReporter reporter = metricsReporter;
+		if (reporter != null) {
+			metricsReporter = null;
+			reporter.stop();
+		}
+		AsyncEventDispatcher async = dispatcher;
+		if (async != null) {
+			dispatcher = null;
+			long lost = async.stop(shutdownTimeout);
+			if (lost > 0 || async.getDroppedCount() > 0) {
+				addWarn("Asynchronous dispatch lost events, appender=" + getName() + ", undispatched=" + lost
+						+ ", dropped=" + async.getDroppedCount());
+			}
+		}
+		DuplicateSuppressor dups = suppressor;
+		if (dups != null) {
+			suppressor = null;
+			dups.stop();
+		}
+		FieldAggregator agg = aggregator;
+		if (agg != null) {
+			aggregator = null;
+			agg.stop();
+		}
+		if (activities != null) {
+			activities.stop();
+		}
+		if (sinks != null) {
+			sinks.stop(shutdownTimeout);
+		}
+		EventRecycler pool = recycler;
+		if (pool != null) {
+			recycler = null;
+			if (pool.getViolationCount() > 0) {
+				addWarn("Pooled events were modified after release, appender=" + getName() + ", violations="
+						+ pool.getViolationCount());
+			}
+		}
+		RateController rates = rateController;
+		if (rates != null) {
+			rateController = null;
+			reportDropped(rates);
+		}
+		if (sourceCache != null) {
+			sourceCache.clear();
+		}
+		if (templateCache != null) {
+			templateCache.clear();
+		}
+		if (scopeTimes != null) {
+			scopeTimes.clear();
+		}
 		if (logger != null) {
 			logger.close();
 		}
@@ -261,236 +794,2185 @@ public class TNT4JAppender extends AppenderBase<ILoggingEvent> implements Append
 		if (!isStarted()) {
 			return;
 		}
+		StartupBuffer early = startup;
+		if (early != null && early.isBuffering() && early.offer(event, captureThreadContext(event),
+				isVirtualMode() ? SCOPED_ELAPSED : elapsedUsec(event))) {
+			return;
+		}
+		stats.eventIn(event.getLevel());
+		if (isRejected(event)) {
+			// keep elapsed time of next event of this thread measured from this one
+			elapsedUsec(event);
+			rejected.increment();
+			return;
+		}
+		DuplicateSuppressor dups = suppressor;
+		if (dups != null && isSuppressible(event) && dups.suppress(event)) {
+			return;
+		}
 
-		long lastReport = System.currentTimeMillis();
-		ThrowableProxy throwableProxy = (ThrowableProxy) event.getThrowableProxy();
-		Throwable ex = throwableProxy == null ? null : throwableProxy.getThrowable();
-		String eventMsg = event.getFormattedMessage();
-
-		HashMap<String, String> attrs = new HashMap<>();
-		AppenderTools.parseEventMessage(attrs, eventMsg, '#');
-
-		boolean activityMessage = AppenderTools.isActivityInstruction(attrs);
-		if (activityMessage) {
-			AppenderTools.processActivityAttrs(logger, getName(), attrs, getOpLevel(event), ex);
+		RateController rates = rateController;
+		if (rates == null) {
+			dispatchEvent(event);
+			return;
+		}
+		if (!isAlwaysKept(event) && !rates.tryAcquire(event.getLoggerName(), event.getLevel())) {
+			elapsedUsec(event);
+		} else if (rates.isSampling()) {
+			long start = System.nanoTime();
+			dispatchEvent(event);
+			rates.recordLatency(System.nanoTime() - start);
 		} else {
-			TrackingActivity activity = logger.getCurrentActivity();
-			StackTraceElement frame = Utils.getStackFrame(event.getCallerData(), 1);
-			TrackingEvent tev = processEventMessage(attrs, activity, event, frame, eventMsg, ex);
-
-			boolean reportMetrics = activity.isNoop() && ((ex != null && metricsOnException)
-					|| ((lastReport - lastSnapshot) > (metricsFrequency * 1000)));
-
-			if (reportMetrics) {
-				// report a single tracking event as part of an activity
-				activity = logger.newActivity(tev.getSeverity(), event.getThreadName());
-				activity.start(tev.getOperation().getStartTime().getTimeUsec());
-				activity.setResource(frame.getClassName());
-				activity.setSource(tev.getSource()); // use event's source name for this activity
-				activity.setException(ex);
-				activity.setStatus(ex != null ? ActivityStatus.EXCEPTION : ActivityStatus.END);
-				activity.tnt(tev);
-				activity.stop(tev.getOperation().getEndTime().getTimeUsec(), 0);
-				logger.tnt(activity);
-				lastSnapshot = lastReport;
-			} else if (activity.isNoop()) {
-				// report a single tracking event as datagram
-				logger.tnt(tev);
-			} else {
-				activity.tnt(tev);
-			}
-			if (activity.getIdCount() >= maxActivitySize) {
-				activity.setException(ex);
-				activity.setStatus(ex != null ? ActivityStatus.EXCEPTION : ActivityStatus.END);
-				activity.stop();
-				logger.tnt(activity);
-			}
+			dispatchEvent(event);
 		}
 	}
 
 	/**
-	 * Process a given logback event into a TNT4J event object {@link TrackingEvent}.
-	 *
-	 * @param attrs
-	 *            a set of name/value pairs
-	 * @param activity
-	 *            TNT4J activity associated with current message
-	 * @param jev
-	 *            logging event object
-	 * @param eventMsg
-	 *            string message associated with this event
-	 * @param ex
-	 *            exception associated with this event
+	 * Hand logging event over to asynchronous dispatcher, or process it on logging thread.
 	 *
-	 * @return TNT4J tracking event object
+	 * @param event
+	 *            logging event
 	 */
-	private TrackingEvent processEventMessage(Map<String, String> attrs, TrackingActivity activity, ILoggingEvent jev,
-			StackTraceElement frame, String eventMsg, Throwable ex) {
-		int rcode = 0;
-		long elapsedTimeUsec = getUsecsSinceLastEvent();
-		long evTime = jev.getTimeStamp() * 1000; // convert to usec
-		long startTime = 0, endTime = 0;
-		Snapshot snapshot = null;
-
-		OpCompCode ccode = getOpCompCode(jev);
-		OpLevel level = getOpLevel(jev);
-
-		TrackingEvent event = logger.newEvent(frame.getMethodName(), eventMsg);
-		event.getOperation().setSeverity(level);
-		event.setTag(jev.getThreadName());
-		event.getOperation().setResource(frame.getClassName());
-		event.setLocation(frame.getFileName() + ":" + frame.getLineNumber());
-		event.setSource(logger.getConfiguration().getSourceFactory().newSource(jev.getLoggerName()));
-
-		for (Map.Entry<String, String> entry : attrs.entrySet()) {
-			String key = entry.getKey();
-			String value = entry.getValue();
-			if (key.equalsIgnoreCase(PARAM_CORRELATOR_LABEL)) {
-				event.setCorrelator(value);
-			} else if (key.equalsIgnoreCase(PARAM_TAG_LABEL)) {
-				event.setTag(value);
-			} else if (key.equalsIgnoreCase(PARAM_LOCATION_LABEL)) {
-				event.setLocation(value);
-			} else if (key.equalsIgnoreCase(PARAM_RESOURCE_LABEL)) {
-				event.getOperation().setResource(value);
-			} else if (key.equalsIgnoreCase(PARAM_USER_LABEL)) {
-				event.getOperation().setUser(value);
-			} else if (key.equalsIgnoreCase(PARAM_ELAPSED_TIME_LABEL)) {
-				elapsedTimeUsec = Long.parseLong(value);
-			} else if (key.equalsIgnoreCase(PARAM_AGE_TIME_LABEL)) {
-				event.setMessageAge(Long.parseLong(value));
-			} else if (key.equalsIgnoreCase(PARAM_START_TIME_LABEL)) {
-				startTime = Long.parseLong(value);
-			} else if (key.equalsIgnoreCase(PARAM_END_TIME_LABEL)) {
-				endTime = Long.parseLong(value);
-			} else if (key.equalsIgnoreCase(PARAM_REASON_CODE_LABEL)) {
-				rcode = Integer.parseInt(value);
-			} else if (key.equalsIgnoreCase(PARAM_COMP_CODE_LABEL)) {
-				ccode = OpCompCode.valueOf(value);
-			} else if (key.equalsIgnoreCase(PARAM_SEVERITY_LABEL)) {
-				event.getOperation().setSeverity(OpLevel.valueOf(value));
-			} else if (key.equalsIgnoreCase(PARAM_OP_TYPE_LABEL)) {
-				event.getOperation().setType(OpType.valueOf(value));
-			} else if (key.equalsIgnoreCase(PARAM_OP_NAME_LABEL)) {
-				event.getOperation().setName(value);
-			} else if (key.equalsIgnoreCase(PARAM_EXCEPTION_LABEL)) {
-				event.getOperation().setException(value);
-			} else if (key.equalsIgnoreCase(PARAM_MSG_DATA_LABEL)) {
-				event.setMessage(value);
-			} else if (key.equalsIgnoreCase(PARAM_APPL_LABEL)) {
-				event.setSource(logger.getConfiguration().getSourceFactory().newSource(value));
-			} else if (!Utils.isEmpty(key) && !Utils.isEmpty(value)) {
-				// add unknown attribute into snapshot
-				if (snapshot == null) {
-					snapshot = logger.newSnapshot(SNAPSHOT_CATEGORY, event.getOperation().getName());
-					event.getOperation().addSnapshot(snapshot);
+	private void dispatchEvent(ILoggingEvent event) {
+		AsyncEventDispatcher async = dispatcher;
+		if (async != null && isVirtualMode()) {
+			// TNT4J can't start operations on virtual threads (no thread info), so all events of virtual threads,
+			// activity instructions included, are processed by dispatch threads; activities are scoped to correlators
+			async.offer(event, null, captureThreadContext(event), SCOPED_ELAPSED);
+			return;
+		}
+		if (async != null && isAsync()) {
+			if (mayBeActivityInstruction(event)) {
+				// activities are bound to logging thread, so process them here once queued events are dispatched
+				async.awaitDispatched();
+			} else {
+				TrackingActivity activity = currentActivity(event);
+				if (activity.isNoop()) {
+					StackTraceElement frame = captureThreadContext(event);
+					async.offer(event, activity, frame, elapsedUsec(event));
+					return;
 				}
-				snapshot.add(AppenderTools.toProperty(key, value));
 			}
 		}
-		startTime = startTime <= 0 ? (evTime - elapsedTimeUsec) : evTime;
-		endTime = endTime <= 0 ? (startTime + elapsedTimeUsec) : endTime;
 
-		event.start(startTime);
-		event.stop(ccode, rcode, ex, endTime);
-		return event;
+		processEvent(event, null);
 	}
 
 	/**
-	 * Obtain source name associated with this appender. This name is used TNT4J source for loading TNT4J configuration.
+	 * Check whether logging event can be rejected before any processing, since TNT4J sink would discard it anyway.
+	 * Events carrying exception, hashtags or severity attribute, and events within activity are never rejected.
 	 *
-	 * @return source name string that maps to TNT4J configuration
+	 * @param event
+	 *            logging event
+	 * @return {@code true} if event can be rejected, {@code false} otherwise
 	 */
-	public String getSourceName() {
-		return sourceName;
+	private boolean isRejected(ILoggingEvent event) {
+		LevelGate gate = levelGate;
+		if (gate == null || gate.isLoggable(getOpLevel(event))) {
+			return false;
+		}
+		if (event.getThrowableProxy() != null
+				|| LevelGate.mayCarryHashTags(event.getMessage(), event.getArgumentArray())
+				|| hasContextAttribute(event, HashTag.SEVERITY)) {
+			return false;
+		}
+		return currentActivity(event).isNoop();
 	}
 
 	/**
-	 * Set source name associated with this appender. This name is used TNT4J source for loading TNT4J configuration.
+	 * Check whether logging event is kept regardless of rate limiting and sampling: ERROR events, activity
+	 * instructions and correlated events.
 	 *
-	 * @param name
-	 *            source name
+	 * @param event
+	 *            logging event
+	 * @return {@code true} if event must be kept, {@code false} otherwise
 	 */
-	public void setSourceName(String name) {
-		sourceName = name;
+	private boolean isAlwaysKept(ILoggingEvent event) {
+		return event.getLevel().isGreaterOrEqual(Level.ERROR) || mayBeActivityInstruction(event)
+				|| mayCarryHashTag(event, CORRELATOR_TAG) || hasContextAttribute(event, HashTag.CORRELATOR);
 	}
 
 	/**
-	 * Obtain source type associated with this appender see {@code SourceType}
+	 * Check whether logging event may be suppressed as a repeat: activity instructions, correlated events and events
+	 * within activity are never suppressed.
 	 *
-	 * @return source type string representation
-	 * @see SourceType
+	 * @param event
+	 *            logging event
+	 * @return {@code true} if event may be suppressed, {@code false} otherwise
 	 */
-	public String getSourceType() {
-		return sourceType.toString();
+	private boolean isSuppressible(ILoggingEvent event) {
+		return !mayCarryHashTag(event, BEGIN_TAG, END_TAG, CORRELATOR_TAG)
+				&& !hasContextAttribute(event, HashTag.CORRELATOR) && currentActivity(event).isNoop();
+	}
+
+	private boolean hasContextAttribute(ILoggingEvent event, HashTag tag) {
+		return getContextAttribute(event, tag) != null;
 	}
 
 	/**
-	 * Assign default source type string see {@code SourceType}
+	 * Obtain value of attribute defined by logging event key-value pairs or MDC, without parsing the event message.
 	 *
-	 * @param type
-	 *            source type string representation, see {@code SourceType}
-	 * @see SourceType
+	 * @param event
+	 *            logging event
+	 * @param tag
+	 *            attribute tag
+	 * @return attribute value, {@code null} if not defined
 	 */
-	public void setSourceType(String type) {
-		sourceType = SourceType.valueOf(type);
+	private String getContextAttribute(ILoggingEvent event, HashTag tag) {
+		if (sourceRanks[AttributeSource.KV.ordinal()] >= 0) {
+			List<KeyValuePair> kvPairs = event.getKeyValuePairs();
+			if (kvPairs != null) {
+				for (KeyValuePair kvPair : kvPairs) {
+					if (!Utils.isEmpty(kvPair.key) && fieldKeys.get(kvPair.key).tag() == tag) {
+						return String.valueOf(kvPair.value);
+					}
+				}
+			}
+		}
+		if (sourceRanks[AttributeSource.MDC.ordinal()] >= 0) {
+			Map<String, String> mdc = event.getMDCPropertyMap();
+			if (mdc != null) {
+				for (Map.Entry<String, String> entry : mdc.entrySet()) {
+					if (!Utils.isEmpty(entry.getKey()) && fieldKeys.get(entry.getKey()).tag() == tag) {
+						return entry.getValue();
+					}
+				}
+			}
+		}
+		return null;
 	}
 
 	/**
-	 * Obtain maximum size of any activity
+	 * Dispatch logging event queued by asynchronous mode. Invoked on dispatch thread.
 	 *
-	 * @return source name string that maps to TNT4J configuration
+	 * @param slot
+	 *            ring buffer slot holding logging event and context captured on logging thread
 	 */
-	public int getMaxActivitySize() {
-		return maxActivitySize;
+	private void dispatch(EventRingBuffer.Slot slot) {
+		processEvent(slot.event, slot);
 	}
 
 	/**
-	 * Set maximum size of any activity
+	 * Process logging event: parse its hashtags and report it to TNT4J either as activity instruction or as tracking
+	 * event.
 	 *
-	 * @param size
-	 *            maximum size must be greater than 0
+	 * @param event
+	 *            logging event
+	 * @param slot
+	 *            ring buffer slot holding context captured on logging thread, {@code null} when invoked on logging
+	 *            thread
+	 */
+	private void processEvent(ILoggingEvent event, EventRingBuffer.Slot slot) {
+		ThrowableProxy throwableProxy = (ThrowableProxy) event.getThrowableProxy();
+		Throwable ex = throwableProxy == null ? null : throwableProxy.getThrowable();
+		String eventMsg = event.getFormattedMessage();
+
+		HashTagAttributes attrs = attributes.get();
+		try {
+			long start = latencyClock();
+			attrs.rank(sourceRanks[AttributeSource.MESSAGE.ordinal()]);
+			EventAttributes.parseMessage(event, eventMsg, attrs, templateCache);
+			EventAttributes.addContextAttributes(event, attrs, sourceRanks, fieldKeys);
+			recordLatency(stats.parse, start);
+			if (attrs.isActivityInstruction()) {
+				stats.activityInstruction();
+				processActivityAttrs(attrs, getOpLevel(event), ex);
+			} else if (slot == null) {
+				reportEvent(attrs, currentActivity(attrs), event, callerFrameResolver.resolve(event), eventMsg, ex,
+						elapsedUsec(event));
+			} else {
+				reportEvent(attrs, virtualThreads ? currentActivity(attrs) : slot.activity, event, slot.frame, eventMsg,
+						ex, scopedElapsedUsec(attrs, event, slot.elapsedUsec));
+			}
+		} catch (RuntimeException e) {
+			stats.failed();
+			throw e;
+		} finally {
+			attrs.clear();
+		}
+	}
+
+	/**
+	 * Parse attribute sources precedence list into source ranks indexed by {@link AttributeSource} ordinal. Sources
+	 * not listed get rank {@code -1} and are not ingested, except {@link AttributeSource#MESSAGE} which gets the lowest
+	 * precedence.
+	 *
+	 * @param spec
+	 *            comma separated list of attribute sources
+	 * @return attribute source ranks
+	 * @throws IllegalArgumentException
+	 *             if list contains unknown attribute source
+	 */
+	static int[] parseAttributeSources(String spec) {
+		int[] ranks = new int[AttributeSource.values().length];
+		Arrays.fill(ranks, -1);
+		int rank = 0;
+		for (String name : spec == null ? new String[0] : spec.split(",")) {
+			if (!name.trim().isEmpty()) {
+				AttributeSource source = AttributeSource.valueOf(name.trim().toUpperCase());
+				if (ranks[source.ordinal()] < 0) {
+					ranks[source.ordinal()] = rank++;
+				}
+			}
+		}
+		if (ranks[AttributeSource.MESSAGE.ordinal()] < 0) {
+			ranks[AttributeSource.MESSAGE.ordinal()] = rank;
+		}
+		return ranks;
+	}
+
+	/**
+	 * Check whether i-th attribute is reported as snapshot property: it must have a key and a non empty value.
+	 */
+	static boolean isReportable(HashTagAttributes attrs, int i) {
+		return !Utils.isEmpty(attrs.key(i)) && (attrs.object(i) != null || !Utils.isEmpty(attrs.value(i)));
+	}
+
+	/**
+	 * Create snapshot property of i-th attribute. Typed values of key-value pairs are kept as is.
+	 */
+	private static Property toProperty(HashTagAttributes attrs, int i) {
+		FieldKey field = attrs.field(i);
+		if (field == null) {
+			return AppenderTools.toProperty(attrs.key(i), attrs.value(i));
+		}
+		Object value = attrs.object(i);
+		return field.toProperty(value == null ? attrs.value(i) : value);
+	}
+
+	/**
+	 * Set reusable snapshot property to a value of a given attribute, the same way as
+	 * {@link #toProperty(HashTagAttributes, int)} creates one.
+	 *
+	 * @param attrs
+	 *            hashtag attributes
+	 * @param i
+	 *            attribute index
+	 * @param property
+	 *            property to set
+	 * @return given property
+	 */
+	private Property toProperty(HashTagAttributes attrs, int i, Property property) {
+		FieldKey field = attrs.field(i);
+		if (field == null) {
+			return fieldKeys.get(attrs.key(i)).toProperty(attrs.value(i), property);
+		}
+		Object value = attrs.object(i);
+		return field.toProperty(value == null ? attrs.value(i) : value, property);
+	}
+
+	/**
+	 * Add names of configured logging event markers to TNT4J event tags.
+	 *
+	 * @param event
+	 *            TNT4J tracking event
+	 * @param jev
+	 *            logging event
+	 */
+	private void addMarkerTags(TrackingEvent event, ILoggingEvent jev) {
+		String[] names = markerNames;
+		List<Marker> markers = jev.getMarkerList();
+		if (names != null && markers != null && !markers.isEmpty()) {
+			Set<String> tags = new LinkedHashSet<>(event.getTag());
+			EventAttributes.addMarkerTags(markers, names, tags::add);
+			event.setTag(tags);
+		}
+	}
+
+	/**
+	 * Process activity {@code #beg}/{@code #end} instruction the same way as
+	 * {@link AppenderTools#processActivityAttrs(TrackingLogger, String, Map, OpLevel, Throwable)} does.
+	 *
+	 * @param attrs
+	 *            hashtag attributes
+	 * @param level
+	 *            severity of the started activity
+	 * @param ex
+	 *            exception associated with this event
+	 * @return current activity after processing the instruction
+	 */
+	private TrackingActivity processActivityAttrs(HashTagAttributes attrs, OpLevel level, Throwable ex) {
+		Snapshot snapshot = null;
+		TrackingActivity activity = currentActivity(attrs);
+		for (int i = 0; i < attrs.size(); i++) {
+			HashTag tag = attrs.tag(i);
+			String value = attrs.value(i);
+			if (tag == HashTag.CORRELATOR) {
+				activity.setCorrelator(value);
+			} else if (tag == HashTag.LOCATION) {
+				activity.setLocation(value);
+			} else if (tag == HashTag.RESOURCE) {
+				activity.setResource(value);
+			} else if (tag == HashTag.USER) {
+				activity.setUser(value);
+			} else if (tag == HashTag.SEVERITY) {
+				activity.setSeverity(OpLevel.valueOf(value));
+			} else if (tag == HashTag.EXCEPTION) {
+				activity.setException(value);
+			} else if (tag != HashTag.BEGIN && tag != HashTag.END && tag != HashTag.APPL) {
+				if (isReportable(attrs, i) && !isActivityLabel(attrs.key(i))) {
+					if (snapshot == null) {
+						snapshot = logger.newSnapshot(getName(), activity.getName());
+						activity.addSnapshot(snapshot);
+					}
+					snapshot.add(toProperty(attrs, i));
+				}
+			}
+		}
+		String begin = attrs.get(HashTag.BEGIN);
+		if (attrs.get(HashTag.END) != null && !activity.isNoop()) {
+			activities.unregister(activity);
+			activity.setStatus(ex != null ? ActivityStatus.EXCEPTION : ActivityStatus.END);
+			activity.stop(ex);
+			logger.tnt(activity);
+		} else if (begin != null) {
+			activity = logger.newActivity(level, begin);
+			activity.start();
+			String scope = attrs.get(HashTag.CORRELATOR);
+			if (virtualThreads) {
+				// activity is bound to its correlator, activity without correlator can't be referred to
+				if (scope != null) {
+					activity.setCorrelator(scope);
+					activities.register(activity, scope);
+				}
+			} else if (logger.getKeepThreadContext()) {
+				// activity is bound to logging thread only when tracker keeps thread context
+				activities.register(activity);
+			}
+			String appl = attrs.get(HashTag.APPL);
+			if (appl != null) {
+				activity.setSource(sourceCache.get(appl));
+			}
+		}
+		return activity;
+	}
+
+	/**
+	 * Obtain current activity of logging event before its message is parsed: activity of its correlator defined by
+	 * key-value pairs or MDC in virtual thread friendly mode, current activity of calling thread otherwise.
+	 *
+	 * @param event
+	 *            logging event
+	 * @return current activity of logging event
+	 */
+	private TrackingActivity currentActivity(ILoggingEvent event) {
+		return virtualThreads ? scopedActivity(getContextAttribute(event, HashTag.CORRELATOR)) : currentActivity();
+	}
+
+	/**
+	 * Obtain current activity of parsed logging event: activity of its correlator in virtual thread friendly mode,
+	 * current activity of calling thread otherwise.
+	 *
+	 * @param attrs
+	 *            hashtag attributes of logging event
+	 * @return current activity of logging event
+	 */
+	private TrackingActivity currentActivity(HashTagAttributes attrs) {
+		return virtualThreads ? scopedActivity(attrs.get(HashTag.CORRELATOR)) : currentActivity();
+	}
+
+	private TrackingActivity scopedActivity(String correlator) {
+		TrackingActivity activity = correlator == null ? null : activities.scoped(correlator);
+		return activity == null ? TrackerImpl.NULL_ACTIVITY : activity;
+	}
+
+	/**
+	 * Obtain current activity of calling thread. Activities expired by activity registry are closed first.
+	 *
+	 * @return current activity of calling thread
+	 */
+	private TrackingActivity currentActivity() {
+		TrackingActivity activity = logger.getCurrentActivity();
+		while (!activity.isNoop() && activities.isExpired(activity)) {
+			activities.unregister(activity);
+			closeActivity(activity);
+			activity = logger.getCurrentActivity();
+		}
+		return activity;
+	}
+
+	/**
+	 * Close and report activity expired by activity registry, either on its owner thread, or on registry sweeper
+	 * thread when owner thread is dead.
+	 *
+	 * @param activity
+	 *            expired activity
+	 */
+	private void closeActivity(TrackingActivity activity) {
+		activity.setStatus(ActivityStatus.END);
+		activity.stop();
+		logger.tnt(activity);
+	}
+
+	private static boolean isActivityLabel(String key) {
+		return key.equalsIgnoreCase(PARAM_BEGIN_LABEL) || key.equalsIgnoreCase(PARAM_END_LABEL);
+	}
+
+	/**
+	 * Report non activity logging event as TNT4J tracking event, either as datagram or as part of an activity.
+	 *
+	 * @param attrs
+	 *            a set of name/value pairs
+	 * @param activity
+	 *            TNT4J activity associated with current message
+	 * @param event
+	 *            logging event object
+	 * @param frame
+	 *            caller frame of the logging event, {@code null} if caller data is not collected
+	 * @param eventMsg
+	 *            string message associated with this event
+	 * @param ex
+	 *            exception associated with this event
+	 * @param elapsedUsec
+	 *            elapsed microseconds since last event of logging thread or correlator
+	 */
+	private void reportEvent(HashTagAttributes attrs, TrackingActivity activity, ILoggingEvent event,
+			StackTraceElement frame, String eventMsg, Throwable ex, long elapsedUsec) {
+		long start = latencyClock();
+		FieldAggregator agg = aggregator;
+		if (agg != null && aggregate(agg, attrs, event) && aggregateDrop && activity.isNoop() && ex == null) {
+			agg.dropped();
+			return;
+		}
+		ExceptionFingerprint fingerprint = null;
+		long occurrences = 0;
+		if (ex != null && (exceptionRefs || metricsOnException && metricsOnExceptionInterval > 0)) {
+			// fingerprints are needed only to reference repeated stack traces or to throttle metrics reports
+			fingerprint = exceptionCache.get(ExceptionFingerprint.idOf(event.getThrowableProxy()));
+			occurrences = fingerprint.hit();
+		}
+		boolean traceRef = exceptionRefs && occurrences > 1;
+		boolean reportMetrics = activity.isNoop() && ex != null && metricsOnException
+				&& isExceptionMetricsDue(fingerprint,
+						timing == TimingMode.MILLIS ? System.currentTimeMillis() : event.getTimeStamp());
+		SinkPartitions parts = sinks;
+		int partition = partitionOf(parts, attrs, event);
+		EventRecycler pool = recycler;
+		if (pool != null && activity.isNoop() && !reportMetrics) {
+			// datagram is formatted by sink before sendNow returns, so its holders can be reused right after
+			EventRecycler.PooledEvent pooled = pool.acquire();
+			try {
+				TrackingEvent tev = processEventMessage(attrs, activity, event, frame, eventMsg,
+						traceRef ? null : ex, elapsedUsec, pooled);
+				addExceptionRef(tev, ex, fingerprint, occurrences, traceRef);
+				long built = recordLatency(stats.build, start);
+				parts.sendNow(partition, tev);
+				stats.datagram();
+				recordLatency(stats.dispatch, built);
+			} finally {
+				pool.release(pooled);
+			}
+			return;
+		}
+		TrackingEvent tev = processEventMessage(attrs, activity, event, frame, eventMsg, traceRef ? null : ex,
+				elapsedUsec, null);
+		addExceptionRef(tev, ex, fingerprint, occurrences, traceRef);
+		long built = recordLatency(stats.build, start);
+
+		if (reportMetrics) {
+			// report a single tracking event as part of an activity
+			activity = logger.newActivity(tev.getSeverity(), event.getThreadName());
+			activity.start(tev.getOperation().getStartTime().getTimeUsec());
+			activity.setResource(frame == null ? event.getLoggerName() : frame.getClassName());
+			activity.setSource(tev.getSource()); // use event's source name for this activity
+			activity.setException(ex);
+			activity.setStatus(ex != null ? ActivityStatus.EXCEPTION : ActivityStatus.END);
+			activity.tnt(tev);
+			activity.stop(tev.getOperation().getEndTime().getTimeUsec(), 0);
+			logger.tnt(activity);
+			stats.metricsEvent();
+		} else if (activity.isNoop() || !activities.report(activity, tev)) {
+			// report a single tracking event as datagram, also when activity was expired by registry meanwhile
+			parts.sendNow(partition, tev);
+			stats.datagram();
+		} else {
+			stats.activityEvent();
+		}
+		if (activity.getIdCount() >= maxActivitySize) {
+			activities.unregister(activity);
+			activity.setException(ex);
+			activity.setStatus(ex != null ? ActivityStatus.EXCEPTION : ActivityStatus.END);
+			activity.stop();
+			logger.tnt(activity);
+		}
+		recordLatency(stats.dispatch, built);
+	}
+
+	/**
+	 * Obtain start time of a measured processing stage. Latencies are measured only when appender statistics are
+	 * published by JMX or statistics snapshot.
+	 *
+	 * @return current nanoseconds, {@code 0} if latencies are not measured
+	 */
+	private long latencyClock() {
+		return timeLatencies ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Record latency of a processing stage started at a given time, if latencies are measured.
+	 *
+	 * @param histogram
+	 *            latency histogram of processing stage
+	 * @param start
+	 *            stage start time obtained by {@link #latencyClock()}
+	 * @return current nanoseconds, to be used as start time of the next stage, {@code 0} if latencies are not measured
+	 */
+	private long recordLatency(LatencyHistogram histogram, long start) {
+		if (!timeLatencies) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		histogram.record(now - start);
+		return now;
+	}
+
+	/**
+	 * Attach exception fingerprint reference and occurrence count to tracking event, if exception references are
+	 * enabled. Repeated stack trace is reported as reference to the first occurrence carrying full trace.
+	 *
+	 * @param tev
+	 *            tracking event
+	 * @param ex
+	 *            exception associated with the event, {@code null} if none
+	 * @param fingerprint
+	 *            exception fingerprint, {@code null} if event carries no exception or fingerprints are not tracked
+	 * @param occurrences
+	 *            occurrences of the fingerprint so far
+	 * @param traceRef
+	 *            {@code true} if stack trace is reported as reference only
+	 */
+	private void addExceptionRef(TrackingEvent tev, Throwable ex, ExceptionFingerprint fingerprint, long occurrences,
+			boolean traceRef) {
+		if (fingerprint != null && exceptionRefs) {
+			if (traceRef) {
+				tev.getOperation().setException(ex.toString());
+			}
+			tev.getOperation().addProperty(new Property(EXCEPTION_REF_PROPERTY, fingerprint.getId()));
+			tev.getOperation().addProperty(new Property(EXCEPTION_COUNT_PROPERTY, occurrences));
+		}
+	}
+
+	/**
+	 * Determine sink partition of datagram event by configured partition key.
+	 *
+	 * @param parts
+	 *            sink partitions
+	 * @param attrs
+	 *            hashtag attributes of logging event, {@code null} if not parsed
+	 * @param event
+	 *            logging event
+	 * @return partition index
+	 */
+	private int partitionOf(SinkPartitions parts, HashTagAttributes attrs, ILoggingEvent event) {
+		if (parts.size() == 1) {
+			return 0;
+		}
+		String key;
+		switch (partitionKey) {
+		case LOGGER:
+			key = event.getLoggerName();
+			break;
+		case APPL:
+			key = attrs == null ? null : attrs.get(HashTag.APPL);
+			key = key == null ? event.getLoggerName() : key;
+			break;
+		case CORRELATOR:
+			key = attrs == null ? null : attrs.get(HashTag.CORRELATOR);
+			key = key == null ? event.getThreadName() : key;
+			break;
+		case THREAD:
+		default:
+			key = event.getThreadName();
+			break;
+		}
+		return parts.partitionOf(key);
+	}
+
+	/**
+	 * Create tracking logger of a sink partition, having its own tracker and sink built from appender source
+	 * configuration.
+	 *
+	 * @param partition
+	 *            partition index
+	 * @return partition tracking logger
+	 */
+	private TrackingLogger newPartitionLogger(int partition) {
+		return TrackingLogger.getInstance(DefaultConfigFactory.getInstance().getConfig(sourceName, sourceType).build());
+	}
+
+	private SpillingSender newSpiller(int partition, TrackingLogger partitionLogger) throws IOException {
+		String name = getName() + "-" + partition;
+		SpillJournal journal = new SpillJournal(Paths.get(journalDir), name, journalSegmentSize, journalMaxSize);
+		return new SpillingSender(name + "-replay", partitionLogger, journal, spillThreshold, spillRetry, this);
+	}
+
+	/**
+	 * Determine if logging event may carry activity {@code #beg}/{@code #end} instruction, by looking into message
+	 * pattern and character sequence arguments without formatting the message.
+	 *
+	 * @param event
+	 *            logging event
+	 * @return {@code true} if event may carry activity instruction, {@code false} otherwise
+	 */
+	private static boolean mayBeActivityInstruction(ILoggingEvent event) {
+		return mayCarryHashTag(event, BEGIN_TAG, END_TAG);
+	}
+
+	private static boolean mayCarryHashTag(ILoggingEvent event, String... tags) {
+		if (hasHashTag(event.getMessage(), tags)) {
+			return true;
+		}
+		Object[] args = event.getArgumentArray();
+		if (args != null) {
+			for (Object arg : args) {
+				if (arg instanceof CharSequence && hasHashTag(arg.toString(), tags)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Determine if string contains any of given {@code #}-prefixed hashtags, ignoring case as message scanner does.
+	 *
+	 * @param str
+	 *            string to look into
+	 * @param tags
+	 *            hashtags including {@code #} prefix
+	 * @return {@code true} if string contains any of hashtags, {@code false} otherwise
+	 */
+	private static boolean hasHashTag(String str, String... tags) {
+		if (str != null) {
+			for (int i = str.indexOf('#'); i >= 0; i = str.indexOf('#', i + 1)) {
+				for (String tag : tags) {
+					if (str.regionMatches(true, i, tag, 0, tag.length())) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Make logging event capture data bound to logging thread, so event can be processed by another thread. Message is
+	 * formatted on logging thread, since arguments may be mutated by application once logging call returns.
+	 *
+	 * @param event
+	 *            logging event
+	 * @return caller frame of the logging event, or {@code null} if not collected
+	 */
+	private StackTraceElement captureThreadContext(ILoggingEvent event) {
+		event.getThreadName();
+		event.getFormattedMessage();
+		event.getMDCPropertyMap();
+		return callerFrameResolver.resolve(event);
+	}
+
+	/**
+	 * Determine if metrics report on exception of a given fingerprint is due, so metrics are reported once per
+	 * fingerprint per {@code metricsOnExceptionInterval}.
+	 *
+	 * @param fingerprint
+	 *            exception fingerprint
+	 * @param now
+	 *            current time in milliseconds
+	 * @return {@code true} if calling thread should report metrics, {@code false} otherwise
+	 */
+	private boolean isExceptionMetricsDue(ExceptionFingerprint fingerprint, long now) {
+		return metricsOnExceptionInterval <= 0 || fingerprint.isMetricsDue(now, metricsOnExceptionInterval * 1000);
+	}
+
+	/**
+	 * Run periodic reports along with JVM metrics: dropped events and, if enabled, appender statistics.
+	 */
+	private void reportPeriodic() {
+		reportDropped();
+		if (statsSnapshot) {
+			logger.tnt(stats.fill(logger.newSnapshot(SNAPSHOT_CATEGORY, STATS_SNAPSHOT)));
+		}
+	}
+
+	/**
+	 * Register appender statistics as JMX MBean named by appender name. Registration failure, also when MBean of the
+	 * same name is registered by another appender, is reported as warning and does not prevent appender from starting.
+	 */
+	private void registerMBean() {
+		try {
+			ObjectName name = new ObjectName(JMX_DOMAIN + ":type=TNT4JAppender,name=" + ObjectName.quote(getName()));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(stats, name);
+			mbeanName = name;
+		} catch (JMException | RuntimeException e) {
+			addWarn("Unable to register appender MBean, appender=" + getName(), e);
+		}
+	}
+
+	private void unregisterMBean() {
+		ObjectName name = mbeanName;
+		if (name == null) {
+			return;
+		}
+		mbeanName = null;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException | RuntimeException e) {
+			addWarn("Unable to unregister appender MBean, appender=" + getName(), e);
+		}
+	}
+
+	/**
+	 * Report numbers of events dropped by rate limiting and sampling since last report, if rate control is enabled.
+	 */
+	private void reportDropped() {
+		RateController rates = rateController;
+		if (rates != null) {
+			reportDropped(rates);
+		}
+	}
+
+	/**
+	 * Report numbers of events dropped by rate limiting and sampling since last report, per logger name, as TNT4J
+	 * snapshot. Nothing is reported when no events were dropped.
+	 *
+	 * @param rates
+	 *            rate controller counting dropped events
+	 */
+	private void reportDropped(RateController rates) {
+		Snapshot snapshot = logger.newSnapshot(SNAPSHOT_CATEGORY, DROPPED_SNAPSHOT);
+		if (rates.drainDropped(snapshot::add) > 0) {
+			logger.tnt(snapshot);
+		}
+	}
+
+	/**
+	 * Report summary of repeated events suppressed within a closed window as TNT4J datagram event. Summary event
+	 * carries template of repeated message, and snapshot with repeat count, first and last repeat time and elapsed
+	 * time range of repeats.
+	 *
+	 * @param window
+	 *            closed suppression window
+	 */
+	private void reportDuplicates(DuplicateSuppressor.Window window) {
+		ILoggingEvent jev = window.getEvent();
+		TrackingEvent tev = logger.newEvent(jev.getLoggerName(), jev.getMessage());
+		tev.getOperation().setSeverity(getOpLevel(jev));
+		tev.getOperation().setResource(jev.getLoggerName());
+		tev.setSource(sourceCache.get(jev.getLoggerName()));
+		if (jev.getThrowableProxy() != null) {
+			tev.getOperation().setException(jev.getThrowableProxy().getClassName());
+		}
+		Snapshot snapshot = logger.newSnapshot(SNAPSHOT_CATEGORY, DUPLICATES_SNAPSHOT);
+		snapshot.add("Count", window.getCount());
+		snapshot.add("FirstTime", new UsecTimestamp(window.getFirstTime() * 1000));
+		snapshot.add("LastTime", new UsecTimestamp(window.getLastTime() * 1000));
+		snapshot.add("MinElapsedUsec", window.getMinElapsedUsec());
+		snapshot.add("MaxElapsedUsec", window.getMaxElapsedUsec());
+		tev.getOperation().addSnapshot(snapshot);
+		tev.start(window.getFirstTime() * 1000);
+		tev.stop(getOpCompCode(jev), 0, null, window.getLastTime() * 1000);
+
+		SinkPartitions parts = sinks;
+		parts.sendNow(partitionOf(parts, null, jev), tev);
+	}
+
+	/**
+	 * Record numeric values of aggregated fields of logging event into field aggregator.
+	 *
+	 * @param agg
+	 *            field aggregator
+	 * @param attrs
+	 *            hashtag attributes of logging event
+	 * @param event
+	 *            logging event
+	 * @return {@code true} if event carries any aggregated field, {@code false} otherwise
+	 */
+	private boolean aggregate(FieldAggregator agg, HashTagAttributes attrs, ILoggingEvent event) {
+		boolean aggregated = false;
+		for (int i = 0; i < attrs.size(); i++) {
+			if (attrs.tag(i) == null && isReportable(attrs, i)) {
+				FieldKey field = attrs.field(i) == null ? fieldKeys.get(attrs.key(i)) : attrs.field(i);
+				if (agg.isAggregated(field.propertyName())) {
+					Property property = toProperty(attrs, i);
+					aggregated |= agg.record(event.getLoggerName(), property.getKey(), property.getValue(),
+							property.getValueType());
+				}
+			}
+		}
+		return aggregated;
+	}
+
+	/**
+	 * Report field aggregate of a closed window as TNT4J snapshot named {@value #AGGREGATES_SNAPSHOT}. Snapshot
+	 * carries statistics of all loggers, as well as statistics of every logger as properties suffixed by
+	 * {@code @logger.name}.
+	 *
+	 * @param aggregate
+	 *            field aggregate of a closed window
+	 */
+	private void reportAggregate(FieldAggregator.Aggregate aggregate) {
+		Snapshot snapshot = logger.newSnapshot(SNAPSHOT_CATEGORY, AGGREGATES_SNAPSHOT + "." + aggregate.getName());
+		snapshot.add("WindowStart", new UsecTimestamp(aggregate.getStartTime() * 1000));
+		snapshot.add("WindowEnd", new UsecTimestamp(aggregate.getEndTime() * 1000));
+		addAggregate(snapshot, "", aggregate.getTotal(), aggregate.getValueType());
+		for (Map.Entry<String, FieldAggregator.Stats> entry : aggregate.getLoggers().entrySet()) {
+			addAggregate(snapshot, "@" + entry.getKey(), entry.getValue(), aggregate.getValueType());
+		}
+		logger.tnt(snapshot);
+	}
+
+	private static void addAggregate(Snapshot snapshot, String suffix, FieldAggregator.Stats stats, String type) {
+		snapshot.add("Count" + suffix, stats.getCount());
+		snapshot.add("Sum" + suffix, stats.getSum(), type);
+		snapshot.add("Min" + suffix, stats.getMin(), type);
+		snapshot.add("Max" + suffix, stats.getMax(), type);
+		snapshot.add("Mean" + suffix, stats.getMean(), type);
+		snapshot.add("P50" + suffix, stats.getQuantile(0.5), type);
+		snapshot.add("P90" + suffix, stats.getQuantile(0.9), type);
+		snapshot.add("P99" + suffix, stats.getQuantile(0.99), type);
+	}
+
+	/**
+	 * Obtain number of field values aggregated since appender start.
+	 *
+	 * @return number of aggregated values
+	 */
+	public long getAggregatedValueCount() {
+		FieldAggregator agg = aggregator;
+		return agg == null ? 0 : agg.getRecordedCount();
+	}
+
+	/**
+	 * Obtain number of datagram events dropped since appender start, since their fields were aggregated.
+	 *
+	 * @return number of dropped events
+	 */
+	public long getAggregatedCount() {
+		FieldAggregator agg = aggregator;
+		return agg == null ? 0 : agg.getDroppedCount();
+	}
+
+	/**
+	 * Obtain number of repeated events suppressed since appender start.
+	 *
+	 * @return number of suppressed events
+	 */
+	public long getSuppressedCount() {
+		DuplicateSuppressor dups = suppressor;
+		return dups == null ? 0 : dups.getSuppressedCount();
+	}
+
+	private double getQueueLoad() {
+		AsyncEventDispatcher async = dispatcher;
+		return async == null ? 0 : async.getQueueLoad();
+	}
+
+	/**
+	 * Process a given logback event into a TNT4J event object {@link TrackingEvent}.
+	 *
+	 * @param attrs
+	 *            a set of name/value pairs
+	 * @param activity
+	 *            TNT4J activity associated with current message
+	 * @param jev
+	 *            logging event object
+	 * @param frame
+	 *            caller frame of the logging event, {@code null} if caller data is not collected
+	 * @param eventMsg
+	 *            string message associated with this event
+	 * @param ex
+	 *            exception associated with this event
+	 * @param elapsedTimeUsec
+	 *            elapsed microseconds since last event of logging thread
+	 * @param pooled
+	 *            pooled holder providing recycled event, snapshot and properties, {@code null} to create new ones
+	 *
+	 * @return TNT4J tracking event object
+	 */
+	private TrackingEvent processEventMessage(HashTagAttributes attrs, TrackingActivity activity, ILoggingEvent jev,
+			StackTraceElement frame, String eventMsg, Throwable ex, long elapsedTimeUsec,
+			EventRecycler.PooledEvent pooled) {
+		int rcode = 0;
+		long evTime = timing.timeUsec(jev);
+		long startTime = 0, endTime = 0;
+		Snapshot snapshot = null;
+
+		OpCompCode ccode = getOpCompCode(jev);
+		OpLevel level = getOpLevel(jev);
+
+		String opName = frame == null ? jev.getLoggerName() : frame.getMethodName();
+		TrackingEvent event = pooled == null ? logger.newEvent(opName, eventMsg)
+				: pooled.event(logger, opName, eventMsg);
+		event.getOperation().setSeverity(level);
+		String threadName = jev.getThreadName();
+		if (!virtualThreads || !Utils.isEmpty(threadName)) {
+			// virtual threads are mostly unnamed
+			event.setTag(threadName);
+		}
+		if (frame == null) {
+			event.getOperation().setResource(jev.getLoggerName());
+		} else {
+			event.getOperation().setResource(frame.getClassName());
+			event.setLocation(frame.getFileName() + ":" + frame.getLineNumber());
+		}
+		event.setSource(sourceCache.get(jev.getLoggerName()));
+
+		for (int i = 0; i < attrs.size(); i++) {
+			HashTag tag = attrs.tag(i);
+			String value = attrs.value(i);
+			if (tag == HashTag.CORRELATOR) {
+				event.setCorrelator(value);
+			} else if (tag == HashTag.TAG) {
+				event.setTag(value);
+			} else if (tag == HashTag.LOCATION) {
+				event.setLocation(value);
+			} else if (tag == HashTag.RESOURCE) {
+				event.getOperation().setResource(value);
+			} else if (tag == HashTag.USER) {
+				event.getOperation().setUser(value);
+			} else if (tag == HashTag.ELAPSED_TIME) {
+				elapsedTimeUsec = Long.parseLong(value);
+			} else if (tag == HashTag.AGE_TIME) {
+				event.setMessageAge(Long.parseLong(value));
+			} else if (tag == HashTag.START_TIME) {
+				startTime = Long.parseLong(value);
+			} else if (tag == HashTag.END_TIME) {
+				endTime = Long.parseLong(value);
+			} else if (tag == HashTag.REASON_CODE) {
+				rcode = Integer.parseInt(value);
+			} else if (tag == HashTag.COMP_CODE) {
+				ccode = OpCompCode.valueOf(value);
+			} else if (tag == HashTag.SEVERITY) {
+				event.getOperation().setSeverity(OpLevel.valueOf(value));
+			} else if (tag == HashTag.OP_TYPE) {
+				event.getOperation().setType(OpType.valueOf(value));
+			} else if (tag == HashTag.OP_NAME) {
+				event.getOperation().setName(value);
+			} else if (tag == HashTag.EXCEPTION) {
+				event.getOperation().setException(value);
+			} else if (tag == HashTag.MSG_DATA) {
+				event.setMessage(value);
+			} else if (tag == HashTag.APPL) {
+				event.setSource(sourceCache.get(value));
+			} else {
+				if (isReportable(attrs, i)) {
+					// add unknown attribute into snapshot
+					if (snapshot == null) {
+						snapshot = pooled == null ? logger.newSnapshot(SNAPSHOT_CATEGORY, event.getOperation().getName())
+								: pooled.snapshot(logger, SNAPSHOT_CATEGORY, event.getOperation().getName());
+						event.getOperation().addSnapshot(snapshot);
+					}
+					snapshot.add(pooled == null ? toProperty(attrs, i) : toProperty(attrs, i, pooled.property()));
+				}
+			}
+		}
+		addMarkerTags(event, jev);
+		startTime = startTime <= 0 ? (evTime - elapsedTimeUsec) : evTime;
+		endTime = endTime <= 0 ? (startTime + elapsedTimeUsec) : endTime;
+
+		event.start(startTime);
+		event.stop(ccode, rcode, ex, endTime);
+		return event;
+	}
+
+	/**
+	 * Obtain source name associated with this appender. This name is used TNT4J source for loading TNT4J configuration.
+	 *
+	 * @return source name string that maps to TNT4J configuration
+	 */
+	public String getSourceName() {
+		return sourceName;
+	}
+
+	/**
+	 * Set source name associated with this appender. This name is used TNT4J source for loading TNT4J configuration.
+	 *
+	 * @param name
+	 *            source name
+	 */
+	public void setSourceName(String name) {
+		sourceName = name;
+	}
+
+	/**
+	 * Obtain source type associated with this appender see {@code SourceType}
+	 *
+	 * @return source type string representation
+	 * @see SourceType
+	 */
+	public String getSourceType() {
+		return sourceType.toString();
+	}
+
+	/**
+	 * Assign default source type string see {@code SourceType}
+	 *
+	 * @param type
+	 *            source type string representation, see {@code SourceType}
+	 * @see SourceType
+	 */
+	public void setSourceType(String type) {
+		sourceType = SourceType.valueOf(type);
+	}
+
+	/**
+	 * Obtain maximum size of any activity
+	 *
+	 * @return source name string that maps to TNT4J configuration
+	 */
+	public int getMaxActivitySize() {
+		return maxActivitySize;
+	}
+
+	/**
+	 * Set maximum size of any activity
+	 *
+	 * @param size
+	 *            maximum size must be greater than 0
+	 */
+	public void setMaxActivitySize(int size) {
+		maxActivitySize = size;
+	}
+
+	/**
+	 * Obtain maximum age of activity, after which it is expired by activity registry.
+	 *
+	 * @return maximum activity age in milliseconds, {@code 0} if unlimited
+	 */
+	public long getActivityMaxAge() {
+		return activityMaxAge;
+	}
+
+	/**
+	 * Set maximum age of activity, after which it is expired by activity registry.
+	 *
+	 * @param ms
+	 *            maximum activity age in milliseconds, {@code 0} for unlimited
+	 */
+	public void setActivityMaxAge(long ms) {
+		activityMaxAge = ms;
+	}
+
+	/**
+	 * Obtain time activity may stay without new events, after which it is expired by activity registry.
+	 *
+	 * @return activity idle timeout in milliseconds, {@code 0} if unlimited
+	 */
+	public long getActivityIdleTimeout() {
+		return activityIdleTimeout;
+	}
+
+	/**
+	 * Set time activity may stay without new events, after which it is expired by activity registry.
+	 *
+	 * @param ms
+	 *            activity idle timeout in milliseconds, {@code 0} for unlimited
+	 */
+	public void setActivityIdleTimeout(long ms) {
+		activityIdleTimeout = ms;
+	}
+
+	/**
+	 * Obtain maximum total number of events within all open activities.
+	 *
+	 * @return maximum number of events within open activities, {@code 0} if unlimited
+	 */
+	public long getMaxActivityEvents() {
+		return maxActivityEvents;
+	}
+
+	/**
+	 * Set maximum total number of events within all open activities. When exceeded, the oldest activities are expired
+	 * by activity registry.
+	 *
+	 * @param count
+	 *            maximum number of events within open activities, {@code 0} for unlimited
+	 */
+	public void setMaxActivityEvents(long count) {
+		maxActivityEvents = count;
+	}
+
+	/**
+	 * Obtain number of activities currently open by this appender.
+	 *
+	 * @return number of open activities
+	 */
+	public int getOpenActivityCount() {
+		ActivityRegistry registry = activities;
+		return registry == null ? 0 : registry.getOpenCount();
+	}
+
+	/**
+	 * Obtain total number of events reported within activities currently open by this appender.
+	 *
+	 * @return number of events within open activities
+	 */
+	public long getOpenActivityEvents() {
+		ActivityRegistry registry = activities;
+		return registry == null ? 0 : registry.getOpenEvents();
+	}
+
+	/**
+	 * Return whether appender generates metrics log entries with exception
+	 *
+	 * @return true to publish default jvm metrics when exception is logged
+	 */
+	public boolean getMetricsOnException() {
+		return metricsOnException;
+	}
+
+	/**
+	 * Direct appender to generate metrics log entries with exception when set to true, false otherwise.
+	 *
+	 * @param flag
+	 *            true to append metrics on exception, false otherwise
+	 */
+	public void setMetricsOnException(boolean flag) {
+		metricsOnException = flag;
+	}
+
+	/**
+	 * Appender generates metrics based on a given frequency in seconds.
+	 *
+	 * @return metrics frequency, in seconds
+	 */
+	public long getMetricsFrequency() {
+		return metricsFrequency;
+	}
+
+	/**
+	 * Set metric collection frequency seconds.
+	 *
+	 * @param freq
+	 *            number of seconds
+	 */
+	public void setMetricsFrequency(long freq) {
+		metricsFrequency = freq;
+	}
+
+	/**
+	 * Obtain minimal number of seconds between metrics reports on exceptions of the same fingerprint.
+	 *
+	 * @return metrics on exception interval, in seconds
+	 */
+	public long getMetricsOnExceptionInterval() {
+		return metricsOnExceptionInterval;
+	}
+
+	/**
+	 * Set minimal number of seconds between metrics reports on exceptions of the same fingerprint (exception class and
+	 * stack frames).
+	 *
+	 * @param interval
+	 *            number of seconds, {@code 0} to report metrics on every exception
+	 */
+	public void setMetricsOnExceptionInterval(long interval) {
+		metricsOnExceptionInterval = interval;
+	}
+
+	/**
+	 * Obtain maximum number of tracked exception fingerprints.
+	 *
+	 * @return exception fingerprints cache size
+	 */
+	public int getExceptionCacheSize() {
+		return exceptionCacheSize;
+	}
+
+	/**
+	 * Set maximum number of tracked exception fingerprints.
+	 *
+	 * @param size
+	 *            exception fingerprints cache size, {@code 0} disables tracking
+	 */
+	public void setExceptionCacheSize(int size) {
+		exceptionCacheSize = size;
+	}
+
+	/**
+	 * Return whether repeated stack traces are reported as references.
+	 *
+	 * @return true if repeated stack traces are reported as fingerprint reference and occurrence count, false otherwise
+	 */
+	public boolean getExceptionRefs() {
+		return exceptionRefs;
+	}
+
+	/**
+	 * Set whether repeated stack traces are reported as references. When enabled, every event with exception carries
+	 * {@value #EXCEPTION_REF_PROPERTY} and {@value #EXCEPTION_COUNT_PROPERTY} properties, and only the first occurrence
+	 * of a tracked fingerprint carries full stack trace.
+	 *
+	 * @param flag
+	 *            {@code true} to report repeated stack traces as references, {@code false} otherwise
+	 */
+	public void setExceptionRefs(boolean flag) {
+		exceptionRefs = flag;
+	}
+
+	/**
+	 * Obtain numbers of occurrences of tracked exception fingerprints.
+	 *
+	 * @return map of exception fingerprint identifier to number of its occurrences
+	 */
+	public Map<String, Long> getExceptionCounts() {
+		Map<String, Long> counts = new TreeMap<>();
+		BoundedCache<String, ExceptionFingerprint> cache = exceptionCache;
+		if (cache != null) {
+			cache.forEach((id, fingerprint) -> counts.put(id, fingerprint.getCount()));
+		}
+		return counts;
+	}
+
+	/**
+	 * Obtain caller data collection specification, see {@link CallerDataMode}
+	 *
+	 * @return comma separated list of {@code [level=]mode} entries
+	 */
+	public String getCallerData() {
+		return callerData;
+	}
+
+	/**
+	 * Set caller data collection specification as comma separated list of {@code [level=]mode} entries, see
+	 * {@link CallerDataMode}. Entry without level defines mode for levels having no explicit mode, e.g.
+	 * {@code NONE,WARN=LAZY,ERROR=FULL}.
+	 *
+	 * @param spec
+	 *            caller data collection specification
+	 */
+	public void setCallerData(String spec) {
+		callerData = spec;
+	}
+
+	/**
+	 * Obtain maximum number of caller frames walked by {@link CallerDataMode#LAZY} mode.
+	 *
+	 * @return maximum caller frames depth
+	 */
+	public int getCallerDataDepth() {
+		return callerDataDepth;
+	}
+
+	/**
+	 * Set maximum number of caller frames walked by {@link CallerDataMode#LAZY} mode.
+	 *
+	 * @param depth
+	 *            maximum caller frames depth must be greater than 0
+	 */
+	public void setCallerDataDepth(int depth) {
+		callerDataDepth = depth;
+	}
+
+	/**
+	 * Obtain maximum number of cached TNT4J sources.
+	 *
+	 * @return source cache capacity
+	 */
+	public int getSourceCacheSize() {
+		return sourceCacheSize;
+	}
+
+	/**
+	 * Set maximum number of TNT4J sources cached by logger name and {@code #app} value. Takes effect on appender
+	 * (re)start.
+	 *
+	 * @param size
+	 *            source cache capacity, {@code 0} disables caching
+	 */
+	public void setSourceCacheSize(int size) {
+		sourceCacheSize = size;
+	}
+
+	/**
+	 * Obtain number of source lookups served from source cache since appender start.
+	 *
+	 * @return number of source cache hits
+	 */
+	public long getSourceCacheHits() {
+		BoundedCache<String, Source> cache = sourceCache;
+		return cache == null ? 0 : cache.getHitCount();
+	}
+
+	/**
+	 * Obtain number of source lookups which created a new source since appender start.
+	 *
+	 * @return number of source cache misses
+	 */
+	public long getSourceCacheMisses() {
+		BoundedCache<String, Source> cache = sourceCache;
+		return cache == null ? 0 : cache.getMissCount();
+	}
+
+	/**
+	 * Obtain maximum number of cached compiled message templates.
+	 *
+	 * @return message template cache capacity
+	 */
+	public int getTemplateCacheSize() {
+		return templateCacheSize;
+	}
+
+	/**
+	 * Set maximum number of cached compiled parameterized message templates. Takes effect on appender (re)start.
+	 *
+	 * @param size
+	 *            message template cache capacity, {@code 0} disables caching
+	 */
+	public void setTemplateCacheSize(int size) {
+		templateCacheSize = size;
+	}
+
+	/**
+	 * Obtain ratio of parameterized message template lookups served from message template cache since appender start.
+	 *
+	 * @return message template cache hit ratio within range {@code [0, 1]}
+	 */
+	public double getTemplateCacheHitRatio() {
+		BoundedCache<String, MessageTemplate> cache = templateCache;
+		return cache == null ? 0 : cache.getHitRatio();
+	}
+
+	/**
+	 * Obtain event attribute sources in precedence order, see {@link AttributeSource}.
+	 *
+	 * @return comma separated list of attribute sources
+	 */
+	public String getAttributeSources() {
+		return attributeSources;
+	}
+
+	/**
+	 * Set event attribute sources in precedence order, see {@link AttributeSource}, e.g. {@code MESSAGE,KV,MDC}.
+	 * Attribute defined by several sources takes value from the source listed first. Takes effect on appender
+	 * (re)start.
+	 *
+	 * @param sources
+	 *            comma separated list of attribute sources
+	 */
+	public void setAttributeSources(String sources) {
+		attributeSources = sources;
+	}
+
+	/**
+	 * Obtain names of logging event markers reported as TNT4J event tags.
+	 *
+	 * @return comma separated list of marker names, {@code null} if markers are not reported
+	 */
+	public String getMarkers() {
+		return markerNames == null ? null : String.join(",", markerNames);
+	}
+
+	/**
+	 * Set names of logging event markers reported as TNT4J event tags. Marker matches name if it or any of its
+	 * references is named so. Use {@code *} to report names of all event markers.
+	 *
+	 * @param markers
+	 *            comma separated list of marker names
+	 */
+	public void setMarkers(String markers) {
+		String[] names = Utils.isEmpty(markers) ? null : markers.trim().split("\\s*,\\s*");
+		markerNames = names == null || names.length == 0 ? null : names;
+	}
+
+	/**
+	 * Return whether events of levels TNT4J sink discards are rejected before any processing.
+	 *
+	 * @return {@code true} if level filtering is enabled, {@code false} otherwise
+	 */
+	public boolean getLevelFilter() {
+		return levelFilter;
+	}
+
+	/**
+	 * Set whether events of levels TNT4J sink discards are rejected before any processing. Level decisions are
+	 * obtained from TNT4J sink configuration once per level and refreshed on appender (re)start.
+	 *
+	 * @param flag
+	 *            {@code true} to enable level filtering, {@code false} otherwise
+	 */
+	public void setLevelFilter(boolean flag) {
+		levelFilter = flag;
+	}
+
+	/**
+	 * Obtain number of events rejected by level filtering since appender creation.
+	 *
+	 * @return number of rejected events
+	 */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	/**
+	 * Obtain number of sink partitions reporting datagram events in parallel.
+	 *
+	 * @return number of sink partitions
+	 */
+	public int getPartitions() {
+		return partitions;
+	}
+
+	/**
+	 * Set number of sink partitions reporting datagram events in parallel. Every partition owns its own TNT4J tracking
+	 * logger and sink built from appender source configuration. Default is 1.
+	 *
+	 * @param count
+	 *            number of sink partitions
+	 */
+	public void setPartitions(int count) {
+		partitions = count;
+	}
+
+	/**
+	 * Obtain key routing datagram events to sink partitions, see {@link PartitionKey}.
+	 *
+	 * @return partition key string representation
+	 */
+	public String getPartitionKey() {
+		return partitionKey.name();
+	}
+
+	/**
+	 * Set key routing datagram events to sink partitions, see {@link PartitionKey}. Default is THREAD.
+	 *
+	 * @param key
+	 *            partition key string representation
+	 */
+	public void setPartitionKey(String key) {
+		partitionKey = PartitionKey.valueOf(key.toUpperCase());
+	}
+
+	/**
+	 * Obtain directory of spill journal files.
+	 *
+	 * @return spill journal directory, {@code null} if spill journal is disabled
+	 */
+	public String getJournalDir() {
+		return journalDir;
+	}
+
+	/**
+	 * Set directory of spill journal files, where datagram events are spilled while TNT4J sink falls behind. Default
+	 * is {@code null}, which disables spill journal.
+	 *
+	 * @param dir
+	 *            spill journal directory
+	 */
+	public void setJournalDir(String dir) {
+		journalDir = dir;
+	}
+
+	/**
+	 * Obtain size of spill journal segment file.
+	 *
+	 * @return number of bytes
+	 */
+	public int getJournalSegmentSize() {
+		return journalSegmentSize;
+	}
+
+	/**
+	 * Set size of spill journal segment file. Default is 4 MB.
+	 *
+	 * @param size
+	 *            number of bytes
+	 */
+	public void setJournalSegmentSize(int size) {
+		journalSegmentSize = size;
+	}
+
+	/**
+	 * Obtain maximum total size of spill journal segment files of a sink partition.
+	 *
+	 * @return number of bytes
+	 */
+	public long getJournalMaxSize() {
+		return journalMaxSize;
+	}
+
+	/**
+	 * Set maximum total size of spill journal segment files of a sink partition. Events are dropped when journal is
+	 * full. Default is 256 MB.
+	 *
+	 * @param size
+	 *            number of bytes
+	 */
+	public void setJournalMaxSize(long size) {
+		journalMaxSize = size;
+	}
+
+	/**
+	 * Obtain time sending an event to TNT4J sink may take before sink is considered falling behind.
+	 *
+	 * @return number of milliseconds
+	 */
+	public long getSpillThreshold() {
+		return spillThreshold;
+	}
+
+	/**
+	 * Set time sending an event to TNT4J sink may take before sink is considered falling behind and events are spilled
+	 * into journal. Default is 500.
+	 *
+	 * @param threshold
+	 *            number of milliseconds
+	 */
+	public void setSpillThreshold(long threshold) {
+		spillThreshold = threshold;
+	}
+
+	/**
+	 * Obtain time to wait before retrying replay of journaled events to failing TNT4J sink.
+	 *
+	 * @return number of milliseconds
+	 */
+	public long getSpillRetry() {
+		return spillRetry;
+	}
+
+	/**
+	 * Set time to wait before retrying replay of journaled events to failing TNT4J sink. Default is 1000.
+	 *
+	 * @param retry
+	 *            number of milliseconds
+	 */
+	public void setSpillRetry(long retry) {
+		spillRetry = retry;
+	}
+
+	/**
+	 * Return whether virtual thread friendly mode is on.
+	 *
+	 * @return true if no thread local state is kept for virtual threads and activities are scoped to correlator, false
+	 *         otherwise
+	 */
+	public boolean getVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Set virtual thread friendly mode: no thread local state is kept for virtual threads, elapsed time of virtual
+	 * thread events is measured since the last event of the same correlator ({@code #cid}), unless given by
+	 * {@code #elt}, and activities of all threads are scoped to correlator: {@code #beg} starts activity of its
+	 * {@code #cid}, events and {@code #end} of that {@code #cid} logged by any thread belong to it. Default is
+	 * {@code false}.
+	 *
+	 * @param flag
+	 *            true to turn virtual thread friendly mode on, false otherwise
+	 */
+	public void setVirtualThreads(boolean flag) {
+		virtualThreads = flag;
+	}
+
+	/**
+	 * Obtain maximum number of correlators tracked for elapsed time of virtual thread events.
+	 *
+	 * @return maximum number of tracked correlators
+	 */
+	public int getScopeTableSize() {
+		return scopeTableSize;
+	}
+
+	/**
+	 * Set maximum number of correlators tracked for elapsed time of virtual thread events. Default is 8192.
+	 *
+	 * @param size
+	 *            maximum number of tracked correlators
+	 */
+	public void setScopeTableSize(int size) {
+		scopeTableSize = size;
+	}
+
+	/**
+	 * Obtain flag indicating whether datagram events are recycled.
+	 *
+	 * @return flag indicating whether datagram events are recycled
+	 */
+	public boolean getRecycleEvents() {
+		return recycleEvents;
+	}
+
+	/**
+	 * Set flag indicating whether TNT4J events, snapshots and properties of datagram events are taken from pools and
+	 * reused once sink has formatted them. Recycling is disabled when sink formats events asynchronously. Default is
+	 * {@code false}.
+	 *
+	 * @param flag
+	 *            flag indicating whether datagram events are recycled
+	 */
+	public void setRecycleEvents(boolean flag) {
+		recycleEvents = flag;
+	}
+
+	/**
+	 * Obtain maximum number of pooled events per pool stripe.
+	 *
+	 * @return maximum number of pooled events per stripe
+	 */
+	public int getRecyclePoolSize() {
+		return recyclePoolSize;
+	}
+
+	/**
+	 * Set maximum number of pooled events per pool stripe (there are as many stripes as available processors). Default
+	 * is 64.
+	 *
+	 * @param size
+	 *            maximum number of pooled events per stripe
+	 */
+	public void setRecyclePoolSize(int size) {
+		recyclePoolSize = size;
+	}
+
+	/**
+	 * Obtain number of datagram events reused from pools since appender start.
+	 *
+	 * @return number of recycled events
+	 */
+	public long getRecycledCount() {
+		EventRecycler pool = recycler;
+		return pool == null ? 0 : pool.getRecycledCount();
+	}
+
+	/**
+	 * Obtain number of pooled datagram events found modified after they were released, e.g. retained by sink or sink
+	 * listener.
+	 *
+	 * @return number of use after release violations
+	 */
+	public long getRecycleViolationCount() {
+		EventRecycler pool = recycler;
+		return pool == null ? 0 : pool.getViolationCount();
+	}
+
+	/**
+	 * Obtain number of events appended while TNT4J was initialized in background and dropped because startup buffer was
+	 * full or appender was stopped.
+	 *
+	 * @return number of dropped events
+	 */
+	public long getStartupDroppedCount() {
+		StartupBuffer early = startup;
+		return early == null ? 0 : early.getDroppedCount();
+	}
+
+	/**
+	 * Obtain number of events spilled into journal since appender start.
+	 *
+	 * @return number of spilled events
+	 */
+	public long getSpilledCount() {
+		SinkPartitions parts = sinks;
+		return parts == null ? 0 : parts.getSpilledCount();
+	}
+
+	/**
+	 * Obtain number of events dropped since appender start because spill journal was full.
+	 *
+	 * @return number of dropped events
+	 */
+	public long getJournalDroppedCount() {
+		SinkPartitions parts = sinks;
+		return parts == null ? 0 : parts.getJournalDroppedCount();
+	}
+
+	/**
+	 * Obtain maximum number of events per second of every logger name and level.
+	 *
+	 * @return maximum events rate, {@code 0} if rate is not limited
+	 */
+	public double getRateLimit() {
+		return rateLimit;
+	}
+
+	/**
+	 * Set maximum number of events per second of every logger name and level. ERROR, activity and correlated events
+	 * are never dropped.
+	 *
+	 * @param rate
+	 *            maximum events rate, {@code 0} disables rate limiting
+	 */
+	public void setRateLimit(double rate) {
+		rateLimit = rate;
+	}
+
+	/**
+	 * Obtain number of events of every logger name and level allowed in a row over the rate limit.
+	 *
+	 * @return rate limit burst size, {@code 0} if equal to rate limit
+	 */
+	public int getRateBurst() {
+		return rateBurst;
+	}
+
+	/**
+	 * Set number of events of every logger name and level allowed in a row over the rate limit.
+	 *
+	 * @param burst
+	 *            rate limit burst size, {@code 0} means equal to rate limit
+	 */
+	public void setRateBurst(int burst) {
+		rateBurst = burst;
+	}
+
+	/**
+	 * Return whether events are sampled when appender gets overloaded.
+	 *
+	 * @return true if adaptive sampling is enabled, false otherwise
+	 */
+	public boolean getSampling() {
+		return sampling;
+	}
+
+	/**
+	 * Set whether events are sampled when appender gets overloaded. Sampling rate is halved when average append
+	 * latency exceeds {@code samplingLatency}, or when asynchronous dispatch queue is more than half full, and is raised
+	 * gradually back otherwise.
+	 *
+	 * @param flag
+	 *            {@code true} to enable adaptive sampling, {@code false} otherwise
 	 */
-	public void setMaxActivitySize(int size) {
-		maxActivitySize = size;
+	public void setSampling(boolean flag) {
+		sampling = flag;
 	}
 
 	/**
-	 * Return whether appender generates metrics log entries with exception
+	 * Obtain average append latency above which sampling tightens.
 	 *
-	 * @return true to publish default jvm metrics when exception is logged
+	 * @return append latency in microseconds
 	 */
-	public boolean getMetricsOnException() {
-		return metricsOnException;
+	public long getSamplingLatency() {
+		return samplingLatency;
 	}
 
 	/**
-	 * Direct appender to generate metrics log entries with exception when set to true, false otherwise.
+	 * Set average append latency above which sampling tightens.
+	 *
+	 * @param usec
+	 *            append latency in microseconds
+	 */
+	public void setSamplingLatency(long usec) {
+		samplingLatency = usec;
+	}
+
+	/**
+	 * Obtain current fraction of events kept by adaptive sampling.
+	 *
+	 * @return sampling rate, {@code 1} if all events are kept
+	 */
+	public double getSampleRate() {
+		RateController rates = rateController;
+		return rates == null ? 1.0 : rates.getSampleRate();
+	}
+
+	/**
+	 * Obtain number of events dropped by rate limiting and sampling since appender start.
+	 *
+	 * @return number of dropped events
+	 */
+	public long getRateDroppedCount() {
+		RateController rates = rateController;
+		return rates == null ? 0 : rates.getDroppedCount();
+	}
+
+	/**
+	 * Obtain time window within which repeated events are suppressed.
+	 *
+	 * @return suppression window in milliseconds, {@code 0} if suppression is disabled
+	 */
+	public long getSuppressWindow() {
+		return suppressWindow;
+	}
+
+	/**
+	 * Set time window within which repeated events are suppressed. Events are repeated when they have the same logger
+	 * name, message template, and exception class with top stack frame.
+	 *
+	 * @param ms
+	 *            suppression window in milliseconds, {@code 0} disables suppression
+	 */
+	public void setSuppressWindow(long ms) {
+		suppressWindow = ms;
+	}
+
+	/**
+	 * Obtain maximum number of event fingerprints tracked for suppression.
+	 *
+	 * @return maximum number of tracked fingerprints
+	 */
+	public int getSuppressTableSize() {
+		return suppressTableSize;
+	}
+
+	/**
+	 * Set maximum number of event fingerprints tracked for suppression. When table is full, some windows are closed
+	 * early to make room.
+	 *
+	 * @param size
+	 *            maximum number of tracked fingerprints
+	 */
+	public void setSuppressTableSize(int size) {
+		suppressTableSize = size;
+	}
+
+	/**
+	 * Return whether appender dispatches events asynchronously.
+	 *
+	 * @return true if events are converted and sent to TNT4J by dedicated dispatch threads, false otherwise
+	 */
+	public boolean isAsync() {
+		return async;
+	}
+
+	/**
+	 * Direct appender to dispatch events asynchronously. Logging thread only queues the event, while conversion to
+	 * TNT4J tracking event and sending it to TNT4J is performed by dedicated dispatch threads.
 	 *
 	 * @param flag
-	 *            true to append metrics on exception, false otherwise
+	 *            true to dispatch events asynchronously, false otherwise
 	 */
-	public void setMetricsOnException(boolean flag) {
-		metricsOnException = flag;
+	public void setAsync(boolean flag) {
+		async = flag;
 	}
 
 	/**
-	 * Appender generates metrics based on a given frequency in seconds.
+	 * Obtain asynchronous dispatch queue size of every dispatch thread.
 	 *
-	 * @return metrics frequency, in seconds
+	 * @return queue size
 	 */
-	public long getMetricsFrequency() {
-		return metricsFrequency;
+	public int getQueueSize() {
+		return queueSize;
 	}
 
 	/**
-	 * Set metric collection frequency seconds.
+	 * Set asynchronous dispatch queue size of every dispatch thread. Size is rounded up to the power of two.
 	 *
-	 * @param freq
-	 *            number of seconds
+	 * @param size
+	 *            queue size must be greater than 0
 	 */
-	public void setMetricsFrequency(long freq) {
-		metricsFrequency = freq;
+	public void setQueueSize(int size) {
+		queueSize = size;
+	}
+
+	/**
+	 * Obtain number of asynchronous dispatch threads.
+	 *
+	 * @return number of dispatch threads
+	 */
+	public int getDispatchThreads() {
+		return dispatchThreads;
+	}
+
+	/**
+	 * Set number of asynchronous dispatch threads. Events of the same logging thread are always dispatched by the same
+	 * dispatch thread.
+	 *
+	 * @param threads
+	 *            number of dispatch threads must be greater than 0
+	 */
+	public void setDispatchThreads(int threads) {
+		dispatchThreads = threads;
+	}
+
+	/**
+	 * Obtain policy applied when asynchronous dispatch queue is full, see {@link OverflowPolicy}
+	 *
+	 * @return overflow policy string representation
+	 */
+	public String getOverflowPolicy() {
+		return overflowPolicy.name();
+	}
+
+	/**
+	 * Set policy applied when asynchronous dispatch queue is full, see {@link OverflowPolicy}
+	 *
+	 * @param policy
+	 *            overflow policy string representation
+	 */
+	public void setOverflowPolicy(String policy) {
+		overflowPolicy = OverflowPolicy.valueOf(policy.toUpperCase());
+	}
+
+	/**
+	 * Obtain level below which events are dropped when asynchronous dispatch queue is full and overflow policy is
+	 * {@link OverflowPolicy#DROP_BELOW_LEVEL}
+	 *
+	 * @return logback level string representation
+	 */
+	public String getDropLevel() {
+		return dropLevel.toString();
+	}
+
+	/**
+	 * Set level below which events are dropped when asynchronous dispatch queue is full and overflow policy is
+	 * {@link OverflowPolicy#DROP_BELOW_LEVEL}
+	 *
+	 * @param level
+	 *            logback level string representation
+	 */
+	public void setDropLevel(String level) {
+		dropLevel = Level.toLevel(level, Level.INFO);
+	}
+
+	/**
+	 * Obtain wait strategy of asynchronous dispatch, see {@link WaitStrategy}
+	 *
+	 * @return wait strategy string representation
+	 */
+	public String getWaitStrategy() {
+		return waitStrategy.name();
+	}
+
+	/**
+	 * Set wait strategy of asynchronous dispatch, see {@link WaitStrategy}
+	 *
+	 * @param strategy
+	 *            wait strategy string representation
+	 */
+	public void setWaitStrategy(String strategy) {
+		waitStrategy = WaitStrategy.valueOf(strategy.toUpperCase());
+	}
+
+	/**
+	 * Obtain maximum time to dispatch queued events when appender is stopped.
+	 *
+	 * @return shutdown timeout, in milliseconds
+	 */
+	public long getShutdownTimeout() {
+		return shutdownTimeout;
+	}
+
+	/**
+	 * Set maximum time to dispatch queued events when appender is stopped.
+	 *
+	 * @param timeout
+	 *            number of milliseconds
+	 */
+	public void setShutdownTimeout(long timeout) {
+		shutdownTimeout = timeout;
+	}
+
+	/**
+	 * Return whether TNT4J is initialized in background when appender starts.
+	 *
+	 * @return {@code true} if TNT4J is initialized in background, {@code false} otherwise
+	 */
+	public boolean getAsyncStart() {
+		return asyncStart;
+	}
+
+	/**
+	 * Set whether TNT4J configuration, sources and sinks are initialized in background when appender starts, so Logback
+	 * configuration is not delayed by it. Events appended meanwhile are buffered, see {@link #setStartupQueueSize(int)},
+	 * and reported once TNT4J is initialized. When appender is stopped, buffered events are processed within
+	 * {@code shutdownTimeout}.
+	 *
+	 * @param flag
+	 *            {@code true} to initialize TNT4J in background, {@code false} to initialize it on appender start
+	 */
+	public void setAsyncStart(boolean flag) {
+		asyncStart = flag;
+	}
+
+	/**
+	 * Obtain maximum number of events buffered while TNT4J is initialized in background.
+	 *
+	 * @return startup buffer capacity
+	 */
+	public int getStartupQueueSize() {
+		return startupQueueSize;
+	}
+
+	/**
+	 * Set maximum number of events buffered while TNT4J is initialized in background. Events appended when buffer is
+	 * full are dropped.
+	 *
+	 * @param size
+	 *            startup buffer capacity, must be greater than 0
+	 */
+	public void setStartupQueueSize(int size) {
+		startupQueueSize = size;
+	}
+
+	/**
+	 * Obtain how event times and elapsed time are obtained, see {@link TimingMode}
+	 *
+	 * @return timing mode string representation
+	 */
+	public String getTiming() {
+		return timing.name();
+	}
+
+	/**
+	 * Set how event times and elapsed time are obtained, see {@link TimingMode}
+	 *
+	 * @param mode
+	 *            timing mode string representation
+	 */
+	public void setTiming(String mode) {
+		timing = TimingMode.valueOf(mode.toUpperCase());
+	}
+
+	/**
+	 * Obtain names of user fields which numeric values are aggregated over time windows.
+	 *
+	 * @return comma separated list of field names, {@code null} if fields are not aggregated
+	 */
+	public String getAggregateFields() {
+		return aggregateFields == null ? null : String.join(",", aggregateFields);
+	}
+
+	/**
+	 * Set names of user fields which numeric values are aggregated over time windows. Field name is snapshot property
+	 * name of hashtag, key-value pair or MDC key, with value type qualifier stripped. Aggregates of every field are
+	 * reported once per window, see {@link #setAggregateWindow(long)}.
+	 *
+	 * @param fields
+	 *            comma separated list of field names
+	 */
+	public void setAggregateFields(String fields) {
+		String[] names = Utils.isEmpty(fields) ? null : fields.trim().split("\\s*,\\s*");
+		aggregateFields = names == null || names.length == 0 ? null : names;
+	}
+
+	/**
+	 * Obtain field aggregation window.
+	 *
+	 * @return aggregation window in milliseconds
+	 */
+	public long getAggregateWindow() {
+		return aggregateWindow;
+	}
+
+	/**
+	 * Set field aggregation window. Values aggregated within a window are reported as a single snapshot per field.
+	 *
+	 * @param ms
+	 *            aggregation window in milliseconds
+	 */
+	public void setAggregateWindow(long ms) {
+		aggregateWindow = ms;
+	}
+
+	/**
+	 * Obtain maximum number of logger accumulators of all aggregated fields.
+	 *
+	 * @return accumulator table size
+	 */
+	public int getAggregateTableSize() {
+		return aggregateTableSize;
+	}
+
+	/**
+	 * Set maximum number of logger accumulators of all aggregated fields. When table is full, values of other loggers
+	 * are aggregated together under {@code *} logger name.
+	 *
+	 * @param size
+	 *            accumulator table size
+	 */
+	public void setAggregateTableSize(int size) {
+		aggregateTableSize = size;
+	}
+
+	/**
+	 * Return whether datagram events carrying aggregated fields are dropped.
+	 *
+	 * @return {@code true} if aggregated events are dropped, {@code false} otherwise
+	 */
+	public boolean getAggregateDrop() {
+		return aggregateDrop;
+	}
+
+	/**
+	 * Set whether datagram events carrying aggregated fields are dropped once their fields are aggregated. Events
+	 * within activity and events carrying exception are always reported.
+	 *
+	 * @param flag
+	 *            {@code true} to drop aggregated events, {@code false} to report them as well
+	 */
+	public void setAggregateDrop(boolean flag) {
+		aggregateDrop = flag;
+	}
+
+	/**
+	 * Wait until all events queued for asynchronous dispatch so far have been dispatched. Returns right away if
+	 * appender dispatches events synchronously.
+	 */
+	void awaitDispatched() {
+		AsyncEventDispatcher async = dispatcher;
+		if (async != null) {
+			async.awaitDrained();
+		}
+	}
+
+	/**
+	 * Obtain number of events currently queued for asynchronous dispatch.
+	 *
+	 * @return number of queued events
+	 */
+	public int getQueueDepth() {
+		AsyncEventDispatcher async = dispatcher;
+		return async == null ? 0 : async.getQueueDepth();
+	}
+
+	/**
+	 * Obtain number of events dropped by asynchronous dispatch overflow policy since appender start.
+	 *
+	 * @return number of dropped events
+	 */
+	public long getQueueDroppedCount() {
+		AsyncEventDispatcher async = dispatcher;
+		return async == null ? 0 : async.getDroppedCount();
+	}
+
+	/**
+	 * Obtain self-instrumentation statistics of this appender, also exposed as JMX MBean.
+	 *
+	 * @return appender statistics
+	 */
+	public TNT4JAppenderMXBean getStats() {
+		return stats;
+	}
+
+	/**
+	 * Obtain flag indicating whether appender statistics are registered as JMX MBean.
+	 *
+	 * @return flag indicating whether appender statistics are registered as JMX MBean
+	 */
+	public boolean getJmx() {
+		return jmx;
+	}
+
+	/**
+	 * Set flag indicating whether appender statistics are registered as JMX MBean. Default is {@code true}.
+	 *
+	 * @param flag
+	 *            flag indicating whether appender statistics are registered as JMX MBean
+	 */
+	public void setJmx(boolean flag) {
+		jmx = flag;
+	}
+
+	/**
+	 * Obtain flag indicating whether appender statistics are reported as TNT4J snapshot along with JVM metrics.
+	 *
+	 * @return flag indicating whether appender statistics are reported as snapshot
+	 */
+	public boolean getStatsSnapshot() {
+		return statsSnapshot;
+	}
+
+	/**
+	 * Set flag indicating whether appender statistics are reported as TNT4J snapshot every {@code metricsFrequency}
+	 * seconds. Default is {@code false}.
+	 *
+	 * @param flag
+	 *            flag indicating whether appender statistics are reported as snapshot
+	 */
+	public void setStatsSnapshot(boolean flag) {
+		statsSnapshot = flag;
 	}
 
 	/**
@@ -499,9 +2981,73 @@ public class TNT4JAppender extends AppenderBase<ILoggingEvent> implements Append
 	 * @return elapsed nanoseconds since last event
 	 */
 	protected long getUsecsSinceLastEvent() {
+		if (isVirtualMode()) {
+			// no thread local time tracker for virtual threads
+			return 0;
+		}
 		return TimeUnit.NANOSECONDS.toMicros(TimeTracker.hitAndGet());
 	}
 
+	/**
+	 * Obtain elapsed microseconds since last event of logging thread, measured according to {@code timing} mode:
+	 * either by nanosecond clock, or by instants of consecutive logging events of the thread.
+	 *
+	 * @param event
+	 *            logging event
+	 * @return elapsed microseconds since last event
+	 */
+	private long elapsedUsec(ILoggingEvent event) {
+		if (timing != TimingMode.EVENT) {
+			return getUsecsSinceLastEvent();
+		}
+		if (isVirtualMode()) {
+			return 0;
+		}
+		long time = TimingMode.toUsec(event.getInstant());
+		long[] last = lastEventTimes.get();
+		long elapsed = last[0] == 0 || last[0] > time ? 0 : time - last[0];
+		last[0] = time;
+		return elapsed;
+	}
+
+	/**
+	 * Check whether calling thread state is kept out of thread locals: calling thread is virtual and virtual thread
+	 * friendly mode is on.
+	 *
+	 * @return {@code true} if calling thread is virtual in virtual thread friendly mode, {@code false} otherwise
+	 */
+	private boolean isVirtualMode() {
+		return virtualThreads && VirtualThreads.isCurrentVirtual();
+	}
+
+	/**
+	 * Resolve elapsed microseconds of virtual thread event, marked as {@link #SCOPED_ELAPSED}, as time since the
+	 * previous event of the same correlator, by event timestamps. Events without correlator get no elapsed time, unless
+	 * it is given explicitly by {@code #elt} hashtag.
+	 *
+	 * @param attrs
+	 *            hashtag attributes of logging event
+	 * @param event
+	 *            logging event
+	 * @param elapsedUsec
+	 *            elapsed microseconds since last event of logging thread, or {@link #SCOPED_ELAPSED}
+	 * @return elapsed microseconds since last event of logging thread or correlator
+	 */
+	private long scopedElapsedUsec(HashTagAttributes attrs, ILoggingEvent event, long elapsedUsec) {
+		if (elapsedUsec != SCOPED_ELAPSED) {
+			return elapsedUsec;
+		}
+		String correlator = attrs.get(HashTag.CORRELATOR);
+		BoundedCache<String, AtomicLong> times = scopeTimes;
+		if (correlator == null || times == null) {
+			return 0;
+		}
+		long time = TimingMode.toUsec(event.getInstant());
+		// events of a correlator logged by different threads may be processed out of order
+		long last = times.get(correlator).getAndAccumulate(time, Math::max);
+		return last == 0 || last > time ? 0 : time - last;
+	}
+
 	/**
 	 * Map <b>ILoggingEvent</b> logging event level to TNT4J {@link OpLevel}.
 	 *
@@ -510,22 +3056,7 @@ public class TNT4JAppender extends AppenderBase<ILoggingEvent> implements Append
 	 * @return TNT4J {@link OpLevel}.
 	 */
 	protected OpLevel getOpLevel(ILoggingEvent event) {
-		Level lvl = event.getLevel();
-		if (lvl.toInt() == Level.INFO_INT) {
-			return OpLevel.INFO;
-		} else if (lvl.toInt() == Level.ERROR_INT) {
-			return OpLevel.ERROR;
-		} else if (lvl.toInt() == Level.WARN_INT) {
-			return OpLevel.WARNING;
-		} else if (lvl.toInt() == Level.DEBUG_INT) {
-			return OpLevel.DEBUG;
-		} else if (lvl.toInt() == Level.TRACE_INT) {
-			return OpLevel.TRACE;
-		} else if (lvl.toInt() == Level.OFF_INT) {
-			return OpLevel.NONE;
-		} else {
-			return OpLevel.INFO;
-		}
+		return LevelGate.toOpLevel(event.getLevel());
 	}
 
 	/**
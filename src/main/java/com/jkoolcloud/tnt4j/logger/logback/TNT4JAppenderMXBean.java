@@ -0,0 +1,270 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+/**
+ * JMX management interface exposing self-instrumentation of {@link TNT4JAppender}: counts of processed and lost
+ * events, latencies of event processing stages in nanoseconds, and state of appender queues and caches. Every appender
+ * instance is registered under {@code com.jkoolcloud.tnt4j.logger.logback:type=TNT4JAppender,name=<appender name>}.
+ *
+ * @version $Revision: 1 $
+ */
+public interface TNT4JAppenderMXBean {
+	/**
+	 * Obtain number of TRACE level events appended since appender start.
+	 *
+	 * @return number of events
+	 */
+	long getTraceEvents();
+
+	/**
+	 * Obtain number of DEBUG level events appended since appender start.
+	 *
+	 * @return number of events
+	 */
+	long getDebugEvents();
+
+	/**
+	 * Obtain number of INFO level events appended since appender start.
+	 *
+	 * @return number of events
+	 */
+	long getInfoEvents();
+
+	/**
+	 * Obtain number of WARN level events appended since appender start.
+	 *
+	 * @return number of events
+	 */
+	long getWarnEvents();
+
+	/**
+	 * Obtain number of ERROR level events appended since appender start.
+	 *
+	 * @return number of events
+	 */
+	long getErrorEvents();
+
+	/**
+	 * Obtain number of events reported as TNT4J datagrams.
+	 *
+	 * @return number of datagram events
+	 */
+	long getDatagramEvents();
+
+	/**
+	 * Obtain number of events reported within activities.
+	 *
+	 * @return number of activity events
+	 */
+	long getActivityEvents();
+
+	/**
+	 * Obtain number of events reported together with JVM metrics.
+	 *
+	 * @return number of metrics events
+	 */
+	long getMetricsEvents();
+
+	/**
+	 * Obtain number of processed activity {@code #beg}/{@code #end} instructions.
+	 *
+	 * @return number of activity instructions
+	 */
+	long getActivityInstructions();
+
+	/**
+	 * Obtain number of events rejected by level filtering.
+	 *
+	 * @return number of rejected events
+	 */
+	long getRejectedCount();
+
+	/**
+	 * Obtain number of events dropped by rate limiting and sampling.
+	 *
+	 * @return number of dropped events
+	 */
+	long getRateDroppedCount();
+
+	/**
+	 * Obtain number of repeated events suppressed.
+	 *
+	 * @return number of suppressed events
+	 */
+	long getSuppressedCount();
+
+	/**
+	 * Obtain number of events dropped by asynchronous dispatch overflow policy.
+	 *
+	 * @return number of dropped events
+	 */
+	long getQueueDroppedCount();
+
+	/**
+	 * Obtain number of events dropped by startup buffer while TNT4J was initialized in background.
+	 *
+	 * @return number of dropped events
+	 */
+	long getStartupDroppedCount();
+
+	/**
+	 * Obtain number of datagram events dropped since their fields were aggregated.
+	 *
+	 * @return number of dropped events
+	 */
+	long getAggregatedCount();
+
+	/**
+	 * Obtain number of user field values aggregated over time windows.
+	 *
+	 * @return number of aggregated values
+	 */
+	long getAggregatedValueCount();
+
+	/**
+	 * Obtain number of events spilled into journal while sink was falling behind.
+	 *
+	 * @return number of spilled events
+	 */
+	long getSpilledCount();
+
+	/**
+	 * Obtain number of events dropped because spill journal was full.
+	 *
+	 * @return number of dropped events
+	 */
+	long getJournalDroppedCount();
+
+	/**
+	 * Obtain number of datagram events reused from event pools.
+	 *
+	 * @return number of recycled events
+	 */
+	long getRecycledCount();
+
+	/**
+	 * Obtain number of pooled events found modified after release, e.g. retained by sink or sink listener.
+	 *
+	 * @return number of use after release violations
+	 */
+	long getRecycleViolationCount();
+
+	/**
+	 * Obtain number of events failed to be processed.
+	 *
+	 * @return number of failed events
+	 */
+	long getFailedCount();
+
+	/**
+	 * Obtain mean time spent parsing event message and context attributes.
+	 *
+	 * @return mean time in nanoseconds
+	 */
+	double getParseMeanNanos();
+
+	/**
+	 * Obtain 99th percentile of time spent parsing event message and context attributes.
+	 *
+	 * @return percentile time in nanoseconds
+	 */
+	long getParseP99Nanos();
+
+	/**
+	 * Obtain maximal time spent parsing event message and context attributes.
+	 *
+	 * @return maximal time in nanoseconds
+	 */
+	long getParseMaxNanos();
+
+	/**
+	 * Obtain mean time spent building TNT4J tracking event.
+	 *
+	 * @return mean time in nanoseconds
+	 */
+	double getBuildMeanNanos();
+
+	/**
+	 * Obtain 99th percentile of time spent building TNT4J tracking event.
+	 *
+	 * @return percentile time in nanoseconds
+	 */
+	long getBuildP99Nanos();
+
+	/**
+	 * Obtain maximal time spent building TNT4J tracking event.
+	 *
+	 * @return maximal time in nanoseconds
+	 */
+	long getBuildMaxNanos();
+
+	/**
+	 * Obtain mean time spent handing TNT4J tracking event over to TNT4J sink.
+	 *
+	 * @return mean time in nanoseconds
+	 */
+	double getDispatchMeanNanos();
+
+	/**
+	 * Obtain 99th percentile of time spent handing TNT4J tracking event over to TNT4J sink.
+	 *
+	 * @return percentile time in nanoseconds
+	 */
+	long getDispatchP99Nanos();
+
+	/**
+	 * Obtain maximal time spent handing TNT4J tracking event over to TNT4J sink.
+	 *
+	 * @return maximal time in nanoseconds
+	 */
+	long getDispatchMaxNanos();
+
+	/**
+	 * Obtain number of events currently queued for asynchronous dispatch.
+	 *
+	 * @return number of queued events
+	 */
+	int getQueueDepth();
+
+	/**
+	 * Obtain ratio of source lookups served from source cache.
+	 *
+	 * @return source cache hit ratio, from 0 to 1
+	 */
+	double getSourceCacheHitRatio();
+
+	/**
+	 * Obtain ratio of message template lookups served from template cache.
+	 *
+	 * @return template cache hit ratio, from 0 to 1
+	 */
+	double getTemplateCacheHitRatio();
+
+	/**
+	 * Obtain number of activities currently open by appender.
+	 *
+	 * @return number of open activities
+	 */
+	int getOpenActivityCount();
+
+	/**
+	 * Obtain current adaptive sampling rate.
+	 *
+	 * @return sampling rate, from 0 to 1
+	 */
+	double getSampleRate();
+}
@@ -0,0 +1,1033 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Marker;
+import org.slf4j.event.KeyValuePair;
+
+import com.jkoolcloud.tnt4j.config.DefaultConfigFactory;
+import com.jkoolcloud.tnt4j.config.TrackerConfig;
+import com.jkoolcloud.tnt4j.core.*;
+import com.jkoolcloud.tnt4j.format.DefaultFormatter;
+import com.jkoolcloud.tnt4j.format.JSONFormatter;
+import com.jkoolcloud.tnt4j.source.Source;
+import com.jkoolcloud.tnt4j.source.SourceFactory;
+import com.jkoolcloud.tnt4j.source.SourceType;
+import com.jkoolcloud.tnt4j.utils.Useconds;
+import com.jkoolcloud.tnt4j.utils.Utils;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.encoder.EncoderBase;
+
+/**
+ * <p>
+ * Logback encoder writing logging events as TNT4J events, for plain logback appenders such as
+ * {@code OutputStreamAppender}, {@code FileAppender} or {@code RollingFileAppender}.
+ * <p>
+ * Encoded event is equivalent to the output of TNT4J {@code JSONFormatter} or {@code SimpleFormatter} (see
+ * {@code format} property) for the datagram event {@link TNT4JAppender} would report for the same logging event,
+ * followed by line separator and written in UTF-8. Hashtags, key-value pairs and {@code MDC} attributes are resolved
+ * the same way as {@link TNT4JAppender} resolves them, but the event is written straight into a reusable byte buffer
+ * of the encoding thread, with no intermediate TNT4J event, snapshot or formatted string.
+ * <p>
+ * This encoder has the following behavior:
+ * <ul>
+ * <li>Encoder does not report anything to TNT4J sinks, TNT4J configuration of the source is used only to resolve
+ * event sources and user.</li>
+ * <li>Activities are not tracked: logging events carrying activity {@code #beg}/{@code #end} instructions are encoded
+ * as datagrams, with instructions reported as snapshot properties.</li>
+ * <li>Elapsed time of an event is measured since the previous event encoded by the same thread.</li>
+ * <li>Formatter settings are the TNT4J defaults, except for {@code newline} and {@code separator} properties. Signed
+ * events, GUIDs and TTL set by sinks are not supported.</li>
+ * <li>This encoder is thread safe, logging threads encode concurrently.</li>
+ * </ul>
+ * <p>
+ * This encoder supports the following properties:
+ * <table>
+ * <caption>Encoder supported configuration properties</caption>
+ * <tr>
+ * <td valign=top><b>format</b></td>
+ * <td valign=top>output format, see {@link EncoderFormat}, default JSON</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>sourceName</b></td>
+ * <td valign=top>TNT4J source name used for loading TNT4J configuration, default logger context name</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>sourceType</b></td>
+ * <td valign=top>TNT4J source type, default APPL</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>newline</b></td>
+ * <td valign=top>JSON format writes every attribute on a new line (true|false), default value of
+ * {@code tnt4j.formatter.json.newline} system property</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>separator</b></td>
+ * <td valign=top>SIMPLE format attributes separator, default value of {@code tnt4j.formatter.default.separator}
+ * system property or {@code " | "}</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>callerData</b></td>
+ * <td valign=top>caller data collection modes as comma separated {@code [level=]mode} entries, see
+ * {@link CallerDataMode}, default FULL</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>callerDataDepth</b></td>
+ * <td valign=top>maximum number of caller frames walked by LAZY caller data mode, default 8</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>attributeSources</b></td>
+ * <td valign=top>comma separated list of event attribute sources in precedence order, see {@link AttributeSource},
+ * default MESSAGE,KV</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>markers</b></td>
+ * <td valign=top>comma separated list of marker names reported as TNT4J event tags, {@code *} for all markers,
+ * default none</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>timing</b></td>
+ * <td valign=top>how event times and elapsed time are obtained, see {@link TimingMode}, default MILLIS</td>
+ * </tr>
+ * </table>
+ *
+ * @see TNT4JAppender
+ *
+ * @version $Revision: 1 $
+ */
+public class TNT4JEncoder extends EncoderBase<ILoggingEvent> {
+	private static final int CACHE_SIZE = 1024;
+	private static final int FIELD_KEY_CACHE_SIZE = 4096;
+	private static final int HASH_BUCKET_MASK = 127;
+
+	private static final byte[] EMPTY = new byte[0];
+	private static final byte[] LINE_SEPARATOR = ascii(CoreConstants.LINE_SEPARATOR);
+	private static final byte[] SNAPSHOT_ID_SUFFIX = ascii("@" + TNT4JAppender.SNAPSHOT_CATEGORY);
+	private static final byte[] SNAPSHOT_CATEGORY = ascii(Utils.quote(TNT4JAppender.SNAPSHOT_CATEGORY));
+
+	private static final byte[] SOURCE = label(JSONFormatter.JSON_SOURCE_LABEL);
+	private static final byte[] SOURCE_SSN = label(JSONFormatter.JSON_SOURCE_SSN_LABEL);
+	private static final byte[] SOURCE_FQN = label(JSONFormatter.JSON_SOURCE_FQN_LABEL);
+	private static final byte[] SOURCE_URL = label(JSONFormatter.JSON_SOURCE_URL_LABEL);
+	private static final byte[] SEVERITY = label(JSONFormatter.JSON_SEVERITY_LABEL);
+	private static final byte[] SEVERITY_NO = label(JSONFormatter.JSON_SEVERITY_NO_LABEL);
+	private static final byte[] TYPE = label(JSONFormatter.JSON_TYPE_LABEL);
+	private static final byte[] TYPE_NO = label(JSONFormatter.JSON_TYPE_NO_LABEL);
+	private static final byte[] PID = label(JSONFormatter.JSON_PID_LABEL);
+	private static final byte[] TID = label(JSONFormatter.JSON_TID_LABEL);
+	private static final byte[] COMP_CODE = label(JSONFormatter.JSON_COMP_CODE_LABEL);
+	private static final byte[] COMP_CODE_NO = label(JSONFormatter.JSON_COMP_CODE_NO_LABEL);
+	private static final byte[] REASON_CODE = label(JSONFormatter.JSON_REASON_CODE_LABEL);
+	private static final byte[] TTL_SEC = label(JSONFormatter.JSON_TTL_SEC_LABEL);
+	private static final byte[] LOCATION = label(JSONFormatter.JSON_LOCATION_LABEL);
+	private static final byte[] OPERATION = label(JSONFormatter.JSON_OPERATION_LABEL);
+	private static final byte[] RESOURCE = label(JSONFormatter.JSON_RESOURCE_LABEL);
+	private static final byte[] USER = label(JSONFormatter.JSON_USER_LABEL);
+	private static final byte[] TIME_USEC = label(JSONFormatter.JSON_TIME_USEC_LABEL);
+	private static final byte[] START_TIME_USEC = label(JSONFormatter.JSON_START_TIME_USEC_LABEL);
+	private static final byte[] END_TIME_USEC = label(JSONFormatter.JSON_END_TIME_USEC_LABEL);
+	private static final byte[] ELAPSED_TIME_USEC = label(JSONFormatter.JSON_ELAPSED_TIME_USEC_LABEL);
+	private static final byte[] MSG_AGE_USEC = label(JSONFormatter.JSON_MSG_AGE_USEC_LABEL);
+	private static final byte[] SNAPSHOT_COUNT = label(JSONFormatter.JSON_SNAPSHOT_COUNT_LABEL);
+	private static final byte[] PROPERTY_COUNT = label(JSONFormatter.JSON_PROPERTY_COUNT_LABEL);
+	private static final byte[] MSG_SIZE = label(JSONFormatter.JSON_MSG_SIZE_LABEL);
+	private static final byte[] MSG_MIME = label(JSONFormatter.JSON_MSG_MIME_LABEL);
+	private static final byte[] MSG_ENC = label(JSONFormatter.JSON_MSG_ENC_LABEL);
+	private static final byte[] MSG_CHARSET = label(JSONFormatter.JSON_MSG_CHARSET_LABEL);
+	private static final byte[] MSG_TEXT = label(JSONFormatter.JSON_MSG_TEXT_LABEL);
+	private static final byte[] EXCEPTION = label(JSONFormatter.JSON_EXCEPTION_LABEL);
+	private static final byte[] CORR_ID = label(JSONFormatter.JSON_CORR_ID_LABEL);
+	private static final byte[] MSG_TAG = label(JSONFormatter.JSON_MSG_TAG_LABEL);
+	private static final byte[] SNAPSHOTS = label(JSONFormatter.JSON_SNAPSHOTS_LABEL);
+	private static final byte[] FQN = label(JSONFormatter.JSON_FQN_LABEL);
+	private static final byte[] CATEGORY = label(JSONFormatter.JSON_CATEGORY_LABEL);
+	private static final byte[] NAME = label(JSONFormatter.JSON_NAME_LABEL);
+	private static final byte[] COUNT = label(JSONFormatter.JSON_COUNT_LABEL);
+	private static final byte[] PROPERTIES = label(JSONFormatter.JSON_PROPERTIES_LABEL);
+	private static final byte[] VALUE_TYPE = label(JSONFormatter.JSON_VALUE_TYPE_LABEL);
+	private static final byte[] VALUE = label(JSONFormatter.JSON_VALUE_LABEL);
+
+	private EncoderFormat format = EncoderFormat.JSON;
+	private String sourceName;
+	private SourceType sourceType = SourceType.APPL;
+	private boolean newline = Boolean.getBoolean("tnt4j.formatter.json.newline");
+	private String separator = DefaultFormatter.SEPARATOR;
+	private String callerData = CallerDataMode.FULL.name();
+	private int callerDataDepth = 8;
+	private String attributeSources = AttributeSource.MESSAGE + "," + AttributeSource.KV;
+	private String[] markerNames;
+	private TimingMode timing = TimingMode.MILLIS;
+
+	private byte[] objectStart;
+	private byte[] objectEnd;
+	private byte[] attrDelim;
+	private byte[] arrayStart;
+	private byte[] separatorBytes;
+	private String user;
+	private String defaultLocation;
+	private SourceFields rootSource;
+	private int[] sourceRanks;
+	private CallerFrameResolver callerFrameResolver;
+	private BoundedCache<String, SourceFields> sourceCache;
+	private BoundedCache<String, MessageTemplate> templateCache;
+
+	private final BoundedCache<String, FieldKey> fieldKeys = new BoundedCache<>(FIELD_KEY_CACHE_SIZE, FieldKey::resolve);
+	private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+	/**
+	 * Source fields written for every event of the source, encoded once per source.
+	 */
+	private static final class SourceFields {
+		final String name;
+		final byte[][] json;
+
+		SourceFields(Source source) {
+			String ssn = source.getSSN();
+			String[] values = { source.getName(), Utils.isEmpty(ssn) ? source.getSourceFactory().getSSN() : ssn,
+					source.getFQName(), source.getUrl() };
+			byte[][] labels = { SOURCE, SOURCE_SSN, SOURCE_FQN, SOURCE_URL };
+			byte[][] entries = new byte[values.length][];
+			int count = 0;
+			EncodeBuffer buffer = new EncodeBuffer();
+			for (int i = 0; i < values.length; i++) {
+				if (!Utils.isEmpty(values[i])) {
+					buffer.reset();
+					buffer.bytes(labels[i]).ascii('"').json(values[i]).ascii('"');
+					entries[count++] = buffer.toByteArray();
+				}
+			}
+			this.name = source.getName();
+			this.json = Arrays.copyOf(entries, count);
+		}
+	}
+
+	/**
+	 * Set of names iterated the same way as tags and correlators of TNT4J event, which are kept in {@code HashSet} of
+	 * initial capacity 89, having 128 buckets: by bucket, and in insertion order within bucket.
+	 */
+	private static final class NameSet {
+		String[] names = new String[4];
+		int size;
+
+		void add(String name) {
+			if (name == null) {
+				return;
+			}
+			for (int i = 0; i < size; i++) {
+				if (names[i].equals(name)) {
+					return;
+				}
+			}
+			if (size == names.length) {
+				names = Arrays.copyOf(names, size << 1);
+			}
+			names[size++] = name;
+		}
+
+		void order() {
+			for (int i = 1; i < size; i++) {
+				String name = names[i];
+				int bucket = bucket(name);
+				int j = i - 1;
+				for (; j >= 0 && bucket(names[j]) > bucket; j--) {
+					names[j + 1] = names[j];
+				}
+				names[j + 1] = name;
+			}
+		}
+
+		private static int bucket(String name) {
+			int h = name.hashCode();
+			return (h ^ (h >>> 16)) & HASH_BUCKET_MASK;
+		}
+
+		void clear() {
+			Arrays.fill(names, 0, size, null);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Per thread encoding state: attributes buffer, byte buffer and fields of the event being encoded, resolved the
+	 * same way as {@link TNT4JAppender} fills TNT4J event.
+	 */
+	private static final class Scratch {
+		final HashTagAttributes attrs = new HashTagAttributes();
+		final EncodeBuffer buffer = new EncodeBuffer();
+		final Property property = new Property(null, null);
+		final PrintWriter utf8Printer = new PrintWriter(buffer.writer(false));
+		final PrintWriter jsonPrinter = new PrintWriter(buffer.writer(true));
+		final NameSet tags = new NameSet();
+		final NameSet correlators = new NameSet();
+		long lastNanos = System.nanoTime();
+		long lastUsec;
+
+		OpLevel level;
+		OpType type;
+		OpCompCode ccode;
+		int rcode;
+		String opName;
+		String message;
+		String resource;
+		String location;
+		StackTraceElement locationFrame;
+		String user;
+		String snapshotName;
+		SourceFields source;
+		long messageAge;
+		long startUsec;
+		long endUsec;
+		long elapsedUsec;
+		Throwable exception;
+
+		void clear() {
+			attrs.clear();
+			buffer.reset();
+			property.set(null, null);
+			tags.clear();
+			correlators.clear();
+			opName = message = resource = location = user = snapshotName = null;
+			locationFrame = null;
+			source = null;
+			exception = null;
+			messageAge = 0;
+		}
+	}
+
+	@Override
+	public void start() {
+		if (isStarted()) {
+			return;
+		}
+		if (sourceName == null && getContext() != null) {
+			setSourceName(getContext().getName());
+		}
+		try {
+			TrackerConfig config = DefaultConfigFactory.getInstance().getConfig(sourceName, sourceType).build();
+			SourceFactory sources = config.getSourceFactory();
+			Source geoAddress = config.getSource().getSource(SourceType.GEOADDR);
+			user = config.getSource().getUser();
+			defaultLocation = geoAddress == null || Utils.isEmpty(geoAddress.getName()) ? null : geoAddress.getName();
+			rootSource = new SourceFields(config.getSource());
+			sourceCache = new BoundedCache<>(CACHE_SIZE, name -> new SourceFields(sources.newSource(name)));
+			templateCache = new BoundedCache<>(CACHE_SIZE, MessageTemplate::compile);
+			sourceRanks = TNT4JAppender.parseAttributeSources(attributeSources);
+			callerFrameResolver = new CallerFrameResolver(callerData, callerDataDepth,
+					getContext() instanceof LoggerContext ? ((LoggerContext) getContext()).getFrameworkPackages() : null);
+			objectStart = ascii(newline ? "{\n" : "{");
+			objectEnd = ascii(newline ? "\n}" : "}");
+			attrDelim = ascii(newline ? ",\n" : ",");
+			arrayStart = ascii(newline ? "[\n" : "[");
+			separatorBytes = separator.getBytes(StandardCharsets.UTF_8);
+			super.start();
+		} catch (RuntimeException e) {
+			addError("Unable to create encoder, source=" + sourceName + ", type=" + sourceType, e);
+		}
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		if (sourceCache != null) {
+			sourceCache.clear();
+		}
+		if (templateCache != null) {
+			templateCache.clear();
+		}
+	}
+
+	@Override
+	public byte[] headerBytes() {
+		return null;
+	}
+
+	@Override
+	public byte[] footerBytes() {
+		return null;
+	}
+
+	@Override
+	public byte[] encode(ILoggingEvent event) {
+		if (!isStarted()) {
+			return EMPTY;
+		}
+		Scratch s = scratch.get();
+		try {
+			resolveEvent(s, event);
+			if (format == EncoderFormat.JSON) {
+				writeJson(s, s.buffer);
+			} else {
+				writeSimple(s, s.buffer);
+			}
+			return s.buffer.bytes(LINE_SEPARATOR).toByteArray();
+		} finally {
+			s.clear();
+		}
+	}
+
+	/**
+	 * Resolve fields of the event being encoded the same way as {@link TNT4JAppender} fills TNT4J event.
+	 *
+	 * @param s
+	 *            encoding state of calling thread
+	 * @param event
+	 *            logging event
+	 */
+	private void resolveEvent(Scratch s, ILoggingEvent event) {
+		long elapsedUsec;
+		if (timing == TimingMode.EVENT) {
+			long time = TimingMode.toUsec(event.getInstant());
+			elapsedUsec = s.lastUsec == 0 || s.lastUsec > time ? 0 : time - s.lastUsec;
+			s.lastUsec = time;
+		} else {
+			long now = System.nanoTime();
+			elapsedUsec = TimeUnit.NANOSECONDS.toMicros(now - s.lastNanos);
+			s.lastNanos = now;
+		}
+
+		ThrowableProxy throwableProxy = (ThrowableProxy) event.getThrowableProxy();
+		String eventMsg = event.getFormattedMessage();
+		HashTagAttributes attrs = s.attrs;
+		attrs.rank(sourceRanks[AttributeSource.MESSAGE.ordinal()]);
+		EventAttributes.parseMessage(event, eventMsg, attrs, templateCache);
+		EventAttributes.addContextAttributes(event, attrs, sourceRanks, fieldKeys);
+
+		StackTraceElement frame = callerFrameResolver.resolve(event);
+		int rcode = 0;
+		long evTime = timing.timeUsec(event);
+		long startTime = 0, endTime = 0;
+
+		s.level = getOpLevel(event);
+		s.type = OpType.EVENT;
+		s.ccode = getOpCompCode(event);
+		s.opName = frame == null ? event.getLoggerName() : frame.getMethodName();
+		s.message = eventMsg;
+		s.user = user;
+		s.location = defaultLocation;
+		s.tags.add(event.getThreadName());
+		if (frame == null) {
+			s.resource = event.getLoggerName();
+		} else {
+			s.resource = frame.getClassName();
+			s.locationFrame = frame;
+		}
+		s.source = sourceCache.get(event.getLoggerName());
+
+		for (int i = 0; i < attrs.size(); i++) {
+			HashTag tag = attrs.tag(i);
+			String value = attrs.value(i);
+			if (tag == HashTag.CORRELATOR) {
+				s.correlators.add(value);
+			} else if (tag == HashTag.TAG) {
+				s.tags.add(value);
+			} else if (tag == HashTag.LOCATION) {
+				s.location = Utils.isEmpty(value) ? null : value;
+				s.locationFrame = null;
+			} else if (tag == HashTag.RESOURCE) {
+				s.resource = value;
+			} else if (tag == HashTag.USER) {
+				s.user = value;
+			} else if (tag == HashTag.ELAPSED_TIME) {
+				elapsedUsec = Long.parseLong(value);
+			} else if (tag == HashTag.AGE_TIME) {
+				s.messageAge = Long.parseLong(value);
+				if (s.messageAge < 0) {
+					throw new IllegalArgumentException("messageAge must be non-negative");
+				}
+			} else if (tag == HashTag.START_TIME) {
+				startTime = Long.parseLong(value);
+			} else if (tag == HashTag.END_TIME) {
+				endTime = Long.parseLong(value);
+			} else if (tag == HashTag.REASON_CODE) {
+				rcode = Integer.parseInt(value);
+			} else if (tag == HashTag.COMP_CODE) {
+				s.ccode = OpCompCode.valueOf(value);
+			} else if (tag == HashTag.SEVERITY) {
+				s.level = OpLevel.valueOf(value);
+			} else if (tag == HashTag.OP_TYPE) {
+				s.type = OpType.valueOf(value);
+			} else if (tag == HashTag.OP_NAME) {
+				s.opName = value;
+			} else if (tag == HashTag.EXCEPTION) {
+				// replaced by logging event exception once event is stopped
+			} else if (tag == HashTag.MSG_DATA) {
+				s.message = value;
+			} else if (tag == HashTag.APPL) {
+				s.source = sourceCache.get(value);
+			} else if (s.snapshotName == null && TNT4JAppender.isReportable(attrs, i)) {
+				// snapshot of unknown attributes is named after operation at the time it is created
+				s.snapshotName = s.opName;
+			}
+		}
+		addMarkerTags(s, event);
+		s.tags.order();
+		s.correlators.order();
+
+		startTime = startTime <= 0 ? (evTime - elapsedUsec) : evTime;
+		endTime = endTime <= 0 ? (startTime + elapsedUsec) : endTime;
+		if (startTime <= 0 || startTime > endTime) {
+			startTime = endTime;
+		}
+		s.startUsec = startTime;
+		s.endUsec = endTime;
+		s.elapsedUsec = endTime - startTime;
+		s.rcode = rcode;
+		s.exception = throwableProxy == null ? null : throwableProxy.getThrowable();
+	}
+
+	private void addMarkerTags(Scratch s, ILoggingEvent event) {
+		String[] names = markerNames;
+		List<Marker> markers = event.getMarkerList();
+		if (names != null && markers != null && !markers.isEmpty()) {
+			EventAttributes.addMarkerTags(markers, names, s.tags::add);
+		}
+	}
+
+	/**
+	 * Check whether i-th attribute is reported as snapshot property rather than event field.
+	 */
+	private static boolean isSnapshotProperty(HashTagAttributes attrs, int i) {
+		HashTag tag = attrs.tag(i);
+		return (tag == null || tag == HashTag.BEGIN || tag == HashTag.END) && TNT4JAppender.isReportable(attrs, i);
+	}
+
+	/**
+	 * Resolve snapshot property of i-th attribute. Snapshot keeps properties by name in insertion order, so the
+	 * property takes position of the first attribute of its name, and value of the last one.
+	 *
+	 * @param attrs
+	 *            hashtag attributes
+	 * @param i
+	 *            attribute index
+	 * @param property
+	 *            reusable property to set
+	 * @return given property, or {@code null} if i-th attribute is not a snapshot property or its property was already
+	 *         reported by an earlier attribute
+	 */
+	private Property snapshotProperty(HashTagAttributes attrs, int i, Property property) {
+		if (!isSnapshotProperty(attrs, i)) {
+			return null;
+		}
+		String name = fieldKey(attrs, i).propertyName();
+		int last = i;
+		for (int j = 0; j < attrs.size(); j++) {
+			if (j != i && isSnapshotProperty(attrs, j) && name.equals(fieldKey(attrs, j).propertyName())) {
+				if (j < i) {
+					return null;
+				}
+				last = j;
+			}
+		}
+		Object value = attrs.object(last);
+		return fieldKey(attrs, last).toProperty(value == null ? attrs.value(last) : value, property);
+	}
+
+	private int snapshotSize(Scratch s) {
+		int count = 0;
+		for (int i = 0; i < s.attrs.size(); i++) {
+			if (snapshotProperty(s.attrs, i, s.property) != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private FieldKey fieldKey(HashTagAttributes attrs, int i) {
+		FieldKey field = attrs.field(i);
+		return field == null ? fieldKeys.get(attrs.key(i)) : field;
+	}
+
+	/**
+	 * Write event as {@code JSONFormatter} formats TNT4J event.
+	 */
+	private void writeJson(Scratch s, EncodeBuffer b) {
+		long now = Useconds.CURRENT.get();
+		int start = b.size();
+		writeJsonSource(b, start, s.source);
+		entry(b, start, SEVERITY).ascii('"').utf8(s.level.toString()).ascii('"');
+		entry(b, start, SEVERITY_NO).number(s.level.ordinal());
+		entry(b, start, TYPE).ascii('"').utf8(s.type.toString()).ascii('"');
+		entry(b, start, TYPE_NO).number(s.type.ordinal());
+		entry(b, start, PID).number(Utils.getVMPID());
+		entry(b, start, TID).number(Thread.currentThread().getId());
+		entry(b, start, COMP_CODE).ascii('"').utf8(s.ccode.toString()).ascii('"');
+		entry(b, start, COMP_CODE_NO).number(s.ccode.ordinal());
+		entry(b, start, REASON_CODE).number(s.rcode);
+		entry(b, start, TTL_SEC).number(TTL.TTL_DEFAULT);
+		if (s.locationFrame != null) {
+			entry(b, start, LOCATION).ascii('"').json(String.valueOf(s.locationFrame.getFileName())).ascii(':')
+					.number(s.locationFrame.getLineNumber()).ascii('"');
+		} else {
+			jsonString(b, start, LOCATION, s.location, true);
+		}
+		jsonString(b, start, OPERATION, resolvedName(s.opName), true);
+		jsonString(b, start, RESOURCE, s.resource, true);
+		jsonString(b, start, USER, s.user, true);
+		entry(b, start, TIME_USEC).number(now);
+		entry(b, start, START_TIME_USEC).number(s.startUsec);
+		entry(b, start, END_TIME_USEC).number(s.endUsec);
+		entry(b, start, ELAPSED_TIME_USEC).number(s.elapsedUsec);
+		if (s.messageAge > 0) {
+			entry(b, start, MSG_AGE_USEC).number(s.messageAge);
+		}
+		entry(b, start, SNAPSHOT_COUNT).number(s.snapshotName == null ? 0 : 1);
+		entry(b, start, PROPERTY_COUNT).number(0);
+		entry(b, start, MSG_SIZE).number(s.message == null ? 0 : s.message.length());
+		jsonString(b, start, MSG_MIME, Message.MIME_TYPE_TEXT_PLAIN, false);
+		jsonString(b, start, MSG_ENC, Message.ENCODING_NONE, false);
+		jsonString(b, start, MSG_CHARSET, Message.CHARSET_DEFAULT, false);
+		jsonString(b, start, MSG_TEXT, s.message, true);
+		if (s.exception != null) {
+			entry(b, start, EXCEPTION).ascii('"');
+			s.exception.printStackTrace(s.jsonPrinter);
+			s.jsonPrinter.flush();
+			b.ascii('"');
+		}
+		writeJsonArray(b, start, CORR_ID, s.correlators);
+		writeJsonArray(b, start, MSG_TAG, s.tags);
+		if (s.snapshotName != null) {
+			entry(b, start, SNAPSHOTS).bytes(arrayStart);
+			writeJsonSnapshot(s, b, now);
+			b.ascii(']');
+		}
+		b.bytes(objectEnd);
+	}
+
+	/**
+	 * Write snapshot of unknown attributes as {@code JSONFormatter} formats TNT4J snapshot.
+	 */
+	private void writeJsonSnapshot(Scratch s, EncodeBuffer b, long now) {
+		int start = b.size();
+		entry(b, start, FQN).ascii('"').json(String.valueOf(s.snapshotName)).bytes(SNAPSHOT_ID_SUFFIX).ascii('"');
+		entry(b, start, CATEGORY).bytes(SNAPSHOT_CATEGORY);
+		jsonString(b, start, NAME, s.snapshotName, true);
+		entry(b, start, COUNT).number(snapshotSize(s));
+		entry(b, start, TIME_USEC).number(now);
+		entry(b, start, TTL_SEC).number(TTL.TTL_DEFAULT);
+		writeJsonSource(b, start, rootSource);
+		entry(b, start, SEVERITY).ascii('"').utf8(OpLevel.INFO.toString()).ascii('"');
+		entry(b, start, SEVERITY_NO).number(OpLevel.INFO.ordinal());
+		entry(b, start, TYPE).ascii('"').utf8(OpType.SNAPSHOT.toString()).ascii('"');
+		entry(b, start, TYPE_NO).number(OpType.SNAPSHOT.ordinal());
+		entry(b, start, PROPERTIES).bytes(arrayStart);
+		boolean first = true;
+		for (int i = 0; i < s.attrs.size(); i++) {
+			Property property = snapshotProperty(s.attrs, i, s.property);
+			if (property == null || isSpecial(property.getValue())) {
+				// special numbers are suppressed by formatter default
+				continue;
+			}
+			if (!first) {
+				b.bytes(attrDelim);
+			}
+			first = false;
+			writeJsonProperty(b, property);
+		}
+		b.ascii(']');
+		b.bytes(objectEnd);
+	}
+
+	private void writeJsonProperty(EncodeBuffer b, Property property) {
+		int start = b.size();
+		jsonString(b, start, NAME, property.getKey(), true);
+		jsonString(b, start, TYPE, property.getDataType(), false);
+		String valueType = property.getValueType();
+		if (valueType != null && !valueType.equalsIgnoreCase(ValueTypes.VALUE_TYPE_NONE)) {
+			jsonString(b, start, VALUE_TYPE, valueType, false);
+		}
+		entry(b, start, VALUE);
+		Object value = property.getValue();
+		if (value == null || value instanceof Boolean || value instanceof Number) {
+			writeValue(b, value);
+		} else if (value instanceof Date) {
+			b.number(((Date) value).getTime());
+		} else if (value instanceof UsecTimestamp) {
+			b.number(((UsecTimestamp) value).getTimeUsec());
+		} else {
+			b.ascii('"').json(Utils.toString(value)).ascii('"');
+		}
+		b.bytes(objectEnd);
+	}
+
+	private void writeJsonArray(EncodeBuffer b, int start, byte[] label, NameSet items) {
+		if (items.size == 0) {
+			return;
+		}
+		entry(b, start, label).bytes(arrayStart);
+		for (int i = 0; i < items.size; i++) {
+			if (i > 0) {
+				b.bytes(attrDelim);
+			}
+			b.ascii('"').json(items.names[i]).ascii('"');
+		}
+		b.ascii(']');
+	}
+
+	private void writeJsonSource(EncodeBuffer b, int start, SourceFields source) {
+		for (byte[] field : source.json) {
+			b.bytes(b.size() == start ? objectStart : attrDelim).bytes(field);
+		}
+	}
+
+	private EncodeBuffer entry(EncodeBuffer b, int start, byte[] label) {
+		return b.bytes(b.size() == start ? objectStart : attrDelim).bytes(label);
+	}
+
+	private void jsonString(EncodeBuffer b, int start, byte[] label, String value, boolean escape) {
+		if (Utils.isEmpty(value)) {
+			return;
+		}
+		entry(b, start, label).ascii('"');
+		if (escape) {
+			b.json(value);
+		} else {
+			b.utf8(value);
+		}
+		b.ascii('"');
+	}
+
+	private static boolean isSpecial(Object value) {
+		return value instanceof Number && Utils.isSpecialNumberValue((Number) value);
+	}
+
+	/**
+	 * Write event as {@code SimpleFormatter} formats TNT4J event.
+	 */
+	private void writeSimple(Scratch s, EncodeBuffer b) {
+		b.utf8(s.message).ascii(' ');
+		b.utf8("{name: '").utf8(resolvedName(s.opName)).ascii('\'');
+		if (s.snapshotName != null) {
+			b.bytes(separatorBytes).utf8("snap-count: '1'");
+		}
+		if (s.resource != null) {
+			b.bytes(separatorBytes).utf8("resource: '").utf8(s.resource).ascii('\'');
+		}
+		if (s.rcode != 0) {
+			b.bytes(separatorBytes).utf8("rcode: '").number(s.rcode).ascii('\'');
+		}
+		if (s.elapsedUsec != 0) {
+			b.bytes(separatorBytes).utf8("usec: '").number(s.elapsedUsec).ascii('\'');
+		}
+		if (s.messageAge != 0) {
+			b.bytes(separatorBytes).utf8("age.usec: '").number(s.messageAge).ascii('\'');
+		}
+		writeSimpleSet(b, "tag: '[", s.tags);
+		writeSimpleSet(b, "corr-id: '[", s.correlators);
+		if (s.locationFrame != null) {
+			b.bytes(separatorBytes).utf8("location: '").utf8(s.locationFrame.getFileName()).ascii(':')
+					.number(s.locationFrame.getLineNumber()).ascii('\'');
+		} else if (s.location != null) {
+			b.bytes(separatorBytes).utf8("location: '").utf8(s.location).ascii('\'');
+		}
+		b.bytes(separatorBytes).utf8("source: '").utf8(s.source.name).ascii('\'');
+		if (s.snapshotName != null) {
+			b.utf8("\n\tSnapshot(fqn: '").utf8(s.snapshotName).bytes(SNAPSHOT_ID_SUFFIX).utf8("') {");
+			for (int i = 0; i < s.attrs.size(); i++) {
+				Property property = snapshotProperty(s.attrs, i, s.property);
+				if (property != null) {
+					b.utf8("\n\t\t").utf8(property.getKey()).utf8(": '");
+					writeValue(b, property.getValue());
+					b.ascii(':').utf8(property.getDataType()).ascii(':').utf8(property.getValueType()).ascii('\'');
+				}
+			}
+			b.utf8("\n\t}");
+		}
+		if (s.exception != null) {
+			b.utf8("\nThrowable {\n");
+			s.exception.printStackTrace(s.utf8Printer);
+			s.utf8Printer.flush();
+			b.ascii('}');
+		}
+		b.ascii('}');
+	}
+
+	private void writeSimpleSet(EncodeBuffer b, String label, NameSet items) {
+		if (items.size == 0) {
+			return;
+		}
+		b.bytes(separatorBytes).utf8(label);
+		for (int i = 0; i < items.size; i++) {
+			if (i > 0) {
+				b.ascii(',').ascii(' ');
+			}
+			b.utf8(items.names[i]);
+		}
+		b.ascii(']').ascii('\'');
+	}
+
+	/**
+	 * Write value as {@link String#valueOf(Object)}.
+	 */
+	private static void writeValue(EncodeBuffer b, Object value) {
+		if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			b.number(((Number) value).longValue());
+		} else {
+			b.utf8(value instanceof String ? (String) value : String.valueOf(value));
+		}
+	}
+
+	private static String resolvedName(String opName) {
+		return opName != null && opName.startsWith("$") ? Utils.getMethodNameFromStack(opName) : opName;
+	}
+
+	private static byte[] ascii(String str) {
+		return str.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static byte[] label(String jsonLabel) {
+		return ascii(jsonLabel + ": ");
+	}
+
+	/**
+	 * Map <b>ILoggingEvent</b> logging event level to TNT4J {@link OpLevel}.
+	 *
+	 * @param event
+	 *            logback logging event object
+	 * @return TNT4J {@link OpLevel}.
+	 */
+	protected OpLevel getOpLevel(ILoggingEvent event) {
+		return LevelGate.toOpLevel(event.getLevel());
+	}
+
+	/**
+	 * Map <b>ILoggingEvent</b> logging event level to TNT4J {@link OpCompCode}, the same way as
+	 * {@link TNT4JAppender#getOpCompCode(ILoggingEvent)} does.
+	 *
+	 * @param event
+	 *            logback logging event object
+	 * @return TNT4J {@link OpCompCode}.
+	 */
+	protected OpCompCode getOpCompCode(ILoggingEvent event) {
+		Level lvl = event.getLevel();
+		if (lvl == Level.ERROR) {
+			return OpCompCode.ERROR;
+		} else if (lvl == Level.WARN) {
+			return OpCompCode.WARNING;
+		} else {
+			return OpCompCode.SUCCESS;
+		}
+	}
+
+	/**
+	 * Obtain output format of this encoder.
+	 *
+	 * @return output format name, see {@link EncoderFormat}
+	 */
+	public String getFormat() {
+		return format.name();
+	}
+
+	/**
+	 * Set output format of this encoder, see {@link EncoderFormat}.
+	 *
+	 * @param format
+	 *            output format name
+	 */
+	public void setFormat(String format) {
+		this.format = EncoderFormat.valueOf(format.toUpperCase());
+	}
+
+	/**
+	 * Obtain source name associated with this encoder. This name is used TNT4J source for loading TNT4J configuration.
+	 *
+	 * @return source name string that maps to TNT4J configuration
+	 */
+	public String getSourceName() {
+		return sourceName;
+	}
+
+	/**
+	 * Set source name associated with this encoder. This name is used TNT4J source for loading TNT4J configuration.
+	 *
+	 * @param name
+	 *            source name
+	 */
+	public void setSourceName(String name) {
+		sourceName = name;
+	}
+
+	/**
+	 * Obtain source type associated with this encoder see {@code SourceType}
+	 *
+	 * @return source type string representation
+	 * @see SourceType
+	 */
+	public String getSourceType() {
+		return sourceType.toString();
+	}
+
+	/**
+	 * Assign default source type string see {@code SourceType}
+	 *
+	 * @param type
+	 *            source type string representation, see {@code SourceType}
+	 * @see SourceType
+	 */
+	public void setSourceType(String type) {
+		sourceType = SourceType.valueOf(type);
+	}
+
+	/**
+	 * Return whether JSON format writes every attribute on a new line.
+	 *
+	 * @return {@code true} if attributes are written on new lines, {@code false} otherwise
+	 */
+	public boolean getNewline() {
+		return newline;
+	}
+
+	/**
+	 * Set whether JSON format writes every attribute on a new line, as {@code tnt4j.formatter.json.newline} system
+	 * property does for {@code JSONFormatter}.
+	 *
+	 * @param newline
+	 *            {@code true} to write attributes on new lines, {@code false} otherwise
+	 */
+	public void setNewline(boolean newline) {
+		this.newline = newline;
+	}
+
+	/**
+	 * Obtain attributes separator of SIMPLE format.
+	 *
+	 * @return attributes separator
+	 */
+	public String getSeparator() {
+		return separator;
+	}
+
+	/**
+	 * Set attributes separator of SIMPLE format, as {@code Separator} property does for {@code SimpleFormatter}.
+	 *
+	 * @param separator
+	 *            attributes separator
+	 */
+	public void setSeparator(String separator) {
+		this.separator = separator;
+	}
+
+	/**
+	 * Obtain caller data collection specification, see {@link CallerDataMode}
+	 *
+	 * @return comma separated list of {@code [level=]mode} entries
+	 */
+	public String getCallerData() {
+		return callerData;
+	}
+
+	/**
+	 * Set caller data collection specification as comma separated list of {@code [level=]mode} entries, see
+	 * {@link CallerDataMode}.
+	 *
+	 * @param spec
+	 *            caller data collection specification
+	 */
+	public void setCallerData(String spec) {
+		callerData = spec;
+	}
+
+	/**
+	 * Obtain maximum number of caller frames walked by {@link CallerDataMode#LAZY} mode.
+	 *
+	 * @return maximum caller frames depth
+	 */
+	public int getCallerDataDepth() {
+		return callerDataDepth;
+	}
+
+	/**
+	 * Set maximum number of caller frames walked by {@link CallerDataMode#LAZY} mode.
+	 *
+	 * @param depth
+	 *            maximum caller frames depth must be greater than 0
+	 */
+	public void setCallerDataDepth(int depth) {
+		callerDataDepth = depth;
+	}
+
+	/**
+	 * Obtain event attribute sources in precedence order, see {@link AttributeSource}.
+	 *
+	 * @return comma separated list of attribute sources
+	 */
+	public String getAttributeSources() {
+		return attributeSources;
+	}
+
+	/**
+	 * Set event attribute sources in precedence order, see {@link AttributeSource}, e.g. {@code MESSAGE,KV,MDC}.
+	 * Takes effect on encoder (re)start.
+	 *
+	 * @param sources
+	 *            comma separated list of attribute sources
+	 */
+	public void setAttributeSources(String sources) {
+		attributeSources = sources;
+	}
+
+	/**
+	 * Obtain names of logging event markers reported as TNT4J event tags.
+	 *
+	 * @return comma separated list of marker names, {@code null} if markers are not reported
+	 */
+	public String getMarkers() {
+		return markerNames == null ? null : String.join(",", markerNames);
+	}
+
+	/**
+	 * Set names of logging event markers reported as TNT4J event tags. Use {@code *} to report names of all event
+	 * markers.
+	 *
+	 * @param markers
+	 *            comma separated list of marker names
+	 */
+	public void setMarkers(String markers) {
+		String[] names = Utils.isEmpty(markers) ? null : markers.trim().split("\\s*,\\s*");
+		markerNames = names == null || names.length == 0 ? null : names;
+	}
+
+	/**
+	 * Obtain how event times and elapsed time are obtained, see {@link TimingMode}
+	 *
+	 * @return timing mode string representation
+	 */
+	public String getTiming() {
+		return timing.name();
+	}
+
+	/**
+	 * Set how event times and elapsed time are obtained, see {@link TimingMode}
+	 *
+	 * @param mode
+	 *            timing mode string representation
+	 */
+	public void setTiming(String mode) {
+		timing = TimingMode.valueOf(mode.toUpperCase());
+	}
+}
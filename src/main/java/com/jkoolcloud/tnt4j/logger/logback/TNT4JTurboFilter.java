@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.Map;
+
+import org.slf4j.Marker;
+import org.slf4j.spi.MDCAdapter;
+
+import com.jkoolcloud.tnt4j.TrackingLogger;
+import com.jkoolcloud.tnt4j.source.SourceType;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.classic.util.LogbackMDCAdapter;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * Logback turbo filter denying logging statements which TNT4J sink of configured source would discard anyway, before
+ * logback creates logging event. Applies the same level decision as {@link TNT4JAppender} does: statement is denied
+ * when TNT4J sink rejects its level, it carries no exception, its message pattern and arguments carry no hashtags,
+ * {@code MDC} carries no severity ({@code sev}) attribute and calling thread has no current TNT4J activity.
+ * <p>
+ * SLF4J key-value pairs are attached to logging event only after turbo filters decide, so they can't be seen by this
+ * filter: statements overriding severity by key-value pair only are denied by their logging level.
+ * <p>
+ * Turbo filters apply to all appenders of logger context, so this filter is meant for configurations where
+ * {@link TNT4JAppender} is the only appender receiving statements of filtered levels.
+ * <p>
+ * This filter supports the following properties:
+ * <table>
+ * <caption>Turbo filter supported configuration properties</caption>
+ * <tr>
+ * <td valign=top><b>sourceName</b></td>
+ * <td valign=top>TNT4J source name used by {@link TNT4JAppender}, required</td>
+ * </tr>
+ * <tr>
+ * <td valign=top><b>sourceType</b></td>
+ * <td valign=top>TNT4J source type, default APPL</td>
+ * </tr>
+ * </table>
+ *
+ * @version $Revision: 1 $
+ */
+public class TNT4JTurboFilter extends TurboFilter {
+	private String sourceName;
+	private SourceType sourceType = SourceType.APPL;
+	private volatile TrackingLogger tracker;
+	private volatile LevelGate levelGate;
+
+	@Override
+	public void start() {
+		if (sourceName == null) {
+			addError("No sourceName set for turbo filter named \"" + getName() + "\"");
+			return;
+		}
+		// tracker of the same source is shared with TNT4JAppender, which opens and closes it
+		tracker = TrackingLogger.getInstance(sourceName, sourceType);
+		levelGate = new LevelGate(tracker);
+		super.start();
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		levelGate = null;
+		TrackingLogger gateTracker = tracker;
+		tracker = null;
+		if (gateTracker != null && !gateTracker.isOpen() && TrackingLogger.getAllTrackers().contains(gateTracker)) {
+			// tracker is not used by any appender: release it, so it is not left registered after restart
+			gateTracker.close();
+		}
+	}
+
+	@Override
+	public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params,
+			Throwable t) {
+		LevelGate gate = levelGate;
+		if (gate == null || level == null || t != null || gate.isLoggable(LevelGate.toOpLevel(level))) {
+			return FilterReply.NEUTRAL;
+		}
+		if (params != null && params.length > 0 && params[params.length - 1] instanceof Throwable) {
+			return FilterReply.NEUTRAL;
+		}
+		if (LevelGate.mayCarryHashTags(format, params) || hasSeverity(logger.getLoggerContext().getMDCAdapter())) {
+			return FilterReply.NEUTRAL;
+		}
+		TrackingLogger gateTracker = tracker;
+		return gateTracker == null || gateTracker.getCurrentActivity().isNoop() ? FilterReply.DENY
+				: FilterReply.NEUTRAL;
+	}
+
+	/**
+	 * Check whether {@code MDC} of calling thread carries severity attribute, which may raise event severity.
+	 *
+	 * @param adapter
+	 *            MDC adapter of logger context
+	 * @return {@code true} if MDC carries severity attribute, {@code false} otherwise
+	 */
+	private static boolean hasSeverity(MDCAdapter adapter) {
+		Map<String, String> mdc = adapter instanceof LogbackMDCAdapter ? ((LogbackMDCAdapter) adapter).getPropertyMap()
+				: adapter == null ? null : adapter.getCopyOfContextMap();
+		if (mdc == null || mdc.isEmpty()) {
+			return false;
+		}
+		for (String key : mdc.keySet()) {
+			if (key != null && HashTag.find(key, 0, key.length()) == HashTag.SEVERITY) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Obtain TNT4J source name used to obtain TNT4J sink configuration.
+	 *
+	 * @return source name
+	 */
+	public String getSourceName() {
+		return sourceName;
+	}
+
+	/**
+	 * Set TNT4J source name used to obtain TNT4J sink configuration, the same as {@link TNT4JAppender} uses.
+	 *
+	 * @param name
+	 *            source name
+	 */
+	public void setSourceName(String name) {
+		sourceName = name;
+	}
+
+	/**
+	 * Obtain TNT4J source type, see {@code SourceType}
+	 *
+	 * @return source type string representation
+	 */
+	public String getSourceType() {
+		return sourceType.toString();
+	}
+
+	/**
+	 * Set TNT4J source type, see {@code SourceType}
+	 *
+	 * @param type
+	 *            source type string representation
+	 */
+	public void setSourceType(String type) {
+		sourceType = SourceType.valueOf(type);
+	}
+
+	/**
+	 * Drop cached level decisions, so they are computed again using current TNT4J configuration.
+	 */
+	public void refresh() {
+		LevelGate gate = levelGate;
+		if (gate != null) {
+			gate.refresh();
+		}
+	}
+}
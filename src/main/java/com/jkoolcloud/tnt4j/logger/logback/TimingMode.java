@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Defines how {@link TNT4JAppender} and {@link TNT4JEncoder} obtain start and end times of TNT4J events, and how
+ * elapsed time since the previous event of the logging thread is measured.
+ *
+ * @version $Revision: 1 $
+ */
+public enum TimingMode {
+	/**
+	 * Event times are taken from logging event timestamp at millisecond precision. Elapsed time is measured by
+	 * nanosecond clock of the logging thread.
+	 */
+	MILLIS,
+
+	/**
+	 * Event times are taken from logging event instant at microsecond precision. Elapsed time is measured by nanosecond
+	 * clock of the logging thread.
+	 */
+	PRECISE,
+
+	/**
+	 * Event times are taken from logging event instant at microsecond precision. Elapsed time is measured between
+	 * instants of consecutive events of the logging thread, so no clock is read per event besides the one Logback reads
+	 * to stamp the event. Precision of elapsed time is bound by precision of Logback clock.
+	 */
+	EVENT;
+
+	/**
+	 * Obtain time of a given logging event according to this mode.
+	 *
+	 * @param event
+	 *            logging event
+	 * @return event time in microseconds since epoch
+	 */
+	long timeUsec(ILoggingEvent event) {
+		return this == MILLIS ? event.getTimeStamp() * 1000 : toUsec(event.getInstant());
+	}
+
+	/**
+	 * Convert instant to microseconds since epoch.
+	 *
+	 * @param instant
+	 *            instant to convert
+	 * @return microseconds since epoch
+	 */
+	static long toUsec(Instant instant) {
+		return TimeUnit.SECONDS.toMicros(instant.getEpochSecond()) + TimeUnit.NANOSECONDS.toMicros(instant.getNano());
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.function.Predicate;
+
+/**
+ * Detects virtual threads (Java 21+) on any Java version the appender runs on: on Java versions without virtual
+ * threads, no thread is virtual.
+ *
+ * @version $Revision: 1 $
+ */
+final class VirtualThreads {
+	private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+	private static volatile Predicate<Thread> detector = VirtualThreads::isVirtualThread;
+
+	private VirtualThreads() {
+	}
+
+	private static MethodHandle findIsVirtual() {
+		try {
+			return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual",
+					MethodType.methodType(boolean.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Check whether a given thread is virtual.
+	 *
+	 * @param thread
+	 *            thread to check
+	 * @return {@code true} if thread is virtual, {@code false} otherwise
+	 */
+	static boolean isVirtual(Thread thread) {
+		return detector.test(thread);
+	}
+
+	private static boolean isVirtualThread(Thread thread) {
+		if (IS_VIRTUAL == null) {
+			return false;
+		}
+		try {
+			return (boolean) IS_VIRTUAL.invokeExact(thread);
+		} catch (Throwable e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Check whether calling thread is virtual.
+	 *
+	 * @return {@code true} if calling thread is virtual, {@code false} otherwise
+	 */
+	static boolean isCurrentVirtual() {
+		return isVirtual(Thread.currentThread());
+	}
+
+	/**
+	 * Replace virtual thread detection, so virtual thread paths can be tested on Java versions without virtual
+	 * threads.
+	 *
+	 * @param test
+	 *            predicate detecting virtual threads
+	 * @return previous predicate detecting virtual threads
+	 */
+	static Predicate<Thread> setDetector(Predicate<Thread> test) {
+		Predicate<Thread> previous = detector;
+		detector = test;
+		return previous;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Defines how {@link TNT4JAppender} asynchronous dispatch threads wait for new events, and how blocked logging threads
+ * wait for free queue space. Waiting thread waits actively for a while according to the strategy, then blocks until it
+ * is signaled, so idle dispatch threads use no CPU.
+ *
+ * @version $Revision: 1 $
+ */
+public enum WaitStrategy {
+	/**
+	 * Busy spin, then block. Lowest latency, occupies a CPU core per waiting thread while spinning.
+	 */
+	BUSY_SPIN(10000),
+
+	/**
+	 * Spin for a while, then yield CPU to other threads, then block.
+	 */
+	YIELDING(1000),
+
+	/**
+	 * Spin, then yield, then park for a short period, then block. Best choice when CPU is shared with application
+	 * threads.
+	 */
+	SLEEPING(210);
+
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 200;
+	private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+	private final int activeTries;
+
+	WaitStrategy(int activeTries) {
+		this.activeTries = activeTries;
+	}
+
+	/**
+	 * Wait once, according to this strategy.
+	 *
+	 * @param counter
+	 *            number of times caller has already waited for the same condition
+	 * @return counter value to pass on the next wait call
+	 */
+	public int idle(int counter) {
+		if (this == BUSY_SPIN || counter < SPIN_TRIES) {
+			Thread.onSpinWait();
+		} else if (this == YIELDING || counter < YIELD_TRIES) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+		return counter + 1;
+	}
+
+	/**
+	 * Check whether caller has waited actively long enough, so it should block until signaled.
+	 *
+	 * @param counter
+	 *            number of times caller has already waited for the same condition
+	 * @return {@code true} if caller should block, {@code false} to wait actively once more
+	 */
+	boolean isExhausted(int counter) {
+		return counter >= activeTries;
+	}
+}
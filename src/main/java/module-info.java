@@ -19,7 +19,9 @@
  */
 module com.jkoolcloud.tnt4j.logger.logback {
     requires java.base;
+    requires java.management;
     requires com.jkoolcloud.tnt4j.core;
+    requires org.apache.commons.text;
     requires ch.qos.logback.classic;
     requires ch.qos.logback.core;
     requires org.slf4j;
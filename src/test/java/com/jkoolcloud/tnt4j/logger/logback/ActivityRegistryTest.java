@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.jkoolcloud.tnt4j.TrackingLogger;
+import com.jkoolcloud.tnt4j.core.OpLevel;
+import com.jkoolcloud.tnt4j.tracker.TrackingActivity;
+
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+/**
+ * Tests of {@link ActivityRegistry} expiry: activities of live threads are left to their owner threads once expired,
+ * scoped activities and activities of dead threads are closed by sweeper, and the oldest activities are expired when
+ * events within open activities exceed the cap. Activities are created by a {@link RecordingSinkFactory} logger and
+ * are not started, so they stay off the activity stack of the test thread.
+ *
+ * @version $Revision: 1 $
+ */
+class ActivityRegistryTest {
+	private static final long WAIT_SEC = 10;
+
+	private final List<TrackingActivity> closed = new CopyOnWriteArrayList<>();
+	private final CountDownLatch closing = new CountDownLatch(1);
+	private TrackingLogger logger;
+	private ActivityRegistry registry;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		System.setProperty("tnt4j.config", RecordingSinkFactory.config());
+		logger = TrackingLogger.getInstance("com.jkoolcloud.activities");
+		logger.open();
+	}
+
+	@AfterEach
+	void tearDown() {
+		if (registry != null) {
+			registry.stop();
+		}
+		logger.close();
+	}
+
+	@Test
+	void idleActivityOfLiveThreadIsLeftToOwner() throws InterruptedException {
+		registry = newRegistry(0, 50, 0);
+		TrackingActivity activity = newActivity("idle");
+		registry.register(activity);
+		assertTrue(registry.report(activity, logger.newEvent("op", "msg")));
+		assertEquals(1, registry.getOpenCount());
+
+		awaitTrue(() -> registry.isExpired(activity), "idle activity not expired");
+		assertEquals(0, registry.getOpenCount());
+		assertFalse(registry.report(activity, logger.newEvent("op", "late")), "event reported into expired activity");
+		assertEquals(1, registry.getOpenEvents(), "events of activity held by owner thread not counted");
+		assertTrue(closed.isEmpty(), "activity of live thread closed by sweeper");
+
+		registry.unregister(activity);
+		assertFalse(registry.isExpired(activity));
+		assertEquals(0, registry.getOpenEvents());
+	}
+
+	@Test
+	void expiredScopedActivityIsClosedBySweeper() throws InterruptedException {
+		registry = newRegistry(50, 0, 0);
+		TrackingActivity parent = newActivity("parent");
+		registry.register(parent, "cid");
+		TrackingActivity child = newActivity("child");
+		registry.register(child, "cid");
+		assertSame(child, registry.scoped("cid"));
+		registry.report(child, logger.newEvent("op", "msg"));
+
+		assertTrue(closing.await(WAIT_SEC, TimeUnit.SECONDS), "scoped activity not closed");
+		awaitTrue(() -> closed.size() == 2, "nested scoped activity not closed");
+		assertNull(registry.scoped("cid"));
+		assertEquals(0, registry.getOpenCount());
+		assertEquals(0, registry.getOpenEvents());
+	}
+
+	@Test
+	void activityOfDeadThreadIsClosedBySweeper() throws InterruptedException {
+		registry = newRegistry(200, 0, 0);
+		TrackingActivity activity = newActivity("orphan");
+		Thread owner = new Thread(() -> registry.register(activity));
+		owner.start();
+		owner.join();
+
+		assertTrue(closing.await(WAIT_SEC, TimeUnit.SECONDS), "activity of dead thread not closed");
+		assertEquals(List.of(activity), closed);
+		assertEquals(0, registry.getOpenCount());
+	}
+
+	@Test
+	void oldestActivitiesAreExpiredWhenEventsExceedCap() throws InterruptedException {
+		registry = newRegistry(0, 0, 3);
+		TrackingActivity oldest = newActivity("oldest");
+		registry.register(oldest);
+		Thread.sleep(5); // distinct start times
+		TrackingActivity newest = newActivity("newest");
+		registry.register(newest);
+		for (int i = 0; i < 2; i++) {
+			assertTrue(registry.report(oldest, logger.newEvent("op", "oldest " + i)));
+			assertTrue(registry.report(newest, logger.newEvent("op", "newest " + i)));
+		}
+
+		awaitTrue(() -> registry.isExpired(oldest), "oldest activity not expired");
+		assertFalse(registry.isExpired(newest), "more activities expired than needed");
+		assertEquals(4, registry.getOpenEvents());
+		assertTrue(registry.report(newest, logger.newEvent("op", "below cap")), "expired events still capped");
+
+		registry.unregister(oldest);
+		assertEquals(3, registry.getOpenEvents());
+	}
+
+	@Test
+	void reportAfterStopIgnoresRejectedSweep() {
+		registry = newRegistry(0, 0, 1);
+		registry.stop();
+		TrackingActivity activity = newActivity("stopped");
+		registry.register(activity);
+
+		assertTrue(registry.report(activity, logger.newEvent("op", "first")));
+		assertTrue(registry.report(activity, logger.newEvent("op", "over cap")));
+	}
+
+	private ActivityRegistry newRegistry(long maxAgeMs, long idleMs, long maxEvents) {
+		return new ActivityRegistry("test", maxAgeMs, idleMs, maxEvents, activity -> {
+			closed.add(activity);
+			closing.countDown();
+		}, new ContextAwareBase());
+	}
+
+	private TrackingActivity newActivity(String name) {
+		return logger.newActivity(OpLevel.INFO, name);
+	}
+
+	private static void awaitTrue(BooleanSupplier condition, String message) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(WAIT_SEC);
+		while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertTrue(condition.getAsBoolean(), message);
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.event.KeyValuePair;
+
+import com.sun.management.ThreadMXBean;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+/**
+ * Allocation budget regression tests of {@link TNT4JAppender}: representative logging event shapes are appended
+ * synchronously to TNT4J {@code NullEventSink}, and bytes allocated by appending thread per event must stay within
+ * budget declared for every shape. Events are created before measurement, so only appender and TNT4J allocations are
+ * counted.
+ *
+ * @version $Revision: 1 $
+ */
+class AllocationBudgetTest {
+	private static final String TNT4J_CONFIG = "inline:{\n" //
+			+ "source: *\n" //
+			+ "source.factory: com.jkoolcloud.tnt4j.source.SourceFactoryImpl\n" //
+			+ "source.factory.RootFQN: RUNTIME=?#SERVER=?\n" //
+			+ "tracker.factory: com.jkoolcloud.tnt4j.tracker.DefaultTrackerFactory\n" //
+			+ "dump.sink.factory: com.jkoolcloud.tnt4j.dump.DefaultDumpSinkFactory\n" //
+			+ "event.sink.factory: com.jkoolcloud.tnt4j.sink.impl.NullEventSinkFactory\n" //
+			+ "event.formatter: com.jkoolcloud.tnt4j.format.SimpleFormatter\n" //
+			+ "tracking.selector: com.jkoolcloud.tnt4j.selector.DefaultTrackingSelector\n" //
+			+ "}";
+
+	private static final int BATCH = 2_000;
+	private static final int WARMUP_BATCHES = 10;
+	private static final int MEASURED_BATCHES = 3;
+
+	private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private static final Exception FAILURE = new IllegalStateException("order processing failed");
+
+	private LoggerContext context;
+	private Logger logger;
+	private TNT4JAppender appender;
+
+	@BeforeAll
+	static void setUpTnt4j() {
+		System.setProperty("tnt4j.config", TNT4J_CONFIG);
+	}
+
+	@AfterEach
+	void tearDown() {
+		// appender is not attached to any logger, so stopping context doesn't stop it
+		if (appender != null) {
+			appender.stop();
+		}
+		if (context != null) {
+			context.stop();
+		}
+	}
+
+	@Test
+	void plainMessage() {
+		assertWithinBudget(1_800, null, i -> event(Level.INFO, "Order processed by remote service", null));
+	}
+
+	@Test
+	void hashTagMessage() {
+		assertWithinBudget(4_800, null,
+				i -> event(Level.INFO, "Order processed #cid=order-1 #usr=john #loc=NY #opn=process"
+						+ " #%i/order-no=62627 #%d:currency/amount=50.45 #tag=orders", null));
+	}
+
+	@Test
+	void parameterizedMessage() {
+		assertWithinBudget(4_800, null,
+				i -> event(Level.INFO, "Order {} processed #cid={} #%d:currency/amount={}", null, i, "order", 50.45));
+	}
+
+	@Test
+	void keyValueMessage() {
+		assertWithinBudget(3_900, null, i -> {
+			LoggingEvent event = event(Level.INFO, "Order processed", null);
+			event.addKeyValuePair(new KeyValuePair("cid", "order-" + i));
+			event.addKeyValuePair(new KeyValuePair("%l/order", (long) i));
+			return event;
+		});
+	}
+
+	@Test
+	void mdcMessage() {
+		assertWithinBudget(1_900, a -> a.setAttributeSources("MESSAGE,KV,MDC"), i -> {
+			LoggingEvent event = event(Level.INFO, "Order processed", null);
+			event.setMDCPropertyMap(Collections.singletonMap("usr", "john"));
+			return event;
+		});
+	}
+
+	@Test
+	void exceptionMessage() {
+		// includes stack trace rendering and activity carrying thread metrics reported on exception
+		assertWithinBudget(280_000, null, i -> event(Level.ERROR, "Order processing failed", FAILURE));
+	}
+
+	@Test
+	void activitySequence() {
+		assertWithinBudget(1_300, null, i -> {
+			switch (i % 3) {
+			case 0:
+				return event(Level.INFO, "Order started #beg=Order", null);
+			case 1:
+				return event(Level.INFO, "Order processed #cid=order-1", null);
+			default:
+				return event(Level.INFO, "Order completed #end=Order", null);
+			}
+		});
+	}
+
+	@Test
+	void recycledPlainMessage() {
+		assertWithinBudget(200, a -> a.setRecycleEvents(true),
+				i -> event(Level.INFO, "Order processed by remote service", null));
+	}
+
+	@Test
+	void recycledHashTagMessage() {
+		assertWithinBudget(1_200, a -> a.setRecycleEvents(true),
+				i -> event(Level.INFO, "Order processed #cid=order-1 #usr=john #loc=NY #opn=process"
+						+ " #%i/order-no=62627 #%d:currency/amount=50.45 #tag=orders", null));
+	}
+
+	@Test
+	void lazyCallerData() {
+		assertWithinBudget(13_700, a -> a.setCallerData(CallerDataMode.LAZY.name()),
+				i -> event(Level.INFO, "Order processed by remote service", null));
+	}
+
+	private LoggingEvent event(Level level, String message, Throwable ex, Object... args) {
+		return new LoggingEvent(Logger.FQCN, logger, level, message, ex, args.length == 0 ? null : args);
+	}
+
+	/**
+	 * Append events of a given shape and check average number of bytes allocated per appended event.
+	 *
+	 * @param budget
+	 *            maximum number of bytes allocated per appended event
+	 * @param config
+	 *            additional appender configuration, {@code null} if none
+	 * @param shape
+	 *            creates i-th logging event
+	 */
+	private void assertWithinBudget(long budget, Consumer<TNT4JAppender> config, IntFunction<LoggingEvent> shape) {
+		assumeTrue(THREADS.isThreadAllocatedMemorySupported(), "thread allocated memory is not supported");
+		THREADS.setThreadAllocatedMemoryEnabled(true);
+		TNT4JAppender appender = newAppender(config);
+		for (int i = 0; i < WARMUP_BATCHES; i++) {
+			appendBatch(appender, shape);
+		}
+		long perEvent = Long.MAX_VALUE;
+		for (int i = 0; i < MEASURED_BATCHES; i++) {
+			perEvent = Math.min(perEvent, appendBatch(appender, shape) / BATCH);
+		}
+		TNT4JAppenderMXBean stats = appender.getStats();
+		assertTrue(stats.getDatagramEvents() + stats.getActivityEvents() + stats.getMetricsEvents() > 0,
+				"no events reported to sink");
+		assertTrue(perEvent <= budget, "allocated " + perEvent + " bytes per event, budget " + budget + " bytes");
+	}
+
+	private long appendBatch(TNT4JAppender appender, IntFunction<LoggingEvent> shape) {
+		LoggingEvent[] events = new LoggingEvent[BATCH];
+		for (int i = 0; i < events.length; i++) {
+			events[i] = shape.apply(i);
+		}
+		long threadId = Thread.currentThread().getId();
+		long start = THREADS.getThreadAllocatedBytes(threadId);
+		for (LoggingEvent event : events) {
+			appender.doAppend(event);
+		}
+		return THREADS.getThreadAllocatedBytes(threadId) - start;
+	}
+
+	private TNT4JAppender newAppender(Consumer<TNT4JAppender> config) {
+		context = new LoggerContext();
+		logger = context.getLogger(AllocationBudgetTest.class);
+		logger.setLevel(Level.TRACE);
+
+		appender = new TNT4JAppender();
+		appender.setContext(context);
+		appender.setName("allocation");
+		appender.setSourceName("com.jkoolcloud.allocation");
+		appender.setCallerData(CallerDataMode.NONE.name());
+		appender.setMetricsFrequency(0);
+		appender.setJmx(false);
+		if (config != null) {
+			config.accept(appender);
+		}
+		appender.start();
+		assertTrue(appender.isStarted(), "appender not started");
+		return appender;
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+/**
+ * Tests of {@link AsyncEventDispatcher} overflow policies and waiting: single dispatch thread with a ring buffer of
+ * two slots is held on the first event, so its slot is not released and the second event fills the ring buffer.
+ *
+ * @version $Revision: 1 $
+ */
+class AsyncEventDispatcherTest {
+	private static final long WAIT_SEC = 10;
+	private static final String THREAD_NAME = "dispatcher-test";
+
+	private final CountDownLatch handling = new CountDownLatch(1);
+	private final CountDownLatch gate = new CountDownLatch(1);
+	private final List<String> calls = new CopyOnWriteArrayList<>();
+	private AsyncEventDispatcher dispatcher;
+
+	@AfterEach
+	void stop() {
+		gate.countDown();
+		if (dispatcher != null) {
+			dispatcher.stop(WAIT_SEC * 1000);
+		}
+	}
+
+	@Test
+	void dropNewestDropsAppendedEvent() throws InterruptedException {
+		fill(OverflowPolicy.DROP_NEWEST);
+
+		assertFalse(offer("e2", Level.ERROR));
+		assertEquals(1, dispatcher.getDroppedCount());
+		assertDispatched(null, "e0", "e1");
+	}
+
+	@Test
+	void dropOldestDropsQueuedEventAndWaitsForDispatchedOne() throws InterruptedException {
+		fill(OverflowPolicy.DROP_OLDEST);
+
+		Thread blocked = offerInBackground("e2", Level.DEBUG);
+		assertTrue(blocked.isAlive(), "logging thread not blocked");
+		assertEquals(1, dispatcher.getDroppedCount());
+		assertDispatched(blocked, "e0", "e2");
+	}
+
+	@Test
+	void blockWaitsForRoom() throws InterruptedException {
+		fill(OverflowPolicy.BLOCK);
+
+		Thread blocked = offerInBackground("e2", Level.DEBUG);
+		assertTrue(blocked.isAlive(), "logging thread not blocked");
+		assertEquals(Thread.State.WAITING, blocked.getState(), "blocked logging thread still waiting actively");
+		assertEquals(0, dispatcher.getDroppedCount());
+		assertDispatched(blocked, "e0", "e1", "e2");
+	}
+
+	@Test
+	void dropBelowLevelDropsLowLevelAndWaitsForRest() throws InterruptedException {
+		fill(OverflowPolicy.DROP_BELOW_LEVEL);
+
+		assertFalse(offer("debug", Level.DEBUG));
+		assertEquals(1, dispatcher.getDroppedCount());
+		Thread blocked = offerInBackground("warn", Level.WARN);
+		assertTrue(blocked.isAlive(), "logging thread not blocked");
+		assertDispatched(blocked, "e0", "e1", "warn");
+		assertEquals(1, dispatcher.getDroppedCount());
+	}
+
+	@Test
+	void idleDispatchThreadBlocksUntilEventOffered() throws InterruptedException {
+		dispatcher = newDispatcher(OverflowPolicy.BLOCK, WaitStrategy.BUSY_SPIN);
+		gate.countDown();
+		Thread drainer = dispatchThread();
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(WAIT_SEC);
+		while (drainer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(Thread.State.WAITING, drainer.getState(), "idle dispatch thread still spinning");
+
+		assertTrue(offer("e0", Level.INFO));
+		dispatcher.awaitDrained();
+		assertEquals(Arrays.asList("e0"), calls);
+	}
+
+	private void fill(OverflowPolicy policy) throws InterruptedException {
+		dispatcher = newDispatcher(policy, WaitStrategy.SLEEPING);
+		assertTrue(offer("e0", Level.INFO));
+		assertTrue(handling.await(WAIT_SEC, TimeUnit.SECONDS), "event not dispatched");
+		assertTrue(offer("e1", Level.INFO));
+	}
+
+	private AsyncEventDispatcher newDispatcher(OverflowPolicy policy, WaitStrategy waitStrategy) {
+		AsyncEventDispatcher ad = new AsyncEventDispatcher(THREAD_NAME, 1, 2, policy, Level.INFO, waitStrategy,
+				slot -> {
+					handling.countDown();
+					try {
+						gate.await(WAIT_SEC, TimeUnit.SECONDS);
+					} catch (InterruptedException exc) {
+						Thread.currentThread().interrupt();
+					}
+					calls.add(slot.event.getMessage());
+				}, new ContextAwareBase());
+		ad.start();
+		return ad;
+	}
+
+	private boolean offer(String message, Level level) {
+		LoggingEvent event = new LoggingEvent();
+		event.setMessage(message);
+		event.setLevel(level);
+		return dispatcher.offer(event, null, null, 0);
+	}
+
+	private Thread offerInBackground(String message, Level level) throws InterruptedException {
+		Thread thread = new Thread(() -> offer(message, level));
+		thread.start();
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(WAIT_SEC);
+		while (thread.getState() != Thread.State.WAITING && thread.isAlive()
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		return thread;
+	}
+
+	private void assertDispatched(Thread blocked, String... messages) throws InterruptedException {
+		gate.countDown();
+		if (blocked != null) {
+			blocked.join(TimeUnit.SECONDS.toMillis(WAIT_SEC));
+			assertFalse(blocked.isAlive(), "logging thread not released");
+		}
+		dispatcher.awaitDrained();
+		assertEquals(Arrays.asList(messages), calls);
+	}
+
+	private static Thread dispatchThread() {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith(THREAD_NAME + "-dispatch-")) {
+				return thread;
+			}
+		}
+		throw new AssertionError("dispatch thread not found");
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+/**
+ * Tests of {@link DuplicateSuppressor}: repeats within a window are counted and summarized once window is closed by the
+ * next occurrence after expiry, by sweeper, by eviction from full fingerprint table, or by stop. Elapsed time of a
+ * repeat is taken from the event argument.
+ *
+ * @version $Revision: 1 $
+ */
+class DuplicateSuppressorTest {
+	private static final long WINDOW_MS = 60_000;
+	private static final long WAIT_SEC = 10;
+
+	private final List<DuplicateSuppressor.Window> reported = new CopyOnWriteArrayList<>();
+	private DuplicateSuppressor suppressor;
+
+	@AfterEach
+	void stop() {
+		if (suppressor != null) {
+			suppressor.stop();
+		}
+	}
+
+	@Test
+	void summarizesRepeatsWhenNextOccurrenceFallsAfterWindow() {
+		suppressor = newSuppressor(WINDOW_MS, 16);
+		LoggingEvent first = event("a", "msg {}", 1000, 0);
+
+		assertFalse(suppressor.suppress(first));
+		assertTrue(suppressor.suppress(event("a", "msg {}", 1100, 30)));
+		assertTrue(suppressor.suppress(event("a", "msg {}", 1200, 10)));
+		assertTrue(suppressor.suppress(event("a", "msg {}", 1000 + WINDOW_MS - 1, 20)));
+		assertFalse(suppressor.suppress(event("b", "msg {}", 1300, 0)), "other logger");
+		assertFalse(suppressor.suppress(event("a", "other {}", 1300, 0)), "other template");
+		assertEquals(3, suppressor.getSuppressedCount());
+		assertTrue(reported.isEmpty());
+
+		assertFalse(suppressor.suppress(event("a", "msg {}", 1000 + WINDOW_MS, 0)), "window expired");
+		assertEquals(1, reported.size());
+		DuplicateSuppressor.Window window = reported.get(0);
+		assertSame(first, window.getEvent());
+		assertEquals(3, window.getCount());
+		assertEquals(1100, window.getFirstTime());
+		assertEquals(1000 + WINDOW_MS - 1, window.getLastTime());
+		assertEquals(10, window.getMinElapsedUsec());
+		assertEquals(30, window.getMaxElapsedUsec());
+
+		assertTrue(suppressor.suppress(event("a", "msg {}", 1000 + WINDOW_MS + 1, 0)), "repeat of new window");
+	}
+
+	@Test
+	void matchesExceptionsByClassAndTopFrame() {
+		suppressor = newSuppressor(WINDOW_MS, 16);
+		Exception[] errors = new Exception[2];
+		for (int i = 0; i < errors.length; i++) {
+			errors[i] = new IllegalStateException("error " + i); // same top frame
+		}
+
+		assertFalse(suppressor.suppress(event("a", "failed", 1000, 0, errors[0])));
+		assertTrue(suppressor.suppress(event("a", "failed", 1001, 0, errors[1])));
+		assertFalse(suppressor.suppress(event("a", "failed", 1002, 0, new IllegalArgumentException())));
+		assertFalse(suppressor.suppress(event("a", "failed", 1003, 0)), "without exception");
+	}
+
+	@Test
+	void evictionReportsWindowsWithRepeats() {
+		suppressor = newSuppressor(WINDOW_MS, 2);
+		suppressor.suppress(event("a", "msg", 1000, 0));
+		suppressor.suppress(event("a", "msg", 1001, 5));
+		suppressor.suppress(event("b", "msg", 1002, 0));
+		suppressor.suppress(event("b", "msg", 1003, 5));
+
+		assertFalse(suppressor.suppress(event("c", "msg", 1004, 0)));
+		assertFalse(reported.isEmpty(), "evicted window not reported");
+		for (DuplicateSuppressor.Window window : reported) {
+			assertEquals(1, window.getCount());
+		}
+		assertTrue(suppressor.suppress(event("c", "msg", 1005, 0)), "new window not tracked");
+
+		suppressor.stop();
+		assertEquals(3, reported.size(), "open windows not reported on stop");
+	}
+
+	@Test
+	void stopSkipsWindowsWithoutRepeats() {
+		suppressor = newSuppressor(WINDOW_MS, 16);
+		suppressor.suppress(event("a", "msg", 1000, 0));
+		suppressor.suppress(event("b", "msg", 1000, 0));
+		suppressor.suppress(event("b", "msg", 1001, 0));
+
+		suppressor.stop();
+		assertEquals(1, reported.size());
+		assertEquals("b", reported.get(0).getEvent().getLoggerName());
+	}
+
+	@Test
+	void sweeperClosesExpiredWindows() throws InterruptedException {
+		CountDownLatch swept = new CountDownLatch(1);
+		suppressor = new DuplicateSuppressor("test", 50, 16, e -> 0, window -> {
+			reported.add(window);
+			swept.countDown();
+		}, new ContextAwareBase());
+		long now = System.currentTimeMillis();
+		suppressor.suppress(event("a", "msg", now, 0));
+		suppressor.suppress(event("a", "msg", now + 1, 0));
+
+		assertTrue(swept.await(WAIT_SEC, TimeUnit.SECONDS), "expired window not swept");
+		assertEquals(1, reported.get(0).getCount());
+		assertFalse(suppressor.suppress(event("a", "msg", now + 2, 0)), "swept window still suppressing");
+	}
+
+	private DuplicateSuppressor newSuppressor(long windowMs, int capacity) {
+		return new DuplicateSuppressor("test", windowMs, capacity, e -> (Long) e.getArgumentArray()[0],
+				reported::add, new ContextAwareBase());
+	}
+
+	private static LoggingEvent event(String logger, String message, long time, long elapsedUsec) {
+		return event(logger, message, time, elapsedUsec, null);
+	}
+
+	private static LoggingEvent event(String logger, String message, long time, long elapsedUsec, Throwable error) {
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName(logger);
+		event.setMessage(message);
+		event.setTimeStamp(time);
+		event.setArgumentArray(new Object[] { elapsedUsec });
+		if (error != null) {
+			event.setThrowableProxy(new ThrowableProxy(error));
+		}
+		return event;
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+/**
+ * Tests of {@link FieldAggregator} and {@link QuantileSketch}: window statistics per logger and in total, quantile
+ * accuracy and logger table overflow.
+ *
+ * @version $Revision: 1 $
+ */
+class FieldAggregatorTest {
+	private static final double ACCURACY = QuantileSketch.RELATIVE_ACCURACY;
+
+	@Test
+	void estimatesQuantilesWithinRelativeAccuracy() {
+		QuantileSketch sketch = new QuantileSketch();
+		for (int i = 1; i <= 10000; i++) {
+			sketch.record(i);
+			sketch.record(-i / 1000.0);
+		}
+		assertEquals(5000, sketch.getQuantile(0.75), 5000 * ACCURACY);
+		assertEquals(9900, sketch.getQuantile(0.995), 9900 * ACCURACY);
+		assertEquals(-5, sketch.getQuantile(0.25), 5 * ACCURACY);
+		assertEquals(-10, sketch.getQuantile(0), 10 * ACCURACY);
+	}
+
+	@Test
+	void mergesDrainedSketches() {
+		QuantileSketch first = new QuantileSketch();
+		QuantileSketch second = new QuantileSketch();
+		for (int i = 0; i < 100; i++) {
+			first.record(10);
+			second.record(1000);
+		}
+		QuantileSketch merged = new QuantileSketch();
+		first.drainTo(merged);
+		second.drainTo(merged);
+		assertTrue(Double.isNaN(first.getQuantile(0.5)));
+		assertEquals(10, merged.getQuantile(0.4), 10 * ACCURACY);
+		assertEquals(1000, merged.getQuantile(0.6), 1000 * ACCURACY);
+	}
+
+	@Test
+	void reportsWindowStatisticsPerLoggerAndTotal() {
+		List<FieldAggregator.Aggregate> reported = new ArrayList<>();
+		FieldAggregator agg = new FieldAggregator("test", Arrays.asList("amount"), 60000, 1, reported::add,
+				new ContextAwareBase());
+		assertTrue(agg.record("orders", "amount", 10L, "currency"));
+		assertTrue(agg.record("orders", "amount", 30.0, "currency"));
+		assertTrue(agg.record("payments", "amount", 20, "currency"));
+		assertFalse(agg.record("orders", "order", 1L, null));
+		assertFalse(agg.record("orders", "amount", "n/a", null));
+		agg.stop();
+
+		assertEquals(1, reported.size());
+		FieldAggregator.Aggregate aggregate = reported.get(0);
+		assertEquals("amount", aggregate.getName());
+		assertEquals("currency", aggregate.getValueType());
+		FieldAggregator.Stats total = aggregate.getTotal();
+		assertEquals(3, total.getCount());
+		assertEquals(60, total.getSum());
+		assertEquals(10, total.getMin());
+		assertEquals(30, total.getMax());
+		assertEquals(20, total.getMean());
+		assertEquals(20, total.getQuantile(0.5), 20 * ACCURACY);
+		// table of one logger overflows: other loggers are aggregated together
+		assertEquals(Arrays.asList(FieldAggregator.OTHER_LOGGERS, "orders"),
+				new ArrayList<>(aggregate.getLoggers().keySet()));
+		assertEquals(2, aggregate.getLoggers().get("orders").getCount());
+		assertEquals(3, agg.getRecordedCount());
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.jkoolcloud.tnt4j.logger.AppenderTools;
+
+/**
+ * Compatibility tests of {@link HashTagScanner} and {@link HashTagAttributes}: attributes scanned from a message, and
+ * their iteration order, must be the same as of {@code HashMap} filled by
+ * {@link AppenderTools#parseEventMessage(Map, String, char)}.
+ *
+ * @version $Revision: 1 $
+ */
+class HashTagScannerTest {
+
+	@ParameterizedTest
+	@ValueSource(strings = { //
+			"plain message without hashtags", //
+			"Saved #opn=save #rsn=file #rcd=7 #%l/order=62627", //
+			"Started #beg=Order #app=MyApp #cid=c1 #usr=joe", //
+			"#msg='hello world' #loc='New York' #%d:currency/amount=12.5", //
+			"escapes #msg='line\\nnext \\'quoted\\' tab\\t' #res='a\\\\b'", //
+			"not quoted value #msg='open #x=y", //
+			"duplicates #usr=joe #usr=ann #usr='bob'", //
+			"mixed case #CID=a #cid=b #Cid=c #USR=x #Beg=y #END=z", //
+			"quoted keys #'cid'=q #'custom'=v #custom=w", //
+			"values #a=b=c #d==e #f= #=g #h", //
+			"delimiters ## #  #i=1#j=2 ##k=3", //
+			"many #a1=1 #a2=2 #a3=3 #a4=4 #a5=5 #a6=6 #a7=7 #a8=8 #a9=9 #a10=10 #a11=11 #a12=12 #a13=13 #a14=14"
+					+ " #a15=15 #a16=16 #a17=17 #a18=18 #a19=19 #a20=20 #a21=21 #a22=22 #a23=23 #a24=24 #a25=25", //
+			"tags and fields #sev=ERROR #opt=CALL #elt=120 #tag=t1 #pid=p1 #k1=v1 #K1=v2 #k2=v3 #k3=v4 #k4=v5"
+					+ " #k5=v6 #k6=v7 #k7=v8 #k8=v9 #k9=v10 #k10=v11 #k11=v12 #k12=v13" })
+	void scansTheSameAttributesInTheSameOrder(String msg) {
+		assertEquals(expected(msg), scanned(msg));
+	}
+
+	@Test
+	void resolvesBuiltInTagsCaseSensitively() {
+		HashTagAttributes attrs = HashTagScanner.scan("#CID=a #cid=b #Beg=x", new HashTagAttributes());
+		assertEquals("b", attrs.get(HashTag.CORRELATOR));
+		assertNull(attrs.get(HashTag.BEGIN));
+		assertFalse(attrs.isActivityInstruction());
+	}
+
+	private static List<String> expected(String msg) {
+		List<String> entries = new ArrayList<>();
+		for (Map.Entry<String, String> entry : AppenderTools.parseEventMessage(new HashMap<>(), msg, '#')
+				.entrySet()) {
+			entries.add(entry.getKey() + "=" + entry.getValue());
+		}
+		return entries;
+	}
+
+	private static List<String> scanned(String msg) {
+		HashTagAttributes attrs = HashTagScanner.scan(msg, new HashTagAttributes());
+		List<String> entries = new ArrayList<>();
+		for (int i = 0; i < attrs.size(); i++) {
+			entries.add(attrs.key(i) + "=" + attrs.value(i));
+		}
+		return entries;
+	}
+}
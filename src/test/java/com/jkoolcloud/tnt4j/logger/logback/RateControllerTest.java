@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+import ch.qos.logback.classic.Level;
+
+/**
+ * Tests of {@link RateController}: generic cell rate algorithm bursts per logger name and level, adaptive sampling
+ * driven by dispatch queue load, and sampling taking place before rate limiting.
+ *
+ * @version $Revision: 1 $
+ */
+class RateControllerTest {
+	private static final long ADAPT_WAIT_MS = 150; // longer than sampling adaptation period
+
+	@Test
+	void limitsBurstPerLoggerAndLevel() {
+		RateController rates = new RateController(1, 3, false, 1000, () -> 0);
+
+		for (int i = 0; i < 3; i++) {
+			assertTrue(rates.tryAcquire("a", Level.INFO), "burst event " + i);
+		}
+		assertFalse(rates.tryAcquire("a", Level.INFO));
+		assertTrue(rates.tryAcquire("a", Level.WARN), "other level");
+		assertTrue(rates.tryAcquire("b", Level.INFO), "other logger");
+		assertFalse(rates.tryAcquire("a", Level.INFO));
+
+		Map<String, Long> drained = new TreeMap<>();
+		assertEquals(2, rates.drainDropped(drained::put));
+		assertEquals(Map.of("a", 2L), drained);
+		assertEquals(2, rates.getDroppedCount());
+		assertEquals(0, rates.drainDropped((name, count) -> drained.put("again", count)));
+	}
+
+	@Test
+	void defaultBurstIsRate() {
+		RateController rates = new RateController(5, 0, false, 1000, () -> 0);
+
+		int passed = 0;
+		for (int i = 0; i < 20; i++) {
+			if (rates.tryAcquire("a", Level.DEBUG)) {
+				passed++;
+			}
+		}
+		assertEquals(5, passed);
+	}
+
+	@Test
+	void adaptsSamplingRateToLoad() throws InterruptedException {
+		double[] load = { 1.0 };
+		RateController rates = new RateController(0, 0, true, 1000, () -> load[0]);
+		assertEquals(1.0, rates.getSampleRate());
+
+		adapt(rates);
+		assertEquals(0.5, rates.getSampleRate());
+		adapt(rates);
+		assertEquals(0.25, rates.getSampleRate());
+
+		load[0] = 0;
+		adapt(rates);
+		assertEquals(0.3, rates.getSampleRate(), 1e-9);
+	}
+
+	@Test
+	void adaptsSamplingRateToLatency() throws InterruptedException {
+		RateController rates = new RateController(0, 0, true, 1, () -> 0);
+		for (int i = 0; i < 100; i++) {
+			rates.recordLatency(1_000_000);
+		}
+
+		adapt(rates);
+		assertEquals(0.5, rates.getSampleRate());
+	}
+
+	@Test
+	void sampledOutEventsDontUseUpRate() throws InterruptedException {
+		RateController rates = new RateController(0.001, 1, true, 1000, () -> 1.0);
+		adapt(rates);
+		assertEquals(0.5, rates.getSampleRate());
+
+		int passed = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (rates.tryAcquire("b", Level.INFO)) {
+				passed++;
+			}
+		}
+		assertEquals(1, passed, "only the first sampled in event takes the single token");
+	}
+
+	private static void adapt(RateController rates) throws InterruptedException {
+		Thread.sleep(ADAPT_WAIT_MS);
+		rates.tryAcquire("adapt", Level.ERROR);
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.jkoolcloud.tnt4j.format.EventFormatter;
+import com.jkoolcloud.tnt4j.sink.EventSink;
+import com.jkoolcloud.tnt4j.sink.impl.NullEventSink;
+import com.jkoolcloud.tnt4j.sink.impl.NullEventSinkFactory;
+import com.jkoolcloud.tnt4j.tracker.TrackingActivity;
+import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
+
+/**
+ * TNT4J sink factory of tests, creating sinks which record logged tracking events and activities. Every created sink
+ * is added to {@link #SINKS} in creation order, so sinks of tracking loggers opened one by one can be told apart.
+ *
+ * @version $Revision: 1 $
+ */
+public class RecordingSinkFactory extends NullEventSinkFactory {
+	static final List<RecordingSink> SINKS = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Obtain inline TNT4J configuration of all sources reporting to recording sinks.
+	 *
+	 * @return TNT4J configuration
+	 */
+	static String config() {
+		return "inline:{\n" //
+				+ "source: *\n" //
+				+ "source.factory: com.jkoolcloud.tnt4j.source.SourceFactoryImpl\n" //
+				+ "source.factory.RootFQN: RUNTIME=?#SERVER=?\n" //
+				+ "tracker.factory: com.jkoolcloud.tnt4j.tracker.DefaultTrackerFactory\n" //
+				+ "dump.sink.factory: com.jkoolcloud.tnt4j.dump.DefaultDumpSinkFactory\n" //
+				+ "event.sink.factory: " + RecordingSinkFactory.class.getName() + "\n" //
+				+ "event.formatter: com.jkoolcloud.tnt4j.format.SimpleFormatter\n" //
+				+ "tracking.selector: com.jkoolcloud.tnt4j.selector.DefaultTrackingSelector\n" //
+				+ "}";
+	}
+
+	@Override
+	public EventSink getEventSink(String name) {
+		return configureSink(new RecordingSink(name));
+	}
+
+	@Override
+	public EventSink getEventSink(String name, Properties props, EventFormatter frmt) {
+		return getEventSink(name);
+	}
+
+	/**
+	 * Sink recording logged tracking events and activities.
+	 */
+	static class RecordingSink extends NullEventSink {
+		final List<TrackingEvent> events = new CopyOnWriteArrayList<>();
+		final List<TrackingActivity> activities = new CopyOnWriteArrayList<>();
+		private volatile boolean closed;
+
+		RecordingSink(String name) {
+			super(name);
+			SINKS.add(this);
+		}
+
+		@Override
+		public boolean isOpen() {
+			return !closed;
+		}
+
+		@Override
+		protected void _close() {
+			closed = true;
+		}
+
+		@Override
+		protected void _log(TrackingEvent event) {
+			events.add(event);
+		}
+
+		@Override
+		protected void _log(TrackingActivity activity) {
+			activities.add(activity);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+/**
+ * Tests of {@link SinkPartitions} used by {@link TNT4JAppender}: datagram events are routed to partition sinks by
+ * every {@link PartitionKey}, events of the same key keep logging order, and stopping appender closes partition sinks.
+ * Every partition logger owns its own {@link RecordingSinkFactory} sink, created in partition order.
+ *
+ * @version $Revision: 1 $
+ */
+class SinkPartitionsTest {
+	private static final int PARTITIONS = 4;
+	private static final int EVENTS = 200;
+	private static final Pattern SEQUENCE = Pattern.compile("seq=(\\d+)");
+
+	private LoggerContext context;
+	private TNT4JAppender appender;
+
+	@BeforeEach
+	void setUp() {
+		System.setProperty("tnt4j.config", RecordingSinkFactory.config());
+		RecordingSinkFactory.SINKS.clear();
+	}
+
+	@AfterEach
+	void tearDown() {
+		if (appender != null) {
+			appender.stop();
+		}
+		if (context != null) {
+			context.stop();
+		}
+	}
+
+	@ParameterizedTest
+	@EnumSource(PartitionKey.class)
+	void routesEventsOfTheSameKeyToTheSamePartitionInOrder(PartitionKey key) {
+		startAppender(key);
+		List<RecordingSinkFactory.RecordingSink> sinks = new ArrayList<>(RecordingSinkFactory.SINKS);
+		assertEquals(PARTITIONS, sinks.size());
+		for (int i = 0; i < EVENTS; i++) {
+			appender.doAppend(event(i));
+		}
+
+		Map<String, Integer> partitionOfKey = new HashMap<>();
+		Set<Integer> used = new HashSet<>();
+		for (int p = 0; p < sinks.size(); p++) {
+			int last = -1;
+			for (TrackingEvent event : sinks.get(p).events) {
+				int seq = sequenceOf(event.getMessage());
+				assertTrue(seq > last, "events out of order, partition=" + p + ", seq=" + seq);
+				last = seq;
+				Integer previous = partitionOfKey.put(routingKey(key, seq), p);
+				assertTrue(previous == null || previous == p,
+						"key " + routingKey(key, seq) + " routed to partitions " + previous + " and " + p);
+				used.add(p);
+			}
+		}
+		assertEquals(EVENTS, sinks.stream().mapToInt(sink -> sink.events.size()).sum());
+		assertTrue(used.size() > 1, "all keys routed to a single partition");
+	}
+
+	@Test
+	void stopClosesPartitionSinks() {
+		startAppender(PartitionKey.THREAD);
+		List<RecordingSinkFactory.RecordingSink> sinks = new ArrayList<>(RecordingSinkFactory.SINKS);
+		assertEquals(PARTITIONS, sinks.size());
+		for (RecordingSinkFactory.RecordingSink sink : sinks) {
+			assertTrue(sink.isOpen());
+		}
+		appender.stop();
+		for (RecordingSinkFactory.RecordingSink sink : sinks) {
+			assertFalse(sink.isOpen(), "partition sink left open: " + sink.getName());
+		}
+	}
+
+	@Test
+	void failedStartReleasesInitializedComponents(@TempDir Path dir) throws IOException, InterruptedException {
+		Path file = Files.createFile(dir.resolve("file"));
+		context = new LoggerContext();
+		appender = new TNT4JAppender();
+		appender.setContext(context);
+		appender.setName("failed-start");
+		appender.setMetricsFrequency(0);
+		appender.setJmx(false);
+		appender.setPartitions(PARTITIONS);
+		appender.setJournalDir(file.resolve("journal").toString()); // journal can't be created under a file
+		appender.start();
+		assertFalse(appender.isStarted(), "appender started");
+
+		// activity registry is initialized before sinks fail to open
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (isThreadAlive("failed-start-activities") && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertFalse(isThreadAlive("failed-start-activities"), "activity sweeper left running");
+		for (RecordingSinkFactory.RecordingSink sink : RecordingSinkFactory.SINKS) {
+			assertFalse(sink.isOpen(), "sink left open: " + sink.getName());
+		}
+	}
+
+	private static boolean isThreadAlive(String name) {
+		return Thread.getAllStackTraces().keySet().stream().anyMatch(thread -> thread.getName().equals(name));
+	}
+
+	private void startAppender(PartitionKey key) {
+		context = new LoggerContext();
+		appender = new TNT4JAppender();
+		appender.setContext(context);
+		appender.setName("partitions");
+		appender.setSourceName("com.jkoolcloud.partitions." + key.name().toLowerCase(Locale.ROOT));
+		appender.setCallerData(CallerDataMode.NONE.name());
+		appender.setMetricsOnException(false);
+		appender.setMetricsFrequency(0);
+		appender.setJmx(false);
+		appender.setPartitions(PARTITIONS);
+		appender.setPartitionKey(key.name());
+		appender.start();
+		assertTrue(appender.isStarted(), "appender not started");
+	}
+
+	/**
+	 * Create i-th logging event: thread, logger, correlator and application name vary independently, and every other
+	 * event carries neither correlator nor application name.
+	 */
+	private LoggingEvent event(int seq) {
+		Logger logger = context.getLogger("com.acme.logger" + seq % 7);
+		String tags = seq % 2 == 0 ? " #cid=order-" + seq % 3 + " #app=app-" + seq % 5 : "";
+		LoggingEvent event = new LoggingEvent(Logger.FQCN, logger, Level.INFO, "Order seq=" + seq + tags, null,
+				null);
+		event.setThreadName("worker-" + seq % 11);
+		return event;
+	}
+
+	private static String routingKey(PartitionKey key, int seq) {
+		boolean tagged = seq % 2 == 0;
+		switch (key) {
+		case LOGGER:
+			return "com.acme.logger" + seq % 7;
+		case CORRELATOR:
+			return tagged ? "order-" + seq % 3 : "worker-" + seq % 11;
+		case APPL:
+			return tagged ? "app-" + seq % 5 : "com.acme.logger" + seq % 7;
+		case THREAD:
+		default:
+			return "worker-" + seq % 11;
+		}
+	}
+
+	private static int sequenceOf(String message) {
+		Matcher matcher = SEQUENCE.matcher(message);
+		assertTrue(matcher.find(), "no sequence in message: " + message);
+		return Integer.parseInt(matcher.group(1));
+	}
+}
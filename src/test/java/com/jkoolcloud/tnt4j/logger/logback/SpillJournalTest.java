@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of {@link SpillJournal}: segment rotation, size cap, CRC checks and recovery of read position after reopening.
+ *
+ * @version $Revision: 1 $
+ */
+class SpillJournalTest {
+	private static final int SEGMENT_SIZE = 256;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void readsRecordsInOrderAcrossSegments() throws IOException {
+		try (SpillJournal journal = open(SEGMENT_SIZE * 100)) {
+			for (int i = 0; i < 50; i++) {
+				assertTrue(journal.append(record(i)));
+			}
+			assertTrue(segmentCount() > 1);
+			for (int i = 0; i < 50; i++) {
+				assertArrayEquals(record(i), journal.peek());
+				journal.advance();
+			}
+			assertNull(journal.peek());
+			assertTrue(journal.isEmpty());
+			assertEquals(1, segmentCount());
+		}
+	}
+
+	@Test
+	void rejectsRecordsOverSizeCap() throws IOException {
+		try (SpillJournal journal = open(SEGMENT_SIZE * 2)) {
+			assertFalse(journal.append(new byte[SEGMENT_SIZE]));
+			int appended = 0;
+			while (journal.append(record(appended))) {
+				appended++;
+			}
+			assertTrue(appended > 0);
+			assertEquals(2, segmentCount());
+			journal.peek();
+			journal.advance();
+			assertFalse(journal.append(record(appended)));
+		}
+	}
+
+	@Test
+	void resumesFromCheckpointAfterReopen() throws IOException {
+		try (SpillJournal journal = open(SEGMENT_SIZE * 100)) {
+			for (int i = 0; i < 30; i++) {
+				journal.append(record(i));
+			}
+			for (int i = 0; i < 12; i++) {
+				journal.peek();
+				journal.advance();
+			}
+		}
+		try (SpillJournal journal = open(SEGMENT_SIZE * 100)) {
+			assertFalse(journal.isEmpty());
+			journal.append(record(30));
+			for (int i = 12; i <= 30; i++) {
+				assertArrayEquals(record(i), journal.peek());
+				journal.advance();
+			}
+			assertNull(journal.peek());
+		}
+	}
+
+	@Test
+	void skipsCorruptedSegment() throws IOException {
+		try (SpillJournal journal = open(SEGMENT_SIZE * 100)) {
+			for (int i = 0; i < 20; i++) {
+				journal.append(record(i));
+			}
+		}
+		try (RandomAccessFile file = new RandomAccessFile(dir.resolve("test-0.journal").toFile(), "rw")) {
+			file.seek(10);
+			file.write('?');
+		}
+		try (SpillJournal journal = open(SEGMENT_SIZE * 100)) {
+			byte[] first = journal.peek();
+			assertEquals(1, journal.getCorruptedCount());
+			assertFalse(new String(first, StandardCharsets.UTF_8).equals("record-0"));
+		}
+	}
+
+	private SpillJournal open(long maxSize) throws IOException {
+		return new SpillJournal(dir, "test", SEGMENT_SIZE, maxSize);
+	}
+
+	private long segmentCount() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.filter(file -> file.toString().endsWith(".journal")).count();
+		}
+	}
+
+	private static byte[] record(int i) {
+		return ("record-" + i).getBytes(StandardCharsets.UTF_8);
+	}
+}
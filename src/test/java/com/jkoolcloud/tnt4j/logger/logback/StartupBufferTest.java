@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+/**
+ * Tests of {@link StartupBuffer} used by asynchronous start mode of {@link TNT4JAppender}: buffered events are
+ * processed in appending order once appender is initialized, events beyond capacity are dropped, and appender
+ * resources are released by startup thread if buffer is stopped while startup thread still uses appender.
+ *
+ * @version $Revision: 1 $
+ */
+class StartupBufferTest {
+	private static final long WAIT_SEC = 10;
+
+	private final CountDownLatch initializing = new CountDownLatch(1);
+	private final CountDownLatch processing = new CountDownLatch(1);
+	private final CountDownLatch released = new CountDownLatch(1);
+	private final List<String> calls = new CopyOnWriteArrayList<>();
+	private StartupBuffer buffer;
+
+	@Test
+	void processesBufferedEventsInOrderAndDropsOverflow() throws InterruptedException {
+		buffer = newBuffer(3, () -> {
+			await(initializing);
+			return true;
+		}, slot -> {
+			calls.add(slot.event.getMessage());
+			if ("e0".equals(slot.event.getMessage())) {
+				// appended while buffered events are processed: queued behind them
+				buffer.offer(event("late"), null, 0);
+			}
+		});
+		for (int i = 0; i < 5; i++) {
+			assertTrue(buffer.offer(event("e" + i), null, 0));
+		}
+		assertEquals(2, buffer.getDroppedCount());
+		initializing.countDown();
+		awaitReady();
+
+		assertFalse(buffer.offer(event("ready"), null, 0), "event buffered after appender is ready");
+		assertEquals(Arrays.asList("init", "e0", "e1", "e2", "late"), calls);
+		assertEquals(0, buffer.stop(WAIT_SEC));
+		assertTrue(buffer.isInitialized());
+		assertEquals(1, released.getCount(), "appender released by startup thread");
+	}
+
+	@Test
+	void releasesOnStartupThreadIfStoppedDuringInitialization() throws InterruptedException {
+		buffer = newBuffer(10, () -> {
+			await(initializing);
+			return true;
+		}, slot -> calls.add(slot.event.getMessage()));
+		buffer.offer(event("e0"), null, 0);
+		buffer.offer(event("e1"), null, 0);
+
+		assertEquals(2, buffer.stop(50));
+		assertFalse(buffer.isInitialized());
+		assertTrue(buffer.offer(event("stopped"), null, 0));
+		assertEquals(1, buffer.getDroppedCount());
+		initializing.countDown();
+
+		assertTrue(released.await(WAIT_SEC, TimeUnit.SECONDS), "appender not released");
+		assertEquals(Arrays.asList("init", "release"), calls);
+	}
+
+	@Test
+	void releasesOnStartupThreadIfStoppedDuringProcessing() throws InterruptedException {
+		CountDownLatch handling = new CountDownLatch(1);
+		buffer = newBuffer(10, () -> {
+			await(initializing);
+			return true;
+		}, slot -> {
+			handling.countDown();
+			await(processing);
+			calls.add(slot.event.getMessage());
+		});
+		buffer.offer(event("e0"), null, 0);
+		buffer.offer(event("e1"), null, 0);
+		initializing.countDown();
+		assertTrue(handling.await(WAIT_SEC, TimeUnit.SECONDS), "buffered event not processed");
+
+		assertEquals(1, buffer.stop(50));
+		assertFalse(buffer.isInitialized());
+		assertEquals(1, released.getCount(), "appender released while processing buffered event");
+		processing.countDown();
+
+		assertTrue(released.await(WAIT_SEC, TimeUnit.SECONDS), "appender not released");
+		assertEquals(Arrays.asList("init", "e0", "release"), calls);
+	}
+
+	@Test
+	void leavesReleaseToInitializerIfInitializationFails() throws InterruptedException {
+		buffer = newBuffer(10, () -> false, slot -> calls.add(slot.event.getMessage()));
+		buffer.offer(event("e0"), null, 0);
+
+		assertEquals(1, buffer.stop(WAIT_SEC * 1000));
+		assertFalse(buffer.isInitialized());
+		assertEquals(Arrays.asList("init"), calls);
+		assertEquals(1, released.getCount(), "appender released by startup thread");
+	}
+
+	private StartupBuffer newBuffer(int capacity, BooleanSupplier initializer,
+			Consumer<EventRingBuffer.Slot> handler) {
+		StartupBuffer sb = new StartupBuffer("test", capacity, () -> {
+			calls.add("init");
+			return initializer.getAsBoolean();
+		}, handler, () -> {
+			calls.add("release");
+			released.countDown();
+		}, new ContextAwareBase());
+		sb.start();
+		return sb;
+	}
+
+	private void awaitReady() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + WAIT_SEC * 1000;
+		while (buffer.isBuffering() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertFalse(buffer.isBuffering(), "buffered events not processed");
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(WAIT_SEC, TimeUnit.SECONDS);
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static LoggingEvent event(String message) {
+		LoggingEvent event = new LoggingEvent();
+		event.setMessage(message);
+		return event;
+	}
+}
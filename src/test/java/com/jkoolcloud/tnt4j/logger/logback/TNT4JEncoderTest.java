@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.MarkerFactory;
+import org.slf4j.event.KeyValuePair;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+/**
+ * Equivalence tests of {@link TNT4JEncoder}: the same logging events are reported by {@link TNT4JAppender} into TNT4J
+ * {@code FileEventSink} and encoded by encoder, and both outputs must be equal except for times taken when event is
+ * formatted. Event times and elapsed times are checked for events of fixed instants in timing modes reading them from
+ * logging events.
+ *
+ * @version $Revision: 1 $
+ */
+class TNT4JEncoderTest {
+	private static final StackTraceElement CALLER = new StackTraceElement("com.acme.OrderService", "process",
+			"OrderService.java", 42);
+	private static final Instant BASE = Instant.parse("2024-05-01T10:00:00Z");
+	private static final long BASE_USEC = TimingMode.toUsec(BASE);
+
+	@TempDir
+	Path dir;
+
+	private LoggerContext context;
+	private Logger logger;
+
+	@AfterEach
+	void tearDown() {
+		if (context != null) {
+			context.stop();
+		}
+	}
+
+	@Test
+	void jsonFormat() throws IOException {
+		assertEquivalent(EncoderFormat.JSON, "com.jkoolcloud.encoder.json", TimingMode.MILLIS,
+				() -> events(EncoderFormat.JSON));
+	}
+
+	@Test
+	void simpleFormat() throws IOException {
+		assertEquivalent(EncoderFormat.SIMPLE, "com.jkoolcloud.encoder.simple", TimingMode.MILLIS,
+				() -> events(EncoderFormat.SIMPLE));
+	}
+
+	@Test
+	void eventTimingMeasuresElapsedTimeBetweenInstants() throws IOException {
+		String encoded = assertEquivalent(EncoderFormat.JSON, "com.jkoolcloud.encoder.event", TimingMode.EVENT, () -> {
+			List<LoggingEvent> events = new ArrayList<>();
+			events.add(timedEvent("Order seq=0", 0));
+			events.add(timedEvent("Order seq=1", 1_500));
+			// stamped before the previous event of the thread: no negative elapsed time, next event measured since it
+			events.add(timedEvent("Order seq=2", 1_000));
+			events.add(timedEvent("Order seq=3", 4_000));
+			return events;
+		});
+		assertEquals(List.of(0L, 1_500L, 0L, 3_000L), numbers(encoded, "elapsed-time-usec"));
+		assertEquals(List.of(BASE_USEC, BASE_USEC, BASE_USEC + 1_000, BASE_USEC + 1_000),
+				numbers(encoded, "start-time-usec"));
+		assertEquals(List.of(BASE_USEC, BASE_USEC + 1_500, BASE_USEC + 1_000, BASE_USEC + 4_000),
+				numbers(encoded, "end-time-usec"));
+	}
+
+	@Test
+	void preciseTimingKeepsMicrosecondsOfInstant() throws IOException {
+		String encoded = assertEquivalent(EncoderFormat.JSON, "com.jkoolcloud.encoder.precise", TimingMode.PRECISE,
+				() -> {
+					List<LoggingEvent> events = new ArrayList<>();
+					events.add(timedEvent("Order seq=0 #elt=250", 123_456));
+					events.add(timedEvent("Order seq=1 #elt=0", 123_457));
+					events.add(timedEvent("Order seq=2 #stt=" + (BASE_USEC + 5) + " #elt=99", 999_999));
+					return events;
+				});
+		assertEquals(List.of(BASE_USEC + 123_206, BASE_USEC + 123_457, BASE_USEC + 999_999),
+				numbers(encoded, "start-time-usec"));
+		assertEquals(List.of(BASE_USEC + 123_456, BASE_USEC + 123_457, BASE_USEC + 1_000_098),
+				numbers(encoded, "end-time-usec"));
+		assertEquals(List.of(250L, 0L, 99L), numbers(encoded, "elapsed-time-usec"));
+	}
+
+	/**
+	 * Report the same events by appender and encoder, compare both outputs and return encoded one.
+	 */
+	private String assertEquivalent(EncoderFormat format, String sourceName, TimingMode timing,
+			Supplier<List<LoggingEvent>> events) throws IOException {
+		Path file = dir.resolve(sourceName + ".log");
+		System.setProperty("tnt4j.config", "inline:{\n" //
+				+ "source: *\n" //
+				+ "source.factory: com.jkoolcloud.tnt4j.source.SourceFactoryImpl\n" //
+				+ "source.factory.RootFQN: RUNTIME=?#SERVER=?\n" //
+				+ "tracker.factory: com.jkoolcloud.tnt4j.tracker.DefaultTrackerFactory\n" //
+				+ "dump.sink.factory: com.jkoolcloud.tnt4j.dump.DefaultDumpSinkFactory\n" //
+				+ "event.sink.factory: com.jkoolcloud.tnt4j.sink.impl.FileEventSinkFactory\n" //
+				+ "event.sink.factory.FileName: " + file.toString().replace('\\', '/') + "\n" //
+				+ "event.formatter: com.jkoolcloud.tnt4j.format."
+				+ (format == EncoderFormat.JSON ? "JSONFormatter" : "SimpleFormatter") + "\n" //
+				+ "tracking.selector: com.jkoolcloud.tnt4j.selector.DefaultTrackingSelector\n" //
+				+ "}");
+		context = new LoggerContext();
+		logger = context.getLogger(TNT4JEncoderTest.class);
+		logger.setLevel(Level.TRACE);
+
+		TNT4JAppender appender = new TNT4JAppender();
+		appender.setContext(context);
+		appender.setName("encoder");
+		appender.setSourceName(sourceName);
+		appender.setMarkers("*");
+		appender.setMetricsOnException(false);
+		appender.setMetricsFrequency(0);
+		appender.setJmx(false);
+		appender.setTiming(timing.name());
+		appender.start();
+		assertTrue(appender.isStarted(), "appender not started");
+
+		TNT4JEncoder encoder = new TNT4JEncoder();
+		encoder.setContext(context);
+		encoder.setSourceName(sourceName);
+		encoder.setFormat(format.name());
+		encoder.setMarkers("*");
+		encoder.setTiming(timing.name());
+		encoder.start();
+		assertTrue(encoder.isStarted(), "encoder not started");
+
+		StringBuilder encoded = new StringBuilder();
+		for (LoggingEvent event : events.get()) {
+			appender.doAppend(event);
+			encoded.append(new String(encoder.encode(event), StandardCharsets.UTF_8));
+		}
+		appender.stop();
+		encoder.stop();
+
+		String reported = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+		assertEquals(normalize(reported), normalize(encoded.toString()));
+		return encoded.toString();
+	}
+
+	private List<LoggingEvent> events(EncoderFormat format) {
+		// file sink writes in platform charset, while encoder writes UTF-8, so only JSON escaped text may be non-ASCII
+		String text = format == EncoderFormat.JSON ? "\"quoted\" \\ / \t \u00e9 \u2603 \ud83d\ude00"
+				: "\"quoted\" \\ / \t";
+		List<LoggingEvent> events = new ArrayList<>();
+		events.add(event(Level.INFO, "Order processed by remote service #elt=10", null));
+		events.add(event(Level.DEBUG, "Order processed #cid=order-1 #cid=order-2 #usr=john #loc=NY #opn=process"
+				+ " #%i/order-no=62627 #%d:currency/amount=50.45 #%d/ratio=NaN #tag=orders #tag=eu #rcd=3 #age=7"
+				+ " #elt=20", null));
+		events.add(event(Level.WARN, "Order {} " + text + " #cid={} #%d:currency/amount={}"
+				+ " #amount=2 #stt=1000 #ent=1500", null, 7, "order-7", 50.45));
+		LoggingEvent kv = event(Level.TRACE, "Order shipped #elt=30", null);
+		kv.addKeyValuePair(new KeyValuePair("cid", "order-8"));
+		kv.addKeyValuePair(new KeyValuePair("%l/order", 8L));
+		kv.addKeyValuePair(new KeyValuePair("flag", Boolean.TRUE));
+		events.add(kv);
+		LoggingEvent marked = event(Level.INFO, "Order audited #elt=40 #opt=SEND #sev=CRITICAL #ccd=WARNING", null);
+		marked.addMarker(MarkerFactory.getMarker("AUDIT"));
+		events.add(marked);
+		LoggingEvent noCaller = event(Level.INFO, "Order without caller #elt=50 #app=orders #rsn=queue", null);
+		noCaller.setCallerData(new StackTraceElement[0]);
+		events.add(noCaller);
+		events.add(event(Level.ERROR, "Order failed #elt=60",
+				new IllegalStateException("order \"7\" failed", new IOException("disk full"))));
+		return events;
+	}
+
+	private LoggingEvent event(Level level, String message, Throwable ex, Object... args) {
+		LoggingEvent event = new LoggingEvent(Logger.FQCN, logger, level, message, ex,
+				args.length == 0 ? null : args);
+		event.setCallerData(new StackTraceElement[] { CALLER });
+		event.setMDCPropertyMap(Collections.emptyMap());
+		return event;
+	}
+
+	private LoggingEvent timedEvent(String message, long offsetUsec) {
+		LoggingEvent event = event(Level.INFO, message, null);
+		event.setInstant(BASE.plusNanos(offsetUsec * 1000 + 789));
+		return event;
+	}
+
+	private static List<Long> numbers(String json, String label) {
+		List<Long> numbers = new ArrayList<>();
+		Matcher matcher = Pattern.compile("\"" + label + "\": (\\d+)").matcher(json);
+		while (matcher.find()) {
+			numbers.add(Long.parseLong(matcher.group(1)));
+		}
+		return numbers;
+	}
+
+	/**
+	 * Mask times taken when event is formatted.
+	 */
+	private static String normalize(String output) {
+		return output.replaceAll("(\"time-usec\": )\\d+", "$1?");
+	}
+}
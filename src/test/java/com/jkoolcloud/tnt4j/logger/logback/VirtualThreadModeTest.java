@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014-2024 JKOOL, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jkoolcloud.tnt4j.logger.logback;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.jkoolcloud.tnt4j.tracker.TrackingActivity;
+import com.jkoolcloud.tnt4j.tracker.TrackingEvent;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+/**
+ * Tests of virtual thread friendly mode of {@link TNT4JAppender}: events of virtual threads are dispatched
+ * asynchronously, activities are scoped to correlators instead of logging threads, and elapsed time is measured
+ * between events of the same correlator. Threads named with {@value #VIRTUAL} prefix are detected as virtual, so the
+ * tests run on any Java version.
+ *
+ * @version $Revision: 1 $
+ */
+class VirtualThreadModeTest {
+	private static final String VIRTUAL = "virtual-";
+	private static final Instant BASE = Instant.parse("2024-05-01T10:00:00Z");
+
+	private Predicate<Thread> detector;
+	private LoggerContext context;
+	private Logger logger;
+	private TNT4JAppender appender;
+	private int threads;
+
+	@BeforeEach
+	void setUp() {
+		System.setProperty("tnt4j.config", RecordingSinkFactory.config());
+		RecordingSinkFactory.SINKS.clear();
+		detector = VirtualThreads.setDetector(thread -> thread.getName().startsWith(VIRTUAL));
+
+		context = new LoggerContext();
+		logger = context.getLogger(VirtualThreadModeTest.class);
+		logger.setLevel(Level.TRACE);
+		appender = new TNT4JAppender();
+		appender.setContext(context);
+		appender.setName("virtual");
+		appender.setSourceName("com.jkoolcloud.virtual");
+		appender.setCallerData(CallerDataMode.NONE.name());
+		appender.setMetricsOnException(false);
+		appender.setMetricsFrequency(0);
+		appender.setJmx(false);
+		appender.setVirtualThreads(true);
+		appender.start();
+		assertTrue(appender.isStarted(), "appender not started");
+	}
+
+	@AfterEach
+	void tearDown() {
+		appender.stop();
+		context.stop();
+		VirtualThreads.setDetector(detector);
+	}
+
+	@Test
+	void scopesActivitiesToCorrelators() throws InterruptedException {
+		// every event is logged by another thread, so activity can be only referred to by its correlator
+		logOnVirtualThread(event("Order started #beg=Order #cid=order-1", 0));
+		logOnVirtualThread(event("Order packed #cid=order-1", 1));
+		logOnVirtualThread(event("Order queried #cid=order-2", 2));
+		logOnVirtualThread(event("Order shipped #cid=order-1", 3));
+		logOnVirtualThread(event("Order completed #end=Order #cid=order-1", 4));
+		appender.awaitDispatched();
+
+		RecordingSinkFactory.RecordingSink sink = RecordingSinkFactory.SINKS.get(0);
+		assertEquals(1, sink.activities.size());
+		TrackingActivity activity = sink.activities.get(0);
+		assertTrue(activity.getCorrelator().contains("order-1"), "activity correlators " + activity.getCorrelator());
+		assertEquals(2, appender.getStats().getActivityEvents());
+		assertEquals(1, appender.getStats().getDatagramEvents());
+		for (TrackingEvent tev : sink.events) {
+			boolean scoped = tev.getMessage().contains("#cid=order-1");
+			assertEquals(scoped ? activity.getTrackingId() : null, tev.getParentId(), tev.getMessage());
+		}
+	}
+
+	@Test
+	void measuresElapsedTimeBetweenEventsOfCorrelator() throws InterruptedException {
+		logOnVirtualThread(event("Order seq=0 #cid=order-1", 0));
+		logOnVirtualThread(event("Order seq=1 #cid=order-1", 1_500));
+		// logged by a late thread after a later event of the same correlator: no negative elapsed time
+		logOnVirtualThread(event("Order seq=2 #cid=order-1", 1_000));
+		logOnVirtualThread(event("Order seq=3 #cid=order-1", 4_000));
+		logOnVirtualThread(event("Order seq=4", 9_000));
+		appender.awaitDispatched();
+
+		List<Long> elapsed = new ArrayList<>();
+		for (TrackingEvent tev : RecordingSinkFactory.SINKS.get(0).events) {
+			elapsed.add(tev.getOperation().getElapsedTimeUsec());
+		}
+		assertEquals(List.of(0L, 1_500L, 0L, 2_500L, 0L), elapsed);
+	}
+
+	private LoggingEvent event(String message, long offsetUsec) {
+		LoggingEvent event = new LoggingEvent(Logger.FQCN, logger, Level.INFO, message, null, null);
+		event.setInstant(BASE.plusNanos(offsetUsec * 1000));
+		event.setMDCPropertyMap(Collections.emptyMap());
+		return event;
+	}
+
+	private void logOnVirtualThread(LoggingEvent event) throws InterruptedException {
+		Thread thread = new Thread(() -> appender.doAppend(event), VIRTUAL + threads++);
+		thread.start();
+		thread.join();
+	}
+}